@@ -40,6 +40,7 @@ import com.salesforce.androidsdk.mobilesync.util.ParentInfo
 import com.salesforce.androidsdk.mobilesync.util.SOQLBuilder
 import com.salesforce.androidsdk.mobilesync.util.SyncState.MergeMode
 import com.salesforce.androidsdk.rest.RestRequest
+import com.salesforce.androidsdk.smartstore.store.SmartStore
 import com.salesforce.androidsdk.util.JSONObjectHelper
 import org.json.JSONArray
 import org.json.JSONException
@@ -94,6 +95,11 @@ open class ParentChildrenSyncUpTarget(
         )
     }
 
+    // Dirty parents include parents with dirty children - not tracked by a change journal on the parent soup
+    override fun usesChangeJournal(store: SmartStore, soupName: String): Boolean {
+        return false
+    }
+
     override fun createOnServer(
         syncManager: SyncManager,
         record: JSONObject,
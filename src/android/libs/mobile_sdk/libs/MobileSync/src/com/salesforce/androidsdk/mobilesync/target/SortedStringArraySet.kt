@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.mobilesync.target
+
+import java.util.AbstractSet
+import java.util.Arrays
+import java.util.NoSuchElementException
+import java.util.SortedSet
+
+/**
+ * Sorted set of strings (natural ordering) backed by a sorted array
+ * Used for the ids returned by queries: built with a single sort of the query results, without a tree node per id
+ *
+ * NB: subSet, headSet and tailSet return copies (not views)
+ */
+internal class SortedStringArraySet(ids: Array<String>) : AbstractSet<String>(), SortedSet<String> {
+
+    @Suppress("UNCHECKED_CAST")
+    private var values: Array<String?> = ids as Array<String?>
+
+    override var size: Int = 0
+        private set
+
+    init {
+        Arrays.sort(ids)
+        // Dropping duplicates
+        for (id in ids) {
+            if (size == 0 || values[size - 1] != id) {
+                values[size++] = id
+            }
+        }
+        Arrays.fill(values, size, values.size, null)
+    }
+
+    override fun contains(element: String): Boolean {
+        return indexOf(element) >= 0
+    }
+
+    override fun add(element: String): Boolean {
+        val index = indexOf(element)
+        if (index >= 0) {
+            return false
+        }
+        val insertionIndex = -index - 1
+        if (size == values.size) {
+            values = values.copyOf(maxOf(16, size * 2))
+        }
+        System.arraycopy(values, insertionIndex, values, insertionIndex + 1, size - insertionIndex)
+        values[insertionIndex] = element
+        size++
+        return true
+    }
+
+    override fun remove(element: String): Boolean {
+        val index = indexOf(element)
+        if (index < 0) {
+            return false
+        }
+        removeAt(index)
+        return true
+    }
+
+    override fun removeAll(elements: Collection<String>): Boolean {
+        // Single compaction pass instead of one array copy per removed id
+        var count = 0
+        for (i in 0 until size) {
+            val value = values[i]!!
+            if (!elements.contains(value)) {
+                values[count++] = value
+            }
+        }
+        val removed = count < size
+        Arrays.fill(values, count, size, null)
+        size = count
+        return removed
+    }
+
+    override fun clear() {
+        Arrays.fill(values, 0, size, null)
+        size = 0
+    }
+
+    override fun iterator(): MutableIterator<String> {
+        return object : MutableIterator<String> {
+            private var next = 0
+            private var last = -1
+
+            override fun hasNext(): Boolean {
+                return next < size
+            }
+
+            override fun next(): String {
+                if (next >= size) throw NoSuchElementException()
+                last = next++
+                return values[last]!!
+            }
+
+            override fun remove() {
+                check(last >= 0)
+                removeAt(last)
+                next = last
+                last = -1
+            }
+        }
+    }
+
+    override fun comparator(): Comparator<in String>? {
+        return null
+    }
+
+    override fun first(): String {
+        if (size == 0) throw NoSuchElementException()
+        return values[0]!!
+    }
+
+    override fun last(): String {
+        if (size == 0) throw NoSuchElementException()
+        return values[size - 1]!!
+    }
+
+    override fun subSet(fromElement: String, toElement: String): SortedSet<String> {
+        require(fromElement <= toElement) { "fromElement > toElement" }
+        return copyOfRange(insertionIndex(fromElement), insertionIndex(toElement))
+    }
+
+    override fun headSet(toElement: String): SortedSet<String> {
+        return copyOfRange(0, insertionIndex(toElement))
+    }
+
+    override fun tailSet(fromElement: String): SortedSet<String> {
+        return copyOfRange(insertionIndex(fromElement), size)
+    }
+
+    private fun indexOf(element: String): Int {
+        return Arrays.binarySearch(values, 0, size, element)
+    }
+
+    private fun insertionIndex(element: String): Int {
+        val index = indexOf(element)
+        return if (index >= 0) index else -index - 1
+    }
+
+    private fun removeAt(index: Int) {
+        System.arraycopy(values, index + 1, values, index, size - index - 1)
+        values[--size] = null
+    }
+
+    private fun copyOfRange(fromIndex: Int, toIndex: Int): SortedSet<String> {
+        @Suppress("UNCHECKED_CAST")
+        return SortedStringArraySet(Arrays.copyOfRange(values, fromIndex, toIndex) as Array<String>)
+    }
+}
@@ -29,8 +29,10 @@ package com.salesforce.androidsdk.mobilesync.target
 import android.text.TextUtils
 import android.text.TextUtils.join
 import com.salesforce.androidsdk.mobilesync.manager.SyncManager
+import com.salesforce.androidsdk.mobilesync.manager.SyncManager.MobileSyncException
 import com.salesforce.androidsdk.mobilesync.util.Constants
 import com.salesforce.androidsdk.mobilesync.util.MobileSyncLogger
+import com.salesforce.androidsdk.smartstore.store.IndexSpec
 import com.salesforce.androidsdk.smartstore.store.QuerySpec
 import com.salesforce.androidsdk.smartstore.store.SmartStore
 import com.salesforce.androidsdk.util.JSONObjectHelper
@@ -39,7 +41,6 @@ import org.json.JSONException
 import org.json.JSONObject
 import java.lang.Long.valueOf
 import java.util.SortedSet
-import java.util.TreeSet
 
 /**
  * Abstract super class for SyncUpTarget and SyncDownTarget
@@ -132,17 +133,8 @@ abstract class SyncTarget @JvmOverloads constructor(
 
     @Throws(JSONException::class)
     protected fun getIdsWithQuery(syncManager: SyncManager, idsSql: String): SortedSet<String> {
-        val ids: SortedSet<String> = TreeSet()
-        val smartQuerySpec = QuerySpec.buildSmartQuerySpec(idsSql, PAGE_SIZE)
-        var hasMore = true
-        var pageIndex = 0
-        while (hasMore) {
-            val results = syncManager.smartStore.query(smartQuerySpec, pageIndex)
-            hasMore = results.length() == PAGE_SIZE
-            ids.addAll(toSortedSet(results))
-            pageIndex++
-        }
-        return ids
+        val smartQuerySpec = QuerySpec.buildSmartQuerySpec(idsSql, Int.MAX_VALUE)
+        return SortedStringArraySet(syncManager.smartStore.queryStringColumn(smartQuerySpec))
     }
 
     /**
@@ -235,17 +227,22 @@ abstract class SyncTarget @JvmOverloads constructor(
         synchronized(smartStore.database) {
             try {
                 smartStore.beginTransaction()
+                // Consecutive records from server are upserted in bulk - records are still saved in order
+                val recordsToUpsert = ArrayList<JSONObject>(records.length())
                 for (i in 0 until records.length()) {
                     val record = JSONObject(records.getJSONObject(i).toString())
                     addSyncId(record, syncId)
-                    cleanAndSaveInSmartStore(
-                        syncManager.smartStore,
-                        soupName,
-                        record,
-                        idFieldName,
-                        false
-                    )
+                    cleanRecord(record)
+                    if (record.has(SmartStore.SOUP_ENTRY_ID)) {
+                        // Record came from smartstore
+                        upsertAllAndClear(smartStore, soupName, recordsToUpsert)
+                        saveInSmartStore(smartStore, soupName, record, idFieldName, false)
+                    } else {
+                        // Record came from server
+                        recordsToUpsert.add(record)
+                    }
                 }
+                upsertAllAndClear(smartStore, soupName, recordsToUpsert)
                 smartStore.setTransactionSuccessful()
             } finally {
                 smartStore.endTransaction()
@@ -253,6 +250,17 @@ abstract class SyncTarget @JvmOverloads constructor(
         }
     }
 
+    private fun upsertAllAndClear(
+        smartStore: SmartStore,
+        soupName: String,
+        records: MutableList<JSONObject>
+    ) {
+        if (records.isNotEmpty()) {
+            smartStore.upsertAll(soupName, records, idFieldName, false)
+            records.clear()
+        }
+    }
+
     @Throws(JSONException::class)
     fun addSyncId(record: JSONObject, syncId: Long) {
         if (syncId >= 0) {
@@ -283,15 +291,6 @@ abstract class SyncTarget @JvmOverloads constructor(
         }
     }
 
-    @Throws(JSONException::class)
-    private fun toSortedSet(jsonArray: JSONArray): SortedSet<String> {
-        val set: SortedSet<String> = TreeSet()
-        for (i in 0 until jsonArray.length()) {
-            set.add(jsonArray.getJSONArray(i).getString(0))
-        }
-        return set
-    }
-
     /**
      * Given a record, return true if it was locally created
      * @param record
@@ -385,6 +384,9 @@ abstract class SyncTarget @JvmOverloads constructor(
         const val LOCAL = "__local__"
         const val LOCAL_ID_PREFIX = "local_"
 
+        // Predicate of the partial index on locally modified records
+        const val DIRTY_PREDICATE = "= 'true'"
+
         // Field added to record to capture last sync error if any
         const val LAST_ERROR = "__last_error__"
 
@@ -392,8 +394,39 @@ abstract class SyncTarget @JvmOverloads constructor(
         const val SYNC_ID = "__sync_id__"
         private const val TAG = "SyncTarget"
 
-        // Page size used when reading from smartstore
-        private const val PAGE_SIZE = 2000
+        /**
+         * Return index spec for a partial index on locally modified records
+         * Include it in the index specs of the soup when registering it:
+         * finding dirty records then takes time proportional to the number of dirty records instead of the size of the soup
+         * @return index spec on __local__ only indexing locally modified records
+         */
+        @JvmStatic
+        fun getDirtyRecordsIndexSpec(): IndexSpec {
+            return IndexSpec(LOCAL, SmartStore.Type.string).withPredicate(DIRTY_PREDICATE)
+        }
+
+        /**
+         * Add the partial index on locally modified records to an existing soup if it has no index on __local__
+         * NB: this alters the soup (all its records are copied and re-indexed) - it is never called by sync,
+         *     apps opt in by calling it explicitly e.g. when upgrading, while no sync is running
+         * @param store
+         * @param soupName
+         */
+        @JvmStatic
+        fun addDirtyRecordsIndex(store: SmartStore, soupName: String) {
+            if (!store.hasSoup(soupName) || store.hasIndexForPath(soupName, LOCAL)) {
+                return
+            }
+            val indexSpecs = store.getSoupIndexSpecs(soupName).toMutableList()
+            indexSpecs.add(getDirtyRecordsIndexSpec())
+            MobileSyncLogger.i(TAG, "Adding partial index on $LOCAL to soup $soupName")
+            try {
+                store.alterSoup(soupName, indexSpecs.toTypedArray(), true)
+            } catch (e: JSONException) {
+                throw MobileSyncException(cause = e)
+            }
+        }
+
         const val ANDROID_IMPL = "androidImpl"
         const val ID_FIELD_NAME = "idFieldName"
         const val MODIFICATION_DATE_FIELD_NAME = "modificationDateFieldName"
@@ -491,13 +491,37 @@ open class SyncUpTarget : SyncTarget {
 
     /**
      * Return ids of records to sync up
+     * Read from the soup's change journal (in the order records were modified) when the target can use it (see usesChangeJournal)
+     * and from a query on the soup otherwise
      * @param syncManager
      * @param soupName
      * @return
      */
     @Throws(JSONException::class)
     fun getIdsOfRecordsToSyncUp(syncManager: SyncManager, soupName: String): Set<String> {
-        return getDirtyRecordIds(syncManager, soupName, SmartStore.SOUP_ENTRY_ID)
+        val store = syncManager.smartStore
+        if (!usesChangeJournal(store, soupName)) {
+            return getDirtyRecordIds(syncManager, soupName, SmartStore.SOUP_ENTRY_ID)
+        }
+
+        // NB: records leave the journal when they are saved back as clean or deleted after being synced up
+        val ids = LinkedHashSet<String>()
+        for (soupEntryId in store.getChangeJournalSoupEntryIds(soupName)) {
+            ids.add(soupEntryId.toString())
+        }
+        return ids
+    }
+
+    /**
+     * Return true if ids of records to sync up can be read from the soup's change journal
+     * i.e. the application enabled one on the soup (see SmartStore.enableChangeJournal) tracking the __local__ field
+     * Targets with their own definition of dirty records (see getDirtyRecordIdsSql) should return false
+     * @param store
+     * @param soupName
+     * @return
+     */
+    protected open fun usesChangeJournal(store: SmartStore, soupName: String): Boolean {
+        return LOCAL == store.getChangeJournalDirtyPath(soupName)
     }
 
     /**
@@ -51,6 +51,8 @@ public final class PluginConstants {
 
     static final String QUERY_SPEC = "querySpec";
 
+    static final String COLUMNAR = "columnar";
+
     static final String EXTERNAL_ID_PATH = "externalIdPath";
 
     static final String ENTRIES = "entries";
@@ -26,6 +26,7 @@
  */
 package com.salesforce.androidsdk.phonegap.plugin;
 
+import static com.salesforce.androidsdk.phonegap.plugin.PluginConstants.COLUMNAR;
 import static com.salesforce.androidsdk.phonegap.plugin.PluginConstants.CURSOR_ID;
 import static com.salesforce.androidsdk.phonegap.plugin.PluginConstants.ENTRIES;
 import static com.salesforce.androidsdk.phonegap.plugin.PluginConstants.ENTRY_IDS;
@@ -42,6 +43,7 @@ import static com.salesforce.androidsdk.phonegap.plugin.PluginConstants.STORE_NA
 import static com.salesforce.androidsdk.phonegap.plugin.PluginConstants.TYPE;
 
 import android.app.Activity;
+import android.util.Pair;
 import android.util.SparseArray;
 
 import com.salesforce.androidsdk.accounts.UserAccount;
@@ -54,6 +56,7 @@ import com.salesforce.androidsdk.smartstore.store.QuerySpec;
 import com.salesforce.androidsdk.smartstore.store.QuerySpec.QueryType;
 import com.salesforce.androidsdk.smartstore.store.SmartStore;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SoupChangeListener;
 import com.salesforce.androidsdk.smartstore.store.StoreCursor;
 import com.salesforce.androidsdk.smartstore.ui.SmartStoreInspectorActivity;
 
@@ -67,6 +70,7 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -89,12 +93,62 @@ public class SmartStorePlugin extends ForcePlugin {
 		return STORE_CURSORS.get(db);
 	}
 
+	// Map of database to soup change listener forwarding changes to javascript (at most one per database) and store it is registered with
+	private static Map<SQLiteDatabase, Pair<SmartStore, SoupChangeListener>> SOUP_CHANGE_LISTENERS = new HashMap<>();
+
+	/**
+	 * Unregister all soup change listeners (their callbacks belong to the page being unloaded)
+	 * NB: listeners of closed databases were already dropped when the databases were closed
+	 */
+	private static void removeSoupChangeListeners() {
+		synchronized (SOUP_CHANGE_LISTENERS) {
+			for (Map.Entry<SQLiteDatabase, Pair<SmartStore, SoupChangeListener>> entry : SOUP_CHANGE_LISTENERS.entrySet()) {
+				if (entry.getKey().isOpen()) {
+					entry.getValue().first.unregisterSoupChangeListener(entry.getValue().second);
+				}
+			}
+			SOUP_CHANGE_LISTENERS.clear();
+		}
+	}
+
+	/**
+	 * Forget soup change listeners of databases that were closed i.e. of the stores just removed (other stores keep theirs)
+	 * NB: the listeners themselves were dropped when the databases were closed
+	 */
+	private static void removeSoupChangeListenersOfClosedDatabases() {
+		synchronized (SOUP_CHANGE_LISTENERS) {
+			Iterator<SQLiteDatabase> iterator = SOUP_CHANGE_LISTENERS.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (!iterator.next().isOpen()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
 	private static boolean useQueryAsString = true;
 
 	protected static void setUseQueryAsString(boolean b) {
 		useQueryAsString = b;
 	}
 
+	private static boolean useWriteQueue = false;
+
+	/**
+	 * When enabled, pgUpsertSoupEntries calls go through the store's write queue:
+	 * upserts issued close together are committed in a single transaction
+	 * @param b
+	 */
+	public static void setUseWriteQueue(boolean b) {
+		useWriteQueue = b;
+	}
+
+	@Override
+	public void onReset() {
+		super.onReset();
+		removeSoupChangeListeners();
+	}
+
 	/**
 	 * Supported plugin actions that the client can take.
 	 */
@@ -107,6 +161,7 @@ public class SmartStorePlugin extends ForcePlugin {
 		pgMoveCursorToPageIndex,
 		pgQuerySoup,
 		pgRegisterSoup,
+		pgRegisterSoupChangeListener,
 		pgReIndexSoup,
 		pgRemoveFromSoup,
 		pgRemoveSoup,
@@ -114,6 +169,7 @@ public class SmartStorePlugin extends ForcePlugin {
 		pgRunSmartQuery,
 		pgShowInspector,
 		pgSoupExists,
+		pgUnregisterSoupChangeListener,
 		pgUpsertSoupEntries,
 		pgGetAllGlobalStores,
 		pgGetAllStores,
@@ -154,6 +210,7 @@ public class SmartStorePlugin extends ForcePlugin {
 		                  case pgMoveCursorToPageIndex: moveCursorToPageIndex(args, callbackContext); break;
 		                  case pgQuerySoup:             querySoup(args, callbackContext); break;
 		                  case pgRegisterSoup:          registerSoup(args, callbackContext); break;
+		                  case pgRegisterSoupChangeListener: registerSoupChangeListener(args, callbackContext); break;
 		                  case pgReIndexSoup:			reIndexSoup(args, callbackContext); break;
 		                  case pgRemoveFromSoup:        removeFromSoup(args, callbackContext); break;
 		                  case pgRemoveSoup:            removeSoup(args, callbackContext); break;
@@ -161,6 +218,7 @@ public class SmartStorePlugin extends ForcePlugin {
 		                  case pgRunSmartQuery:         runSmartQuery(args, callbackContext); break;
 		                  case pgShowInspector:         showInspector(args, callbackContext); break;
 		                  case pgSoupExists:            soupExists(args, callbackContext); break;
+		                  case pgUnregisterSoupChangeListener: unregisterSoupChangeListener(args, callbackContext); break;
 		                  case pgUpsertSoupEntries:     upsertSoupEntries(args, callbackContext); break;
 						  case pgGetAllGlobalStores:    getAllGlobalStorePrefixes(args, callbackContext); break;
 						  case pgGetAllStores:    		getAllStorePrefixes(args, callbackContext); break;
@@ -372,6 +430,7 @@ public class SmartStorePlugin extends ForcePlugin {
                 SmartStoreSDKManager.getInstance().removeSmartStore(storeName, account, account.getCommunityId());
             }
         }
+		removeSoupChangeListenersOfClosedDatabases();
 		final PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, true);
 		callbackContext.sendPluginResult(pluginResult);
 	}
@@ -384,6 +443,7 @@ public class SmartStorePlugin extends ForcePlugin {
 	 */
 	private void removeAllGlobalStores(JSONArray args, CallbackContext callbackContext) throws JSONException {
 		SmartStoreSDKManager.getInstance().removeAllGlobalStores();
+		removeSoupChangeListenersOfClosedDatabases();
 		PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, true);
 		callbackContext.sendPluginResult(pluginResult);
 	}
@@ -396,6 +456,7 @@ public class SmartStorePlugin extends ForcePlugin {
 	 */
     private void removeAllStores(JSONArray args, CallbackContext callbackContext) throws JSONException {
 		SmartStoreSDKManager.getInstance().removeAllUserStores();
+		removeSoupChangeListenersOfClosedDatabases();
 		PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, true);
 		callbackContext.sendPluginResult(pluginResult);
 	}
@@ -421,21 +482,30 @@ public class SmartStorePlugin extends ForcePlugin {
 			entries.add(entriesJson.getJSONObject(i));
 		}
 
-		// Run upsert
-		synchronized(smartStore.getDatabase()) {
-			smartStore.beginTransaction();
-			try {
-				JSONArray results = new JSONArray();
-				for (JSONObject entry : entries) {
-					results.put(smartStore.upsert(soupName, entry, externalIdPath, false));
+		// Run upsert through write queue - callback is invoked once the upsert is committed
+		if (useWriteQueue) {
+			smartStore.getWriteQueue().upsert(soupName, entries, externalIdPath).whenComplete((upserted, e) -> {
+				if (e != null) {
+					SalesforceHybridLogger.w(TAG, "upsertSoupEntries failed", e);
+					callbackContext.error(e.getMessage());
+				} else {
+					sendUpsertResults(upserted, callbackContext);
 				}
-				smartStore.setTransactionSuccessful();
-				PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, results);
-				callbackContext.sendPluginResult(pluginResult);
-			} finally {
-				smartStore.endTransaction();
-			}
+			});
+			return;
 		}
+
+		// Run upsert
+		sendUpsertResults(smartStore.upsertAll(soupName, entries, externalIdPath), callbackContext);
+	}
+
+	private void sendUpsertResults(List<JSONObject> upserted, CallbackContext callbackContext) {
+		JSONArray results = new JSONArray();
+		for (JSONObject result : upserted) {
+			results.put(result);
+		}
+		PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, results);
+		callbackContext.sendPluginResult(pluginResult);
 	}
 
 	/**
@@ -479,7 +549,7 @@ public class SmartStorePlugin extends ForcePlugin {
 		}
 
 		// Run query
-		runQuery(smartStore, querySpec, callbackContext);
+		runQuery(smartStore, querySpec, querySpecJson.optBoolean(COLUMNAR), callbackContext);
 	}
 
 	/**
@@ -499,20 +569,21 @@ public class SmartStorePlugin extends ForcePlugin {
 		}
 
 		// Run query
-		runQuery(smartStore, querySpec, callbackContext);
+		runQuery(smartStore, querySpec, querySpecJson.optBoolean(COLUMNAR), callbackContext);
 	}
 
 	/**
 	 * Helper for querySoup and runSmartSql
 	 * @param querySpec
+	 * @param columnar true to return pages in columnar format (see ColumnarResult)
 	 * @param callbackContext CallbackContext for plugin
 	 * @throws JSONException
 	 */
-	private void runQuery(SmartStore smartStore, QuerySpec querySpec,
+	private void runQuery(SmartStore smartStore, QuerySpec querySpec, boolean columnar,
 			CallbackContext callbackContext) throws JSONException {
 
 		// Build store cursor
-		final StoreCursor storeCursor = new StoreCursor(smartStore, querySpec);
+		final StoreCursor storeCursor = new StoreCursor(smartStore, querySpec, columnar);
 		getSmartStoreCursors(smartStore).put(storeCursor.cursorId, storeCursor);
 
 		// Build json result
@@ -522,6 +593,79 @@ public class SmartStorePlugin extends ForcePlugin {
 		callbackContext.success(result);
 	}
 
+	/**
+	 * Native implementation of pgRegisterSoupChangeListener
+	 * The callback is kept: it gets a {soupName, entryIds} result every time a transaction changing a soup of the store commits
+	 * @param args JSONArray with arguments from JS
+	 * @param callbackContext CallbackContext for plugin
+	 * @throws Exception
+	 */
+	private void registerSoupChangeListener(JSONArray args, final CallbackContext callbackContext) throws Exception {
+
+		// Parse args
+		JSONObject arg0 = args.optJSONObject(0);
+		final SmartStore smartStore = getSmartStore(arg0);
+
+		// Replace listener (if any)
+		SoupChangeListener listener = new SoupChangeListener() {
+			@Override
+			public void onSoupChanged(String soupName, long[] soupEntryIds) {
+				try {
+					JSONObject change = new JSONObject();
+					change.put(SOUP_NAME, soupName);
+					if (soupEntryIds != null) {
+						JSONArray entryIds = new JSONArray();
+						for (long soupEntryId : soupEntryIds) {
+							entryIds.put(soupEntryId);
+						}
+						change.put(ENTRY_IDS, entryIds);
+					} else {
+						change.put(ENTRY_IDS, JSONObject.NULL);
+					}
+					PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, change);
+					pluginResult.setKeepCallback(true);
+					callbackContext.sendPluginResult(pluginResult);
+				} catch (JSONException e) {
+					SalesforceHybridLogger.e(TAG, "Could not send change of soup: " + soupName, e);
+				}
+			}
+		};
+		synchronized (SOUP_CHANGE_LISTENERS) {
+			Pair<SmartStore, SoupChangeListener> previous = SOUP_CHANGE_LISTENERS.put(smartStore.getDatabase(), new Pair<>(smartStore, listener));
+			if (previous != null) {
+				smartStore.unregisterSoupChangeListener(previous.second);
+			}
+			smartStore.registerSoupChangeListener(listener);
+		}
+
+		// Done (keeping callback)
+		PluginResult noop = new PluginResult(PluginResult.Status.NO_RESULT);
+		noop.setKeepCallback(true);
+		callbackContext.sendPluginResult(noop);
+	}
+
+	/**
+	 * Native implementation of pgUnregisterSoupChangeListener
+	 * @param args JSONArray with arguments from JS
+	 * @param callbackContext CallbackContext for plugin
+	 * @throws Exception
+	 */
+	private void unregisterSoupChangeListener(JSONArray args, CallbackContext callbackContext) throws Exception {
+
+		// Parse args
+		JSONObject arg0 = args.optJSONObject(0);
+		final SmartStore smartStore = getSmartStore(arg0);
+
+		// Run unregister
+		synchronized (SOUP_CHANGE_LISTENERS) {
+			Pair<SmartStore, SoupChangeListener> registered = SOUP_CHANGE_LISTENERS.remove(smartStore.getDatabase());
+			if (registered != null) {
+				smartStore.unregisterSoupChangeListener(registered.second);
+			}
+		}
+		callbackContext.success();
+	}
+
 	/**
 	 * Native implementation of pgRemoveSoup
 	 * @param args JSONArray with arguments from JS
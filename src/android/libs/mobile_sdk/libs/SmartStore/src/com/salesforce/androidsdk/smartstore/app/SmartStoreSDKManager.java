@@ -57,6 +57,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * SDK Manager for all native applications that use SmartStore
@@ -420,6 +421,32 @@ public class SmartStoreSDKManager extends SalesforceSDKManager {
         DBOpenHelper.deleteAllDatabases(getAppContext(), account);
     }
 
+    /**
+     * Opens the default smart stores (global and current user's, if they exist) on a background thread
+     * and loads table names and index specs of their soups into the caches, so that the first queries
+     * (typically from the UI) don't pay for opening the database and filling the caches.
+     *
+     * @return Future completed once the warm-up is done.
+     */
+    public CompletableFuture<Void> warmUpSmartStores() {
+        final UserAccount account = getUserAccountManager().getCachedCurrentUser();
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                int soupCount = 0;
+                if (hasGlobalSmartStore(null)) {
+                    soupCount += getGlobalSmartStore().warmUp();
+                }
+                if (account != null && hasSmartStore(account)) {
+                    soupCount += getSmartStore(account).warmUp();
+                }
+                SmartStoreLogger.i(TAG, String.format("Warmed up smart stores with %d soups in %d ms",
+                        soupCount, (System.nanoTime() - start) / 1000000));
+            }
+        });
+    }
+
     /**
      * Setup global store using config found in res/raw/globalstore.json
      */
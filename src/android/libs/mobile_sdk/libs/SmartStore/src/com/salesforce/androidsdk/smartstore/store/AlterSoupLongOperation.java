@@ -33,6 +33,7 @@ import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException
 import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -60,8 +61,13 @@ public class AlterSoupLongOperation extends LongOperation {
 	private static final String OLD_INDEX_SPECS = "oldIndexSpecs";
 	private static final String NEW_INDEX_SPECS = "newIndexSpecs";
 	private static final String RE_INDEX_DATA = "reIndexData";
+	private static final String LAST_COPIED_ID = "lastCopiedId";
+	private static final String LAST_RE_INDEXED_ID = "lastReIndexedId";
 	public static final String TAG = "AlterSoup:Status";
 
+	// Number of soup elements copied / re-indexed per transaction
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
 	/**
      * Enum for alter steps
      */
@@ -103,6 +109,15 @@ public class AlterSoupLongOperation extends LongOperation {
 	
 	// Row id for long_operations_status
 	private long rowId;
+
+	// Soup entry id of last soup element copied during COPY_TABLE step (-1 if none yet)
+	private long lastCopiedId = -1;
+
+	// Soup entry id of last soup element re-indexed during RE_INDEX_SOUP step (-1 if none yet)
+	private long lastReIndexedId = -1;
+
+	// Number of soup elements copied / re-indexed per transaction
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
 	
 	/**
 	 * Default constructor when reading back from long operations status table
@@ -171,6 +186,22 @@ public class AlterSoupLongOperation extends LongOperation {
 		alterSoupInternal(toStep);
 	}
 	
+	/**
+	 * Used by test only
+	 * @param chunkSize number of soup elements copied / re-indexed per transaction
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Used by test only
+	 * @return soup entry id of last soup element copied during COPY_TABLE step (-1 if none yet)
+	 */
+	public long getLastCopiedId() {
+		return lastCopiedId;
+	}
+
 	/**
 	 * @return last step completed
 	 */
@@ -192,6 +223,8 @@ public class AlterSoupLongOperation extends LongOperation {
 		this.oldIndexSpecs = IndexSpec.fromJSON(details.getJSONArray(OLD_INDEX_SPECS));
 		this.reIndexData = details.getBoolean(RE_INDEX_DATA);
 		this.soupTableName = details.getString(SOUP_TABLE_NAME);
+		this.lastCopiedId = details.optLong(LAST_COPIED_ID, -1);
+		this.lastReIndexedId = details.optLong(LAST_RE_INDEXED_ID, -1);
 	}
 
 
@@ -280,6 +313,7 @@ public class AlterSoupLongOperation extends LongOperation {
 
 			// Remove from cache
 			DBHelper.getInstance(db).removeFromCache(soupName);
+			SmartSqlHelper.getInstance(db).removeFromCache(soupName);
 
 			// Update row in alter status table
 			updateLongOperationDbRow(AlterSoupStep.DROP_OLD_INDEXES);
@@ -314,29 +348,67 @@ public class AlterSoupLongOperation extends LongOperation {
 
 	/**
 	 * Step 4: copy data from old soup table to new soup table
+	 * Data is copied in chunks of soup entry ids, one transaction per chunk, to keep transactions (and the WAL) small
+	 * Progress is saved in the alter status table after each chunk so that an interrupted copy resumes from the last chunk copied
+	 * NB: the soup already uses the new table, so the lock on the database is held until all chunks are copied,
+	 *     otherwise writes between chunks would miss (or be overwritten by) soup elements not copied yet
 	 */
 	protected void copyTable() {
-		db.beginTransaction();
-		try {
-			// We need column names in the index specs
-			this.newIndexSpecs = store.getSoupIndexSpecs(soupName);
-		
-			// Move data (core columns + indexed paths that we are still indexing)
-			copyOldData();
-
-			// Update row in alter status table 
-			updateLongOperationDbRow(AlterSoupStep.COPY_TABLE);
+		synchronized(db) {
+			while (copyTableChunk()) {
+				// Keep going
+			}
 
-            db.setTransactionSuccessful();
+			// Update row in alter status table
+			db.beginTransaction();
+			try {
+				updateLongOperationDbRow(AlterSoupStep.COPY_TABLE);
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
 		}
-		finally {
-			db.endTransaction();
+	}
+
+	/**
+	 * Copy next chunk of data from old soup table to new soup table
+	 * Also used by tests to simulate a copy interrupted after some chunks
+	 * @return true if a chunk was copied and false if there was nothing left to copy
+	 */
+	boolean copyTableChunk() {
+		synchronized(db) {
+			db.beginTransaction();
+			try {
+				// We need column names in the index specs
+				this.newIndexSpecs = store.getSoupIndexSpecs(soupName);
+
+				// Soup elements created in new table before copy completes should not reuse ids of soup elements not copied yet
+				if (lastCopiedId == -1) {
+					reserveOldIds();
+				}
+
+				long chunkEndId = getChunkEndId(getOldSoupTableName(), lastCopiedId);
+				if (chunkEndId != -1) {
+					// Move data (core columns + indexed paths that we are still indexing)
+					copyOldData(lastCopiedId, chunkEndId);
+					lastCopiedId = chunkEndId;
+					updateLongOperationDbRowDetails();
+				}
+
+				db.setTransactionSuccessful();
+				return chunkEndId != -1;
+			}
+			finally {
+				db.endTransaction();
+			}
 		}
 	}
 
 
 	/**
 	 * Step 5: re-index soup for new indexes (optional step)
+	 * Soup elements are re-indexed in chunks, one transaction per chunk, with progress saved after each chunk (like the copy step)
 	 */
 	protected void reIndexSoup() {
 		// Putting path--type of old index specs in a set
@@ -352,10 +424,29 @@ public class AlterSoupLongOperation extends LongOperation {
 				indexPaths.add(indexSpec.path);
 			}
 		}
-		
+
+		boolean done = false;
+		while (!done) {
+			synchronized(db) {
+				db.beginTransaction();
+				try {
+					long lastId = store.reIndexSoup(soupName, indexPaths.toArray(new String[0]), false, lastReIndexedId, chunkSize);
+					if (lastId == -1) {
+						done = true;
+					} else {
+						lastReIndexedId = lastId;
+						updateLongOperationDbRowDetails();
+					}
+					db.setTransactionSuccessful();
+				}
+				finally {
+					db.endTransaction();
+				}
+			}
+		}
+
 		db.beginTransaction();
         try {
-            store.reIndexSoup(soupName, indexPaths.toArray(new String[0]), false);
             updateLongOperationDbRow(AlterSoupStep.RE_INDEX_SOUP);
 
             db.setTransactionSuccessful();
@@ -423,6 +514,8 @@ public class AlterSoupLongOperation extends LongOperation {
     	details.put(OLD_INDEX_SPECS, IndexSpec.toJSON(oldIndexSpecs));
     	details.put(NEW_INDEX_SPECS, IndexSpec.toJSON(newIndexSpecs));
     	details.put(RE_INDEX_DATA, reIndexData);
+    	details.put(LAST_COPIED_ID, lastCopiedId);
+    	details.put(LAST_RE_INDEXED_ID, lastReIndexedId);
 		return details;
 	}
 	
@@ -447,12 +540,53 @@ public class AlterSoupLongOperation extends LongOperation {
         SmartStoreLogger.i(TAG, soupName + " " + newStatus);
 	}
 	
+	/**
+	 * Save progress of on-going step (ids of last soup element copied / re-indexed) in row in long operations status table
+	 */
+	protected void updateLongOperationDbRowDetails() {
+		try {
+			ContentValues contentValues = new ContentValues();
+			contentValues.put(SmartStore.DETAILS_COL, getDetails().toString());
+			contentValues.put(SmartStore.LAST_MODIFIED_COL, System.currentTimeMillis());
+			DBHelper.getInstance(db).update(db, SmartStore.LONG_OPERATIONS_STATUS_TABLE, contentValues, SmartStore.ID_PREDICATE, rowId + "");
+		} catch (JSONException e) {
+			throw new SmartStoreException("Could not save progress of alter soup", e);
+		}
+	}
+
 	/**
 	 * Helper method
-	 *
-	 * @return insert statement to copy data from soup old backing table to soup new backing table
+	 * Make sure ids handed out by the new soup table are greater than all the ids of the old soup table
 	 */
-	private void copyOldData() {
+	private void reserveOldIds() {
+		long maxOldId = simpleQueryForLong("SELECT IFNULL(MAX(" + SmartStore.ID_COL + "), 0) FROM " + getOldSoupTableName());
+		db.execSQL("UPDATE SQLITE_SEQUENCE SET seq = ? WHERE name = ? AND seq < ?", new Object[] { maxOldId, soupTableName, maxOldId });
+		db.execSQL("INSERT INTO SQLITE_SEQUENCE (name, seq) SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM SQLITE_SEQUENCE WHERE name = ?)", new Object[] { soupTableName, maxOldId, soupTableName });
+	}
+
+	/**
+	 * Helper method
+	 * @return id of last row of the chunk of rows of table with an id greater than afterId, or -1 if there are no such rows
+	 */
+	private long getChunkEndId(String table, long afterId) {
+		return simpleQueryForLong(String.format("SELECT IFNULL(MAX(%s), -1) FROM (SELECT %s FROM %s WHERE %s > %d ORDER BY %s LIMIT %d)",
+				SmartStore.ID_COL, SmartStore.ID_COL, table, SmartStore.ID_COL, afterId, SmartStore.ID_COL, chunkSize));
+	}
+
+	private long simpleQueryForLong(String sql) {
+		SQLiteStatement statement = db.compileStatement(sql);
+		try {
+			return statement.simpleQueryForLong();
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Helper method
+	 * Copy data of rows with an id in (fromId, toId] from soup old backing table to soup new backing table
+	 */
+	private void copyOldData(long fromId, long toId) {
 		Map<String, IndexSpec> mapOldSpecs = IndexSpec.mapForIndexSpecs(oldIndexSpecs);
 		Map<String, IndexSpec> mapNewSpecs = IndexSpec.mapForIndexSpecs(newIndexSpecs);
 
@@ -473,6 +607,12 @@ public class AlterSoupLongOperation extends LongOperation {
 			newColumns.add(column);
 		}
 
+		// Keeping content hashes (unless old table predates them)
+		if (SmartStore.hasColumn(db, getOldSoupTableName(), SmartStore.CONTENT_HASH_COL)) {
+			oldColumns.add(SmartStore.CONTENT_HASH_COL);
+			newColumns.add(SmartStore.CONTENT_HASH_COL);
+		}
+
 		// Adding indexed path columns that we are keeping 
 		for (String keptPath : keptPaths) {
 			IndexSpec oldIndexSpec = mapOldSpecs.get(keptPath);
@@ -490,12 +630,13 @@ public class AlterSoupLongOperation extends LongOperation {
 		}
 
 		// Compute copy statement
+		String chunkPredicate = String.format(" WHERE %s > ? AND %s <= ?", SmartStore.ID_COL, SmartStore.ID_COL);
 		String copyToSoupTable = String.format("INSERT INTO %s (%s) SELECT %s FROM %s",
 							soupTableName, TextUtils.join(",", newColumns),
-							TextUtils.join(",", oldColumns), getOldSoupTableName());
+							TextUtils.join(",", oldColumns), getOldSoupTableName()) + chunkPredicate;
 
 		// Execute copy
-		db.execSQL(copyToSoupTable);
+		db.execSQL(copyToSoupTable, new Object[] { fromId, toId });
 
 		// Fts
 		if (IndexSpec.hasFTS(newIndexSpecs)) {
@@ -523,10 +664,10 @@ public class AlterSoupLongOperation extends LongOperation {
 			// Compute copy statement for fts table
 			String copyToFtsTable = String.format("INSERT INTO %s%s (%s) SELECT %s FROM %s",
 					soupTableName, SmartStore.FTS_SUFFIX, TextUtils.join(",", newColumnsFts),
-					TextUtils.join(",", oldColumnsFts), getOldSoupTableName());
+					TextUtils.join(",", oldColumnsFts), getOldSoupTableName()) + chunkPredicate;
 
 			// Execute copy
-			db.execSQL(copyToFtsTable);
+			db.execSQL(copyToFtsTable, new Object[] { fromId, toId });
 		}
 	}
 	
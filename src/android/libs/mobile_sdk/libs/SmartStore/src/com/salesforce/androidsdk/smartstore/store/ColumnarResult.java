@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.database.Cursor;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.BitSet;
+
+/**
+ * Results of a query in columnar format: one typed array per selected column instead of one json array per row
+ *
+ * Columns only holding integers are returned as long[], columns only holding numbers as double[]
+ * and other columns as String[] (soup columns hold the stringified soup elements)
+ * Null values are tracked with a bitmap per column (the typed arrays have 0 or null for them)
+ *
+ * Serialized as:
+ * {"columns": [name1, name2, ...], "types": [type1, type2, ...], "rowCount": n, "values": [[values of column1], [values of column2], ...]}
+ */
+public class ColumnarResult {
+
+	// Keys for json
+	public static final String COLUMNS = "columns";
+	public static final String TYPES = "types";
+	public static final String ROW_COUNT = "rowCount";
+	public static final String VALUES = "values";
+
+	/**
+	 * Type of column
+	 */
+	public enum ColumnType {
+		integer,   // long[]
+		floating,  // double[]
+		string,    // String[]
+		json       // String[] of stringified soup elements (not quoted when serialized)
+	}
+
+	public final String[] columnNames;
+	public final int rowCount;
+	private final ColumnType[] columnTypes;
+	private final Object[] columnValues;
+	private final BitSet[] columnNulls;
+
+	/**
+	 * Read all rows of cursor
+	 * @param cursor
+	 * @param columnNames names to use for the columns of the cursor (or null to use the column names of the cursor)
+	 */
+	ColumnarResult(Cursor cursor, String[] columnNames) {
+		int columnCount = columnNames != null ? columnNames.length : cursor.getColumnCount();
+		this.rowCount = cursor.getCount();
+		this.columnNames = new String[columnCount];
+		this.columnTypes = new ColumnType[columnCount];
+		this.columnValues = new Object[columnCount];
+		this.columnNulls = new BitSet[columnCount];
+
+		// First pass to find the type of each column
+		boolean[] hasFloat = new boolean[columnCount];
+		boolean[] hasInteger = new boolean[columnCount];
+		boolean[] hasText = new boolean[columnCount];
+		cursor.moveToPosition(-1);
+		while (cursor.moveToNext()) {
+			for (int i = 0; i < columnCount; i++) {
+				switch (cursor.getType(i)) {
+					case Cursor.FIELD_TYPE_INTEGER: hasInteger[i] = true; break;
+					case Cursor.FIELD_TYPE_FLOAT: hasFloat[i] = true; break;
+					case Cursor.FIELD_TYPE_NULL: break;
+					default: hasText[i] = true; break;
+				}
+			}
+		}
+		for (int i = 0; i < columnCount; i++) {
+			String cursorColumnName = cursor.getColumnName(i);
+			this.columnNames[i] = columnNames != null ? columnNames[i] : cursorColumnName;
+			boolean isSoupColumn = cursorColumnName.equals(SmartStore.SOUP_COL) || cursorColumnName.startsWith(SmartStore.SOUP_COL + ":");
+			if (isSoupColumn && !hasInteger[i] && !hasFloat[i]) {
+				columnTypes[i] = ColumnType.json;
+				columnValues[i] = new String[rowCount];
+			} else if (hasText[i] || (!hasInteger[i] && !hasFloat[i])) {
+				columnTypes[i] = ColumnType.string;
+				columnValues[i] = new String[rowCount];
+			} else if (hasFloat[i]) {
+				columnTypes[i] = ColumnType.floating;
+				columnValues[i] = new double[rowCount];
+			} else {
+				columnTypes[i] = ColumnType.integer;
+				columnValues[i] = new long[rowCount];
+			}
+			columnNulls[i] = new BitSet(rowCount);
+		}
+
+		// Second pass to read values
+		cursor.moveToPosition(-1);
+		for (int row = 0; cursor.moveToNext(); row++) {
+			for (int i = 0; i < columnCount; i++) {
+				if (cursor.isNull(i)) {
+					columnNulls[i].set(row);
+					continue;
+				}
+				switch (columnTypes[i]) {
+					case integer: ((long[]) columnValues[i])[row] = cursor.getLong(i); break;
+					case floating: ((double[]) columnValues[i])[row] = cursor.getDouble(i); break;
+					default: ((String[]) columnValues[i])[row] = cursor.getString(i); break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of columns
+	 */
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	/**
+	 * @param column
+	 * @return type of column
+	 */
+	public ColumnType getColumnType(int column) {
+		return columnTypes[column];
+	}
+
+	/**
+	 * @param column
+	 * @return values of integer column
+	 */
+	public long[] getLongs(int column) {
+		checkColumnType(column, ColumnType.integer);
+		return (long[]) columnValues[column];
+	}
+
+	/**
+	 * @param column
+	 * @return values of floating column
+	 */
+	public double[] getDoubles(int column) {
+		checkColumnType(column, ColumnType.floating);
+		return (double[]) columnValues[column];
+	}
+
+	/**
+	 * @param column
+	 * @return values of string or json column
+	 */
+	public String[] getStrings(int column) {
+		if (columnTypes[column] != ColumnType.json) {
+			checkColumnType(column, ColumnType.string);
+		}
+		return (String[]) columnValues[column];
+	}
+
+	/**
+	 * @param column
+	 * @return bitmap of rows with a null value in column
+	 */
+	public BitSet getNulls(int column) {
+		return (BitSet) columnNulls[column].clone();
+	}
+
+	/**
+	 * @param column
+	 * @param row
+	 * @return true if value in column is null for row
+	 */
+	public boolean isNull(int column, int row) {
+		return columnNulls[column].get(row);
+	}
+
+	private void checkColumnType(int column, ColumnType expectedType) {
+		if (columnTypes[column] != expectedType) {
+			throw new SmartStoreException("Column " + columnNames[column] + " is of type " + columnTypes[column] + " not " + expectedType);
+		}
+	}
+
+	/**
+	 * Append serialized result to string builder (no json object is built)
+	 * @param sb
+	 */
+	public void appendTo(StringBuilder sb) {
+		sb.append("{\"").append(COLUMNS).append("\":[");
+		for (int i = 0; i < columnNames.length; i++) {
+			sb.append(i > 0 ? "," : "").append(JSONObject.quote(columnNames[i]));
+		}
+		sb.append("],\"").append(TYPES).append("\":[");
+		for (int i = 0; i < columnTypes.length; i++) {
+			sb.append(i > 0 ? "," : "").append("\"").append(columnTypes[i]).append("\"");
+		}
+		sb.append("],\"").append(ROW_COUNT).append("\":").append(rowCount);
+		sb.append(",\"").append(VALUES).append("\":[");
+		for (int i = 0; i < columnTypes.length; i++) {
+			sb.append(i > 0 ? ",[" : "[");
+			for (int row = 0; row < rowCount; row++) {
+				if (row > 0) {
+					sb.append(",");
+				}
+				if (columnNulls[i].get(row)) {
+					sb.append("null");
+					continue;
+				}
+				switch (columnTypes[i]) {
+					case integer: sb.append(((long[]) columnValues[i])[row]); break;
+					case floating: appendDouble(sb, ((double[]) columnValues[i])[row]); break;
+					case json: sb.append(((String[]) columnValues[i])[row]); break;
+					default: sb.append(JSONObject.quote(((String[]) columnValues[i])[row])); break;
+				}
+			}
+			sb.append("]");
+		}
+		sb.append("]}");
+	}
+
+	private static void appendDouble(StringBuilder sb, double value) {
+		try {
+			sb.append(JSONObject.numberToString(value));
+		} catch (JSONException e) {
+			sb.append("null"); // NaN or infinite
+		}
+	}
+
+	/**
+	 * @return result as json
+	 * @throws JSONException
+	 */
+	public JSONObject toJSON() throws JSONException {
+		return new JSONObject(toString());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		appendTo(sb);
+		return sb.toString();
+	}
+}
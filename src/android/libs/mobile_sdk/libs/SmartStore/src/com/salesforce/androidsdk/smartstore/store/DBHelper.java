@@ -53,6 +53,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * SmartStore Database Helper
@@ -81,12 +83,50 @@ public class DBHelper {
 		}
 		DBHelper instance = INSTANCES.get(db);
 		if (instance == null) {
-			instance = new DBHelper();
+			instance = new DBHelper(db);
 			INSTANCES.put(db, instance);
 		}
 		return instance;
 	}
 
+	/**
+	 * Releases the instance of this class associated with the database specified (called when the database is closed).
+	 * Pending upserts of its write queue are written first (while the instance is still registered, so that they go
+	 * through its soup change notifier), then the instance is released and its soup change notifier is closed.
+	 *
+	 * @param db Database.
+	 */
+	public static void closeInstance(SQLiteDatabase db) {
+		DBHelper instance;
+		synchronized (DBHelper.class) {
+			instance = INSTANCES == null ? null : INSTANCES.get(db);
+		}
+		if (instance == null) {
+			return;
+		}
+		// Not holding the class lock: flushing the queue goes through getInstance(db)
+		instance.closeWriteQueue();
+		synchronized (DBHelper.class) {
+			if (INSTANCES.get(db) == instance) {
+				INSTANCES.remove(db);
+			} else {
+				instance = null;
+			}
+		}
+		if (instance != null) {
+			instance.soupChangeNotifier.close();
+			SmartSqlHelper.closeInstance(db);
+		}
+	}
+
+	/**
+	 * @param db Database.
+	 * @return true if an instance of this class is registered for the database specified
+	 */
+	static synchronized boolean hasInstance(SQLiteDatabase db) {
+		return INSTANCES != null && INSTANCES.containsKey(db);
+	}
+
 	// Some queries
 	private static final String COUNT_SELECT = "SELECT count(*) FROM %s %s";
 	private static final String SEQ_SELECT = "SELECT seq FROM SQLITE_SEQUENCE WHERE name = ?";
@@ -123,19 +163,54 @@ public class DBHelper {
 		}
 	};
 
+	// Cache of soup name to soup writers (compiled insert / update statements for soup and fts tables)
+	private final LruCache<String, SoupWriter> soupNameToSoupWritersMap = new LruCache<String, SoupWriter>(CACHES_COUNT_LIMIT) {
+		@Override
+		protected void entryRemoved(boolean evicted, String key, SoupWriter oldValue, SoupWriter newValue) {
+			oldValue.close();
+		}
+	};
+
 	// Cache of raw count sql to compiled statements
-	private final LruCache<String, SQLiteStatement> rawCountSqlToStatementsMap = new LruCache<String, SQLiteStatement>(CACHES_COUNT_LIMIT) {
+	// NB: the caches above are only used by writers (holding the db lock), this one is also used by reads (not holding it):
+	// statements are used and closed while synchronizing on them, so that eviction can't close a statement in use
+	private final LruCache<String, CountStatement> rawCountSqlToStatementsMap = new LruCache<String, CountStatement>(CACHES_COUNT_LIMIT) {
 		@Override
-		protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+		protected void entryRemoved(boolean evicted, String key, CountStatement oldValue, CountStatement newValue) {
 			oldValue.close();
 		}
 	};
 
+	// Map of soup name to shadow soup name for soups being altered online
+	private final Map<String, String> soupNameToShadowSoupNameMap = new ConcurrentHashMap<>();
+
+	// Map of soup name to dirty path for soups with a change journal (null until read from database)
+	private volatile Map<String, String> soupNameToChangeJournalDirtyPathMap;
+
+	// Soup change listeners and changes of the current transaction (see SmartStore.registerSoupChangeListener)
+	private final SoupChangeNotifier soupChangeNotifier = new SoupChangeNotifier();
+
+	// Database this instance is associated with
+	private final SQLiteDatabase db;
+
+	// Write queue (created on first use - see SmartStore.getWriteQueue)
+	private WriteQueue writeQueue;
+
 	// Boolean to turn explain query plan capture on or off
-	private boolean captureExplainQueryPlan;
+	private volatile boolean captureExplainQueryPlan;
+
+	// Last explain query plan (of the last query run on any thread)
+	private volatile JSONObject lastExplainQueryPlan;
+
+	// Query profiler (null when profiling is off)
+	private volatile QueryProfiler queryProfiler;
+
+	// Number of updates skipped because soup element content was unchanged
+	private final AtomicLong skippedUpdatesCount = new AtomicLong();
 
-	// Last explain query plan
-	private JSONObject lastExplainQueryPlan;
+	private DBHelper(SQLiteDatabase db) {
+		this.db = db;
+	}
 
 	/**
 	 * @param soupName
@@ -169,6 +244,7 @@ public class DBHelper {
 	public void cacheIndexSpecs(String soupName, IndexSpec[] indexSpecs) {
 		soupNameToIndexSpecsMap.put(soupName, indexSpecs.clone());
 		soupNameToHasFTS.put(soupName, IndexSpec.hasFTS(indexSpecs));
+		soupNameToSoupWritersMap.remove(soupName); // statements depend on index specs
 	}
 
 	/**
@@ -191,6 +267,7 @@ public class DBHelper {
 	 * @param soupName
 	 */
 	public void removeFromCache(String soupName) {
+		soupNameToSoupWritersMap.remove(soupName); // closes statements
 		String tableName = soupNameToTableNamesMap.get(soupName);
 		if (tableName != null) {
 			InsertHelper ih = tableNameToInsertHelpersMap.remove(tableName);
@@ -209,19 +286,92 @@ public class DBHelper {
 		soupNameToHasFTS.remove(soupName);
 	}
 
+	/**
+	 * Return dirty path of soup if soup has a change journal
+	 * @param db
+	 * @param soupName
+	 * @return dirty path or null if soup does not have a change journal
+	 */
+	public String getChangeJournalDirtyPath(SQLiteDatabase db, String soupName) {
+		return getChangeJournalDirtyPaths(db).get(soupName);
+	}
+
+	/**
+	 * @param db
+	 * @param soupName
+	 * @param dirtyPath dirty path or null if soup no longer has a change journal
+	 */
+	public void cacheChangeJournalDirtyPath(SQLiteDatabase db, String soupName, String dirtyPath) {
+		Map<String, String> dirtyPaths = getChangeJournalDirtyPaths(db);
+		if (dirtyPath == null) {
+			dirtyPaths.remove(soupName);
+		} else {
+			dirtyPaths.put(soupName, dirtyPath);
+		}
+	}
+
+	/**
+	 * @return notifier for soup changes made on this database
+	 */
+	SoupChangeNotifier getSoupChangeNotifier() {
+		return soupChangeNotifier;
+	}
+
+	/**
+	 * @param store
+	 * @return write queue for this database (created on first use with default settings)
+	 */
+	synchronized WriteQueue getWriteQueue(SmartStore store) {
+		if (writeQueue == null) {
+			writeQueue = new WriteQueue(store, WriteQueue.DEFAULT_MAX_DELAY_MS, WriteQueue.DEFAULT_MAX_BATCH_SIZE);
+		}
+		return writeQueue;
+	}
+
+	private void closeWriteQueue() {
+		final WriteQueue queue;
+		synchronized (this) {
+			queue = writeQueue;
+			writeQueue = null;
+		}
+		if (queue != null) {
+			queue.close();
+		}
+	}
+
+	private Map<String, String> getChangeJournalDirtyPaths(SQLiteDatabase db) {
+		Map<String, String> dirtyPaths = soupNameToChangeJournalDirtyPathMap;
+		if (dirtyPaths == null) {
+			synchronized (this) {
+				dirtyPaths = soupNameToChangeJournalDirtyPathMap;
+				if (dirtyPaths == null) {
+					dirtyPaths = new ConcurrentHashMap<>();
+					Cursor cursor = null;
+					try {
+						cursor = query(db, SmartStore.CHANGE_JOURNAL_SOUPS_TABLE, new String[] {SmartStore.SOUP_NAME_COL, SmartStore.DIRTY_PATH_COL}, null, null, null);
+						while (cursor.moveToNext()) {
+							dirtyPaths.put(cursor.getString(0), cursor.getString(1));
+						}
+					} finally {
+						safeClose(cursor);
+					}
+					soupNameToChangeJournalDirtyPathMap = dirtyPaths;
+				}
+			}
+		}
+		return dirtyPaths;
+	}
+
 	private void cleanupRawCountSqlToStatementMaps(String tableName) {
 		List<String> countSqlToRemove = new ArrayList<>();
-		for (Entry<String, SQLiteStatement>  entry : rawCountSqlToStatementsMap.snapshot().entrySet()) {
+		for (Entry<String, CountStatement>  entry : rawCountSqlToStatementsMap.snapshot().entrySet()) {
 			String countSql = entry.getKey();
 			if (countSql.contains(tableName)) {
-				SQLiteStatement countProg = entry.getValue();
-				if (countProg != null)
-					countProg.close();
 				countSqlToRemove.add(countSql);
 			}
 		}
 		for (String countSql : countSqlToRemove) {
-			rawCountSqlToStatementsMap.remove(countSql);
+			rawCountSqlToStatementsMap.remove(countSql); // closes statement
 		}
 	}
 
@@ -291,7 +441,40 @@ public class DBHelper {
 		return db.rawQuery(limitSql, whereArgs);
 	}
 
+	/**
+	 * Does a raw query (capturing explain query plan if enabled)
+	 *
+	 * @param db
+	 * @param sql
+	 * @param whereArgs
+	 * @return
+	 */
+	public Cursor rawQuery(SQLiteDatabase db, String sql, String... whereArgs) {
+		if (captureExplainQueryPlan) {
+			runExplainQueryPlan(db, sql, whereArgs);
+		}
+		return db.rawQuery(sql, whereArgs);
+	}
+
 	private void runExplainQueryPlan(SQLiteDatabase db, String sql, String... whereArgs) {
+		JSONObject lastExplain = explainQueryPlan(db, sql, whereArgs);
+		try {
+			SmartStoreLogger.d(EXPLAIN_TAG, lastExplain.toString(2));
+		} catch (JSONException e) {
+			SmartStoreLogger.d(EXPLAIN_TAG, "Exception", e);
+		}
+		lastExplainQueryPlan = lastExplain;
+	}
+
+	/**
+	 * Runs explain query plan for the given query
+	 *
+	 * @param db
+	 * @param sql
+	 * @param whereArgs
+	 * @return json object with the sql, args and rows of the plan
+	 */
+	JSONObject explainQueryPlan(SQLiteDatabase db, String sql, String... whereArgs) {
 		JSONObject lastExplain = new JSONObject();
 		Cursor c = null;
 		try {
@@ -309,13 +492,12 @@ public class DBHelper {
 				rows.put(row);
 			}
 			lastExplain.put(EXPLAIN_ROWS, rows);
-			SmartStoreLogger.d(EXPLAIN_TAG, lastExplain.toString(2));
 		} catch (JSONException e) {
             SmartStoreLogger.d(EXPLAIN_TAG, "Exception", e);
 		} finally {
 			safeClose(c);
 		}
-		lastExplainQueryPlan = lastExplain;
+		return lastExplain;
 	}
 
 	/**
@@ -326,22 +508,39 @@ public class DBHelper {
 	 * @return
 	 */
 	public int countRawCountQuery(SQLiteDatabase db, String countSql, String... whereArgs) {
-		SQLiteStatement prog = rawCountSqlToStatementsMap.get(countSql);
-		if (prog == null) {
-			prog = db.compileStatement(countSql);
-			rawCountSqlToStatementsMap.put(countSql, prog);
+		while (true) {
+			CountStatement countStatement;
+			synchronized (rawCountSqlToStatementsMap) {
+				countStatement = rawCountSqlToStatementsMap.get(countSql);
+				if (countStatement == null) {
+					countStatement = new CountStatement(db.compileStatement(countSql));
+					rawCountSqlToStatementsMap.put(countSql, countStatement);
+				}
+			}
+			// Count queries can be run concurrently (see SmartStore) - bindings of cached statements should not interleave
+			// NB: not touching the cache while holding the statement (eviction holds the cache then the statement)
+			synchronized (countStatement) {
+				if (countStatement.closed) {
+					// Evicted since we got it - getting a new one
+					continue;
+				}
+				return runCount(countStatement.prog, whereArgs);
+			}
 		}
+	}
+
+	private static int runCount(SQLiteStatement prog, String... whereArgs) {
 		if (whereArgs != null) {
 			for (int i=0; i<whereArgs.length; i++) {
 				prog.bindString(i+1, whereArgs[i]);
 			}
 		}
 		try {
-			int count =  (int) prog.simpleQueryForLong();
-			prog.clearBindings();
-			return count;
+			return (int) prog.simpleQueryForLong();
 		} catch (SQLiteDoneException e) {
 			return -1;
+		} finally {
+			prog.clearBindings();
 		}
 	}
 
@@ -372,6 +571,63 @@ public class DBHelper {
 		return db.query(table, columns, whereClause, whereArgs, null, null, orderBy, limit);
 	}
 
+	/**
+	 * Return soup writer for soup (compiled on first use and cached until the soup is altered or dropped)
+	 * NB: caller is expected to synchronize on the database
+	 *
+	 * @param db
+	 * @param soupName
+	 * @return soup writer
+	 */
+	SoupWriter getSoupWriter(SQLiteDatabase db, String soupName) {
+		SoupWriter soupWriter = soupNameToSoupWritersMap.get(soupName);
+		if (soupWriter == null) {
+			String soupTableName = getSoupTableName(db, soupName);
+			SmartStore.addContentHashColumnIfNeeded(db, soupTableName);
+			soupWriter = new SoupWriter(db, soupTableName, getIndexSpecs(db, soupName), getShadowSoupName(soupName));
+			soupNameToSoupWritersMap.put(soupName, soupWriter);
+		}
+		return soupWriter;
+	}
+
+	/**
+	 * @return number of updates skipped because soup element content was unchanged
+	 */
+	public long getSkippedUpdatesCount() {
+		return skippedUpdatesCount.get();
+	}
+
+	void incrementSkippedUpdatesCount() {
+		skippedUpdatesCount.incrementAndGet();
+	}
+
+	/**
+	 * Start applying writes done to soup to shadow soup as well (used when altering soup online)
+	 * @param soupName
+	 * @param shadowSoupName
+	 */
+	public void setShadowSoupName(String soupName, String shadowSoupName) {
+		soupNameToShadowSoupNameMap.put(soupName, shadowSoupName);
+		soupNameToSoupWritersMap.remove(soupName); // closes statements
+	}
+
+	/**
+	 * Stop applying writes done to soup to its shadow soup
+	 * @param soupName
+	 */
+	public void removeShadowSoupName(String soupName) {
+		soupNameToShadowSoupNameMap.remove(soupName);
+		soupNameToSoupWritersMap.remove(soupName); // closes statements
+	}
+
+	/**
+	 * @param soupName
+	 * @return shadow soup name if soup is being altered online or null otherwise
+	 */
+	public String getShadowSoupName(String soupName) {
+		return soupNameToShadowSoupNameMap.get(soupName);
+	}
+
 	/**
 	 * Does an insert
 	 * @param db
@@ -447,8 +703,11 @@ public class DBHelper {
 		soupNameToTableNamesMap.evictAll();
 		soupNameToIndexSpecsMap.evictAll();
 		tableNameToInsertHelpersMap.evictAll();
+		soupNameToSoupWritersMap.evictAll();
 		tableNameToNextIdStatementsMap.evictAll();
 		rawCountSqlToStatementsMap.evictAll();
+		soupNameToChangeJournalDirtyPathMap = null;
+		SmartSqlHelper.getInstance(db).clearMemoryCache();
 	}
 
     /**
@@ -487,6 +746,56 @@ public class DBHelper {
 		return false;
 	}
 
+	/**
+	 * Load table names and index specs of all soups (and change journal dirty paths) into the caches
+	 * Meant to be called in the background right after the database is opened, so that the first queries don't miss the caches
+	 * Soups already cached are left untouched
+	 *
+	 * @param db
+	 * @return number of soups
+	 */
+	public int warmUp(SQLiteDatabase db) {
+		// Synchronizing on db so that a concurrent register / alter soup can't be overwritten with stale index specs
+		synchronized (db) {
+			Map<String, List<IndexSpec>> soupNameToIndexSpecs = new HashMap<>();
+			Cursor cursor = null;
+			try {
+				cursor = query(db, SmartStore.SOUP_ATTRS_TABLE, new String[] {SmartStore.ID_COL, SmartStore.SOUP_NAME_COL}, null, null, null);
+				while (cursor.moveToNext()) {
+					String soupName = cursor.getString(1);
+					if (getCachedTableName(soupName) == null) {
+						cacheTableName(soupName, SmartStore.getSoupTableName(cursor.getLong(0)));
+					}
+					cacheHasSoup(soupName, true);
+					soupNameToIndexSpecs.put(soupName, new ArrayList<IndexSpec>());
+				}
+			} finally {
+				safeClose(cursor);
+			}
+
+			// Index specs of all soups in one query (rows are in the order they were inserted, like getIndexSpecsFromDb)
+			try {
+				cursor = query(db, SmartStore.SOUP_INDEX_MAP_TABLE, new String[] {SmartStore.SOUP_NAME_COL, SmartStore.PATH_COL, SmartStore.COLUMN_NAME_COL, SmartStore.COLUMN_TYPE_COL, SmartStore.PREDICATE_COL}, null, null, null);
+				while (cursor.moveToNext()) {
+					List<IndexSpec> indexSpecs = soupNameToIndexSpecs.get(cursor.getString(0));
+					if (indexSpecs != null) {
+						indexSpecs.add(new IndexSpec(cursor.getString(1), Type.valueOf(cursor.getString(3)), cursor.getString(2), cursor.getString(4)));
+					}
+				}
+			} finally {
+				safeClose(cursor);
+			}
+			for (Entry<String, List<IndexSpec>> entry : soupNameToIndexSpecs.entrySet()) {
+				if (getCachedIndexSpecs(entry.getKey()) == null && !entry.getValue().isEmpty()) {
+					cacheIndexSpecs(entry.getKey(), entry.getValue().toArray(new IndexSpec[0]));
+				}
+			}
+
+			getChangeJournalDirtyPaths(db);
+			return soupNameToIndexSpecs.size();
+		}
+	}
+
     /**
      * Read index specs back from the soup index map table
      * @param db
@@ -505,7 +814,7 @@ public class DBHelper {
     protected IndexSpec[] getIndexSpecsFromDb(SQLiteDatabase db, String soupName) {
         Cursor cursor = null;
         try {
-            cursor = query(db, SmartStore.SOUP_INDEX_MAP_TABLE, new String[] {SmartStore.PATH_COL, SmartStore.COLUMN_NAME_COL, SmartStore.COLUMN_TYPE_COL}, null,
+            cursor = query(db, SmartStore.SOUP_INDEX_MAP_TABLE, new String[] {SmartStore.PATH_COL, SmartStore.COLUMN_NAME_COL, SmartStore.COLUMN_TYPE_COL, SmartStore.PREDICATE_COL}, null,
                     null, SmartStore.SOUP_NAME_PREDICATE, soupName);
 
             if (!cursor.moveToFirst()) {
@@ -516,7 +825,8 @@ public class DBHelper {
                 String path = cursor.getString(cursor.getColumnIndex(SmartStore.PATH_COL));
                 String columnName = cursor.getString(cursor.getColumnIndex(SmartStore.COLUMN_NAME_COL));
                 Type columnType = Type.valueOf(cursor.getString(cursor.getColumnIndex(SmartStore.COLUMN_TYPE_COL)));
-                indexSpecs.add(new IndexSpec(path, columnType, columnName));
+                String predicate = cursor.getString(cursor.getColumnIndex(SmartStore.PREDICATE_COL));
+                indexSpecs.add(new IndexSpec(path, columnType, columnName, predicate));
             } while (cursor.moveToNext());
             return indexSpecs.toArray(new IndexSpec[0]);
         }
@@ -587,6 +897,26 @@ public class DBHelper {
 		return lastExplainQueryPlan;
 	}
 
+	/**
+	 * Turn query profiling on or off
+	 * Turning it off discards the statistics collected so far
+	 * @param profileQueries true to turn profiling on and false to turn off
+	 */
+	public synchronized void setProfileQueries(boolean profileQueries) {
+		if (profileQueries && queryProfiler == null) {
+			queryProfiler = new QueryProfiler(this);
+		} else if (!profileQueries) {
+			queryProfiler = null;
+		}
+	}
+
+	/**
+	 * @return query profiler (null if profiling is off)
+	 */
+	public QueryProfiler getQueryProfiler() {
+		return queryProfiler;
+	}
+
 
    protected String getSoupTableNameFromDb(SQLiteDatabase db, String soupName) {
        Cursor cursor = null;
@@ -610,4 +940,21 @@ public class DBHelper {
             cursor.close();
         }
     }
+
+	/**
+	 * Cached count statement (closed when evicted from the cache)
+	 */
+	private static class CountStatement {
+		final SQLiteStatement prog;
+		boolean closed; // guarded by this
+
+		CountStatement(SQLiteStatement prog) {
+			this.prog = prog;
+		}
+
+		synchronized void close() {
+			closed = true;
+			prog.close();
+		}
+	}
 }
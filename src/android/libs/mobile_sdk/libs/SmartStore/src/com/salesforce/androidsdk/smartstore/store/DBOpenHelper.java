@@ -27,11 +27,13 @@
 package com.salesforce.androidsdk.smartstore.store;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.text.TextUtils;
 
 import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.analytics.EventBuilderHelper;
+import com.salesforce.androidsdk.security.SalesforceKeyGenerator;
 import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
 import com.salesforce.androidsdk.util.ManagedFilesHelper;
 
@@ -44,13 +46,24 @@ import net.zetetic.database.sqlcipher.SQLiteOpenHelper;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
 /**
  * Helper class to manage SmartStore's database creation and version management.
  */
@@ -65,7 +78,14 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	private static final String DB_NAME_SUFFIX = ".db";
 	private static final String ORG_KEY_PREFIX = "00D";
 	public static final String DATABASES = "databases";
+	// Using sqlcipher 2.x kdf iter because 3.x default (64000) and 4.x default (256000) are too slow
+	private static final int KDF_ITER = 4000;
+	// Rekey by export: suffix of the file the database is exported to, alias it is attached under and table tracking progress in it
+	static final String REKEY_SUFFIX = ".rekey";
+	private static final String REKEY_ALIAS = "rekeyed";
+	private static final String REKEY_PROGRESS_TABLE = "rekey_progress";
 	private String dbName;
+	private volatile SQLiteDatabase openedDb; // set in onOpen - per database resources are released when closing
 
 	/**
 	 * Indicates if the SQLCipher native library is loaded. This is used as an object monitor for
@@ -75,6 +95,17 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	 */
 	private static final Lock isSqlCipherLibraryLoaded = new ReentrantLock();
 
+	/*
+	 * Raw key support: when on, the key is derived from the encryption key once per database file (and process)
+	 * and connections are opened with that raw key, skipping key derivation on every connection open
+	 */
+	private static volatile boolean useRawKey = false;
+	private static final Map<String, RawKey> rawKeys = new HashMap<>(); // guarded by rawKeys
+	// Key derivation sqlcipher 4 does for us when given the encryption key (with our kdf iter)
+	private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA512";
+	private static final int KEY_LENGTH = 256;
+	private static final int SALT_LENGTH = 16;
+
 	/*
 	 * Cache for the helper instances
 	 */
@@ -188,12 +219,169 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			}
 			EventBuilderHelper.createAndStoreEvent(eventName, account, TAG, storeAttributes);
 			loadNativeLibrariesIfNeeded();
-			helper = new DBOpenHelper(encryptionKey, ctx, fullDBName);
+			String key = useRawKey ? getRawKey(ctx.getDatabasePath(fullDBName), encryptionKey) : encryptionKey;
+			helper = new DBOpenHelper(key, ctx, fullDBName);
 			openHelpers.put(fullDBName, helper);
 		}
 		return helper;
 	}
 
+	/**
+	 * Turns raw key support on or off (off by default) - only affects helpers created afterwards
+	 * When on, the key sqlcipher derives from the encryption key is computed once (per database file and process)
+	 * and cached in memory (until the database is deleted), and the database is opened with that raw key,
+	 * so that no connection pays for key derivation
+	 * Falls back to the encryption key for new databases and for databases the derived key doesn't open
+	 *
+	 * @param useRawKey True to open databases with a raw key.
+	 */
+	public static void setUseRawKey(boolean useRawKey) {
+		DBOpenHelper.useRawKey = useRawKey;
+	}
+
+	/**
+	 * @return True if databases are opened with a raw key.
+	 */
+	public static boolean isUsingRawKey() {
+		return useRawKey;
+	}
+
+	/**
+	 * Returns raw key (x'hex') for database file - or the encryption key if the database does not exist yet
+	 * or if the raw key can't be used
+	 *
+	 * @param dbFile Database file.
+	 * @param encryptionKey Encryption key.
+	 * @return Key to open database with.
+	 */
+	static String getRawKey(File dbFile, String encryptionKey) {
+		if (TextUtils.isEmpty(encryptionKey) || !dbFile.exists()) {
+			return encryptionKey;
+		}
+		try {
+			byte[] salt = readSalt(dbFile);
+			// Only a hash of the encryption key and salt is kept: a different key or a re-created file misses the cache
+			String cacheKey = SalesforceKeyGenerator.getSHA256Hash(encryptionKey + ":" + toHex(salt));
+			synchronized (rawKeys) {
+				RawKey cached = rawKeys.get(dbFile.getPath());
+				if (cached != null && cached.cacheKey.equals(cacheKey)) {
+					return cached.key == null ? encryptionKey : toRawKeyString(cached.key);
+				}
+			}
+			byte[] rawKey = deriveRawKey(encryptionKey, salt);
+			if (!canOpen(dbFile, toRawKeyString(rawKey))) {
+				SmartStoreLogger.w(TAG, "Derived raw key does not open " + dbFile.getName() + " - using encryption key");
+				Arrays.fill(rawKey, (byte) 0);
+				rawKey = null;
+			}
+			synchronized (rawKeys) {
+				RawKey previous = rawKeys.put(dbFile.getPath(), new RawKey(cacheKey, rawKey));
+				if (previous != null) {
+					previous.wipe();
+				}
+			}
+			return rawKey == null ? encryptionKey : toRawKeyString(rawKey);
+		} catch (Exception e) {
+			SmartStoreLogger.e(TAG, "Failed to derive raw key for " + dbFile.getName(), e);
+			return encryptionKey;
+		}
+	}
+
+	private static byte[] readSalt(File dbFile) throws IOException {
+		byte[] salt = new byte[SALT_LENGTH];
+		DataInputStream in = new DataInputStream(new FileInputStream(dbFile));
+		try {
+			in.readFully(salt);
+		} finally {
+			in.close();
+		}
+		return salt;
+	}
+
+	private static byte[] deriveRawKey(String encryptionKey, byte[] salt) throws GeneralSecurityException {
+		PBEKeySpec keySpec = new PBEKeySpec(encryptionKey.toCharArray(), salt, KDF_ITER, KEY_LENGTH);
+		try {
+			return SecretKeyFactory.getInstance(KDF_ALGORITHM).generateSecret(keySpec).getEncoded();
+		} finally {
+			keySpec.clearPassword();
+		}
+	}
+
+	/**
+	 * NB: sqlcipher takes the key as a string, so a string is only built when a connection is about to be opened
+	 */
+	private static String toRawKeyString(byte[] key) {
+		return "x'" + toHex(key) + "'";
+	}
+
+	/**
+	 * @return true if a raw key is cached for the database file
+	 */
+	static boolean hasCachedRawKey(File dbFile) {
+		synchronized (rawKeys) {
+			return rawKeys.containsKey(dbFile.getPath());
+		}
+	}
+
+	/**
+	 * Drops (and wipes) the raw key cached for a database file
+	 */
+	private static void evictRawKey(File dbFile) {
+		synchronized (rawKeys) {
+			RawKey cached = rawKeys.remove(dbFile.getPath());
+			if (cached != null) {
+				cached.wipe();
+			}
+		}
+	}
+
+	/**
+	 * Open database with raw key (no key derivation so it's cheap) to check that the derived key is right
+	 */
+	private static boolean canOpen(File dbFile, String rawKey) {
+		SQLiteDatabase db = null;
+		Cursor c = null;
+		try {
+			db = SQLiteDatabase.openDatabase(dbFile.getPath(), rawKey, null, SQLiteDatabase.OPEN_READONLY, null, new DBHook());
+			c = db.rawQuery("SELECT count(*) FROM sqlite_master", null);
+			return c.moveToFirst();
+		} catch (SQLiteException e) {
+			return false;
+		} finally {
+			safeClose(c);
+			if (db != null) {
+				db.close();
+			}
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(String.format("%02X", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Raw key derived for a database file (null if it could not be used)
+	 */
+	private static class RawKey {
+		final String cacheKey;
+		final byte[] key;
+
+		RawKey(String cacheKey, byte[] key) {
+			this.cacheKey = cacheKey;
+			this.key = key;
+		}
+
+		void wipe() {
+			if (key != null) {
+				Arrays.fill(key, (byte) 0);
+			}
+		}
+	}
+
 	protected DBOpenHelper(String encryptionKey, Context context, String dbName) {
  		super(context, dbName, encryptionKey, null, DB_VERSION, DB_VERSION, new DBErrorHandler(), new DBHook(), false);
 		this.dbName = dbName;
@@ -222,6 +410,32 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 	}
 
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		openedDb = db;
+		// NB: not bumping DB_VERSION since it is also the minimum supported version (older databases would get deleted)
+		SmartStore.addPredicateColumnIfNeeded(db);
+		SmartStore.createChangeJournalTables(db);
+	}
+
+	/**
+	 * NB: not holding the helper lock while releasing the per database resources - pending upserts of the write queue
+	 * are written first and that needs getWritableDatabase (which takes the helper lock)
+	 */
+	@Override
+	public void close() {
+		releaseDbHelper();
+		super.close();
+		openedDb = null;
+	}
+
+	private void releaseDbHelper() {
+		final SQLiteDatabase db = openedDb;
+		if (db != null) {
+			DBHelper.closeInstance(db);
+		}
+	}
+
 	/**
 	 * Deletes the underlying database for the specified user account.
 	 *
@@ -269,11 +483,7 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			final String fullDBName = dbName.toString();
 
 			// Close and remove the helper from the cache if it exists.
-			final DBOpenHelper helper = openHelpers.get(fullDBName);
-			if (helper != null) {
-				helper.close();
-				openHelpers.remove(fullDBName);
-			}
+			removeOpenHelper(ctx, fullDBName);
 
 			// Physically delete the database from disk.
 			ctx.deleteDatabase(fullDBName);
@@ -284,7 +494,7 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 				File[] files = ManagedFilesHelper
 						.getFiles(ctx, DATABASES, dbNamePrefix + accountSuffix, DB_NAME_SUFFIX, null);
 				for (File file : files) {
-					openHelpers.remove(file.getName());
+					removeOpenHelper(ctx, file.getName());
 				}
 				ManagedFilesHelper.deleteFiles(files);
 			}
@@ -304,7 +514,7 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	public static synchronized void deleteAllUserDatabases(Context ctx) {
 		File[] files = ManagedFilesHelper.getFiles(ctx, DATABASES, ORG_KEY_PREFIX, DB_NAME_SUFFIX, null);
 		for (File file : files) {
-			openHelpers.remove(file.getName());
+			removeOpenHelper(ctx, file.getName());
 		}
 		ManagedFilesHelper.deleteFiles(files);
 	}
@@ -321,12 +531,26 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 				.getFiles(ctx, DATABASES, userAccount.getUserLevelFilenameSuffix(), DB_NAME_SUFFIX,
 					null);
 			for (File file : files) {
-				openHelpers.remove(file.getName());
+				removeOpenHelper(ctx, file.getName());
 			}
 			ManagedFilesHelper.deleteFiles(files);
 		}
 	}
 
+	/**
+	 * Closes the helper for the given database (if any) and removes it from the cache along with its raw key (if any)
+	 *
+	 * @param ctx Context.
+	 * @param fullDBName Database file name.
+	 */
+	private static void removeOpenHelper(Context ctx, String fullDBName) {
+		final DBOpenHelper helper = openHelpers.remove(fullDBName);
+		if (helper != null) {
+			helper.close();
+		}
+		evictRawKey(ctx.getDatabasePath(fullDBName));
+	}
+
 	/**
 	 * Determines if a smart store currently exists for the given account and/or community id.
 	 *
@@ -381,9 +605,8 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 		 * @param connection db connection being processed
 		 */
 		public void postKey(SQLiteConnection connection) {
-			// Using sqlcipher 2.x kdf iter because 3.x default (64000) and 4.x default (256000) are too slow
 			// => should open 2.x databases without any migration
-			connection.executeRaw("PRAGMA kdf_iter = 4000", new Object[]{}, null);
+			connection.executeRaw("PRAGMA kdf_iter = " + KDF_ITER, new Object[]{}, null);
 		}
 	}
 
@@ -423,4 +646,300 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	public static synchronized void changeKey(SQLiteDatabase db, String oldKey, String newKey) {
 		db.query("PRAGMA rekey = '" + newKey + "'");
 	}
+
+	/**
+	 * Changes the encryption key on the database by exporting it into a new file encrypted with the new key
+	 * and then swapping files - unlike changeKey, the work is checkpointed and can be resumed after a crash.
+	 *
+	 * Tables are copied one by one, each in its own transaction, and recorded in a progress table of the new file.
+	 * Calling this method again with the same new key after an interruption picks up where the export stopped:
+	 * soup tables already copied are skipped unless their row count, last modified dates or schema (table or indexes) changed since
+	 * (other tables are small or derived from soup tables and are always copied again).
+	 *
+	 * Once the file is swapped, this helper is closed and evicted from the cache: the database has to be
+	 * reopened with the new key through getOpenHelper (SmartStore instances using this helper can't be used anymore).
+	 *
+	 * NB: the store must be quiesced first - reads don't lock the database, so they can't be held off here:
+	 * attaching the export turns write ahead logging off, which fails while other connections are in use
+	 * (e.g. a query running on another thread), and any read running during the export may see a closed database.
+	 *
+	 * @param newKey New encryption key.
+	 * @param progressListener Called after each table is copied (can be null).
+	 */
+	public void changeKeyByExport(String newKey, RekeyProgressListener progressListener) {
+		// Writing pending upserts before taking the helper lock (see close)
+		releaseDbHelper();
+		synchronized (this) {
+			changeKeyByExportLocked(newKey, progressListener);
+		}
+	}
+
+	private void changeKeyByExportLocked(String newKey, RekeyProgressListener progressListener) {
+		final SQLiteDatabase db = getWritableDatabase();
+		final File dbFile = new File(db.getPath());
+		final File exportFile = new File(dbFile.getPath() + REKEY_SUFFIX);
+		synchronized (db) {
+			// NB: attaching disables write ahead logging on db - which also checkpoints and removes the wal file
+			attachExport(db, exportFile, newKey);
+			try {
+				exportTables(db, progressListener);
+				finishExport(db);
+			} finally {
+				db.execSQL("DETACH DATABASE " + REKEY_ALIAS);
+			}
+			DBHelper.getInstance(db).clearMemoryCache();
+		}
+		close();
+		synchronized (DBOpenHelper.class) {
+			openHelpers.remove(dbName);
+		}
+		evictRawKey(dbFile);
+
+		// Swapping files (rename is atomic) - any journal left next to the old file must not be applied to the new one
+		deleteIfExists(new File(dbFile.getPath() + "-wal"));
+		deleteIfExists(new File(dbFile.getPath() + "-shm"));
+		deleteIfExists(new File(dbFile.getPath() + "-journal"));
+		if (!exportFile.renameTo(dbFile)) {
+			throw new SmartStore.SmartStoreException("Failed to replace database with file encrypted with new key: " + exportFile);
+		}
+	}
+
+	/**
+	 * Attaches the file the database is exported to (resuming a previous export if possible)
+	 */
+	private static void attachExport(SQLiteDatabase db, File exportFile, String newKey) {
+		if (exportFile.exists()) {
+			try {
+				attach(db, exportFile, newKey);
+				runPragma(db, "SELECT count(*) FROM " + REKEY_ALIAS + ".sqlite_master");
+				return;
+			} catch (SQLiteException e) {
+				// Not readable with new key (e.g. left behind by an export with a different key) - starting over
+				SmartStoreLogger.w(TAG, "Discarding previous export: " + exportFile, e);
+				try {
+					db.execSQL("DETACH DATABASE " + REKEY_ALIAS);
+				} catch (SQLiteException detachException) {
+					// was not attached
+				}
+				deleteIfExists(exportFile);
+			}
+		}
+		attach(db, exportFile, newKey);
+	}
+
+	private static void attach(SQLiteDatabase db, File exportFile, String newKey) {
+		try {
+			db.execSQL("ATTACH DATABASE ? AS " + REKEY_ALIAS + " KEY ?", new Object[]{exportFile.getPath(), newKey});
+		} catch (IllegalStateException e) {
+			// Thrown when write ahead logging can't be disabled because other connections are in use
+			throw new SmartStore.SmartStoreException("Database is in use - stop queries on other threads before changing key", e);
+		}
+		runPragma(db, "PRAGMA " + REKEY_ALIAS + ".kdf_iter = " + KDF_ITER);
+		db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s.%s (name TEXT PRIMARY KEY, fingerprint TEXT)", REKEY_ALIAS, REKEY_PROGRESS_TABLE));
+	}
+
+	/**
+	 * Copies tables (with their indexes) that are not already in the export
+	 */
+	private static void exportTables(SQLiteDatabase db, RekeyProgressListener progressListener) {
+		// Tables to copy - fts shadow tables are created (and filled) by their virtual table
+		List<String> tableNames = new ArrayList<>();
+		Map<String, String> tableNameToSql = new HashMap<>();
+		Set<String> virtualTableNames = new HashSet<>();
+		Cursor c = null;
+		try {
+			c = db.rawQuery("SELECT name, sql FROM main.sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%' ORDER BY rowid", null);
+			while (c.moveToNext()) {
+				tableNames.add(c.getString(0));
+				tableNameToSql.put(c.getString(0), c.getString(1));
+				if (c.getString(1).startsWith("CREATE VIRTUAL TABLE")) {
+					virtualTableNames.add(c.getString(0));
+				}
+			}
+		} finally {
+			safeClose(c);
+		}
+		List<String> tablesToCopy = new ArrayList<>();
+		for (String tableName : tableNames) {
+			boolean isShadowTable = false;
+			for (String virtualTableName : virtualTableNames) {
+				isShadowTable |= tableName.startsWith(virtualTableName + "_");
+			}
+			if (!isShadowTable) {
+				tablesToCopy.add(tableName);
+			}
+		}
+		Map<String, String> copiedTableToFingerprint = new HashMap<>();
+		try {
+			c = db.rawQuery(String.format("SELECT name, fingerprint FROM %s.%s", REKEY_ALIAS, REKEY_PROGRESS_TABLE), null);
+			while (c.moveToNext()) {
+				copiedTableToFingerprint.put(c.getString(0), c.getString(1));
+			}
+		} finally {
+			safeClose(c);
+		}
+
+		// Tables dropped since an interrupted run should not end up in the export
+		for (String tableName : copiedTableToFingerprint.keySet()) {
+			if (!tablesToCopy.contains(tableName)) {
+				db.execSQL(String.format("DROP TABLE IF EXISTS %s.%s", REKEY_ALIAS, tableName));
+				db.execSQL(String.format("DELETE FROM %s.%s WHERE name = ?", REKEY_ALIAS, REKEY_PROGRESS_TABLE), new Object[]{tableName});
+			}
+		}
+
+		int copied = 0;
+		for (String tableName : tablesToCopy) {
+			String fingerprint = getFingerprint(db, tableName);
+			if (fingerprint == null || !fingerprint.equals(copiedTableToFingerprint.get(tableName))) {
+				copyTable(db, tableName, tableNameToSql.get(tableName), virtualTableNames.contains(tableName), fingerprint);
+			}
+			copied++;
+			if (progressListener != null) {
+				progressListener.onProgress(tableName, copied, tablesToCopy.size());
+			}
+		}
+	}
+
+	/**
+	 * Returns string that changes when rows of a soup table are inserted, updated or deleted
+	 * or when the table or its indexes are altered (e.g. by alterSoup) - null for other tables
+	 */
+	private static String getFingerprint(SQLiteDatabase db, String tableName) {
+		if (!SmartStore.hasColumn(db, tableName, SmartStore.ID_COL) || !SmartStore.hasColumn(db, tableName, SmartStore.LAST_MODIFIED_COL)) {
+			return null;
+		}
+		Cursor c = null;
+		try {
+			c = db.rawQuery(String.format("SELECT count(*), max(%s), max(%s) FROM main.%s", SmartStore.ID_COL, SmartStore.LAST_MODIFIED_COL, tableName), null);
+			c.moveToFirst();
+			String rowsFingerprint = c.getLong(0) + ":" + c.getLong(1) + ":" + c.getLong(2);
+			safeClose(c);
+
+			// Schema of table and its indexes
+			StringBuilder schema = new StringBuilder();
+			c = db.rawQuery("SELECT sql FROM main.sqlite_master WHERE tbl_name = ? AND sql IS NOT NULL ORDER BY type DESC, name", new String[]{tableName});
+			while (c.moveToNext()) {
+				schema.append(c.getString(0)).append(';');
+			}
+			return rowsFingerprint + ":" + Long.toHexString(SoupWriter.hash(schema.toString()));
+		} finally {
+			safeClose(c);
+		}
+	}
+
+	private static void copyTable(SQLiteDatabase db, String tableName, String createSql, boolean isVirtual, String fingerprint) {
+		db.beginTransaction();
+		try {
+			db.execSQL(String.format("DROP TABLE IF EXISTS %s.%s", REKEY_ALIAS, tableName));
+			db.execSQL(inExport(createSql));
+			if (isVirtual) {
+				// Rows of virtual tables can't be read with * (e.g. fts rowid is not returned)
+				List<String> columns = new ArrayList<>();
+				columns.add("rowid");
+				Cursor c = null;
+				try {
+					c = db.rawQuery(String.format("PRAGMA main.table_info(%s)", tableName), null);
+					while (c.moveToNext()) {
+						columns.add(c.getString(1));
+					}
+				} finally {
+					safeClose(c);
+				}
+				String columnList = TextUtils.join(",", columns);
+				db.execSQL(String.format("INSERT INTO %s.%s (%s) SELECT %s FROM main.%s", REKEY_ALIAS, tableName, columnList, columnList, tableName));
+			} else {
+				db.execSQL(String.format("INSERT INTO %s.%s SELECT * FROM main.%s", REKEY_ALIAS, tableName, tableName));
+			}
+			// Indexes are created after the rows are copied (faster)
+			List<String> createIndexSqls = new ArrayList<>();
+			Cursor c = null;
+			try {
+				c = db.rawQuery("SELECT sql FROM main.sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL", new String[]{tableName});
+				while (c.moveToNext()) {
+					createIndexSqls.add(c.getString(0));
+				}
+			} finally {
+				safeClose(c);
+			}
+			for (String createIndexSql : createIndexSqls) {
+				db.execSQL(inExport(createIndexSql));
+			}
+			db.execSQL(String.format("INSERT OR REPLACE INTO %s.%s (name, fingerprint) VALUES (?, ?)", REKEY_ALIAS, REKEY_PROGRESS_TABLE), new Object[]{tableName, fingerprint});
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Copies autoincrement counters and version, and removes progress table
+	 */
+	private static void finishExport(SQLiteDatabase db) {
+		db.beginTransaction();
+		try {
+			if (hasSequenceTable(db, "main") && hasSequenceTable(db, REKEY_ALIAS)) {
+				db.execSQL(String.format("DELETE FROM %s.sqlite_sequence", REKEY_ALIAS));
+				db.execSQL(String.format("INSERT INTO %s.sqlite_sequence SELECT * FROM main.sqlite_sequence", REKEY_ALIAS));
+			}
+			db.execSQL(String.format("DROP TABLE %s.%s", REKEY_ALIAS, REKEY_PROGRESS_TABLE));
+			db.execSQL(String.format("PRAGMA %s.user_version = %d", REKEY_ALIAS, db.getVersion()));
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private static boolean hasSequenceTable(SQLiteDatabase db, String schema) {
+		Cursor c = null;
+		try {
+			c = db.rawQuery(String.format("SELECT 1 FROM %s.sqlite_master WHERE name = 'sqlite_sequence'", schema), null);
+			return c.moveToFirst();
+		} finally {
+			safeClose(c);
+		}
+	}
+
+	/**
+	 * Rewrites create statement from sqlite_master so that it creates the object in the export
+	 */
+	private static String inExport(String createSql) {
+		return createSql.replaceFirst("^(CREATE (UNIQUE |VIRTUAL )?(TABLE|INDEX) )", "$1" + REKEY_ALIAS + ".");
+	}
+
+	private static void runPragma(SQLiteDatabase db, String sql) {
+		Cursor c = null;
+		try {
+			c = db.rawQuery(sql, null);
+			c.moveToFirst();
+		} finally {
+			safeClose(c);
+		}
+	}
+
+	private static void deleteIfExists(File file) {
+		if (file.exists() && !file.delete()) {
+			SmartStoreLogger.w(TAG, "Failed to delete: " + file);
+		}
+	}
+
+	private static void safeClose(Cursor cursor) {
+		if (cursor != null) {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Callback for changeKeyByExport
+	 */
+	public interface RekeyProgressListener {
+
+		/**
+		 * Called after each table is copied
+		 *
+		 * @param tableName table just copied (or skipped because it was copied by an interrupted run)
+		 * @param copiedTables number of tables copied so far
+		 * @param totalTables number of tables to copy
+		 */
+		void onProgress(String tableName, int copiedTables, int totalTables);
+	}
 }
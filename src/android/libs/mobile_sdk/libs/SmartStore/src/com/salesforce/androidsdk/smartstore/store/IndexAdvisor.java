@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.database.Cursor;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index advisor for a SmartStore
+ *
+ * Runs explain query plan for each query of a workload (a list of query specs, or the query shapes recorded by the query profiler)
+ * and looks for steps scanning a whole soup table while filtering or sorting on paths that are not indexed (i.e. that smart sql
+ * turns into json_extract calls). For each such path, an index spec is recommended along with an estimate of the rows it would save.
+ *
+ * Recommendations are only applied (through alterSoup) when apply is called.
+ */
+public class IndexAdvisor {
+
+	private static final String TAG = "IndexAdvisor";
+
+	// Matches a plan step going through a whole soup table e.g. SCAN TABLE_1 or SCAN TABLE TABLE_1 (older sqlite)
+	private static final Pattern SCAN_SOUP_TABLE_PATTERN = Pattern.compile("^SCAN (?:TABLE )?TABLE_(\\d+)\\b");
+
+	// Matches json_extract(soup, '$.path') or json_extract(qualifier.soup, '$.path')
+	private static final Pattern JSON_EXTRACT_PATTERN = Pattern.compile("json_extract\\((?:(\\w+)\\.)?" + SmartStore.SOUP_COL + ", '\\$\\.([^']+)'\\)");
+
+	private static final String WHERE = " where ";
+	private static final String ORDER_BY = " order by ";
+	private static final String COUNT_SQL = "SELECT count(*) FROM %s";
+	private static final String COUNT_DISTINCT_SQL = "SELECT count(DISTINCT json_extract(" + SmartStore.SOUP_COL + ", '$.%s')) FROM %s";
+
+	// Keys in json returned by Recommendation.toJSON
+	public static final String SOUP_NAME = "soupName";
+	public static final String INDEX_SPEC = "indexSpec";
+	public static final String QUERY_COUNT = "queryCount";
+	public static final String ROWS_SCANNED = "rowsScanned";
+	public static final String ESTIMATED_ROWS_SAVED = "estimatedRowsSaved";
+	public static final String QUERIES = "queries";
+
+	private final SmartStore store;
+
+	/**
+	 * @param store
+	 */
+	public IndexAdvisor(SmartStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Recommend index specs for the given workload
+	 *
+	 * @param querySpecs queries of the workload
+	 * @return recommendations (most rows saved first)
+	 */
+	public List<Recommendation> advise(List<QuerySpec> querySpecs) {
+		Map<String, Long> smartSqlToCount = new LinkedHashMap<>();
+		for (QuerySpec querySpec : querySpecs) {
+			Long count = smartSqlToCount.get(querySpec.smartSql);
+			smartSqlToCount.put(querySpec.smartSql, count == null ? 1 : count + 1);
+		}
+		return advise(smartSqlToCount);
+	}
+
+	/**
+	 * Recommend index specs for the queries recorded by the query profiler (see SmartStore.setProfileQueries)
+	 * Each query shape is weighted by the number of times it was run
+	 *
+	 * @return recommendations (most rows saved first) - empty if profiling is off
+	 * @throws JSONException
+	 */
+	public List<Recommendation> adviseFromQueryProfile() throws JSONException {
+		Map<String, Long> smartSqlToCount = new LinkedHashMap<>();
+		JSONObject profile = store.getQueryProfile();
+		if (profile != null) {
+			JSONArray shapes = profile.getJSONArray(QueryProfiler.SHAPES);
+			for (int i = 0; i < shapes.length(); i++) {
+				JSONObject shape = shapes.getJSONObject(i);
+				smartSqlToCount.put(shape.getString(QueryProfiler.SHAPE), shape.getLong(QueryProfiler.COUNT));
+			}
+		}
+		return advise(smartSqlToCount);
+	}
+
+	/**
+	 * Add recommended index specs to their soups (using alterSoup)
+	 * Paths indexed since the recommendations were made are skipped
+	 *
+	 * @param recommendations
+	 * @throws JSONException
+	 */
+	public void apply(List<Recommendation> recommendations) throws JSONException {
+		Map<String, List<IndexSpec>> soupNameToNewIndexSpecs = new LinkedHashMap<>();
+		for (Recommendation recommendation : recommendations) {
+			if (!store.hasSoup(recommendation.soupName) || store.hasIndexForPath(recommendation.soupName, recommendation.indexSpec.path)) {
+				continue;
+			}
+			List<IndexSpec> newIndexSpecs = soupNameToNewIndexSpecs.get(recommendation.soupName);
+			if (newIndexSpecs == null) {
+				newIndexSpecs = new ArrayList<>();
+				soupNameToNewIndexSpecs.put(recommendation.soupName, newIndexSpecs);
+			}
+			newIndexSpecs.add(recommendation.indexSpec);
+		}
+
+		for (Map.Entry<String, List<IndexSpec>> entry : soupNameToNewIndexSpecs.entrySet()) {
+			List<IndexSpec> indexSpecs = new ArrayList<>();
+			Collections.addAll(indexSpecs, store.getSoupIndexSpecs(entry.getKey()));
+			indexSpecs.addAll(entry.getValue());
+			SmartStoreLogger.i(TAG, "Adding indexes to soup " + entry.getKey() + ": " + IndexSpec.toJSON(entry.getValue().toArray(new IndexSpec[0])));
+			// json1 indexes do not need the soup elements to be re-indexed
+			store.alterSoup(entry.getKey(), indexSpecs.toArray(new IndexSpec[0]), false);
+		}
+	}
+
+	private List<Recommendation> advise(Map<String, Long> smartSqlToCount) {
+		final SQLiteDatabase db = store.getDatabase();
+		DBHelper dbHelper = DBHelper.getInstance(db);
+		Map<String, Recommendation> recommendations = new LinkedHashMap<>();
+		Map<String, Long> tableToRowCount = new HashMap<>();
+		for (Map.Entry<String, Long> entry : smartSqlToCount.entrySet()) {
+			String smartSql = entry.getKey();
+			String sql;
+			try {
+				sql = store.convertSmartSql(smartSql);
+			} catch (SmartStore.SmartStoreException e) {
+				// e.g. soup dropped since the query was run
+				SmartStoreLogger.w(TAG, "Skipping query " + smartSql, e);
+				continue;
+			}
+
+			// NB: bind args are left unbound - they don't change the plan
+			Set<String> scannedTables = getScannedSoupTables(dbHelper.explainQueryPlan(db, sql));
+			if (scannedTables.isEmpty()) {
+				continue;
+			}
+			for (String[] tableAndPath : getFilteredPaths(sql, scannedTables)) {
+				String soupTableName = tableAndPath[0];
+				String path = tableAndPath[1];
+				String soupName = getSoupName(db, soupTableName);
+				if (soupName == null || soupName.startsWith(OnlineAlterSoupLongOperation.SHADOW_SOUP_PREFIX) || dbHelper.hasIndexForPath(db, soupName, path)) {
+					continue;
+				}
+				Long rowCount = tableToRowCount.get(soupTableName);
+				if (rowCount == null) {
+					rowCount = (long) dbHelper.countRawCountQuery(db, String.format(COUNT_SQL, soupTableName));
+					tableToRowCount.put(soupTableName, rowCount);
+				}
+				String key = soupName + ":" + path;
+				Recommendation recommendation = recommendations.get(key);
+				if (recommendation == null) {
+					long distinctValues = Math.max(1, dbHelper.countRawCountQuery(db, String.format(COUNT_DISTINCT_SQL, path, soupTableName)));
+					recommendation = new Recommendation(soupName, new IndexSpec(path, Type.json1), rowCount, rowCount - rowCount / distinctValues);
+					recommendations.put(key, recommendation);
+				}
+				recommendation.add(smartSql, entry.getValue());
+			}
+		}
+
+		List<Recommendation> result = new ArrayList<>(recommendations.values());
+		Collections.sort(result, (r1, r2) -> Long.compare(r2.getEstimatedRowsSaved(), r1.getEstimatedRowsSaved()));
+		return result;
+	}
+
+	/**
+	 * @return names of soup tables (but not fts tables) that the plan scans without using an index
+	 */
+	static Set<String> getScannedSoupTables(JSONObject explainQueryPlan) {
+		Set<String> tables = new LinkedHashSet<>();
+		JSONArray rows = explainQueryPlan.optJSONArray(DBHelper.EXPLAIN_ROWS);
+		if (rows != null) {
+			for (int i = 0; i < rows.length(); i++) {
+				JSONObject row = rows.optJSONObject(i);
+				String detail = row == null ? null : row.optString("detail", null);
+				if (detail == null || detail.contains(" INDEX")) {
+					continue;
+				}
+				Matcher matcher = SCAN_SOUP_TABLE_PATTERN.matcher(detail);
+				if (matcher.find() && !detail.startsWith(SmartStore.FTS_SUFFIX, matcher.end())) {
+					tables.add(SmartStore.getSoupTableName(Long.parseLong(matcher.group(1))));
+				}
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * Return the paths used through json_extract in the where / order by clauses of the sql, along with their soup table
+	 * Unqualified (or alias qualified) paths are attributed to the scanned table when only one table is scanned
+	 *
+	 * @return list of {soup table name, path}
+	 */
+	static List<String[]> getFilteredPaths(String sql, Set<String> scannedTables) {
+		List<String[]> tableAndPaths = new ArrayList<>();
+		// Paths in the select list don't matter - starting at the where clause or at the order by clause when there is no where clause
+		String lowerCaseSql = sql.toLowerCase();
+		int whereIndex = lowerCaseSql.indexOf(WHERE);
+		int orderByIndex = lowerCaseSql.indexOf(ORDER_BY);
+		int startIndex = whereIndex < 0 ? orderByIndex : (orderByIndex < 0 ? whereIndex : Math.min(whereIndex, orderByIndex));
+		if (startIndex < 0) {
+			return tableAndPaths;
+		}
+		Set<String> seen = new LinkedHashSet<>();
+		Matcher matcher = JSON_EXTRACT_PATTERN.matcher(sql);
+		while (matcher.find(startIndex)) {
+			startIndex = matcher.end();
+			String qualifier = matcher.group(1);
+			String path = matcher.group(2);
+			String table;
+			if (qualifier != null && scannedTables.contains(qualifier)) {
+				table = qualifier;
+			} else if (scannedTables.size() == 1) {
+				table = scannedTables.iterator().next();
+			} else {
+				continue;
+			}
+			if (seen.add(table + ":" + path)) {
+				tableAndPaths.add(new String[] {table, path});
+			}
+		}
+		return tableAndPaths;
+	}
+
+	private String getSoupName(SQLiteDatabase db, String soupTableName) {
+		Cursor cursor = null;
+		try {
+			String soupId = soupTableName.substring(soupTableName.indexOf('_') + 1);
+			cursor = DBHelper.getInstance(db).query(db, SmartStore.SOUP_ATTRS_TABLE, new String[] {SmartStore.SOUP_NAME_COL}, null, null, SmartStore.ID_PREDICATE, soupId);
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Index spec recommended for a soup
+	 */
+	public static class Recommendation {
+		public final String soupName;
+		public final IndexSpec indexSpec;
+		private final long rowsScanned;
+		private final long rowsSavedPerQuery;
+		private final List<String> queries = new ArrayList<>();
+		private long queryCount;
+
+		Recommendation(String soupName, IndexSpec indexSpec, long rowsScanned, long rowsSavedPerQuery) {
+			this.soupName = soupName;
+			this.indexSpec = indexSpec;
+			this.rowsScanned = rowsScanned;
+			this.rowsSavedPerQuery = rowsSavedPerQuery;
+		}
+
+		void add(String smartSql, long count) {
+			queries.add(smartSql);
+			queryCount += count;
+		}
+
+		/**
+		 * @return number of times the queries that would use the index were run
+		 */
+		public long getQueryCount() {
+			return queryCount;
+		}
+
+		/**
+		 * @return rows currently scanned by each of these queries
+		 */
+		public long getRowsScanned() {
+			return rowsScanned;
+		}
+
+		/**
+		 * Estimated from the number of distinct values of the path (assuming an equality predicate on it)
+		 * @return estimated rows saved across all runs of the queries that would use the index
+		 */
+		public long getEstimatedRowsSaved() {
+			return rowsSavedPerQuery * queryCount;
+		}
+
+		/**
+		 * @return smart sql of the queries that would use the index
+		 */
+		public List<String> getQueries() {
+			return queries;
+		}
+
+		public JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put(SOUP_NAME, soupName);
+			json.put(INDEX_SPEC, indexSpec.toJSON());
+			json.put(QUERY_COUNT, queryCount);
+			json.put(ROWS_SCANNED, rowsScanned);
+			json.put(ESTIMATED_ROWS_SAVED, getEstimatedRowsSaved());
+			json.put(QUERIES, new JSONArray(queries));
+			return json;
+		}
+	}
+}
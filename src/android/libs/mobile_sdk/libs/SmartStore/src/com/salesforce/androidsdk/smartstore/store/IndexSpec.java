@@ -26,6 +26,7 @@
  */
 package com.salesforce.androidsdk.smartstore.store;
 
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
 
 import org.json.JSONArray;
@@ -39,22 +40,113 @@ import java.util.Map;
 
 /**
  * Simple class to represent index spec
+ *
+ * A compound index spec covers several paths (its path is the paths joined with commas) and must be of type json1
+ * (a comma in the path of an index spec of another type is just part of the path):
+ * no column is added for it, the db index is on the columns of the paths indexed on their own (string, integer, floating or full_text)
+ * and on json_extract expressions for the other paths - i.e. on what smart sql turns {soup:path} into
+ *
+ * An index spec can have a predicate (see withPredicate), in which case the db index is a partial index
+ * only covering the soup elements for which the indexed value satisfies the predicate
  */
 public class IndexSpec {
+    public static final String COMPOUND_PATH_SEPARATOR = ",";
+
     public final String path;
     public final Type type;
     public final String columnName;
+    public final String predicate; // null unless partial index
+    private final String[] pathElements; // path split once so projecting doesn't split it for every soup element
+    private final String[] paths;
 
     public IndexSpec(String path, Type type) {
-        this.path = path;
-        this.type = type;
-        this.columnName = null; // undefined
+        this(path, type, null /* undefined */);
+    }
+
+    /**
+     * Compound index spec
+     * @param paths paths covered by the index (in index order)
+     * @param type must be json1
+     */
+    public IndexSpec(String[] paths, Type type) {
+        this(String.join(COMPOUND_PATH_SEPARATOR, checkCompound(paths, type)), type);
     }
 
     public IndexSpec(String path, Type type, String columnName) {
+        this(path, type, columnName, null /* not partial */);
+    }
+
+    public IndexSpec(String path, Type type, String columnName, String predicate) {
         this.path = path;
         this.type = type;
         this.columnName = columnName;
+        this.predicate = predicate;
+        this.pathElements = (path == null || path.equals("")) ? new String[0] : path.split("[.]");
+        // NB: not rejecting commas in paths of other types - index specs read back from the db may have some
+        this.paths = path == null ? new String[0] : (type == Type.json1 ? path.split(COMPOUND_PATH_SEPARATOR) : new String[] {path});
+        if (predicate != null && (paths.length > 1 || type == Type.full_text)) {
+            throw new SmartStoreException("Index spec " + path + " of type " + type + " cannot have a predicate");
+        }
+    }
+
+    private static String[] checkCompound(String[] paths, Type type) {
+        if (paths.length > 1 && type != Type.json1) {
+            throw new SmartStoreException("Compound index spec " + String.join(COMPOUND_PATH_SEPARATOR, paths) + " must be of type " + Type.json1);
+        }
+        return paths;
+    }
+
+    /**
+     * Return partial index spec: only soup elements for which the indexed value satisfies the predicate are in the db index
+     * The predicate is sql applied to the indexed value e.g. "= 'true'" or "IS NOT NULL"
+     * Queries only use the db index when their where clause contains {soup:path} followed by that same predicate
+     *
+     * @param predicate
+     * @return new index spec
+     */
+    public IndexSpec withPredicate(String predicate) {
+        return new IndexSpec(path, type, columnName, predicate);
+    }
+
+    /**
+     * @return true if this index spec covers several paths
+     */
+    public boolean isCompound() {
+        return paths.length > 1;
+    }
+
+    /**
+     * @return paths covered by this index spec (just path if it is not compound)
+     */
+    public String[] getPaths() {
+        return paths.clone();
+    }
+
+    /**
+     * Project the path of this index spec on the given soup element
+     * Same result as SmartStore.project(soupElt, path) but without splitting the path every time
+     * and without recursion when no array is traversed
+     *
+     * @param soupElt
+     * @return value at path (JSONArray if path traverses arrays) or null
+     */
+    public Object project(JSONObject soupElt) {
+        if (soupElt == null) {
+            return null;
+        }
+        Object current = soupElt;
+        for (int i = 0; i < pathElements.length; i++) {
+            if (current instanceof JSONObject) {
+                current = ((JSONObject) current).opt(pathElements[i]);
+            } else if (current instanceof JSONArray) {
+                // Fan out over array elements
+                current = SmartStore.projectRecursive(current, pathElements, i);
+                break;
+            } else {
+                return null;
+            }
+        }
+        return current == JSONObject.NULL ? null : current;
     }
 
     @Override
@@ -64,6 +156,8 @@ public class IndexSpec {
         result = 31 * result + type.hashCode();
         if (columnName != null) 
         	result = 31 * result + columnName.hashCode();
+        if (predicate != null)
+            result = 31 * result + predicate.hashCode();
         return result;
     }
 
@@ -84,6 +178,10 @@ public class IndexSpec {
         	result = result && (columnName == rhs.columnName);
     	else
     		result = result && columnName.equals(rhs.columnName);
+        if (predicate == null)
+            result = result && (rhs.predicate == null);
+        else
+            result = result && predicate.equals(rhs.predicate);
         
         return result;
     }
@@ -104,6 +202,7 @@ public class IndexSpec {
 		json.put("path", path);
 		json.put("type", type);
 		json.put("columnName", columnName);
+		json.put("predicate", predicate); // not added when null
 		return json;
 	}
 	
@@ -140,7 +239,20 @@ public class IndexSpec {
 	 * @throws JSONException
 	 */
 	public static IndexSpec fromJSON(JSONObject json) throws JSONException {
-		return new IndexSpec(json.getString("path"), Type.valueOf(json.getString("type")), json.optString("columnName"));
+		// Compound index specs can also be given with a paths array
+		JSONArray pathsJson = json.optJSONArray("paths");
+		String path;
+		if (pathsJson != null && !json.has("path")) {
+			String[] paths = new String[pathsJson.length()];
+			for (int i = 0; i < paths.length; i++) {
+				paths[i] = pathsJson.getString(i);
+			}
+			path = String.join(COMPOUND_PATH_SEPARATOR, checkCompound(paths, Type.valueOf(json.getString("type"))));
+		} else {
+			path = json.getString("path");
+		}
+		String predicate = json.isNull("predicate") ? null : json.getString("predicate");
+		return new IndexSpec(path, Type.valueOf(json.getString("type")), json.optString("columnName"), predicate);
 	}
 	
 	
@@ -44,8 +44,15 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Key-value store backed by file system. Currently uses an in-memory solution for encryption and
@@ -65,6 +72,8 @@ public class KeyValueEncryptedFileStore implements KeyValueStore {
     public static final String VALUE_SUFFIX = ".value";
     public static final String VERSION_FILE_NAME = "version";
     public static final String KEY_VALUE_STORES = "keyvaluestores";
+    // How long to wait for the remaining change key tasks to stop after one failed
+    private static final long CHANGE_KEY_STOP_TIMEOUT_MS = 10000;
 
     private String encryptionKey;
     private int kvVersion;
@@ -364,31 +373,59 @@ public class KeyValueEncryptedFileStore implements KeyValueStore {
     /**
      * Change encryption key
      * All files are read/decrypted with old key and encrypted/written back with new key
+     * Files are processed in parallel (one thread per core) into a tmp directory that replaces the store directory once all are done
      * @param newEncryptionKey
      * @return true if successful
      */
-    public boolean changeEncryptionKey(String newEncryptionKey) {
+    public boolean changeEncryptionKey(final String newEncryptionKey) {
         File originalStoreDir = storeDir;
         String storeName = getStoreName();
-        File tmpDir = new File(storeDir.getParent(), storeName + "-tmp");
+        // NB: - not allowed for store name so no chances of hitting colliding with existing store
+        final File tmpDir = new File(storeDir.getParent(), storeName + "-tmp");
+        // Files left behind by a failed attempt are not reused
+        ManagedFilesHelper.deleteFile(tmpDir);
         tmpDir.mkdirs();
         if (!tmpDir.isDirectory()) {
             SmartStoreLogger.e(TAG, "changeKey: Failed to create tmp directory: " + tmpDir);
             return false;
         }
-        // NB: - not allowed for store name so no chances of hitting colliding with existing store
+        final String oldEncryptionKey = encryptionKey;
         File[] originalFiles = originalStoreDir.listFiles();
-        for (File originalFile : originalFiles) {
-            try {
-                encryptStreamToFile(
-                    new File(tmpDir, originalFile.getName()), // tmp file
-                    decryptFileAsSteam(originalFile, encryptionKey),   // reading original file
-                    newEncryptionKey);                        // encrypting with new encryption key
-            } catch (Exception e) {
-                SmartStoreLogger.e(TAG, "changeKey: Threw exception for file: " + originalFile, e);
-                //Failed
-                return false;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(originalFiles.length, Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(originalFiles.length);
+            for (final File originalFile : originalFiles) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        encryptStreamToFile(
+                            new File(tmpDir, originalFile.getName()),           // tmp file
+                            decryptFileAsSteam(originalFile, oldEncryptionKey), // reading original file
+                            newEncryptionKey);                                  // encrypting with new encryption key
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (Exception e) {
+                    SmartStoreLogger.e(TAG, "changeKey: Threw exception for file: " + originalFiles[i], e);
+                    //Failed - stopping the other tasks before removing the files they write
+                    executor.shutdownNow();
+                    try {
+                        if (!executor.awaitTermination(CHANGE_KEY_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                            SmartStoreLogger.w(TAG, "changeKey: Timed out waiting for tasks to stop");
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    ManagedFilesHelper.deleteFile(tmpDir);
+                    return false;
+                }
             }
+        } finally {
+            executor.shutdownNow();
         }
         // Removing old store dir - renaming tmp dir
         ManagedFilesHelper.deleteFile(originalStoreDir);
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * A subclass of JSONObject that keeps the stringified json passed to its constructor and only parses it on first access
+ * Use this class to avoid deserialization when callers only read a few rows / fields or only serialize the rows back
+ * (toString() returns the stringified json as is when it has not been parsed)
+ *
+ * NB: JSONObject and JSONArray serialize the JSONObjects they contain without calling any of their public methods,
+ * so a LazyJSONObject that has not been parsed would be serialized as {} if it was nested in them
+ * Call parse() (or parseAll()) before nesting a LazyJSONObject in another JSONObject or JSONArray (LazyJSONArray does it for its elements
+ * when it is serialized itself, but not when it is nested)
+ * Lazy soup elements are only returned by the ...Lazy methods of SmartStore (e.g. queryLazy), never by default
+ */
+public class LazyJSONObject extends JSONObject {
+	private volatile String json; // null once parsed
+
+	public LazyJSONObject(String json) {
+		this.json = json;
+	}
+
+	/**
+	 * @return true if the stringified json has been parsed
+	 */
+	public boolean isParsed() {
+		return json == null;
+	}
+
+	/**
+	 * Parse stringified json (if not already parsed)
+	 * @throws SmartStoreException if the stringified json is not a valid json object
+	 */
+	public void parse() {
+		if (json != null) {
+			synchronized (this) {
+				if (json != null) {
+					try {
+						JSONObject parsed = new JSONObject(json);
+						Iterator<String> keys = parsed.keys();
+						while (keys.hasNext()) {
+							String key = keys.next();
+							super.put(key, parsed.get(key));
+						}
+					} catch (JSONException e) {
+						throw new SmartStoreException("Could not parse soup element", e);
+					}
+					json = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parse value if it is (or contains) LazyJSONObject's
+	 * Call it on lazy results before nesting them in another JSONObject or JSONArray
+	 * @param value
+	 */
+	public static void parseAll(Object value) {
+		if (value instanceof LazyJSONObject) {
+			((LazyJSONObject) value).parse();
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			for (int i = 0; i < array.length(); i++) {
+				parseAll(array.opt(i));
+			}
+		}
+	}
+
+	@Override
+	public int length() {
+		parse();
+		return super.length();
+	}
+
+	@Override
+	public JSONObject put(String name, boolean value) throws JSONException {
+		parse();
+		return super.put(name, value);
+	}
+
+	@Override
+	public JSONObject put(String name, double value) throws JSONException {
+		parse();
+		return super.put(name, value);
+	}
+
+	@Override
+	public JSONObject put(String name, int value) throws JSONException {
+		parse();
+		return super.put(name, value);
+	}
+
+	@Override
+	public JSONObject put(String name, long value) throws JSONException {
+		parse();
+		return super.put(name, value);
+	}
+
+	@Override
+	public JSONObject put(String name, Object value) throws JSONException {
+		parse();
+		return super.put(name, value);
+	}
+
+	@Override
+	public JSONObject putOpt(String name, Object value) throws JSONException {
+		parse();
+		return super.putOpt(name, value);
+	}
+
+	@Override
+	public JSONObject accumulate(String name, Object value) throws JSONException {
+		parse();
+		return super.accumulate(name, value);
+	}
+
+	@Override
+	public Object remove(String name) {
+		parse();
+		return super.remove(name);
+	}
+
+	@Override
+	public boolean isNull(String name) {
+		parse();
+		return super.isNull(name);
+	}
+
+	@Override
+	public boolean has(String name) {
+		parse();
+		return super.has(name);
+	}
+
+	@Override
+	public Object opt(String name) {
+		parse();
+		return super.opt(name);
+	}
+
+	@Override
+	public Object get(String name) throws JSONException {
+		parse();
+		return super.get(name);
+	}
+
+	@Override
+	public boolean getBoolean(String name) throws JSONException {
+		parse();
+		return super.getBoolean(name);
+	}
+
+	@Override
+	public boolean optBoolean(String name) {
+		parse();
+		return super.optBoolean(name);
+	}
+
+	@Override
+	public boolean optBoolean(String name, boolean fallback) {
+		parse();
+		return super.optBoolean(name, fallback);
+	}
+
+	@Override
+	public double getDouble(String name) throws JSONException {
+		parse();
+		return super.getDouble(name);
+	}
+
+	@Override
+	public double optDouble(String name) {
+		parse();
+		return super.optDouble(name);
+	}
+
+	@Override
+	public double optDouble(String name, double fallback) {
+		parse();
+		return super.optDouble(name, fallback);
+	}
+
+	@Override
+	public int getInt(String name) throws JSONException {
+		parse();
+		return super.getInt(name);
+	}
+
+	@Override
+	public int optInt(String name) {
+		parse();
+		return super.optInt(name);
+	}
+
+	@Override
+	public int optInt(String name, int fallback) {
+		parse();
+		return super.optInt(name, fallback);
+	}
+
+	@Override
+	public long getLong(String name) throws JSONException {
+		parse();
+		return super.getLong(name);
+	}
+
+	@Override
+	public long optLong(String name) {
+		parse();
+		return super.optLong(name);
+	}
+
+	@Override
+	public long optLong(String name, long fallback) {
+		parse();
+		return super.optLong(name, fallback);
+	}
+
+	@Override
+	public String getString(String name) throws JSONException {
+		parse();
+		return super.getString(name);
+	}
+
+	@Override
+	public String optString(String name) {
+		parse();
+		return super.optString(name);
+	}
+
+	@Override
+	public String optString(String name, String fallback) {
+		parse();
+		return super.optString(name, fallback);
+	}
+
+	@Override
+	public JSONArray getJSONArray(String name) throws JSONException {
+		parse();
+		return super.getJSONArray(name);
+	}
+
+	@Override
+	public JSONArray optJSONArray(String name) {
+		parse();
+		return super.optJSONArray(name);
+	}
+
+	@Override
+	public JSONObject getJSONObject(String name) throws JSONException {
+		parse();
+		return super.getJSONObject(name);
+	}
+
+	@Override
+	public JSONObject optJSONObject(String name) {
+		parse();
+		return super.optJSONObject(name);
+	}
+
+	@Override
+	public JSONArray toJSONArray(JSONArray names) throws JSONException {
+		parse();
+		return super.toJSONArray(names);
+	}
+
+	@Override
+	public Iterator<String> keys() {
+		parse();
+		return super.keys();
+	}
+
+	@Override
+	public JSONArray names() {
+		parse();
+		return super.names();
+	}
+
+	@Override
+	public String toString() {
+		String unparsed = json;
+		return unparsed != null ? unparsed : super.toString();
+	}
+
+	@Override
+	public String toString(int indentSpaces) throws JSONException {
+		parse();
+		return super.toString(indentSpaces);
+	}
+}
+
+/**
+ * A subclass of JSONArray that parses the LazyJSONObject's it contains before serializing them
+ * Used for query results when lazy parsing is on
+ */
+class LazyJSONArray extends JSONArray {
+
+	@Override
+	public String toString() {
+		LazyJSONObject.parseAll(this);
+		return super.toString();
+	}
+
+	@Override
+	public String toString(int indentSpaces) throws JSONException {
+		LazyJSONObject.parseAll(this);
+		return super.toString(indentSpaces);
+	}
+
+	@Override
+	public String join(String separator) throws JSONException {
+		LazyJSONObject.parseAll(this);
+		return super.join(separator);
+	}
+}
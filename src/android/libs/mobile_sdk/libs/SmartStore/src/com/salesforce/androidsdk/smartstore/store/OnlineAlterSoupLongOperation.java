@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Class taking care of online alter soup
+ * Unlike AlterSoupLongOperation, the soup table is left in place (and can be queried and written to) while the new table is built:
+ * - a shadow soup is registered with the new index specs (in a new table)
+ * - from then on, writes to the soup are also applied to the shadow soup
+ * - soup elements are copied (and re-indexed) to the shadow soup in chunks
+ * - the shadow soup then takes the place of the soup in soup_attrs and soup_index_map in a single transaction
+ * - finally the old table is dropped
+ *
+ * Two entry points:
+ * - new OnlineAlterSoupLongOperation(...) + run() => when asked to alterSoupOnline in SmartStore
+ * - LongOperation.getOperation(...) + run() => when completing interrupted long operations when opening the database
+ */
+public class OnlineAlterSoupLongOperation extends LongOperation {
+
+	// Fields of details for online alter soup long operation row in long_operations_status table
+	private static final String SOUP_NAME = "soupName";
+	private static final String SOUP_TABLE_NAME = "soupTableName";
+	private static final String SHADOW_SOUP_TABLE_NAME = "shadowSoupTableName";
+	private static final String NEW_INDEX_SPECS = "newIndexSpecs";
+	private static final String LAST_COPIED_ID = "lastCopiedId";
+	public static final String TAG = "OnlineAlterSoup:Status";
+
+	// Prefix of name of shadow soups
+	public static final String SHADOW_SOUP_PREFIX = "__shadow__";
+
+	/**
+	 * Enum for online alter steps
+	 */
+	public enum OnlineAlterSoupStep {
+		STARTING,
+		CREATE_SHADOW_SOUP,
+		COPY_TABLE,
+		SWAP_TABLES,
+		DROP_OLD_TABLE;
+
+		public static final OnlineAlterSoupStep LAST = DROP_OLD_TABLE;
+	}
+
+	// Soup being altered
+	private String soupName;
+
+	// Backing table for soup being altered
+	private String soupTableName;
+
+	// Backing table for shadow soup (null until shadow soup is created)
+	private String shadowSoupTableName;
+
+	// Last step completed
+	private OnlineAlterSoupStep afterStep;
+
+	// New index specs
+	private IndexSpec[] newIndexSpecs;
+
+	// Soup entry id of last soup element copied during COPY_TABLE step (-1 if none yet)
+	private long lastCopiedId = -1;
+
+	// Number of soup elements copied per transaction
+	private int chunkSize = AlterSoupLongOperation.DEFAULT_CHUNK_SIZE;
+
+	// Instance of smartstore
+	private SmartStore store;
+
+	// Underlying database
+	private SQLiteDatabase db;
+
+	// Row id for long_operations_status
+	private long rowId;
+
+	/**
+	 * Default constructor when reading back from long operations status table
+	 * Should be followed by a call to: initFromDbRow
+	 */
+	public OnlineAlterSoupLongOperation() {
+
+	}
+
+	/**
+	 * Constructor
+	 * Creates the shadow soup before returning: writes done to the soup from then on are also applied to the shadow soup
+	 *
+	 * @param store
+	 * @param soupName
+	 * @param newIndexSpecs
+	 * @throws JSONException
+	 */
+	public OnlineAlterSoupLongOperation(SmartStore store, String soupName, IndexSpec[] newIndexSpecs) throws JSONException {
+		this.store = store;
+		this.db = store.getDatabase();
+		this.soupName = soupName;
+		this.newIndexSpecs = newIndexSpecs;
+
+		synchronized(db) {
+			this.soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
+			if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+			if (DBHelper.getInstance(db).getShadowSoupName(soupName) != null) throw new SmartStoreException("Soup: " + soupName + " is already being altered");
+
+			// Create row in alter status table - auto commit
+			this.afterStep = OnlineAlterSoupStep.STARTING;
+			this.rowId = createLongOperationDbRow();
+
+			// Create shadow soup
+			createShadowSoup();
+		}
+	}
+
+	@Override
+	public void run() {
+		run(OnlineAlterSoupStep.LAST);
+	}
+
+	/**
+	 * Used by test only
+	 * @param toStep
+	 */
+	public void run(OnlineAlterSoupStep toStep) {
+		switch(afterStep) {
+		case STARTING:
+			createShadowSoup();
+			if (toStep == OnlineAlterSoupStep.CREATE_SHADOW_SOUP) break;
+		case CREATE_SHADOW_SOUP:
+			// Needed when resuming after a restart
+			DBHelper.getInstance(db).setShadowSoupName(soupName, getShadowSoupName());
+			copyTable();
+			if (toStep == OnlineAlterSoupStep.COPY_TABLE) break;
+		case COPY_TABLE:
+			swapTables();
+			if (toStep == OnlineAlterSoupStep.SWAP_TABLES) break;
+		case SWAP_TABLES:
+			dropOldTable();
+			if (toStep == OnlineAlterSoupStep.DROP_OLD_TABLE) break;
+		case DROP_OLD_TABLE:
+			// Nothing left to do
+			break;
+		}
+	}
+
+	/**
+	 * Used by test only
+	 * @param chunkSize number of soup elements copied per transaction
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return last step completed
+	 */
+	public OnlineAlterSoupStep getLastStepCompleted() {
+		return afterStep;
+	}
+
+	@Override
+	protected void initFromDbRow(SmartStore store, long rowId, JSONObject details, String statusStr) throws JSONException {
+		this.store = store;
+		this.db = store.getDatabase();
+		this.rowId = rowId;
+		this.afterStep = OnlineAlterSoupStep.valueOf(statusStr);
+		this.soupName = details.getString(SOUP_NAME);
+		this.soupTableName = details.getString(SOUP_TABLE_NAME);
+		this.shadowSoupTableName = details.optString(SHADOW_SOUP_TABLE_NAME, null);
+		this.newIndexSpecs = IndexSpec.fromJSON(details.getJSONArray(NEW_INDEX_SPECS));
+		this.lastCopiedId = details.optLong(LAST_COPIED_ID, -1);
+	}
+
+	@Override
+	public JSONObject getDetails() throws JSONException {
+		JSONObject details = new JSONObject();
+		details.put(SOUP_NAME, soupName);
+		details.put(SOUP_TABLE_NAME, soupTableName);
+		details.put(SHADOW_SOUP_TABLE_NAME, shadowSoupTableName);
+		details.put(NEW_INDEX_SPECS, IndexSpec.toJSON(newIndexSpecs));
+		details.put(LAST_COPIED_ID, lastCopiedId);
+		return details;
+	}
+
+	/**
+	 * Step 1: register shadow soup with new index specs and start applying writes to it
+	 */
+	protected void createShadowSoup() {
+		synchronized(db) {
+			db.beginTransaction();
+			try {
+				// Get a table name for the shadow soup
+				ContentValues soupMapValues = new ContentValues();
+				soupMapValues.put(SmartStore.SOUP_NAME_COL, getShadowSoupName());
+				long shadowSoupId = DBHelper.getInstance(db).insert(db, SmartStore.SOUP_ATTRS_TABLE, soupMapValues);
+				shadowSoupTableName = SmartStore.getSoupTableName(shadowSoupId);
+
+				// Create table, indexes and soup index map rows for shadow soup
+				store.registerSoupUsingTableName(getShadowSoupName(), newIndexSpecs, shadowSoupTableName);
+
+				// Update row in alter status table
+				updateLongOperationDbRow(OnlineAlterSoupStep.CREATE_SHADOW_SOUP);
+
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+			DBHelper.getInstance(db).setShadowSoupName(soupName, getShadowSoupName());
+		}
+	}
+
+	/**
+	 * Step 2: copy (and re-index) soup elements to shadow soup
+	 * Soup elements are copied in chunks of soup entry ids, one transaction per chunk, so that other reads and writes can run between chunks
+	 * Progress is saved in the alter status table after each chunk so that an interrupted copy resumes from the last chunk copied
+	 */
+	protected void copyTable() {
+		while (copyTableChunk()) {
+			// Keep going
+		}
+
+		synchronized(db) {
+			db.beginTransaction();
+			try {
+				updateLongOperationDbRow(OnlineAlterSoupStep.COPY_TABLE);
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Copy next chunk of soup elements to shadow soup
+	 * Also used by tests to simulate writes happening during the copy
+	 * @return true if a chunk was copied and false if there was nothing left to copy
+	 */
+	boolean copyTableChunk() {
+		synchronized(db) {
+			checkNotCancelled();
+			db.beginTransaction();
+			Cursor cursor = null;
+			try {
+				SoupWriter shadowSoupWriter = DBHelper.getInstance(db).getSoupWriter(db, getShadowSoupName());
+				String[] projection = new String[] {SmartStore.ID_COL, SmartStore.SOUP_COL, SmartStore.CREATED_COL, SmartStore.LAST_MODIFIED_COL, SmartStore.CONTENT_HASH_COL};
+				cursor = DBHelper.getInstance(db).query(db, soupTableName, projection, SmartStore.ID_COL, chunkSize + "", SmartStore.ID_COL + " > ?", lastCopiedId + "");
+				boolean copied = cursor.moveToFirst();
+				if (copied) {
+					do {
+						long soupEntryId = cursor.getLong(0);
+						String soupRaw = cursor.getString(1);
+						JSONObject soupElt = null;
+						try {
+							soupElt = new JSONObject(soupRaw);
+						} catch (JSONException e) {
+							SmartStoreLogger.w(TAG, "Could not parse soup element " + soupEntryId, e);
+							// Copied without indexed values
+						}
+						shadowSoupWriter.replace(soupEntryId, soupRaw, soupElt, cursor.getLong(2), cursor.getLong(3), cursor.isNull(4) ? null : cursor.getLong(4));
+						lastCopiedId = soupEntryId;
+					}
+					while (cursor.moveToNext());
+					updateLongOperationDbRow(afterStep);
+				}
+				db.setTransactionSuccessful();
+				return copied;
+			}
+			finally {
+				if (cursor != null) {
+					cursor.close();
+				}
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Step 3: make shadow soup the soup (in a single transaction)
+	 */
+	protected void swapTables() {
+		synchronized(db) {
+			checkNotCancelled();
+			String shadowSoupName = getShadowSoupName();
+			db.beginTransaction();
+			try {
+				// Ids handed out by the new table should not reuse ids handed out by the old table
+				long seq = simpleQueryForLong("SELECT IFNULL(MAX(seq), 0) FROM SQLITE_SEQUENCE WHERE name = ?", soupTableName);
+				db.execSQL("UPDATE SQLITE_SEQUENCE SET seq = ? WHERE name = ? AND seq < ?", new Object[] { seq, shadowSoupTableName, seq });
+				db.execSQL("INSERT INTO SQLITE_SEQUENCE (name, seq) SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM SQLITE_SEQUENCE WHERE name = ?)", new Object[] { shadowSoupTableName, seq, shadowSoupTableName });
+
+				// Soup now backed by shadow soup table
+				DBHelper.getInstance(db).delete(db, SmartStore.SOUP_ATTRS_TABLE, SmartStore.SOUP_NAME_PREDICATE, soupName);
+				DBHelper.getInstance(db).delete(db, SmartStore.SOUP_INDEX_MAP_TABLE, SmartStore.SOUP_NAME_PREDICATE, soupName);
+				ContentValues soupNameValues = new ContentValues();
+				soupNameValues.put(SmartStore.SOUP_NAME_COL, soupName);
+				DBHelper.getInstance(db).update(db, SmartStore.SOUP_ATTRS_TABLE, soupNameValues, SmartStore.SOUP_NAME_PREDICATE, shadowSoupName);
+				DBHelper.getInstance(db).update(db, SmartStore.SOUP_INDEX_MAP_TABLE, soupNameValues, SmartStore.SOUP_NAME_PREDICATE, shadowSoupName);
+
+				// Update row in alter status table
+				updateLongOperationDbRow(OnlineAlterSoupStep.SWAP_TABLES);
+
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+
+			// Stop dual writes and cleanup caches
+			DBHelper.getInstance(db).removeShadowSoupName(soupName);
+			DBHelper.getInstance(db).removeFromCache(soupName);
+			DBHelper.getInstance(db).removeFromCache(shadowSoupName);
+			SmartSqlHelper.getInstance(db).removeFromCache(soupName);
+			SmartSqlHelper.getInstance(db).removeFromCache(shadowSoupName);
+		}
+	}
+
+	/**
+	 * Step 4: drop old soup table
+	 */
+	protected void dropOldTable() {
+		synchronized(db) {
+			db.beginTransaction();
+			try {
+				db.execSQL("DROP TABLE IF EXISTS " + soupTableName);
+				db.execSQL("DROP TABLE IF EXISTS " + soupTableName + SmartStore.FTS_SUFFIX);
+				db.execSQL("DELETE FROM SQLITE_SEQUENCE WHERE name = ?", new Object[] { soupTableName });
+
+				// Update status row
+				updateLongOperationDbRow(OnlineAlterSoupStep.DROP_OLD_TABLE);
+
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Create row in long operations status table for a new online alter soup operation
+	 * @return
+	 * @throws JSONException
+	 */
+	protected long createLongOperationDbRow() throws JSONException {
+		Long now = System.currentTimeMillis();
+		ContentValues contentValues = new ContentValues();
+		contentValues.put(SmartStore.TYPE_COL, LongOperationType.onlineAlterSoup.toString());
+		contentValues.put(SmartStore.STATUS_COL, afterStep.toString());
+		contentValues.put(SmartStore.DETAILS_COL, getDetails().toString());
+		contentValues.put(SmartStore.CREATED_COL, now);
+		contentValues.put(SmartStore.LAST_MODIFIED_COL, now);
+		SmartStoreLogger.i(TAG, soupName + " " + afterStep);
+		return DBHelper.getInstance(db).insert(db, SmartStore.LONG_OPERATIONS_STATUS_TABLE, contentValues);
+	}
+
+	/**
+	 * Update row (status and details) in long operations status table for on-going online alter soup operation
+	 * Delete row if newStatus is OnlineAlterSoupStep.LAST
+	 * @param newStatus
+	 */
+	protected void updateLongOperationDbRow(OnlineAlterSoupStep newStatus) {
+		if (newStatus == OnlineAlterSoupStep.LAST) {
+			DBHelper.getInstance(db).delete(db, SmartStore.LONG_OPERATIONS_STATUS_TABLE, SmartStore.ID_PREDICATE, rowId + "");
+		}
+		else {
+			try {
+				ContentValues contentValues = new ContentValues();
+				contentValues.put(SmartStore.STATUS_COL, newStatus.toString());
+				contentValues.put(SmartStore.DETAILS_COL, getDetails().toString());
+				contentValues.put(SmartStore.LAST_MODIFIED_COL, System.currentTimeMillis());
+				DBHelper.getInstance(db).update(db, SmartStore.LONG_OPERATIONS_STATUS_TABLE, contentValues, SmartStore.ID_PREDICATE, rowId + "");
+			} catch (JSONException e) {
+				throw new SmartStoreException("Could not save progress of online alter soup", e);
+			}
+		}
+		afterStep = newStatus;
+		SmartStoreLogger.i(TAG, soupName + " " + newStatus);
+	}
+
+	/**
+	 * Cancel online alter of the given soup if there is one in progress: its shadow soup is dropped and its long operation row is deleted
+	 * Called when the soup is dropped (holding the db lock) - an operation still running then fails at its next step
+	 * @param store
+	 * @param soupName
+	 */
+	static void cancel(SmartStore store, String soupName) {
+		SQLiteDatabase db = store.getDatabase();
+		for (LongOperation longOperation : store.getLongOperations()) {
+			if (longOperation instanceof OnlineAlterSoupLongOperation && soupName.equals(((OnlineAlterSoupLongOperation) longOperation).soupName)) {
+				DBHelper.getInstance(db).delete(db, SmartStore.LONG_OPERATIONS_STATUS_TABLE, SmartStore.ID_PREDICATE, ((OnlineAlterSoupLongOperation) longOperation).rowId + "");
+			}
+		}
+		DBHelper.getInstance(db).removeShadowSoupName(soupName);
+		String shadowSoupName = SHADOW_SOUP_PREFIX + soupName;
+		if (store.hasSoup(shadowSoupName)) {
+			store.dropSoup(shadowSoupName);
+		}
+	}
+
+	/**
+	 * Throws if the operation was cancelled (i.e. its soup was dropped) since it started
+	 */
+	private void checkNotCancelled() {
+		if (simpleQueryForLong("SELECT COUNT(*) FROM " + SmartStore.LONG_OPERATIONS_STATUS_TABLE + " WHERE " + SmartStore.ID_PREDICATE, rowId + "") == 0) {
+			throw new SmartStoreException("Soup: " + soupName + " was dropped while being altered");
+		}
+	}
+
+	private String getShadowSoupName() {
+		return SHADOW_SOUP_PREFIX + soupName;
+	}
+
+	private long simpleQueryForLong(String sql, String... args) {
+		SQLiteStatement statement = db.compileStatement(sql);
+		try {
+			for (int i = 0; i < args.length; i++) {
+				statement.bindString(i + 1, args[i]);
+			}
+			return statement.simpleQueryForLong();
+		} finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query profiler for a SmartStore database
+ *
+ * For each query shape (the smart sql of the query spec, bind args excluded), the profiler keeps
+ * a latency histogram, the number of rows scanned (rows the cursor stepped through, including the ones
+ * skipped to reach the requested page) and the number of rows returned.
+ *
+ * Queries slower than the slow query threshold are logged and the slowest of them are kept
+ * along with their explain query plan, so that full scans on large soups can be spotted.
+ *
+ * Turned on with SmartStore.setProfileQueries(true)
+ */
+public class QueryProfiler {
+
+	private static final String TAG = "QueryProfiler";
+
+	// Defaults
+	public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 50;
+	public static final int MAX_SHAPES = 200;
+	public static final int MAX_SLOW_QUERIES = 10;
+
+	// Upper bounds (exclusive) of the histogram buckets in ms - last bucket is for everything slower
+	public static final long[] HISTOGRAM_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+	// Keys in json returned by toJSON
+	public static final String SLOW_QUERY_THRESHOLD_MS = "slowQueryThresholdMs";
+	public static final String HISTOGRAM_BOUNDS = "histogramBoundsMs";
+	public static final String SHAPES = "shapes";
+	public static final String SHAPE = "shape";
+	public static final String COUNT = "count";
+	public static final String TOTAL_MS = "totalMs";
+	public static final String AVERAGE_MS = "averageMs";
+	public static final String MAX_MS = "maxMs";
+	public static final String ROWS_SCANNED = "rowsScanned";
+	public static final String ROWS_RETURNED = "rowsReturned";
+	public static final String HISTOGRAM = "histogram";
+	public static final String SLOW_QUERIES = "slowQueries";
+	public static final String ELAPSED_MS = "elapsedMs";
+	public static final String FULL_SCAN = "fullScan";
+	public static final String EXPLAIN_QUERY_PLAN = "explainQueryPlan";
+
+	private final DBHelper dbHelper;
+	private volatile long slowQueryThresholdNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_THRESHOLD_MS);
+
+	// Statistics per shape - least recently run shapes are dropped first
+	private final Map<String, ShapeStats> shapeToStats = new LinkedHashMap<String, ShapeStats>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ShapeStats> eldest) {
+			return size() > MAX_SHAPES;
+		}
+	};
+
+	// Slowest queries - slowest first
+	private final List<SlowQuery> slowQueries = new ArrayList<>();
+
+	QueryProfiler(DBHelper dbHelper) {
+		this.dbHelper = dbHelper;
+	}
+
+	/**
+	 * @param slowQueryThresholdMs queries taking at least that long are logged and considered for the slow query list
+	 */
+	public void setSlowQueryThresholdMs(long slowQueryThresholdMs) {
+		this.slowQueryThresholdNs = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMs);
+	}
+
+	/**
+	 * Discard statistics collected so far
+	 */
+	public synchronized void reset() {
+		shapeToStats.clear();
+		slowQueries.clear();
+	}
+
+	/**
+	 * Record a query run
+	 *
+	 * @param db
+	 * @param shape smart sql of the query
+	 * @param sql sql actually run
+	 * @param args bind args
+	 * @param elapsedNs time spent running the query and reading its rows
+	 * @param rowsScanned rows the cursor stepped through
+	 * @param rowsReturned rows returned to the caller
+	 */
+	void record(SQLiteDatabase db, String shape, String sql, String[] args, long elapsedNs, int rowsScanned, int rowsReturned) {
+		boolean keepSlowQuery;
+		synchronized (this) {
+			ShapeStats stats = shapeToStats.get(shape);
+			if (stats == null) {
+				stats = new ShapeStats();
+				shapeToStats.put(shape, stats);
+			}
+			stats.add(elapsedNs, rowsScanned, rowsReturned);
+			keepSlowQuery = elapsedNs >= slowQueryThresholdNs
+					&& (slowQueries.size() < MAX_SLOW_QUERIES || elapsedNs > slowQueries.get(slowQueries.size() - 1).elapsedNs);
+		}
+
+		if (elapsedNs >= slowQueryThresholdNs) {
+			SmartStoreLogger.w(TAG, String.format("Slow query (%d ms, %d rows scanned, %d rows returned): %s",
+					TimeUnit.NANOSECONDS.toMillis(elapsedNs), rowsScanned, rowsReturned, shape));
+		}
+
+		// NB: explain query plan is only run for the slowest queries and outside of the lock
+		if (keepSlowQuery) {
+			SlowQuery slowQuery = new SlowQuery(shape, elapsedNs, rowsScanned, rowsReturned, dbHelper.explainQueryPlan(db, sql, args));
+			synchronized (this) {
+				slowQueries.add(slowQuery);
+				Collections.sort(slowQueries, (q1, q2) -> Long.compare(q2.elapsedNs, q1.elapsedNs));
+				if (slowQueries.size() > MAX_SLOW_QUERIES) {
+					slowQueries.remove(slowQueries.size() - 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return statistics as json
+	 * @throws JSONException
+	 */
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(SLOW_QUERY_THRESHOLD_MS, TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNs));
+		JSONArray bounds = new JSONArray();
+		for (long bound : HISTOGRAM_BOUNDS_MS) {
+			bounds.put(bound);
+		}
+		json.put(HISTOGRAM_BOUNDS, bounds);
+
+		// Shapes with the most time spent first
+		List<Map.Entry<String, ShapeStats>> entries = new ArrayList<>(shapeToStats.entrySet());
+		Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue().totalNs, e1.getValue().totalNs));
+		JSONArray shapes = new JSONArray();
+		for (Map.Entry<String, ShapeStats> entry : entries) {
+			JSONObject shapeJson = entry.getValue().toJSON();
+			shapeJson.put(SHAPE, entry.getKey());
+			shapes.put(shapeJson);
+		}
+		json.put(SHAPES, shapes);
+
+		JSONArray slowQueriesJson = new JSONArray();
+		for (SlowQuery slowQuery : slowQueries) {
+			slowQueriesJson.put(slowQuery.toJSON());
+		}
+		json.put(SLOW_QUERIES, slowQueriesJson);
+		return json;
+	}
+
+	private static double toMs(long ns) {
+		return ns / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return true if the plan has a step going through a whole table without using an index
+	 */
+	static boolean isFullScan(JSONObject explainQueryPlan) {
+		JSONArray rows = explainQueryPlan.optJSONArray(DBHelper.EXPLAIN_ROWS);
+		if (rows != null) {
+			for (int i = 0; i < rows.length(); i++) {
+				JSONObject row = rows.optJSONObject(i);
+				String detail = row == null ? null : row.optString("detail", null);
+				if (detail != null && detail.startsWith("SCAN ") && !detail.contains(" INDEX")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Statistics for a query shape
+	 */
+	private static class ShapeStats {
+		long count;
+		long totalNs;
+		long maxNs;
+		long rowsScanned;
+		long rowsReturned;
+		final long[] histogram = new long[HISTOGRAM_BOUNDS_MS.length + 1];
+
+		void add(long elapsedNs, int scanned, int returned) {
+			count++;
+			totalNs += elapsedNs;
+			maxNs = Math.max(maxNs, elapsedNs);
+			rowsScanned += scanned;
+			rowsReturned += returned;
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNs);
+			int bucket = 0;
+			while (bucket < HISTOGRAM_BOUNDS_MS.length && elapsedMs >= HISTOGRAM_BOUNDS_MS[bucket]) {
+				bucket++;
+			}
+			histogram[bucket]++;
+		}
+
+		JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put(COUNT, count);
+			json.put(TOTAL_MS, toMs(totalNs));
+			json.put(AVERAGE_MS, toMs(totalNs / count));
+			json.put(MAX_MS, toMs(maxNs));
+			json.put(ROWS_SCANNED, rowsScanned);
+			json.put(ROWS_RETURNED, rowsReturned);
+			JSONArray histogramJson = new JSONArray();
+			for (long bucketCount : histogram) {
+				histogramJson.put(bucketCount);
+			}
+			json.put(HISTOGRAM, histogramJson);
+			return json;
+		}
+	}
+
+	/**
+	 * A slow query along with its explain query plan
+	 */
+	private static class SlowQuery {
+		final String shape;
+		final long elapsedNs;
+		final int rowsScanned;
+		final int rowsReturned;
+		final JSONObject explainQueryPlan;
+
+		SlowQuery(String shape, long elapsedNs, int rowsScanned, int rowsReturned, JSONObject explainQueryPlan) {
+			this.shape = shape;
+			this.elapsedNs = elapsedNs;
+			this.rowsScanned = rowsScanned;
+			this.rowsReturned = rowsReturned;
+			this.explainQueryPlan = explainQueryPlan;
+		}
+
+		JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put(SHAPE, shape);
+			json.put(ELAPSED_MS, toMs(elapsedNs));
+			json.put(ROWS_SCANNED, rowsScanned);
+			json.put(ROWS_RETURNED, rowsReturned);
+			json.put(FULL_SCAN, isFullScan(explainQueryPlan));
+			json.put(EXPLAIN_QUERY_PLAN, explainQueryPlan);
+			return json;
+		}
+	}
+}
@@ -35,6 +35,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -66,6 +67,7 @@ public class QuerySpec {
     public static final String PAGE_SIZE = "pageSize";
     public static final String QUERY_TYPE = "queryType";
     public static final String SELECT_PATHS = "selectPaths";
+    public static final String KEYSET_PAGINATION = "keysetPagination";
 
     // Key members
 	public final QueryType queryType;
@@ -89,8 +91,16 @@ public class QuerySpec {
     // Like
     public final String likeKey;
 
+    // True if pages should be fetched by seeking past the last row of the previous page instead of using an offset
+    public final boolean keysetPagination;
+
     // Private constructor for soup query spec
     private QuerySpec(String soupName, String[] selectPaths, QueryType queryType, String matchKey, String beginKey, String endKey, String likeKey, String orderPath, Order order, int pageSize, String path) {
+        this(soupName, selectPaths, queryType, matchKey, beginKey, endKey, likeKey, orderPath, order, pageSize, path, false);
+    }
+
+    // Private constructor for soup query spec
+    private QuerySpec(String soupName, String[] selectPaths, QueryType queryType, String matchKey, String beginKey, String endKey, String likeKey, String orderPath, Order order, int pageSize, String path, boolean keysetPagination) {
     	this.soupName = soupName;
         this.selectPaths = selectPaths;
         this.path = path;
@@ -102,6 +112,7 @@ public class QuerySpec {
         this.orderPath = orderPath;
         this.order = order;
         this.pageSize = pageSize;
+        this.keysetPagination = keysetPagination;
         this.smartSql = computeSmartSql();
         this.countSmartSql = computeCountSmartSql();
         this.idsSmartSql = computeIdsSmartSql();
@@ -125,6 +136,7 @@ public class QuerySpec {
         this.likeKey = null;
         this.orderPath = null;
         this.order = null;    	
+        this.keysetPagination = false;
     }
 
     /**
@@ -280,6 +292,114 @@ public class QuerySpec {
     	return new QuerySpec(smartSql, pageSize);
     }
 
+    /**
+     * Return a copy of this query spec that uses keyset pagination
+     * Instead of skipping the rows of the previous pages (LIMIT offset,count), pages are fetched with
+     * WHERE (orderPath, soupEntryId) > (last orderPath value, last soupEntryId), so late pages cost the same as the first one
+     * Rows with the same order path value are ordered by soup entry id
+     *
+     * NB: only supported for exact/range/like/match queries with an order path
+     *
+     * @return
+     */
+    public QuerySpec withKeysetPagination() {
+        if (queryType == QueryType.smart || orderPath == null || order == null) {
+            throw new SmartStoreException("Keyset pagination is only supported for soup queries with an order path");
+        }
+        return new QuerySpec(soupName, selectPaths, queryType, matchKey, beginKey, endKey, likeKey, orderPath, order, pageSize, path, true);
+    }
+
+    /**
+     * Compute smartSql for keyset pagination
+     * Order path value and soup entry id are selected as the last two columns
+     *
+     * @param after position of the last row of the previous page (null for the first page)
+     * @return smart sql
+     */
+    String computeKeysetSmartSql(KeysetPosition after) {
+        List<String> fieldReferences = new ArrayList<>();
+        for (String selectPath : (selectPaths != null ? selectPaths : new String[] {SmartSqlHelper.SOUP})) {
+            fieldReferences.add(computeFieldReference(selectPath));
+        }
+        fieldReferences.add(computeFieldReference(orderPath));
+        fieldReferences.add(computeFieldReference(SmartStore.SOUP_ENTRY_ID));
+        String selectClause = SELECT + TextUtils.join(", ", fieldReferences) + " ";
+        return selectClause + computeFromClause() + computeKeysetWhereClause(after) + computeKeysetOrderClause();
+    }
+
+    /**
+     * Compute smartSql returning the keyset position (order path value and soup entry id) of every row
+     */
+    String computeKeysetPositionSmartSql() {
+        return SELECT + computeFieldReference(orderPath) + ", " + computeFieldReference(SmartStore.SOUP_ENTRY_ID) + " "
+                + computeFromClause() + computeWhereClause() + computeKeysetOrderClause();
+    }
+
+    /**
+     * @param after position of the last row of the previous page (null for the first page)
+     * @return args going with the sql returned by computeKeysetSmartSql
+     */
+    String[] getKeysetArgs(KeysetPosition after) {
+        List<String> args = new ArrayList<>();
+        String[] queryArgs = getArgs();
+        if (queryArgs != null) {
+            Collections.addAll(args, queryArgs);
+        }
+        if (after != null) {
+            if (after.orderKey != null) {
+                args.add(after.orderKey.toString());
+            }
+            args.add(Long.toString(after.soupEntryId));
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * @return where clause for keyset pagination
+     */
+    private String computeKeysetWhereClause(KeysetPosition after) {
+        String whereClause = computeWhereClause();
+        if (after == null) {
+            return whereClause;
+        }
+
+        String orderField = computeFieldReference(orderPath);
+        String idField = computeFieldReference(SmartStore.SOUP_ENTRY_ID);
+        String seekPred;
+        // NULLs come first in ascending order and last in descending order
+        if (order == Order.ascending) {
+            seekPred = after.orderKey == null
+                    ? "((" + orderField + " IS NULL AND " + idField + " > ?) OR " + orderField + " IS NOT NULL)"
+                    : "((" + orderField + ", " + idField + ") > (" + computeKeysetParameter(after.orderKey) + ", ?))";
+        } else {
+            seekPred = after.orderKey == null
+                    ? "(" + orderField + " IS NULL AND " + idField + " < ?)"
+                    : "((" + orderField + ", " + idField + ") < (" + computeKeysetParameter(after.orderKey) + ", ?) OR " + orderField + " IS NULL)";
+        }
+        return (whereClause.equals("") ? WHERE : whereClause + "AND ") + seekPred + " ";
+    }
+
+    /**
+     * Args are bound as strings: casting them back so that they compare like the values they came from
+     */
+    private String computeKeysetParameter(Object orderKey) {
+        if (orderKey instanceof Long) {
+            return "CAST(? AS INTEGER)";
+        } else if (orderKey instanceof Double) {
+            return "CAST(? AS REAL)";
+        } else {
+            return "?";
+        }
+    }
+
+    /**
+     * @return order clause for keyset pagination
+     */
+    private String computeKeysetOrderClause() {
+        return ORDER_BY + computeFieldReference(orderPath) + " " + order.sql + ", "
+                + computeFieldReference(SmartStore.SOUP_ENTRY_ID) + " " + order.sql + " ";
+    }
+
     /**
      * Compute smartSql for exact/like/range/match queries
      */
@@ -431,6 +551,7 @@ public class QuerySpec {
      */
     private String computeOrderClause() {
     	if (orderPath == null || order == null) return "";
+    	if (keysetPagination) return computeKeysetOrderClause(); // same order when falling back to an offset
 
     	return ORDER_BY + computeFieldReference(orderPath) + " " + order.sql + " ";
     }
@@ -503,6 +624,7 @@ public class QuerySpec {
 		String orderPath = JSONObjectHelper.optString(querySpecJson, ORDER_PATH);
 		Order order = Order.valueOf(JSONObjectHelper.optString(querySpecJson, ORDER, "ascending"));
 		int pageSize = querySpecJson.getInt(PAGE_SIZE); 
+		boolean keysetPagination = querySpecJson.optBoolean(KEYSET_PAGINATION, false);
 	
 		// Building query spec
 		QuerySpec querySpec = null;
@@ -514,7 +636,7 @@ public class QuerySpec {
 	    case smart:   querySpec = buildSmartQuerySpec(smartSql, pageSize); break;
 	    default: throw new RuntimeException("Fell through switch: " + queryType);
 		}
-		return querySpec;
+		return keysetPagination ? querySpec.withKeysetPagination() : querySpec;
 	}
 
 	/**
@@ -529,6 +651,19 @@ public class QuerySpec {
     }
 
 
+    /**
+     * Position of a row in the results of a query using keyset pagination
+     */
+    public static class KeysetPosition {
+        public final Object orderKey;     // value at order path (Long, Double, String or null)
+        public final long soupEntryId;
+
+        public KeysetPosition(Object orderKey, long soupEntryId) {
+            this.orderKey = orderKey;
+            this.soupEntryId = soupEntryId;
+        }
+    }
+
     /**
      * Simple class to represent query order
      */
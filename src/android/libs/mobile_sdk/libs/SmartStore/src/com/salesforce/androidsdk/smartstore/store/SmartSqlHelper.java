@@ -26,39 +26,51 @@
  */
 package com.salesforce.androidsdk.smartstore.store;
 
+import android.util.LruCache;
+
 import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
  * SmartSqlHelper "smart" sql Helper
  * 
  * Singleton class that provides helpful methods for converting/running "smart" sql
+ * It also caches converted sql (the conversion only depends on the smart sql text and the column mapping of the soups it references)
  */
 public class SmartSqlHelper  {
 
-	private static final String NO_STRINGS_OR_FULL_STRINGS_REGEXP = "^([^']|'[^']*')*";
-	//  ^           # the start of the string, then
-	//  ([^']       # either not a quote character
-	//  |'[^']*'    # or a fully quoted string
-	//  )*          # as many times as you want
-
-	private static final String INSIDE_QUOTED_STRING_REGEXP = NO_STRINGS_OR_FULL_STRINGS_REGEXP + "'[^']*";
-
-	private static final String INSIDE_QUOTED_STRING_FOR_FTS_MATCH_PREDICATE_REGEXP = NO_STRINGS_OR_FULL_STRINGS_REGEXP + "MATCH[ ]+'[^']*";
+	private static final String MATCH_KEYWORD = "MATCH";
 
 	public static final Pattern SOUP_PATH_PATTERN = Pattern.compile("\\{([^}]+)\\}");
 
 	public static final String TABLE_DOT_JSON_EXTRACT_REGEXP = "(\\w+)\\.json_extract\\(soup";
 
+	// Converted sql cache count limit
+	private static final int SQL_CACHE_COUNT_LIMIT = 256;
+
 	private static Map<SQLiteDatabase, SmartSqlHelper> INSTANCES;
 
+	// Cache of smart sql to converted sql
+	private final LruCache<String, ConvertedSql> smartSqlToConvertedSqlMap = new LruCache<>(SQL_CACHE_COUNT_LIMIT);
+
+	// Bumped on every invalidation - conversions started before an invalidation are not cached
+	private final AtomicInteger cacheGeneration = new AtomicInteger();
+
+	// Cache statistics
+	private final AtomicLong cacheHitCount = new AtomicLong();
+	private final AtomicLong cacheMissCount = new AtomicLong();
+
 	/**
 	 * Returns the instance of this class associated with the database specified.
 	 *
@@ -77,6 +89,17 @@ public class SmartSqlHelper  {
 		return instance;
 	}
 
+	/**
+	 * Releases the instance of this class associated with the database specified (called when the database is closed).
+	 *
+	 * @param db Database.
+	 */
+	static synchronized void closeInstance(SQLiteDatabase db) {
+		if (INSTANCES != null) {
+			INSTANCES.remove(db);
+		}
+	}
+
     public static final String SOUP = "_soup";
 	
 	/**
@@ -92,68 +115,102 @@ public class SmartSqlHelper  {
 	 * @return actual sql     
 	 */
 	public String convertSmartSql(SQLiteDatabase db, String smartSql) {
+		ConvertedSql cached = smartSqlToConvertedSqlMap.get(smartSql);
+		if (cached != null) {
+			cacheHitCount.incrementAndGet();
+			return cached.sql;
+		}
+		cacheMissCount.incrementAndGet();
 
-		// Select's only
-		String smartSqlLowerCase = smartSql.toLowerCase(Locale.getDefault()).trim();
-		if (smartSqlLowerCase.startsWith("insert") || smartSqlLowerCase.startsWith("update") || smartSqlLowerCase.startsWith("delete")) {
-			throw new SmartSqlException("Only SELECT are supported");
+		int generation = cacheGeneration.get();
+		Set<String> soupNames = new HashSet<>();
+		String sql = convertSmartSqlUncached(db, smartSql, soupNames);
+		if (generation == cacheGeneration.get()) {
+			smartSqlToConvertedSqlMap.put(smartSql, new ConvertedSql(sql, soupNames));
 		}
+		return sql;
+	}
 
-		// Replacing {soupName} and {soupName:path}
-		StringBuffer sql = new StringBuffer();
-		Matcher matcher = SOUP_PATH_PATTERN.matcher(smartSql);
-		while (matcher.find()) {
-			String fullMatch = matcher.group();
-			String match = matcher.group(1);
-			int position = matcher.start();
-
-			String beforeStr = smartSql.substring(0, position);
-			if (beforeStr.matches(INSIDE_QUOTED_STRING_REGEXP)
-				&& !beforeStr.matches(INSIDE_QUOTED_STRING_FOR_FTS_MATCH_PREDICATE_REGEXP))
-			{
-				continue;
+	/**
+	 * Remove from cache the converted sql of queries referencing the given soup
+	 * Should be called whenever the soup's column mapping changes (soup registered, altered or dropped)
+	 *
+	 * @param soupName
+	 */
+	public void removeFromCache(String soupName) {
+		cacheGeneration.incrementAndGet();
+		for (Map.Entry<String, ConvertedSql> entry : smartSqlToConvertedSqlMap.snapshot().entrySet()) {
+			if (entry.getValue().soupNames.contains(soupName)) {
+				smartSqlToConvertedSqlMap.remove(entry.getKey());
 			}
+		}
+	}
+
+	/**
+	 * Resets all cached converted sql
+	 */
+	public void clearMemoryCache() {
+		cacheGeneration.incrementAndGet();
+		smartSqlToConvertedSqlMap.evictAll();
+	}
 
-			String[] parts = match.split(":");
-			String soupName = parts[0];
-			String soupTableName = getSoupTableNameForSmartSql(db, soupName, position);
-			boolean tableQualified = smartSql.charAt(position-1) == '.';
-			String tableQualifier = tableQualified ? "" : soupTableName + ".";
+	/**
+	 * @return number of conversions served from the cache
+	 */
+	public long getCacheHitCount() {
+		return cacheHitCount.get();
+	}
 
-			// {soupName}
-			if (parts.length == 1) {
-				matcher.appendReplacement(sql, soupTableName);
-			} else if (parts.length == 2) {
-				String path = parts[1];
+	/**
+	 * @return number of conversions that could not be served from the cache
+	 */
+	public long getCacheMissCount() {
+		return cacheMissCount.get();
+	}
 
-				// {soupName:_soup}
-				switch (path) {
-					case SOUP:
-						matcher.appendReplacement(sql, tableQualifier + SmartStore.SOUP_COL);
-						break;
-					// {soupName:_soupEntryId}
-					case SmartStore.SOUP_ENTRY_ID:
-						matcher.appendReplacement(sql, tableQualifier + SmartStore.ID_COL);
-						break;
-					// {soupName:_soupCreatedDate}
-					case SmartStore.SOUP_CREATED_DATE:
-						matcher.appendReplacement(sql, tableQualifier + SmartStore.CREATED_COL);
-						break;
-					// {soupName:_soupLastModifiedDate}
-					case SmartStore.SOUP_LAST_MODIFIED_DATE:
-						matcher.appendReplacement(sql, tableQualifier + SmartStore.LAST_MODIFIED_COL);
-						break;
-					// {soupName:path}
-					default:
-						String columnName = getColumnNameForPathForSmartSql(db, soupName, path, position);
-						matcher.appendReplacement(sql, columnName.replace("$", "\\$") /* treat any $ as litteral */);
-						break;
+	/**
+	 * Convert "smart" sql query to actual sql without going through the cache
+	 *
+	 * @param db
+	 * @param smartSql
+	 * @param soupNames set to which the names of the soups referenced by the query are added
+	 * @return actual sql
+	 */
+	private String convertSmartSqlUncached(SQLiteDatabase db, String smartSql, Set<String> soupNames) {
+
+		// Select's only
+		String smartSqlLowerCase = smartSql.toLowerCase(Locale.getDefault()).trim();
+		if (smartSqlLowerCase.startsWith("insert") || smartSqlLowerCase.startsWith("update") || smartSqlLowerCase.startsWith("delete")) {
+			throw new SmartSqlException("Only SELECT are supported");
+		}
+
+		// Replacing {soupName} and {soupName:path} in a single pass
+		// References inside quoted strings are left alone, except inside the string of a MATCH predicate (full-text search)
+		StringBuilder sql = new StringBuilder(smartSql.length());
+		int length = smartSql.length();
+		boolean insideQuotedString = false;
+		boolean insideMatchString = false;
+		int referenceEnd = -1;   // references can't overlap - no new reference can start before referenceEnd
+		int copiedUpTo = 0;      // smartSql before that position has already been copied to sql
+		for (int position = 0; position < length; position++) {
+			char c = smartSql.charAt(position);
+			if (c == '\'') {
+				insideMatchString = !insideQuotedString && isPrecededByMatchKeyword(smartSql, position);
+				insideQuotedString = !insideQuotedString;
+			} else if (c == '{' && position > referenceEnd) {
+				int end = smartSql.indexOf('}', position + 1);
+				if (end == -1) {
+					referenceEnd = length; // no more references
+				} else if (end > position + 1) {
+					referenceEnd = end;
+					if (!insideQuotedString || insideMatchString) {
+						sql.append(smartSql, copiedUpTo, position).append(convertReference(db, smartSql, position, end, soupNames));
+						copiedUpTo = end + 1;
+					}
 				}
-			} else if (parts.length > 2) {
-				reportSmartSqlError("Invalid soup/path reference " + fullMatch, position);
 			}
 		}
-		matcher.appendTail(sql);
+		sql.append(smartSql, copiedUpTo, length);
 
         // SQL query as string
 		String sqlStr = sql.toString();
@@ -167,6 +224,67 @@ public class SmartSqlHelper  {
 		return sqlStr;
 	}
 	
+	/**
+	 * Convert reference found at smartSql[start..end] i.e. {soupName} or {soupName:path}
+	 *
+	 * @param db
+	 * @param smartSql
+	 * @param start position of opening brace
+	 * @param end position of closing brace
+	 * @param soupNames set to which the name of the referenced soup is added
+	 * @return actual sql for reference
+	 */
+	private String convertReference(SQLiteDatabase db, String smartSql, int start, int end, Set<String> soupNames) {
+		String fullMatch = smartSql.substring(start, end + 1);
+		String match = smartSql.substring(start + 1, end);
+		String[] parts = match.split(":");
+		String soupName = parts[0];
+		soupNames.add(soupName);
+		String soupTableName = getSoupTableNameForSmartSql(db, soupName, start);
+		boolean tableQualified = start > 0 && smartSql.charAt(start - 1) == '.';
+		String tableQualifier = tableQualified ? "" : soupTableName + ".";
+
+		// {soupName}
+		if (parts.length == 1) {
+			return soupTableName;
+		} else if (parts.length == 2) {
+			String path = parts[1];
+			switch (path) {
+				// {soupName:_soup}
+				case SOUP:
+					return tableQualifier + SmartStore.SOUP_COL;
+				// {soupName:_soupEntryId}
+				case SmartStore.SOUP_ENTRY_ID:
+					return tableQualifier + SmartStore.ID_COL;
+				// {soupName:_soupCreatedDate}
+				case SmartStore.SOUP_CREATED_DATE:
+					return tableQualifier + SmartStore.CREATED_COL;
+				// {soupName:_soupLastModifiedDate}
+				case SmartStore.SOUP_LAST_MODIFIED_DATE:
+					return tableQualifier + SmartStore.LAST_MODIFIED_COL;
+				// {soupName:path}
+				default:
+					return getColumnNameForPathForSmartSql(db, soupName, path, start);
+			}
+		} else {
+			reportSmartSqlError("Invalid soup/path reference " + fullMatch, start);
+			return null; // not reached
+		}
+	}
+
+	/**
+	 * @param smartSql
+	 * @param quotePosition position of a quote opening a string
+	 * @return true if the quote is preceded by MATCH and one or more spaces
+	 */
+	private static boolean isPrecededByMatchKeyword(String smartSql, int quotePosition) {
+		int i = quotePosition - 1;
+		while (i >= 0 && smartSql.charAt(i) == ' ') {
+			i--;
+		}
+		return i < quotePosition - 1 && smartSql.startsWith(MATCH_KEYWORD, i - MATCH_KEYWORD.length() + 1);
+	}
+
 	private String getColumnNameForPathForSmartSql(SQLiteDatabase db, String soupName, String path, int position) {
 		String columnName = null;
 		boolean indexed = DBHelper.getInstance(db).hasIndexForPath(db, soupName, path);
@@ -197,6 +315,19 @@ public class SmartSqlHelper  {
 		throw new SmartSqlException(message + " at character " + position);
 	}
     
+	/**
+	 * Converted sql along with the soups it references
+	 */
+	private static class ConvertedSql {
+		final String sql;
+		final Set<String> soupNames;
+
+		ConvertedSql(String sql, Set<String> soupNames) {
+			this.sql = sql;
+			this.soupNames = Collections.unmodifiableSet(soupNames);
+		}
+	}
+
     /**
      * Exception thrown when smart sql failed to be parsed
      */
@@ -27,6 +27,7 @@
 package com.salesforce.androidsdk.smartstore.store;
 
 import android.content.ContentValues;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.text.TextUtils;
 
@@ -35,20 +36,39 @@ import androidx.annotation.NonNull;
 import com.salesforce.androidsdk.analytics.EventBuilderHelper;
 import com.salesforce.androidsdk.app.SalesforceSDKManager;
 import com.salesforce.androidsdk.smartstore.store.LongOperation.LongOperationType;
+import com.salesforce.androidsdk.smartstore.store.QuerySpec.KeysetPosition;
 import com.salesforce.androidsdk.smartstore.store.QuerySpec.QueryType;
 import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -60,6 +80,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * and searchable manner. Similar in some ways to CouchDB, SmartStore stores documents as JSON values.
  * SmartStore is inspired by the Apple Newton OS Soup/Store model.
  * The main challenge here is how to effectively store documents with dynamic fields, and still allow indexing and searching.
+ *
+ * Reads vs writes
+ * Writes (and schema changes) are serialized by synchronizing on the database object.
+ * Reads (query, queryAsString, countQuery, retrieve, lookupSoupEntryId) do not synchronize on the database object:
+ * the database is opened with write-ahead logging, so each read is run on one of the reader connections of the
+ * database connection pool and sees the last committed state, in parallel with other reads and with the single writer.
+ * When a read is done by the thread that has a write transaction in progress, the writer's connection is used instead
+ * and the read sees the uncommitted changes of that transaction.
  */
 public class SmartStore  {
 
@@ -77,17 +105,25 @@ public class SmartStore  {
     // Table to keep track of status of long operations in flight
     protected static final String LONG_OPERATIONS_STATUS_TABLE = "long_operations_status";
 
+    // Table to keep track of locally modified soup entries (in the order they were modified) of soups with a change journal
+    protected static final String CHANGE_JOURNAL_TABLE = "change_journal";
+
+    // Table to keep track of soups with a change journal
+    protected static final String CHANGE_JOURNAL_SOUPS_TABLE = "change_journal_soups";
+
     // Columns of the soup index map table
     public static final String SOUP_NAME_COL = "soupName";
     public static final String PATH_COL = "path";
     protected static final String COLUMN_NAME_COL = "columnName";
     public static final String COLUMN_TYPE_COL = "columnType";
+    protected static final String PREDICATE_COL = "predicate";
 
     // Columns of a soup table
     protected static final String ID_COL = "id";
     protected static final String CREATED_COL = "created";
     protected static final String LAST_MODIFIED_COL = "lastModified";
     protected static final String SOUP_COL = "soup";
+    protected static final String CONTENT_HASH_COL = "contentHash";
 
 	// Column of a fts soup table
 	protected static final String ROWID_COL = "rowid";
@@ -97,6 +133,10 @@ public class SmartStore  {
     protected static final String DETAILS_COL = "details";
 	protected static final String STATUS_COL = "status";
 
+    // Columns of change journal tables
+    protected static final String SOUP_ENTRY_ID_COL = "soupEntryId";
+    protected static final String DIRTY_PATH_COL = "dirtyPath";
+
     // JSON fields added to soup element on insert/update
     public static final String SOUP_ENTRY_ID = "_soupEntryId";
     public static final String SOUP_LAST_MODIFIED_DATE = "_soupLastModifiedDate";
@@ -107,6 +147,21 @@ public class SmartStore  {
 	protected static final String ID_PREDICATE = ID_COL + " = ?";
 	protected static final String ROWID_PREDICATE = ROWID_COL + " =?";
 
+	// Number of values per IN query when looking up soup entry ids in bulk
+	private static final int LOOKUP_CHUNK_SIZE = 500;
+
+	// Initial size of the buffer cells are copied into when serializing query results (it grows as needed)
+	private static final int CELL_BUFFER_INITIAL_SIZE = 1024;
+
+	// Initial size of the arrays single column results are read into (they grow as needed)
+	private static final int COLUMN_INITIAL_CAPACITY = 16;
+
+	// Number of soup elements per transaction (import) or per query (export) when importing / exporting soups
+	public static final int IMPORT_EXPORT_BATCH_SIZE = 1000;
+
+	// Used to write unicode escapes for control characters
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 	// Backing database
 	protected SQLiteOpenHelper dbOpenHelper;
 
@@ -163,6 +218,7 @@ public class SmartStore  {
 	                      .append(",").append(PATH_COL).append(" TEXT")
 	                      .append(",").append(COLUMN_NAME_COL).append(" TEXT")
 	                      .append(",").append(COLUMN_TYPE_COL).append(" TEXT")
+	                      .append(",").append(PREDICATE_COL).append(" TEXT")
 	                      .append(")");
 	        db.execSQL(sb.toString());
 	        // Add index on soup_name column
@@ -182,6 +238,52 @@ public class SmartStore  {
 
 	        // Create alter_soup_status table
 	        createLongOperationsStatusTable(db);
+
+	        // Create change journal tables
+	        createChangeJournalTables(db);
+    	}
+    }
+
+    /**
+     * Add predicate column to soup_index_map table of databases created before partial indexes were supported
+     * @param db
+     */
+    public static void addPredicateColumnIfNeeded(SQLiteDatabase db) {
+    	synchronized(db) {
+    		if (!hasColumn(db, SOUP_INDEX_MAP_TABLE, PREDICATE_COL)) {
+    			db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s TEXT", SOUP_INDEX_MAP_TABLE, PREDICATE_COL));
+    		}
+    	}
+    }
+
+    /**
+     * Add content hash column to soup table created before unchanged soup elements were skipped on update
+     * Rows written before get a null hash (and will therefore be written on their next update)
+     * @param db
+     * @param soupTableName
+     */
+    public static void addContentHashColumnIfNeeded(SQLiteDatabase db, String soupTableName) {
+    	synchronized(db) {
+    		if (!hasColumn(db, soupTableName, CONTENT_HASH_COL)) {
+    			db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", soupTableName, CONTENT_HASH_COL));
+    		}
+    	}
+    }
+
+    static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+    	Cursor c = null;
+    	try {
+    		c = db.rawQuery(String.format("PRAGMA table_info(%s)", table), null);
+    		while (c.moveToNext()) {
+    			if (column.equals(c.getString(1))) {
+    				return true;
+    			}
+    		}
+    		return false;
+    	} finally {
+    		if (c != null) {
+    			c.close();
+    		}
     	}
     }
 
@@ -204,6 +306,33 @@ public class SmartStore  {
     	}
     }
 
+    /**
+     * Create change_journal and change_journal_soups tables
+     * @param db
+     */
+    public static void createChangeJournalTables(SQLiteDatabase db) {
+    	synchronized(db) {
+    		StringBuilder sb = new StringBuilder();
+    		sb.append("CREATE TABLE IF NOT EXISTS ").append(CHANGE_JOURNAL_SOUPS_TABLE).append(" (")
+    		.append(SOUP_NAME_COL).append(" TEXT PRIMARY KEY")
+    		.append(",").append(DIRTY_PATH_COL).append(" TEXT")
+    		.append(")");
+    		db.execSQL(sb.toString());
+
+    		// Journal id gives the order in which soup entries were modified
+    		sb = new StringBuilder();
+    		sb.append("CREATE TABLE IF NOT EXISTS ").append(CHANGE_JOURNAL_TABLE).append(" (")
+    		.append(ID_COL).append(" INTEGER PRIMARY KEY AUTOINCREMENT")
+    		.append(",").append(SOUP_NAME_COL).append(" TEXT")
+    		.append(",").append(SOUP_ENTRY_ID_COL).append(" INTEGER")
+    		.append(",").append(CREATED_COL).append(" INTEGER")
+    		.append(")");
+    		db.execSQL(sb.toString());
+    		// A soup entry is in the journal at most once (at the position of its first pending change)
+    		db.execSQL(String.format("CREATE UNIQUE INDEX IF NOT EXISTS %s on %s ( %s, %s )", CHANGE_JOURNAL_TABLE + "_0", CHANGE_JOURNAL_TABLE, SOUP_NAME_COL, SOUP_ENTRY_ID_COL));
+    	}
+    }
+
     /**
      * Relies on SQLiteOpenHelper for database handling.
      *
@@ -240,6 +369,43 @@ public class SmartStore  {
 		return DBHelper.getInstance(getDatabase()).getLastExplainQueryPlan();
 	}
 
+	/**
+	 * If turned on, latency and row counts of queries are recorded per query shape
+	 * and explain query plan is captured for the slowest queries (see QueryProfiler)
+	 *
+	 * @param profileQueries true to turn profiling on and false to turn off
+	 */
+	public void setProfileQueries(boolean profileQueries) {
+		DBHelper.getInstance(getDatabase()).setProfileQueries(profileQueries);
+	}
+
+	/**
+	 * @return query profiler (null if profiling is off)
+	 */
+	public QueryProfiler getQueryProfiler() {
+		return DBHelper.getInstance(getDatabase()).getQueryProfiler();
+	}
+
+	/**
+	 * @return query statistics collected so far as json (null if profiling is off)
+	 * @throws JSONException
+	 */
+	public JSONObject getQueryProfile() throws JSONException {
+		QueryProfiler queryProfiler = getQueryProfiler();
+		return queryProfiler == null ? null : queryProfiler.toJSON();
+	}
+
+	/**
+	 * Open the database (if not already opened) and load table names and index specs of all soups into the caches
+	 * Meant to be called in the background before the first queries (see SmartStoreSDKManager.warmUpSmartStores)
+	 *
+	 * @return number of soups
+	 */
+	public int warmUp() {
+		final SQLiteDatabase db = getDatabase();
+		return DBHelper.getInstance(db).warmUp(db);
+	}
+
 	/**
      * Get database size
      */
@@ -255,14 +421,56 @@ public class SmartStore  {
 	 * NB: to avoid deadlock, caller should have synchronized(store.getDatabase()) around the whole transaction
      */
     public void beginTransaction() {
-    	getDatabase().beginTransaction();
+    	beginTransaction(getDatabase());
     }
 
     /**
      * End transaction (commit or rollback)
      */
     public void endTransaction() {
-    	getDatabase().endTransaction();
+    	endTransaction(getDatabase());
+    }
+
+    /**
+     * Start transaction on db - soup changes made until the outermost transaction ends are notified once it commits
+     * NB: write transactions touching soup elements should always be started with this method
+     * @param db
+     */
+    static void beginTransaction(SQLiteDatabase db) {
+    	if (db.inTransaction()) {
+    		db.beginTransaction();
+    	} else {
+    		db.beginTransactionWithListener(DBHelper.getInstance(db).getSoupChangeNotifier());
+    	}
+    }
+
+    /**
+     * End transaction on db started with beginTransaction(db) - notifies soup changes if it was the outermost one and it committed
+     * @param db
+     */
+    static void endTransaction(SQLiteDatabase db) {
+    	db.endTransaction();
+    	DBHelper.getInstance(db).getSoupChangeNotifier().afterEndTransaction(db);
+    }
+
+    /**
+     * Register a listener called (on a background thread) after soups of this store are changed
+     * Changes are coalesced per transaction: the listener is called once per soup changed, after the transaction commits
+     * NB: listeners are kept per database i.e. they are shared by all SmartStore instances for the same database
+     * @param listener
+     */
+    public void registerSoupChangeListener(SoupChangeListener listener) {
+    	final SQLiteDatabase db = getDatabase();
+    	DBHelper.getInstance(db).getSoupChangeNotifier().addListener(listener);
+    }
+
+    /**
+     * Unregister a listener registered with registerSoupChangeListener
+     * @param listener
+     */
+    public void unregisterSoupChangeListener(SoupChangeListener listener) {
+    	final SQLiteDatabase db = getDatabase();
+    	DBHelper.getInstance(db).getSoupChangeNotifier().removeListener(listener);
     }
 
     /**
@@ -363,7 +571,8 @@ public class SmartStore  {
 		createTableStmt.append(", ").append(SOUP_COL).append(" TEXT");
 
         createTableStmt.append(", ").append(CREATED_COL).append(" INTEGER")
-                        .append(", ").append(LAST_MODIFIED_COL).append(" INTEGER");
+                        .append(", ").append(LAST_MODIFIED_COL).append(" INTEGER")
+                        .append(", ").append(CONTENT_HASH_COL).append(" INTEGER");
 
         final String createIndexFormat = "CREATE INDEX %s_%s_idx on %s ( %s )";
 
@@ -371,11 +580,27 @@ public class SmartStore  {
             createIndexStmts.add(String.format(createIndexFormat, soupTableName, col, soupTableName, col));
         }
 
+        // Columns of paths extracted to columns (used by compound indexes)
+        Map<String, String> pathToColumnName = new HashMap<>();
+        for (int j = 0; j < indexSpecs.length; j++) {
+            if (TypeGroup.value_extracted_to_column.isMember(indexSpecs[j].type)) {
+                pathToColumnName.put(indexSpecs[j].path, soupTableName + "_" + j);
+            }
+        }
+
         int i = 0;
         for (IndexSpec indexSpec : indexSpecs) {
             // Column name or expression the db index is on
             String columnName = soupTableName + "_" + i;
-            if (TypeGroup.value_indexed_with_json_extract.isMember(indexSpec.type)) {
+            if (indexSpec.isCompound()) {
+                // Same column or expression as smart sql would use for each path, so that queries can use the index
+                List<String> columnNames = new ArrayList<>();
+                for (String path : indexSpec.getPaths()) {
+                    String pathColumnName = pathToColumnName.get(path);
+                    columnNames.add(pathColumnName != null ? pathColumnName : "json_extract(" + SOUP_COL + ", '$." + path + "')");
+                }
+                columnName = TextUtils.join(", ", columnNames);
+            } else if (TypeGroup.value_indexed_with_json_extract.isMember(indexSpec.type)) {
                 columnName = "json_extract(" + SOUP_COL + ", '$." + indexSpec.path + "')";
             }
 
@@ -396,13 +621,18 @@ public class SmartStore  {
             values.put(PATH_COL, indexSpec.path);
             values.put(COLUMN_NAME_COL, columnName);
             values.put(COLUMN_TYPE_COL, indexSpec.type.toString());
+            values.put(PREDICATE_COL, indexSpec.predicate);
             soupIndexMapInserts.add(values);
 
-            // for create index
-			createIndexStmts.add(String.format(createIndexFormat, soupTableName, "" + i, soupTableName, columnName));;
+            // for create index (partial index if there is a predicate)
+            String createIndexStmt = String.format(createIndexFormat, soupTableName, "" + i, soupTableName, columnName);
+            if (indexSpec.predicate != null) {
+                createIndexStmt += " WHERE " + columnName + " " + indexSpec.predicate;
+            }
+			createIndexStmts.add(createIndexStmt);
 
             // for the cache
-            indexSpecsToCache[i] = new IndexSpec(indexSpec.path, indexSpec.type, columnName);
+            indexSpecsToCache[i] = new IndexSpec(indexSpec.path, indexSpec.type, columnName, indexSpec.predicate);
 
             i++;
         }
@@ -441,6 +671,9 @@ public class SmartStore  {
 
             // Add to soupNameToIndexSpecsMap
             DBHelper.getInstance(db).cacheIndexSpecs(soupName, indexSpecsToCache);
+
+            // Converted smart sql referencing soup is no longer valid
+            SmartSqlHelper.getInstance(db).removeFromCache(soupName);
         } finally {
             db.endTransaction();
         }
@@ -507,10 +740,27 @@ public class SmartStore  {
 	 */
 	public void alterSoup(String soupName, IndexSpec[] indexSpecs,
 			boolean reIndexData) throws JSONException {
+		if (DBHelper.getInstance(getDatabase()).getShadowSoupName(soupName) != null) throw new SmartStoreException("Soup: " + soupName + " is being altered");
 		AlterSoupLongOperation operation = new AlterSoupLongOperation(this, soupName, indexSpecs, reIndexData);
 		operation.run();
 	}
 
+	/**
+	 * Alter soup without blocking readers and writers (soup elements are always re-indexed)
+	 * The new soup table is built in the background while the soup keeps using its current table (writes are applied to both),
+	 * then the soup is switched to the new table in a single transaction.
+	 * If the application is killed before completion, the alter soup is completed when the database is next opened.
+	 *
+	 * @param soupName
+	 * @param indexSpecs array of index specs
+	 * @return future that completes once the soup uses its new table
+	 * @throws JSONException
+	 */
+	public CompletableFuture<Void> alterSoupOnline(String soupName, IndexSpec[] indexSpecs) throws JSONException {
+		OnlineAlterSoupLongOperation operation = new OnlineAlterSoupLongOperation(this, soupName, indexSpecs);
+		return CompletableFuture.runAsync(operation::run, threadPool);
+	}
+
 	/**
 	 * Re-index all soup elements for passed indexPaths
 	 * NB: only indexPath that have IndexSpec on them will be indexed
@@ -520,6 +770,22 @@ public class SmartStore  {
 	 * @param handleTx
 	 */
 	public void reIndexSoup(String soupName, String[] indexPaths, boolean handleTx) {
+		reIndexSoup(soupName, indexPaths, handleTx, -1, -1);
+	}
+
+	/**
+	 * Re-index soup elements with a soup entry id greater than afterSoupEntryId for passed indexPaths
+	 * Soup elements are processed in soup entry id order, and at most maxRows of them are processed (all of them if maxRows is -1)
+	 * Used by alter soup to re-index in chunks
+	 *
+	 * @param soupName
+	 * @param indexPaths
+	 * @param handleTx
+	 * @param afterSoupEntryId
+	 * @param maxRows
+	 * @return soup entry id of last soup element re-indexed or -1 if there was none to re-index
+	 */
+	long reIndexSoup(String soupName, String[] indexPaths, boolean handleTx, long afterSoupEntryId, int maxRows) {
 		final SQLiteDatabase db = getDatabase();
 		synchronized(db) {
 	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
@@ -542,35 +808,49 @@ public class SmartStore  {
 			IndexSpec[] indexSpecs = indexSpecsList.toArray(new IndexSpec[0]);
 			if (indexSpecs.length == 0) {
 				// Nothing to do
-				return;
+				return -1;
 			}
 
-			boolean hasFts = IndexSpec.hasFTS(indexSpecs);
+			// Statements compiled once and re-bound for every soup element
+			IndexSpec[] columnIndexSpecs = SoupWriter.filter(indexSpecs, TypeGroup.value_extracted_to_column);
+			IndexSpec[] ftsIndexSpecs = SoupWriter.filter(indexSpecs, TypeGroup.value_extracted_to_fts_column);
+			SQLiteStatement updateStatement = null;
+			SQLiteStatement updateFtsStatement = null;
 
 			if (handleTx) {
 				db.beginTransaction();
 			}
 			Cursor cursor = null;
+			long lastSoupEntryId = -1;
 			try {
+				if (columnIndexSpecs.length > 0) {
+					updateStatement = db.compileStatement(SoupWriter.buildUpdateSql(soupTableName, getColumnNames(columnIndexSpecs), ID_COL));
+				}
+				if (ftsIndexSpecs.length > 0) {
+					updateFtsStatement = db.compileStatement(SoupWriter.buildUpdateSql(soupTableName + FTS_SUFFIX, getColumnNames(ftsIndexSpecs), ROWID_COL));
+				}
 			    String[] projection = new String[] {ID_COL, SOUP_COL};
-			    cursor = DBHelper.getInstance(db).query(db, soupTableName, projection, null, null, null);
+			    cursor = DBHelper.getInstance(db).query(db, soupTableName, projection, ID_COL, maxRows < 0 ? null : maxRows + "", ID_COL + " > ?", afterSoupEntryId + "");
 			    if (cursor.moveToFirst()) {
 			        do {
-			        	String soupEntryId = cursor.getString(0);
+			        	long soupEntryId = cursor.getLong(0);
+			        	lastSoupEntryId = soupEntryId;
 			        	try {
-			                JSONObject soupElt;
 							String soupRaw = cursor.getString(1);
-							soupElt = new JSONObject(soupRaw);
-			                ContentValues contentValues = new ContentValues();
-			                projectIndexedPaths(soupElt, contentValues, indexSpecs, TypeGroup.value_extracted_to_column);
-			                DBHelper.getInstance(db).update(db, soupTableName, contentValues, ID_PREDICATE, soupEntryId + "");
+							JSONObject soupElt = new JSONObject(soupRaw);
+							if (updateStatement != null) {
+								updateStatement.clearBindings();
+								int nextIndex = SoupWriter.bindIndexedPaths(updateStatement, 1, soupElt, columnIndexSpecs);
+								updateStatement.bindLong(nextIndex, soupEntryId);
+								updateStatement.executeUpdateDelete();
+							}
 
 							// Fts
-							if (hasFts) {
-								String soupTableNameFts = soupTableName + FTS_SUFFIX;
-								ContentValues contentValuesFts = new ContentValues();
-								projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
-								DBHelper.getInstance(db).update(db, soupTableNameFts, contentValuesFts, ROWID_PREDICATE, soupEntryId + "");
+							if (updateFtsStatement != null) {
+								updateFtsStatement.clearBindings();
+								int nextIndex = SoupWriter.bindIndexedPaths(updateFtsStatement, 1, soupElt, ftsIndexSpecs);
+								updateFtsStatement.bindLong(nextIndex, soupEntryId);
+								updateFtsStatement.executeUpdateDelete();
 							}
 			        	}
 			        	catch (JSONException e) {
@@ -586,8 +866,23 @@ public class SmartStore  {
 					db.endTransaction();
 				}
 			    safeClose(cursor);
+				if (updateStatement != null) {
+					updateStatement.close();
+				}
+				if (updateFtsStatement != null) {
+					updateFtsStatement.close();
+				}
 			}
+			return lastSoupEntryId;
+		}
+	}
+
+	private static List<String> getColumnNames(IndexSpec[] indexSpecs) {
+		List<String> columnNames = new ArrayList<>();
+		for (IndexSpec indexSpec : indexSpecs) {
+			columnNames.add(indexSpec.columnName);
 		}
+		return columnNames;
 	}
 
 	/**
@@ -628,15 +923,18 @@ public class SmartStore  {
     	synchronized(db) {
 	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 	        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
-			db.beginTransaction();
+			beginTransaction(db);
 			try {
 				DBHelper.getInstance(db).delete(db, soupTableName, null);
 				if (hasFTS(soupName)) {
 					DBHelper.getInstance(db).delete(db, soupTableName + FTS_SUFFIX, null);
 				}
+				deleteFromShadowSoup(db, soupName, null, null);
+				deleteFromChangeJournal(db, soupName, null);
+				recordChange(db, soupName, null);
 			} finally {
 				db.setTransactionSuccessful();
-				db.endTransaction();
+				endTransaction(db);
 			}
     	}
 	}
@@ -666,21 +964,30 @@ public class SmartStore  {
     	synchronized(db) {
 			String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 	        if (soupTableName != null) {
+	            // Online alter in progress (or interrupted) - its shadow soup goes with the soup
+	            OnlineAlterSoupLongOperation.cancel(this, soupName);
 	            db.execSQL("DROP TABLE IF EXISTS " + soupTableName);
 				if (hasFTS(soupName)) {
 					db.execSQL("DROP TABLE IF EXISTS " + soupTableName + FTS_SUFFIX);
 				}
 
 	            try {
-	                db.beginTransaction();
+	                beginTransaction(db);
 	                DBHelper.getInstance(db).delete(db, SOUP_ATTRS_TABLE, SOUP_NAME_PREDICATE, soupName);
 	                DBHelper.getInstance(db).delete(db, SOUP_INDEX_MAP_TABLE, SOUP_NAME_PREDICATE, soupName);
+	                if (hasChangeJournal(soupName)) {
+	                	DBHelper.getInstance(db).delete(db, CHANGE_JOURNAL_TABLE, SOUP_NAME_PREDICATE, soupName);
+	                	DBHelper.getInstance(db).delete(db, CHANGE_JOURNAL_SOUPS_TABLE, SOUP_NAME_PREDICATE, soupName);
+	                	DBHelper.getInstance(db).cacheChangeJournalDirtyPath(db, soupName, null);
+	                }
+	                recordChange(db, soupName, null);
 	                db.setTransactionSuccessful();
 
 	                // Remove from cache
 	                DBHelper.getInstance(db).removeFromCache(soupName);
+	                SmartSqlHelper.getInstance(db).removeFromCache(soupName);
 	            } finally {
-	                db.endTransaction();
+	                endTransaction(db);
 	            }
 	        }
     	}
@@ -711,7 +1018,11 @@ public class SmartStore  {
 				cursor = DBHelper.getInstance(db).query(db, SOUP_ATTRS_TABLE, new String[]{SOUP_NAME_COL}, SOUP_NAME_COL, null, null);
 	            if (cursor.moveToFirst()) {
 	                do {
-	                    soupNames.add(cursor.getString(0));
+	                	String soupName = cursor.getString(0);
+	                	// Skipping shadow soups of soups being altered online
+	                	if (!soupName.startsWith(OnlineAlterSoupLongOperation.SHADOW_SOUP_PREFIX)) {
+	                		soupNames.add(soupName);
+	                	}
 	                }
 	                while (cursor.moveToNext());
 	            }
@@ -752,10 +1063,26 @@ public class SmartStore  {
 			throw new SmartStoreException("whereArgs can only be provided for smart queries");
 		}
 
-		JSONArray resultAsArray = new JSONArray();
+		JSONArray resultAsArray = newJSONArray(false);
 		runQuery(resultAsArray, null, querySpec, pageIndex, whereArgs);
 		return resultAsArray;
 	}
+
+	/**
+	 * Run a query given by its query spec
+	 * Returns results from selected page as LazyJSONObject's: soup elements are only parsed on first access
+	 * NB: call LazyJSONObject.parseAll() on the results before nesting them (or any of their soup elements) in another JSONObject or JSONArray
+	 * (the returned JSONArray takes care of it when it is serialized itself)
+	 *
+	 * @param querySpec the query to run
+	 * @param pageIndex the page to return
+	 * @throws JSONException
+	 */
+	public JSONArray queryLazy(QuerySpec querySpec, int pageIndex) throws JSONException {
+		JSONArray resultAsArray = newJSONArray(true);
+		runQuery(resultAsArray, null, querySpec, pageIndex, (String[]) null);
+		return resultAsArray;
+	}
 	/**
 	 * Run a query given by its query Spec
 	 * Returns results from selected page without deserializing any JSON
@@ -774,189 +1101,501 @@ public class SmartStore  {
 		}
 	}
 
-	private void runQuery(JSONArray resultAsArray, StringBuilder resultAsStringBuilder, QuerySpec querySpec, int pageIndex, String... whereArgs) throws JSONException {
-		boolean computeResultAsString = resultAsStringBuilder != null;
-
-		final SQLiteDatabase db = getDatabase();
-		synchronized(db) {
-			QueryType qt = querySpec.queryType;
-			String sql = convertSmartSql(querySpec.smartSql);
-
-			// Page
-			int offsetRows = querySpec.pageSize * pageIndex;
-			int numberRows = querySpec.pageSize;
-			String limit = offsetRows + "," + numberRows;
-			Cursor cursor = null;
-			try {
-				cursor = DBHelper.getInstance(db).limitRawQuery(db, sql, limit, querySpec.getArgs() != null ? querySpec.getArgs() : whereArgs);
-
-				if (computeResultAsString) {
-					resultAsStringBuilder.append("[");
-				}
-
-				int currentRow = 0;
-				if (cursor.moveToFirst()) {
-					do {
-						if (computeResultAsString && currentRow > 0) {
-							resultAsStringBuilder.append(", ");
-						}
-						currentRow++;
-
-						// Smart queries
-						if (qt == QueryType.smart || querySpec.selectPaths != null) {
-							if (computeResultAsString) {
-								getDataFromRow(null, resultAsStringBuilder, cursor);
-							}
-							else {
-								JSONArray rowArray = new JSONArray();
-								getDataFromRow(rowArray, null, cursor);
-								resultAsArray.put(rowArray);
-							}
-						}
-						// Exact/like/range queries
-						else {
-							String rowAsString = cursor.getString(0);
-
-							if (computeResultAsString) {
-								resultAsStringBuilder.append(rowAsString);
-							}
-							else {
-								resultAsArray.put(new JSONObject(rowAsString));
-							}
-						}
-					} while (cursor.moveToNext());
-				}
-				if (computeResultAsString) {
-					resultAsStringBuilder.append("]");
-				}
+	/**
+	 * Run a query given by its query spec and hand each row to rowConsumer while the underlying cursor is open
+	 * Unlike query, results are not paged (the page size of the query spec is ignored) and are never all held in memory
+	 *
+	 * @param querySpec the query to run
+	 * @param rowConsumer callback invoked for each row
+	 * @return number of rows handed to rowConsumer
+	 * @throws JSONException
+	 */
+	public int queryStream(QuerySpec querySpec, RowConsumer rowConsumer) throws JSONException {
+		return queryStream(querySpec, rowConsumer, false);
+	}
 
-			} finally {
-				safeClose(cursor);
-			}
-		}
+	/**
+	 * Same as queryStream but soup elements handed to rowConsumer are LazyJSONObject's (only parsed on first access)
+	 * NB: call LazyJSONObject.parseAll() on a row before nesting it in another JSONObject or JSONArray
+	 *
+	 * @param querySpec the query to run
+	 * @param rowConsumer callback invoked for each row
+	 * @return number of rows handed to rowConsumer
+	 * @throws JSONException
+	 */
+	public int queryStreamLazy(QuerySpec querySpec, RowConsumer rowConsumer) throws JSONException {
+		return queryStream(querySpec, rowConsumer, true);
 	}
 
-	private void getDataFromRow(JSONArray resultAsArray, StringBuilder resultAsStringBuilder, Cursor cursor) throws JSONException {
-		boolean computeResultAsString = resultAsStringBuilder != null;
-		int columnCount = cursor.getColumnCount();
-		if (computeResultAsString) {
-			resultAsStringBuilder.append("[");
-		}
-		for (int i=0; i<columnCount; i++) {
-			if (computeResultAsString && i > 0) {
-				resultAsStringBuilder.append(",");
-			}
-			int valueType = cursor.getType(i);
-			String columnName = cursor.getColumnName(i);
-			if (valueType == Cursor.FIELD_TYPE_NULL) {
-				if (computeResultAsString) {
-					resultAsStringBuilder.append("null");
-				} else {
-					resultAsArray.put(null);
-				}
-			}
-			else if (valueType == Cursor.FIELD_TYPE_STRING) {
-				String raw = cursor.getString(i);
-				if (columnName.equals(SOUP_COL) || columnName.startsWith(SOUP_COL + ":") /* :num is appended to column name when result set has more than one column with same name */) {
-					if (computeResultAsString) {
-						resultAsStringBuilder.append(raw);
-					} else {
-						resultAsArray.put(new JSONObject(raw));
-					}
-					// Note: we could end up returning a string if you aliased the column
-				}
-				else {
-					if (computeResultAsString) {
-						raw = escapeStringValue(raw);
-						resultAsStringBuilder.append("\"").append(raw).append("\"");
-					} else {
-						resultAsArray.put(raw);
-					}
-				}
-			}
-			else if (valueType == Cursor.FIELD_TYPE_INTEGER) {
-				if (computeResultAsString) {
-					resultAsStringBuilder.append(cursor.getLong(i));
+	private int queryStream(QuerySpec querySpec, RowConsumer rowConsumer, boolean lazyParsing) throws JSONException {
+		// NB: not synchronizing on db - see "Reads" in class comment
+		final SQLiteDatabase db = getDatabase();
+		String sql = convertSmartSql(querySpec.smartSql);
+		boolean rowAsArray = querySpec.queryType == QueryType.smart || querySpec.selectPaths != null;
+		int rowCount = 0;
+		long start = System.nanoTime();
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).rawQuery(db, sql, querySpec.getArgs());
+			while (cursor.moveToNext()) {
+				Object row;
+				if (rowAsArray) {
+					JSONArray rowArray = newJSONArray(lazyParsing);
+					getDataFromRow(rowArray, null, null, cursor, cursor.getColumnCount());
+					row = rowArray;
 				} else {
-					resultAsArray.put(cursor.getLong(i));
+					row = lazyParsing ? new LazyJSONObject(cursor.getString(0)) : new JSONObject(cursor.getString(0));
 				}
-			}
-			else if (valueType == Cursor.FIELD_TYPE_FLOAT) {
-				if (computeResultAsString) {
-					resultAsStringBuilder.append(cursor.getDouble(i));
-				} else {
-					resultAsArray.put(cursor.getDouble(i));
+				rowCount++;
+				if (!rowConsumer.onRow(row)) {
+					break;
 				}
 			}
+			profileQuery(db, querySpec.smartSql, sql, querySpec.getArgs(), start, rowCount, rowCount);
+		} finally {
+			safeClose(cursor);
 		}
-		if (computeResultAsString) {
-			resultAsStringBuilder.append("]");
-		}
+		return rowCount;
 	}
 
-	private String escapeStringValue(String raw) {
-		StringBuilder sb = new StringBuilder();
-
-		for (int i = 0; i < raw.length(); i ++) {
-			char c = raw.charAt(i);
-			switch (c) {
-				case '\\':
-				case '"':
-					sb.append('\\');
-					sb.append(c);
-					break;
-				case '/':
-					sb.append('\\');
-					sb.append(c);
-					break;
-				case '\b':
-					sb.append("\\b");
-					break;
-				case '\t':
-					sb.append("\\t");
-					break;
-				case '\n':
-					sb.append("\\n");
-					break;
-				case '\f':
-					sb.append("\\f");
-					break;
-				case '\r':
-					sb.append("\\r");
-					break;
-				default:
-					if (c < ' ') {
-						String t = "000" + Integer.toHexString(c);
-						sb.append("\\u" + t.substring(t.length() - 4));
-					} else {
-						sb.append(c);
-					}
-			}
+	/**
+	 * Run a query given by its query spec and return the first column of every row as strings
+	 * Values are read straight from the cursor in one pass (no json is built) - useful for queries returning ids
+	 * Results are not paged (the page size of the query spec is ignored) and null values are skipped
+	 *
+	 * @param querySpec the query to run
+	 * @return values of first column
+	 */
+	public String[] queryStringColumn(QuerySpec querySpec) {
+		// NB: not synchronizing on db - see "Reads" in class comment
+		final SQLiteDatabase db = getDatabase();
+		String sql = convertSmartSql(querySpec.smartSql);
+		long start = System.nanoTime();
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).rawQuery(db, sql, querySpec.getArgs());
+			String[] values = readStringColumn(cursor);
+			profileQuery(db, querySpec.smartSql, sql, querySpec.getArgs(), start, cursor.getPosition(), values.length);
+			return values;
+		} finally {
+			safeClose(cursor);
 		}
-		return sb.toString();
 	}
 
 	/**
-	 * @param querySpec
-	 * @return count of results for a query
+	 * Run a query given by its query spec and return the first column of every row as longs
+	 * Values are read straight from the cursor in one pass (no json is built) - useful for queries returning soup entry ids
+	 * Results are not paged (the page size of the query spec is ignored) and null values are skipped
+	 *
+	 * @param querySpec the query to run
+	 * @return values of first column
 	 */
-	public int countQuery(QuerySpec querySpec) {
+	public long[] queryLongColumn(QuerySpec querySpec) {
+		// NB: not synchronizing on db - see "Reads" in class comment
 		final SQLiteDatabase db = getDatabase();
-    	synchronized(db) {
-			String countSql = convertSmartSql(querySpec.countSmartSql);
-			return DBHelper.getInstance(db).countRawCountQuery(db, countSql, querySpec.getArgs());
-    	}
+		String sql = convertSmartSql(querySpec.smartSql);
+		long start = System.nanoTime();
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).rawQuery(db, sql, querySpec.getArgs());
+			long[] values = readLongColumn(cursor);
+			profileQuery(db, querySpec.smartSql, sql, querySpec.getArgs(), start, cursor.getPosition(), values.length);
+			return values;
+		} finally {
+			safeClose(cursor);
+		}
 	}
 
 	/**
-	 * @param smartSql
-	 * @return
+	 * Run a query given by its query spec
+	 * Returns results from selected page in columnar format i.e. one typed array per selected column (see ColumnarResult)
+	 * Best suited to smart queries and queries with selectPaths (columns are named after the select paths for the latter)
+	 *
+	 * @param querySpec the query to run
+	 * @param pageIndex the page to return
+	 * @return results in columnar format
 	 */
-	public String convertSmartSql(String smartSql) {
+	public ColumnarResult queryColumnar(QuerySpec querySpec, int pageIndex) {
+		// NB: not synchronizing on db - see "Reads" in class comment
 		final SQLiteDatabase db = getDatabase();
-    	synchronized (db) {
-			return SmartSqlHelper.getInstance(db).convertSmartSql(db, smartSql);
-    	}
+		String sql = convertSmartSql(querySpec.smartSql);
+
+		// Page
+		int offsetRows = querySpec.pageSize * pageIndex;
+		String limit = offsetRows + "," + querySpec.pageSize;
+		long start = System.nanoTime();
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).limitRawQuery(db, sql, limit, querySpec.getArgs());
+			ColumnarResult result = new ColumnarResult(cursor, querySpec.selectPaths);
+			profileQuery(db, querySpec.smartSql, sql, querySpec.getArgs(), start, offsetRows + result.rowCount, result.rowCount);
+			return result;
+		} finally {
+			safeClose(cursor);
+		}
+	}
+
+	/**
+	 * Run a query given by its query spec using keyset pagination (see QuerySpec.withKeysetPagination)
+	 * Returns the page of results that follows the given position
+	 *
+	 * @param resultAsArray json array to which the results are added
+	 * @param querySpec the query to run
+	 * @param after position of the last row of the previous page (null for the first page)
+	 * @return position of the last row returned (null if no rows were returned)
+	 * @throws JSONException
+	 */
+	public KeysetPosition queryAfter(JSONArray resultAsArray, QuerySpec querySpec, KeysetPosition after) throws JSONException {
+		return runKeysetQuery(resultAsArray, null, querySpec, after);
+	}
+
+	/**
+	 * Run a query given by its query spec using keyset pagination (see QuerySpec.withKeysetPagination)
+	 * Returns the page of results that follows the given position without deserializing any JSON
+	 *
+	 * @param resultBuilder string builder to which results are appended
+	 * @param querySpec the query to run
+	 * @param after position of the last row of the previous page (null for the first page)
+	 * @return position of the last row returned (null if no rows were returned)
+	 */
+	public KeysetPosition queryAsStringAfter(StringBuilder resultBuilder, QuerySpec querySpec, KeysetPosition after) {
+		try {
+			return runKeysetQuery(null, resultBuilder, querySpec, after);
+		}
+		catch (JSONException e) {
+			// shouldn't happen since we call runKeysetQuery with a string builder
+			throw new SmartStoreException("Unexpected json exception", e);
+		}
+	}
+
+	/**
+	 * Return the keyset position of a given row of the results of a query using keyset pagination
+	 * NB: SQLite still has to walk all the rows before it, but only reads the order path value and soup entry id
+	 *
+	 * @param querySpec the query
+	 * @param rowIndex index of the row in the results
+	 * @return position of the row (null if there are not that many rows)
+	 */
+	public KeysetPosition getKeysetPosition(QuerySpec querySpec, int rowIndex) {
+		// NB: not synchronizing on db - see "Reads" in class comment
+		final SQLiteDatabase db = getDatabase();
+		String sql = convertSmartSql(querySpec.computeKeysetPositionSmartSql());
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).limitRawQuery(db, sql, rowIndex + ",1", querySpec.getArgs());
+			return cursor.moveToFirst() ? getKeysetPosition(cursor) : null;
+		} finally {
+			safeClose(cursor);
+		}
+	}
+
+	private KeysetPosition runKeysetQuery(JSONArray resultAsArray, StringBuilder resultAsStringBuilder, QuerySpec querySpec, KeysetPosition after) throws JSONException {
+		if (!querySpec.keysetPagination) {
+			throw new SmartStoreException("Query spec does not use keyset pagination");
+		}
+
+		// NB: not synchronizing on db - see "Reads" in class comment
+		final SQLiteDatabase db = getDatabase();
+		String smartSql = querySpec.computeKeysetSmartSql(after);
+		String sql = convertSmartSql(smartSql);
+		String[] args = querySpec.getKeysetArgs(after);
+		long start = System.nanoTime();
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).limitRawQuery(db, sql, "" + querySpec.pageSize, args);
+			// Last two columns (order path value and soup entry id) are not part of the results
+			readRows(cursor, resultAsArray, resultAsStringBuilder, querySpec, cursor.getColumnCount() - 2);
+			profileQuery(db, smartSql, sql, args, start, cursor.getCount(), cursor.getCount());
+			return cursor.moveToLast() ? getKeysetPosition(cursor) : null;
+		} finally {
+			safeClose(cursor);
+		}
+	}
+
+	private KeysetPosition getKeysetPosition(Cursor cursor) {
+		int orderKeyIndex = cursor.getColumnCount() - 2;
+		Object orderKey;
+		switch (cursor.getType(orderKeyIndex)) {
+			case Cursor.FIELD_TYPE_NULL:
+				orderKey = null;
+				break;
+			case Cursor.FIELD_TYPE_INTEGER:
+				orderKey = cursor.getLong(orderKeyIndex);
+				break;
+			case Cursor.FIELD_TYPE_FLOAT:
+				orderKey = cursor.getDouble(orderKeyIndex);
+				break;
+			default:
+				orderKey = cursor.getString(orderKeyIndex);
+				break;
+		}
+		return new KeysetPosition(orderKey, cursor.getLong(orderKeyIndex + 1));
+	}
+
+	private void runQuery(JSONArray resultAsArray, StringBuilder resultAsStringBuilder, QuerySpec querySpec, int pageIndex, String... whereArgs) throws JSONException {
+		// NB: not synchronizing on db - see "Reads" in class comment
+		final SQLiteDatabase db = getDatabase();
+		String sql = convertSmartSql(querySpec.smartSql);
+
+		// Page
+		int offsetRows = querySpec.pageSize * pageIndex;
+		int numberRows = querySpec.pageSize;
+		String limit = offsetRows + "," + numberRows;
+		String[] args = querySpec.getArgs() != null ? querySpec.getArgs() : whereArgs;
+		long start = System.nanoTime();
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).limitRawQuery(db, sql, limit, args);
+			readRows(cursor, resultAsArray, resultAsStringBuilder, querySpec, cursor.getColumnCount());
+			// Rows before the requested page are stepped through too
+			profileQuery(db, querySpec.smartSql, sql, args, start, offsetRows + cursor.getCount(), cursor.getCount());
+		} finally {
+			safeClose(cursor);
+		}
+	}
+
+	/**
+	 * Record query run with the query profiler (if profiling is on)
+	 */
+	/**
+	 * Read the first column of the remaining rows of the cursor skipping null values
+	 * The array is grown while reading (instead of being sized with getCount()) so that the results are only traversed once
+	 * @param cursor
+	 * @return values read
+	 */
+	private static String[] readStringColumn(Cursor cursor) {
+		String[] values = new String[COLUMN_INITIAL_CAPACITY];
+		int count = 0;
+		while (cursor.moveToNext()) {
+			if (!cursor.isNull(0)) {
+				if (count == values.length) {
+					values = Arrays.copyOf(values, count * 2);
+				}
+				values[count++] = cursor.getString(0);
+			}
+		}
+		return count == values.length ? values : Arrays.copyOf(values, count);
+	}
+
+	/**
+	 * Read the first column of the remaining rows of the cursor as longs skipping null values (see readStringColumn)
+	 * @param cursor
+	 * @return values read
+	 */
+	private static long[] readLongColumn(Cursor cursor) {
+		long[] values = new long[COLUMN_INITIAL_CAPACITY];
+		int count = 0;
+		while (cursor.moveToNext()) {
+			if (!cursor.isNull(0)) {
+				if (count == values.length) {
+					values = Arrays.copyOf(values, count * 2);
+				}
+				values[count++] = cursor.getLong(0);
+			}
+		}
+		return count == values.length ? values : Arrays.copyOf(values, count);
+	}
+
+	private void profileQuery(SQLiteDatabase db, String smartSql, String sql, String[] args, long start, int rowsScanned, int rowsReturned) {
+		QueryProfiler queryProfiler = DBHelper.getInstance(db).getQueryProfiler();
+		if (queryProfiler != null) {
+			queryProfiler.record(db, smartSql, sql, args, System.nanoTime() - start, rowsScanned, rowsReturned);
+		}
+	}
+
+	/**
+	 * @param lazyParsing true for lazy results
+	 * @return array for query results (one that parses lazy soup elements before serializing them for lazy results)
+	 */
+	private static JSONArray newJSONArray(boolean lazyParsing) {
+		return lazyParsing ? new LazyJSONArray() : new JSONArray();
+	}
+
+	/**
+	 * @param raw stringified json
+	 * @param container array the soup element will be added to
+	 * @return soup element (not parsed until first accessed if container holds lazy results)
+	 */
+	private static JSONObject newJSONObject(String raw, JSONArray container) throws JSONException {
+		return container instanceof LazyJSONArray ? new LazyJSONObject(raw) : new JSONObject(raw);
+	}
+
+	private void readRows(Cursor cursor, JSONArray resultAsArray, StringBuilder resultAsStringBuilder, QuerySpec querySpec, int columnCount) throws JSONException {
+		boolean computeResultAsString = resultAsStringBuilder != null;
+		QueryType qt = querySpec.queryType;
+		// Cells are copied into this buffer and then appended, instead of materializing a String per cell
+		CharArrayBuffer buffer = null;
+
+		if (computeResultAsString) {
+			resultAsStringBuilder.append("[");
+			buffer = new CharArrayBuffer(CELL_BUFFER_INITIAL_SIZE);
+		}
+
+		int currentRow = 0;
+		if (cursor.moveToFirst()) {
+			do {
+				if (computeResultAsString && currentRow > 0) {
+					resultAsStringBuilder.append(", ");
+				}
+				currentRow++;
+
+				// Smart queries
+				if (qt == QueryType.smart || querySpec.selectPaths != null) {
+					if (computeResultAsString) {
+						getDataFromRow(null, resultAsStringBuilder, buffer, cursor, columnCount);
+					}
+					else {
+						JSONArray rowArray = newJSONArray(resultAsArray instanceof LazyJSONArray);
+						getDataFromRow(rowArray, null, null, cursor, columnCount);
+						resultAsArray.put(rowArray);
+					}
+				}
+				// Exact/like/range queries
+				else {
+					if (computeResultAsString) {
+						cursor.copyStringToBuffer(0, buffer);
+						resultAsStringBuilder.append(buffer.data, 0, buffer.sizeCopied);
+					}
+					else {
+						resultAsArray.put(newJSONObject(cursor.getString(0), resultAsArray));
+					}
+				}
+			} while (cursor.moveToNext());
+		}
+		if (computeResultAsString) {
+			resultAsStringBuilder.append("]");
+		}
+	}
+
+	private void getDataFromRow(JSONArray resultAsArray, StringBuilder resultAsStringBuilder, CharArrayBuffer buffer, Cursor cursor, int columnCount) throws JSONException {
+		boolean computeResultAsString = resultAsStringBuilder != null;
+		if (computeResultAsString) {
+			resultAsStringBuilder.append("[");
+		}
+		for (int i=0; i<columnCount; i++) {
+			if (computeResultAsString && i > 0) {
+				resultAsStringBuilder.append(",");
+			}
+			int valueType = cursor.getType(i);
+			String columnName = cursor.getColumnName(i);
+			if (valueType == Cursor.FIELD_TYPE_NULL) {
+				if (computeResultAsString) {
+					resultAsStringBuilder.append("null");
+				} else {
+					resultAsArray.put(null);
+				}
+			}
+			else if (valueType == Cursor.FIELD_TYPE_STRING) {
+				boolean isSoupColumn = columnName.equals(SOUP_COL) || columnName.startsWith(SOUP_COL + ":") /* :num is appended to column name when result set has more than one column with same name */;
+				if (computeResultAsString) {
+					cursor.copyStringToBuffer(i, buffer);
+					if (isSoupColumn) {
+						resultAsStringBuilder.append(buffer.data, 0, buffer.sizeCopied);
+					} else {
+						resultAsStringBuilder.append('"');
+						appendEscaped(resultAsStringBuilder, buffer.data, 0, buffer.sizeCopied);
+						resultAsStringBuilder.append('"');
+					}
+				}
+				else if (isSoupColumn) {
+					resultAsArray.put(newJSONObject(cursor.getString(i), resultAsArray));
+					// Note: we could end up returning a string if you aliased the column
+				}
+				else {
+					resultAsArray.put(cursor.getString(i));
+				}
+			}
+			else if (valueType == Cursor.FIELD_TYPE_INTEGER) {
+				if (computeResultAsString) {
+					resultAsStringBuilder.append(cursor.getLong(i));
+				} else {
+					resultAsArray.put(cursor.getLong(i));
+				}
+			}
+			else if (valueType == Cursor.FIELD_TYPE_FLOAT) {
+				if (computeResultAsString) {
+					resultAsStringBuilder.append(cursor.getDouble(i));
+				} else {
+					resultAsArray.put(cursor.getDouble(i));
+				}
+			}
+		}
+		if (computeResultAsString) {
+			resultAsStringBuilder.append("]");
+		}
+	}
+
+	/**
+	 * Append chars to a string builder, escaped for use inside a json string literal
+	 * Runs of chars that don't need escaping are appended in one go and nothing is allocated
+	 *
+	 * @param sb
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 */
+	static void appendEscaped(StringBuilder sb, char[] chars, int offset, int length) {
+		int end = offset + length;
+		int runStart = offset;
+		for (int i = offset; i < end; i++) {
+			char c = chars[i];
+			if (c >= ' ' && c != '\\' && c != '"' && c != '/') {
+				continue;
+			}
+			sb.append(chars, runStart, i - runStart);
+			runStart = i + 1;
+			sb.append('\\');
+			switch (c) {
+				case '\\':
+				case '"':
+				case '/':
+					sb.append(c);
+					break;
+				case '\b':
+					sb.append('b');
+					break;
+				case '\t':
+					sb.append('t');
+					break;
+				case '\n':
+					sb.append('n');
+					break;
+				case '\f':
+					sb.append('f');
+					break;
+				case '\r':
+					sb.append('r');
+					break;
+				default:
+					sb.append('u')
+							.append(HEX_DIGITS[(c >> 12) & 0xF])
+							.append(HEX_DIGITS[(c >> 8) & 0xF])
+							.append(HEX_DIGITS[(c >> 4) & 0xF])
+							.append(HEX_DIGITS[c & 0xF]);
+			}
+		}
+		sb.append(chars, runStart, end - runStart);
+	}
+
+	/**
+	 * @param querySpec
+	 * @return count of results for a query
+	 */
+	public int countQuery(QuerySpec querySpec) {
+		// NB: not synchronizing on db - see "Reads" in class comment
+		final SQLiteDatabase db = getDatabase();
+		String countSql = convertSmartSql(querySpec.countSmartSql);
+		return DBHelper.getInstance(db).countRawCountQuery(db, countSql, querySpec.getArgs());
+	}
+
+	/**
+	 * @param smartSql
+	 * @return
+	 */
+	public String convertSmartSql(String smartSql) {
+		// NB: only reads soup meta data (mostly from DBHelper caches) - no need to synchronize on db
+		final SQLiteDatabase db = getDatabase();
+		return SmartSqlHelper.getInstance(db).convertSmartSql(db, smartSql);
 	}
 
 
@@ -988,11 +1627,10 @@ public class SmartStore  {
     	synchronized(db) {
 	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 	        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
-	        IndexSpec[] indexSpecs = DBHelper.getInstance(db).getIndexSpecs(db, soupName);
 
 	        try {
 	            if (handleTx) {
-	                db.beginTransaction();
+	                beginTransaction(db);
 	            }
 	            long now = System.currentTimeMillis();
 	            long soupEntryId = DBHelper.getInstance(db).getNextId(db, soupTableName);
@@ -1000,28 +1638,14 @@ public class SmartStore  {
 	            // Adding fields to soup element
 	            soupElt.put(SOUP_ENTRY_ID, soupEntryId);
 	            soupElt.put(SOUP_LAST_MODIFIED_DATE, now);
-	            ContentValues contentValues = new ContentValues();
-	            contentValues.put(ID_COL, soupEntryId);
-				contentValues.put(CREATED_COL, now);
-				contentValues.put(LAST_MODIFIED_COL, now);
-				contentValues.put(SOUP_COL, soupElt.toString());
-	            projectIndexedPaths(soupElt, contentValues, indexSpecs, TypeGroup.value_extracted_to_column);
-
-	            // Inserting into database
-	            boolean success = DBHelper.getInstance(db).insert(db, soupTableName, contentValues) == soupEntryId;
-
-				// Fts
-				if (success && hasFTS(soupName)) {
-					String soupTableNameFts = soupTableName + FTS_SUFFIX;
-					ContentValues contentValuesFts = new ContentValues();
-					contentValuesFts.put(ROWID_COL, soupEntryId);
-					projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
-					// InsertHelper not working against virtual fts table
-					db.insert(soupTableNameFts, null, contentValuesFts);
-				}
+
+	            // Inserting into database (and fts table if any)
+	            boolean success = DBHelper.getInstance(db).getSoupWriter(db, soupName).insert(soupEntryId, soupElt, now);
 
 	            // Commit if successful
 	            if (success) {
+	                journalChange(db, soupName, soupEntryId, soupElt, now, true);
+	                recordChange(db, soupName, new long[] {soupEntryId});
 	                if (handleTx) {
 	                    db.setTransactionSuccessful();
 	                }
@@ -1032,7 +1656,7 @@ public class SmartStore  {
 	        }
 			finally {
 	            if (handleTx) {
-	                db.endTransaction();
+	                endTransaction(db);
 	            }
 	        }
     	}
@@ -1049,81 +1673,51 @@ public class SmartStore  {
 		}
 	}
 
-	/**
-	 * Populate content values by projecting index specs that have a type in typeGroup
-	 * @param soupElt
-	 * @param contentValues
-	 * @param indexSpecs
-	 * @param typeGroup
-	 */
-	private void projectIndexedPaths(JSONObject soupElt, ContentValues contentValues, IndexSpec[] indexSpecs, TypeGroup typeGroup) {
-		for (IndexSpec indexSpec : indexSpecs) {
-			if (typeGroup.isMember(indexSpec.type)) {
-				projectIndexedPath(soupElt, contentValues, indexSpec);
-			}
-		}
-	}
-
     /**
-     * @param soupElt
-     * @param contentValues
-     * @param indexSpec
+     * Retrieve
+     * @param soupName
+     * @param soupEntryIds
+     * @return JSONArray of JSONObject's with the given soupEntryIds
+     * @throws JSONException
      */
-    private void projectIndexedPath(JSONObject soupElt, ContentValues contentValues, IndexSpec indexSpec) {
-        Object value = project(soupElt, indexSpec.path);
-
-		contentValues.put(indexSpec.columnName, (String) null); // fall back
-		if (value != null) {
-			try {
-				switch (indexSpec.type) {
-					case integer:
-						contentValues.put(indexSpec.columnName, ((Number) value).longValue());
-						break;
-					case string:
-					case full_text:
-						contentValues.put(indexSpec.columnName, value.toString());
-						break;
-					case floating:
-						contentValues.put(indexSpec.columnName, ((Number) value).doubleValue());
-						break;
-				}
-			} catch (Exception e) {
-				// Ignore (will use the null value)
-				SmartStoreLogger.e(TAG, "Unexpected error", e);
-			}
-		}
+    public JSONArray retrieve(String soupName, Long... soupEntryIds) throws JSONException {
+    	return retrieve(soupName, false, soupEntryIds);
     }
 
     /**
-     * Retrieve
+     * Retrieve soup elements as LazyJSONObject's (only parsed on first access)
+     * NB: call LazyJSONObject.parseAll() on the results before nesting them (or any of their soup elements) in another JSONObject or JSONArray
      * @param soupName
      * @param soupEntryIds
-     * @return JSONArray of JSONObject's with the given soupEntryIds
+     * @return JSONArray of LazyJSONObject's with the given soupEntryIds
      * @throws JSONException
      */
-    public JSONArray retrieve(String soupName, Long... soupEntryIds) throws JSONException {
+    public JSONArray retrieveLazy(String soupName, Long... soupEntryIds) throws JSONException {
+    	return retrieve(soupName, true, soupEntryIds);
+    }
+
+    private JSONArray retrieve(String soupName, boolean lazyParsing, Long[] soupEntryIds) throws JSONException {
+		// NB: not synchronizing on db - see "Reads" in class comment
     	final SQLiteDatabase db = getDatabase();
-    	synchronized(db) {
-	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
-	        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
+        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
 
-	        JSONArray result = new JSONArray();
-			Cursor cursor = null;
-			try {
-				cursor = DBHelper.getInstance(db).query(db, soupTableName, new String[] { SOUP_COL }, null, null, getSoupEntryIdsPredicate(soupEntryIds), (String[]) null);
-				if (!cursor.moveToFirst()) {
-					return result;
-				}
-				do {
-					String raw = cursor.getString(cursor.getColumnIndex(SOUP_COL));
-					result.put(new JSONObject(raw));
-				}
-				while (cursor.moveToNext());
-			} finally {
-				safeClose(cursor);
+        JSONArray result = newJSONArray(lazyParsing);
+		Cursor cursor = null;
+		try {
+			cursor = DBHelper.getInstance(db).query(db, soupTableName, new String[] { SOUP_COL }, null, null, getSoupEntryIdsPredicate(soupEntryIds), (String[]) null);
+			if (!cursor.moveToFirst()) {
+				return result;
 			}
-	        return result;
-    	}
+			do {
+				String raw = cursor.getString(cursor.getColumnIndex(SOUP_COL));
+				result.put(newJSONObject(raw, result));
+			}
+			while (cursor.moveToNext());
+		} finally {
+			safeClose(cursor);
+		}
+        return result;
     }
 
 
@@ -1158,12 +1752,11 @@ public class SmartStore  {
     	synchronized(db) {
 			try {
 				if (handleTx) {
-					db.beginTransaction();
+					beginTransaction(db);
 				}
 
 				String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 				if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
-				IndexSpec[] indexSpecs = DBHelper.getInstance(db).getIndexSpecs(db, soupName);
 
 				long now = System.currentTimeMillis();
 
@@ -1172,24 +1765,15 @@ public class SmartStore  {
 				// Updating last modified field in soup element
 				soupElt.put(SOUP_LAST_MODIFIED_DATE, now);
 
-				// Preparing data for row
-				ContentValues contentValues = new ContentValues();
-				contentValues.put(LAST_MODIFIED_COL, now);
-				projectIndexedPaths(soupElt, contentValues, indexSpecs, TypeGroup.value_extracted_to_column);
-				contentValues.put(SOUP_COL, soupElt.toString());
-
-				// Updating database
-				boolean success = DBHelper.getInstance(db).update(db, soupTableName, contentValues, ID_PREDICATE, soupEntryId + "") == 1;
-
-				// Fts
-				if (success && hasFTS(soupName)) {
-					String soupTableNameFts = soupTableName + FTS_SUFFIX;
-					ContentValues contentValuesFts = new ContentValues();
-					projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
-					success = DBHelper.getInstance(db).update(db, soupTableNameFts, contentValuesFts, ROWID_PREDICATE, soupEntryId + "") == 1;
-				}
+				// Updating database (and fts table if any)
+				boolean success = DBHelper.getInstance(db).getSoupWriter(db, soupName).update(soupEntryId, soupElt, now);
 
 				if (success) {
+					// Skipped updates (unchanged content) put back the stored last modified date - the journal is then left as is
+					if (soupElt.optLong(SOUP_LAST_MODIFIED_DATE) == now) {
+						journalChange(db, soupName, soupEntryId, soupElt, now, false);
+						recordChange(db, soupName, new long[] {soupEntryId});
+					}
 					if (handleTx) {
 						db.setTransactionSuccessful();
 					}
@@ -1199,7 +1783,7 @@ public class SmartStore  {
 				}
 			} finally {
 				if (handleTx) {
-					db.endTransaction();
+					endTransaction(db);
 				}
 			}
     	}
@@ -1272,40 +1856,346 @@ public class SmartStore  {
     }
 
     /**
-     * Look for a soup element where fieldPath's value is fieldValue
-     * Return its soupEntryId
-     * Return -1 if not found
-     * Throw an exception if fieldName is not indexed
-     * Throw an exception if more than one soup element are found
+     * Upsert many soup elements (and commits - even if some of them could not be written, see below)
+     * @param soupName
+     * @param soupElts
+     * @param externalIdPath
+     * @return soup elements upserted (null for the ones where the upsert failed) in the same order as soupElts
+     * @throws JSONException
+     */
+    public List<JSONObject> upsertAll(String soupName, List<JSONObject> soupElts, String externalIdPath) throws JSONException {
+    	final SQLiteDatabase db = getDatabase();
+    	synchronized(db) {
+    		return upsertAll(soupName, soupElts, externalIdPath, true);
+    	}
+    }
+
+    /**
+     * Upsert many soup elements
+     * Same outcome as calling upsert (with handleTx false) for each soup element in a single transaction, but:
+     * - external ids are resolved with a few IN queries instead of one lookup per soup element
+     * - inserts and updates reuse the same compiled statements
+     *
+     * NB: a soup element that fails to be written gets null in the results but does not fail the batch -
+     * when handleTx is true the other soup elements are still committed (the transaction is only rolled back on exceptions).
+     * Callers that need all or nothing should pass handleTx false and only mark their transaction successful
+     * if no result is null.
      *
      * @param soupName
-     * @param fieldPath
-     * @param fieldValue
+     * @param soupElts
+     * @param externalIdPath
+     * @param handleTx
+     * @return soup elements upserted (null for the ones where the upsert failed) in the same order as soupElts
+     * @throws JSONException
      */
-    public long lookupSoupEntryId(String soupName, String fieldPath, String fieldValue) {
+    public List<JSONObject> upsertAll(String soupName, List<JSONObject> soupElts, String externalIdPath, boolean handleTx) throws JSONException {
     	final SQLiteDatabase db = getDatabase();
     	synchronized(db) {
 	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 	        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
-	        String columnName = DBHelper.getInstance(db).getColumnNameForPath(db, soupName, fieldPath);
+	        boolean usingSoupEntryId = externalIdPath.equals(SOUP_ENTRY_ID);
+
+	        // Getting external ids
+	        String[] externalIds = new String[soupElts.size()];
+	        if (!usingSoupEntryId) {
+	        	for (int i = 0; i < externalIds.length; i++) {
+	        		Object externalIdObj = project(soupElts.get(i), externalIdPath);
+	        		if (externalIdObj == null) {
+						// Cannot have empty values for user-defined external ID upsert.
+						throw new SmartStoreException(String.format("For upsert with external ID path '%s', value cannot be empty for any entries.", externalIdPath));
+					}
+	        		externalIds[i] = externalIdObj + "";
+	        	}
+	        }
 
-	        Cursor cursor = null;
+	        List<JSONObject> results = new ArrayList<>(soupElts.size());
+	        List<Long> changedEntryIds = new ArrayList<>(soupElts.size());
 	        try {
-	            cursor = db.query(soupTableName, new String[] {ID_COL}, columnName + " = ?", new String[] { fieldValue }, null, null, null);
-	            if (cursor.getCount() > 1) {
-	                throw new SmartStoreException(String.format("There are more than one soup elements where %s is %s", fieldPath, fieldValue));
+	            if (handleTx) {
+	                beginTransaction(db);
 	            }
-	            if (cursor.moveToFirst()) {
-	                return cursor.getLong(0);
-	            } else {
-	                return -1; // not found
+
+	            // Resolving external ids (inside the transaction so that they can't change before we write)
+	            Map<String, Long> externalIdToEntryId = usingSoupEntryId
+	            		? new HashMap<String, Long>()
+	            		: lookupSoupEntryIds(soupName, externalIdPath, Arrays.asList(externalIds));
+
+	            SoupWriter soupWriter = DBHelper.getInstance(db).getSoupWriter(db, soupName);
+	            for (int i = 0; i < externalIds.length; i++) {
+	            	JSONObject soupElt = soupElts.get(i);
+	            	long entryId = -1;
+	            	if (usingSoupEntryId) {
+	            		if (soupElt.has(SOUP_ENTRY_ID)) {
+	            			entryId = soupElt.getLong(SOUP_ENTRY_ID);
+	            		}
+	            	} else if (externalIdToEntryId.containsKey(externalIds[i])) {
+	            		entryId = externalIdToEntryId.get(externalIds[i]);
+	            	}
+
+	            	long now = System.currentTimeMillis();
+	            	boolean success;
+	            	boolean created = entryId == -1;
+	            	if (!created) {
+	            		soupElt.put(SOUP_ENTRY_ID, entryId);
+	            		soupElt.put(SOUP_LAST_MODIFIED_DATE, now);
+	            		success = soupWriter.update(entryId, soupElt, now);
+	            	} else {
+	            		entryId = DBHelper.getInstance(db).getNextId(db, soupTableName);
+	            		soupElt.put(SOUP_ENTRY_ID, entryId);
+	            		soupElt.put(SOUP_LAST_MODIFIED_DATE, now);
+	            		success = soupWriter.insert(entryId, soupElt, now);
+	            		// Later soup elements with the same external id should update the one we just created
+	            		if (success && !usingSoupEntryId) {
+	            			externalIdToEntryId.put(externalIds[i], entryId);
+	            		}
+	            	}
+	            	if (success) {
+	            		// Skipped updates (unchanged content) put back the stored last modified date - the journal is then left as is
+	            		if (soupElt.optLong(SOUP_LAST_MODIFIED_DATE) == now) {
+	            			journalChange(db, soupName, entryId, soupElt, now, created);
+	            			changedEntryIds.add(entryId);
+	            		}
+	            	}
+	            	results.add(success ? soupElt : null);
+	            }
+
+	            if (!changedEntryIds.isEmpty()) {
+	            	recordChange(db, soupName, toLongArray(changedEntryIds));
 	            }
+	            if (handleTx) {
+	                db.setTransactionSuccessful();
+	            }
+	            return results;
 	        } finally {
-	            safeClose(cursor);
+	            if (handleTx) {
+	                endTransaction(db);
+	            }
 	        }
     	}
     }
 
+    /**
+     * Import soup elements from a stream of newline delimited json (one soup element per line, blank lines are ignored)
+     * Soup elements are upserted in batches of IMPORT_EXPORT_BATCH_SIZE, each in its own transaction,
+     * so that only one batch is held in memory at a time
+     * NB: batches committed before a failure (malformed line, missing external id etc) are not rolled back
+     *
+     * @param soupName
+     * @param ndjson stream to read from (not closed)
+     * @param externalIdPath
+     * @param progressListener called after each batch (can be null)
+     * @return number of soup elements upserted
+     */
+    public int importSoup(String soupName, InputStream ndjson, String externalIdPath, ProgressListener progressListener) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+        List<JSONObject> batch = new ArrayList<>(IMPORT_EXPORT_BATCH_SIZE);
+        int lineNumber = 0;
+        int processed = 0;
+        int imported = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    batch.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    throw new SmartStoreException("Malformed soup element at line " + lineNumber, e);
+                }
+                if (batch.size() == IMPORT_EXPORT_BATCH_SIZE) {
+                    imported += importBatch(soupName, batch, externalIdPath);
+                    processed += batch.size();
+                    batch.clear();
+                    if (progressListener != null) {
+                        progressListener.onProgress(soupName, processed);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                imported += importBatch(soupName, batch, externalIdPath);
+                processed += batch.size();
+                if (progressListener != null) {
+                    progressListener.onProgress(soupName, processed);
+                }
+            }
+            return imported;
+        } catch (IOException e) {
+            throw new SmartStoreException("Failed to read soup elements for soup: " + soupName, e);
+        }
+    }
+
+    private int importBatch(String soupName, List<JSONObject> batch, String externalIdPath) {
+        try {
+            int imported = 0;
+            for (JSONObject soupElt : upsertAll(soupName, batch, externalIdPath)) {
+                if (soupElt != null) {
+                    imported++;
+                }
+            }
+            return imported;
+        } catch (JSONException e) {
+            throw new SmartStoreException("Failed to import soup elements into soup: " + soupName, e);
+        }
+    }
+
+    /**
+     * Export all soup elements of a soup as newline delimited json (one soup element per line, in soup entry id order)
+     * Soup elements are read in batches of IMPORT_EXPORT_BATCH_SIZE and written as stored (they are never parsed)
+     * NB: each batch is a separate read, changes made to the soup while exporting may or may not be exported
+     *
+     * @param soupName
+     * @param out stream to write to (flushed but not closed)
+     * @param progressListener called after each batch (can be null)
+     * @return number of soup elements exported
+     */
+    public int exportSoup(String soupName, OutputStream out, ProgressListener progressListener) {
+        // NB: not synchronizing on db - see "Reads" in class comment
+        final SQLiteDatabase db = getDatabase();
+        DBHelper dbHelper = DBHelper.getInstance(db);
+        String soupTableName = dbHelper.getSoupTableName(db, soupName);
+        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        CharArrayBuffer buffer = new CharArrayBuffer(CELL_BUFFER_INITIAL_SIZE);
+        String limit = Integer.toString(IMPORT_EXPORT_BATCH_SIZE);
+        long lastId = -1;
+        int exported = 0;
+        try {
+            int batchCount;
+            do {
+                batchCount = 0;
+                Cursor cursor = null;
+                try {
+                    cursor = dbHelper.query(db, soupTableName, new String[] {ID_COL, SOUP_COL}, ID_COL, limit, ID_COL + " > ?", Long.toString(lastId));
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        cursor.copyStringToBuffer(1, buffer);
+                        writer.write(buffer.data, 0, buffer.sizeCopied);
+                        writer.write('\n');
+                        batchCount++;
+                    }
+                } finally {
+                    safeClose(cursor);
+                }
+                exported += batchCount;
+                if (batchCount > 0 && progressListener != null) {
+                    progressListener.onProgress(soupName, exported);
+                }
+            } while (batchCount == IMPORT_EXPORT_BATCH_SIZE);
+            writer.flush();
+            return exported;
+        } catch (IOException e) {
+            throw new SmartStoreException("Failed to write soup elements of soup: " + soupName, e);
+        }
+    }
+
+    /**
+     * Return write queue for this store's database (created on first use with default settings)
+     * Upserts submitted to the write queue are run asynchronously and coalesced into fewer transactions
+     * The queue is shared by all the SmartStore instances of the database and is closed (after writing pending upserts)
+     * when the database is closed or deleted
+     *
+     * @return write queue
+     */
+    public WriteQueue getWriteQueue() {
+    	return DBHelper.getInstance(getDatabase()).getWriteQueue(this);
+    }
+
+    /**
+     * Look for soup elements where fieldPath's value is one of fieldValues
+     * Return map of field value to soupEntryId (field values not found are not in the map)
+     * Throw an exception if fieldName is not indexed
+     * Throw an exception if more than one soup element are found for a given value
+     *
+     * @param soupName
+     * @param fieldPath
+     * @param fieldValues
+     */
+    public Map<String, Long> lookupSoupEntryIds(String soupName, String fieldPath, Collection<String> fieldValues) {
+		// NB: not synchronizing on db - see "Reads" in class comment
+    	final SQLiteDatabase db = getDatabase();
+        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
+        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+        String columnName = DBHelper.getInstance(db).getColumnNameForPath(db, soupName, fieldPath);
+
+        Map<String, Long> result = new HashMap<>();
+        List<String> distinctValues = new ArrayList<>(new LinkedHashSet<>(fieldValues));
+        for (int start = 0; start < distinctValues.size(); start += LOOKUP_CHUNK_SIZE) {
+        	List<String> chunk = distinctValues.subList(start, Math.min(start + LOOKUP_CHUNK_SIZE, distinctValues.size()));
+        	Set<String> chunkValues = new HashSet<>(chunk);
+        	boolean valuesReadBackAsIs = true;
+	        Cursor cursor = null;
+	        try {
+	            String sql = String.format("SELECT %s, %s FROM %s WHERE %s",
+	            		columnName, ID_COL, soupTableName, buildInStatement(columnName, TextUtils.join(",", Collections.nCopies(chunk.size(), "?"))));
+	            cursor = db.rawQuery(sql, chunk.toArray(new String[0]));
+	            while (cursor.moveToNext()) {
+	            	String fieldValue = cursor.getString(0);
+	            	if (!chunkValues.contains(fieldValue)) {
+	            		// Value was converted by column affinity (e.g. "01" stored as 1)
+	            		valuesReadBackAsIs = false;
+	            		continue;
+	            	}
+	            	if (result.containsKey(fieldValue)) {
+	            		throw new SmartStoreException(String.format("There are more than one soup elements where %s is %s", fieldPath, fieldValue));
+	            	}
+	            	result.put(fieldValue, cursor.getLong(1));
+	            }
+	        } finally {
+	            safeClose(cursor);
+	        }
+
+	        // Falling back to one lookup per value for the values we could not match
+	        if (!valuesReadBackAsIs) {
+	        	for (String fieldValue : chunk) {
+	        		if (!result.containsKey(fieldValue)) {
+	        			long soupEntryId = lookupSoupEntryId(soupName, fieldPath, fieldValue);
+	        			if (soupEntryId != -1) {
+	        				result.put(fieldValue, soupEntryId);
+	        			}
+	        		}
+	        	}
+	        }
+        }
+        return result;
+    }
+
+    /**
+     * Look for a soup element where fieldPath's value is fieldValue
+     * Return its soupEntryId
+     * Return -1 if not found
+     * Throw an exception if fieldName is not indexed
+     * Throw an exception if more than one soup element are found
+     *
+     * @param soupName
+     * @param fieldPath
+     * @param fieldValue
+     */
+    public long lookupSoupEntryId(String soupName, String fieldPath, String fieldValue) {
+		// NB: not synchronizing on db - see "Reads" in class comment
+		//     when called from within a write transaction (e.g. upsert), the writer's connection is used
+    	final SQLiteDatabase db = getDatabase();
+        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
+        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+        String columnName = DBHelper.getInstance(db).getColumnNameForPath(db, soupName, fieldPath);
+
+        Cursor cursor = null;
+        try {
+            cursor = db.query(soupTableName, new String[] {ID_COL}, columnName + " = ?", new String[] { fieldValue }, null, null, null);
+            if (cursor.getCount() > 1) {
+                throw new SmartStoreException(String.format("There are more than one soup elements where %s is %s", fieldPath, fieldValue));
+            }
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            } else {
+                return -1; // not found
+            }
+        } finally {
+            safeClose(cursor);
+        }
+    }
+
     /**
      * Delete soup elements given by their ids (and commits)
      * @param soupName
@@ -1330,7 +2220,7 @@ public class SmartStore  {
 	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 	        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
 	        if (handleTx) {
-	            db.beginTransaction();
+	            beginTransaction(db);
 	        }
 	        try {
 				DBHelper.getInstance(db).delete(db, soupTableName, getSoupEntryIdsPredicate(soupEntryIds));
@@ -1338,13 +2228,16 @@ public class SmartStore  {
 				if (hasFTS(soupName)) {
 					DBHelper.getInstance(db).delete(db, soupTableName + FTS_SUFFIX, getRowIdsPredicate(soupEntryIds));
 				}
+				deleteFromShadowSoup(db, soupName, getSoupEntryIdsPredicate(soupEntryIds), getRowIdsPredicate(soupEntryIds));
+				deleteFromChangeJournal(db, soupName, buildInStatement(SOUP_ENTRY_ID_COL, TextUtils.join(",", soupEntryIds)));
+				recordChange(db, soupName, toLongArray(Arrays.asList(soupEntryIds)));
 
 	            if (handleTx) {
 	                db.setTransactionSuccessful();
 	            }
 	        } finally {
 	            if (handleTx) {
-	                db.endTransaction();
+	                endTransaction(db);
 	            }
 	        }
     	}
@@ -1374,29 +2267,238 @@ public class SmartStore  {
 			String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 			if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
 			if (handleTx) {
-				db.beginTransaction();
+				beginTransaction(db);
 			}
 			try {
                 String subQuerySql = String.format("SELECT %s FROM (%s) LIMIT %d", ID_COL, convertSmartSql(querySpec.idsSmartSql), querySpec.pageSize);
                 String[] args = querySpec.getArgs();
 
+				// Only looking up the ids of the soup elements deleted when somebody is listening
+				// NB: looked up before the delete but recorded after it (outside of a transaction, changes are delivered right away)
+				long[] deletedIds = DBHelper.getInstance(db).getSoupChangeNotifier().hasListeners() ? getIds(db, subQuerySql, args) : null;
+
 				DBHelper.getInstance(db).delete(db, soupTableName, buildInStatement(ID_COL, subQuerySql), args);
 
 				if (hasFTS(soupName)) {
 					DBHelper.getInstance(db).delete(db, soupTableName + FTS_SUFFIX, buildInStatement(ROWID_COL, subQuerySql), args);
 				}
 
+				// Soup elements deleted are the ones no longer in the soup table
+				String notInSoupTable = String.format("SELECT %s FROM %s", ID_COL, soupTableName);
+				deleteFromShadowSoup(db, soupName, ID_COL + " NOT IN (" + notInSoupTable + ")", ROWID_COL + " NOT IN (" + notInSoupTable + ")");
+				deleteFromChangeJournal(db, soupName, SOUP_ENTRY_ID_COL + " NOT IN (" + notInSoupTable + ")");
+
+				if (deletedIds != null) {
+					recordChange(db, soupName, deletedIds);
+				}
+
 				if (handleTx) {
 					db.setTransactionSuccessful();
 				}
 			} finally {
 				if (handleTx) {
-					db.endTransaction();
+					endTransaction(db);
 				}
 			}
 		}
 	}
 
+    /**
+     * Updates of soup elements whose content is unchanged (ignoring _soupLastModifiedDate) are skipped
+     * e.g. when a sync down overwrites records that did not change on the server
+     * @return number of updates skipped since the database was opened
+     */
+    public long getSkippedUpdatesCount() {
+    	final SQLiteDatabase db = getDatabase();
+    	return DBHelper.getInstance(db).getSkippedUpdatesCount();
+    }
+
+    /**
+     * Start keeping a change journal for the given soup
+     * Once enabled, soup entries are added to the journal (in the order they are modified) by any create / update / upsert
+     * that leaves them locally modified, and removed from it when they are deleted or written back as not locally modified
+     * The journal is appended in the same transaction as the write
+     * Soup entries already locally modified are added to the journal when it is enabled (in last modified order)
+     *
+     * @param soupName
+     * @param dirtyPath path of the field indicating that a soup element is locally modified (true or "true")
+     */
+    public void enableChangeJournal(String soupName, String dirtyPath) {
+    	final SQLiteDatabase db = getDatabase();
+    	synchronized(db) {
+    		String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
+    		if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+    		db.beginTransaction();
+    		try {
+    			ContentValues values = new ContentValues();
+    			values.put(SOUP_NAME_COL, soupName);
+    			values.put(DIRTY_PATH_COL, dirtyPath);
+    			db.insertWithOnConflict(CHANGE_JOURNAL_SOUPS_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+    			// Adding soup entries already locally modified
+    			db.execSQL(String.format("INSERT OR IGNORE INTO %s (%s, %s, %s) SELECT ?, %s, %s FROM %s WHERE %s ORDER BY %s, %s",
+    					CHANGE_JOURNAL_TABLE, SOUP_NAME_COL, SOUP_ENTRY_ID_COL, CREATED_COL,
+    					ID_COL, LAST_MODIFIED_COL, soupTableName,
+    					buildInStatement(String.format("json_extract(%s, '$.%s')", SOUP_COL, dirtyPath), "1, 'true'"),
+    					LAST_MODIFIED_COL, ID_COL), new Object[] {soupName});
+
+    			db.setTransactionSuccessful();
+    			DBHelper.getInstance(db).cacheChangeJournalDirtyPath(db, soupName, dirtyPath);
+    		} finally {
+    			db.endTransaction();
+    		}
+    	}
+    }
+
+    /**
+     * Stop keeping a change journal for the given soup (pending changes are discarded)
+     * @param soupName
+     */
+    public void disableChangeJournal(String soupName) {
+    	final SQLiteDatabase db = getDatabase();
+    	synchronized(db) {
+    		db.beginTransaction();
+    		try {
+    			DBHelper.getInstance(db).delete(db, CHANGE_JOURNAL_TABLE, SOUP_NAME_PREDICATE, soupName);
+    			DBHelper.getInstance(db).delete(db, CHANGE_JOURNAL_SOUPS_TABLE, SOUP_NAME_PREDICATE, soupName);
+    			db.setTransactionSuccessful();
+    			DBHelper.getInstance(db).cacheChangeJournalDirtyPath(db, soupName, null);
+    		} finally {
+    			db.endTransaction();
+    		}
+    	}
+    }
+
+    /**
+     * @param soupName
+     * @return true if a change journal is kept for the given soup
+     */
+    public boolean hasChangeJournal(String soupName) {
+    	final SQLiteDatabase db = getDatabase();
+    	return DBHelper.getInstance(db).getChangeJournalDirtyPath(db, soupName) != null;
+    }
+
+    /**
+     * @param soupName
+     * @return path of the field indicating that a soup element is locally modified if a change journal is kept for the given soup, null otherwise
+     */
+    public String getChangeJournalDirtyPath(String soupName) {
+    	final SQLiteDatabase db = getDatabase();
+    	return DBHelper.getInstance(db).getChangeJournalDirtyPath(db, soupName);
+    }
+
+    /**
+     * Return ids of soup entries with pending changes in the order they were first modified
+     * @param soupName
+     * @return soup entry ids
+     */
+    public long[] getChangeJournalSoupEntryIds(String soupName) {
+    	final SQLiteDatabase db = getDatabase();
+    	if (!hasChangeJournal(soupName)) throw new SmartStoreException("Soup: " + soupName + " does not have a change journal");
+    	// NB: not synchronizing on db - see "Reads" in class comment
+    	Cursor cursor = null;
+    	try {
+    		cursor = DBHelper.getInstance(db).query(db, CHANGE_JOURNAL_TABLE, new String[] {SOUP_ENTRY_ID_COL}, ID_COL, null, SOUP_NAME_PREDICATE, soupName);
+    		return readLongColumn(cursor);
+    	} finally {
+    		safeClose(cursor);
+    	}
+    }
+
+    /**
+     * Remove soup entries from change journal once their changes have been processed (e.g. synced up)
+     * NB: a soup entry is added back to the journal if it is locally modified again
+     * @param soupName
+     * @param soupEntryIds
+     */
+    public void markChangesDone(String soupName, Long... soupEntryIds) {
+    	final SQLiteDatabase db = getDatabase();
+    	synchronized(db) {
+    		deleteFromChangeJournal(db, soupName, buildInStatement(SOUP_ENTRY_ID_COL, TextUtils.join(",", soupEntryIds)));
+    	}
+    }
+
+    /**
+     * Record soup entries changed for soup change listeners (delivered once the transaction commits)
+     * NB: caller is expected to synchronize on the database and to be in the transaction of the write
+     * @param db
+     * @param soupName
+     * @param soupEntryIds ids of soup entries changed or null if the whole soup changed
+     */
+    private void recordChange(SQLiteDatabase db, String soupName, long[] soupEntryIds) {
+    	DBHelper.getInstance(db).getSoupChangeNotifier().recordChange(db, soupName, soupEntryIds);
+    }
+
+    private long[] getIds(SQLiteDatabase db, String sql, String[] args) {
+    	Cursor cursor = null;
+    	try {
+    		cursor = DBHelper.getInstance(db).rawQuery(db, sql, args);
+    		return readLongColumn(cursor);
+    	} finally {
+    		safeClose(cursor);
+    	}
+    }
+
+    private static long[] toLongArray(List<Long> values) {
+    	long[] result = new long[values.size()];
+    	for (int i = 0; i < result.length; i++) {
+    		result[i] = values.get(i);
+    	}
+    	return result;
+    }
+
+    /**
+     * Add soup entry to change journal if it is locally modified, remove it otherwise
+     * NB: caller is expected to synchronize on the database and to be in the transaction of the write
+     * @param db
+     * @param soupName
+     * @param soupEntryId
+     * @param soupElt
+     * @param now
+     * @param created true if the soup entry was just created (it can't be in the journal yet)
+     */
+    private void journalChange(SQLiteDatabase db, String soupName, long soupEntryId, JSONObject soupElt, long now, boolean created) {
+    	String dirtyPath = DBHelper.getInstance(db).getChangeJournalDirtyPath(db, soupName);
+    	if (dirtyPath != null) {
+    		Object dirty = project(soupElt, dirtyPath);
+    		if (Boolean.TRUE.equals(dirty) || "true".equals(dirty) || (dirty instanceof Number && ((Number) dirty).intValue() == 1)) {
+    			DBHelper.getInstance(db).getSoupWriter(db, soupName).addToChangeJournal(soupName, soupEntryId, now);
+    		} else if (!created) {
+    			DBHelper.getInstance(db).getSoupWriter(db, soupName).removeFromChangeJournal(soupName, soupEntryId);
+    		}
+    	}
+    }
+
+    /**
+     * Remove soup entries from change journal if soup has one
+     * @param db
+     * @param soupName
+     * @param predicate predicate on soup entry ids (null to remove all)
+     */
+    private void deleteFromChangeJournal(SQLiteDatabase db, String soupName, String predicate) {
+    	if (DBHelper.getInstance(db).getChangeJournalDirtyPath(db, soupName) != null) {
+    		DBHelper.getInstance(db).delete(db, CHANGE_JOURNAL_TABLE, SOUP_NAME_PREDICATE + (predicate == null ? "" : " AND " + predicate), soupName);
+    	}
+    }
+
+    /**
+     * Apply delete to shadow soup if soup is being altered online
+     * @param db
+     * @param soupName
+     * @param predicate predicate for shadow soup table (null to delete all)
+     * @param ftsPredicate predicate for shadow soup fts table (null to delete all)
+     */
+    private void deleteFromShadowSoup(SQLiteDatabase db, String soupName, String predicate, String ftsPredicate) {
+    	String shadowSoupName = DBHelper.getInstance(db).getShadowSoupName(soupName);
+    	if (shadowSoupName != null) {
+    		String shadowSoupTableName = DBHelper.getInstance(db).getSoupTableName(db, shadowSoupName);
+    		DBHelper.getInstance(db).delete(db, shadowSoupTableName, predicate);
+    		if (hasFTS(shadowSoupName)) {
+    			DBHelper.getInstance(db).delete(db, shadowSoupTableName + FTS_SUFFIX, ftsPredicate);
+    		}
+    	}
+    }
+
     /**
      * @return predicate to match soup entries by id
      */
@@ -1491,7 +2593,7 @@ public class SmartStore  {
 		return projectRecursive(soup, pathElements, 0);
     }
 
-	private static Object projectRecursive(Object jsonObj, String[] pathElements, int index) {
+	static Object projectRecursive(Object jsonObj, String[] pathElements, int index) {
 		Object result = null;
 		if (index == pathElements.length) {
 			return jsonObj;
@@ -1579,6 +2681,49 @@ public class SmartStore  {
 		fts5
 	}
 
+    /**
+     * Callback for importSoup / exportSoup
+     */
+    public interface ProgressListener {
+
+    	/**
+    	 * Called after each batch of soup elements
+    	 *
+    	 * @param soupName
+    	 * @param processed number of soup elements processed so far
+    	 */
+    	void onProgress(String soupName, int processed);
+    }
+
+    /**
+     * Callback for soup changes (see registerSoupChangeListener)
+     */
+    public interface SoupChangeListener {
+
+    	/**
+    	 * Called once per soup after a transaction that changed it has committed
+    	 *
+    	 * @param soupName
+    	 * @param soupEntryIds ids of soup entries created, updated or deleted - null if the whole soup changed (cleared or dropped)
+    	 */
+    	void onSoupChanged(String soupName, long[] soupEntryIds);
+    }
+
+    /**
+     * Callback for queryStream
+     */
+    public interface RowConsumer {
+
+    	/**
+    	 * Called for each row of the results
+    	 *
+    	 * @param row JSONArray for smart queries and queries with select paths, soup element (JSONObject) otherwise
+    	 * @return false to stop reading rows
+    	 * @throws JSONException
+    	 */
+    	boolean onRow(Object row) throws JSONException;
+    }
+
     /**
      * Exception thrown by smart store
      *
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.database.sqlite.SQLiteTransactionListener;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SoupChangeListener;
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Soup change notifier for a database
+ *
+ * Changes made within a transaction are accumulated per soup and delivered once, after the outermost transaction commits
+ * (they are dropped if it rolls back). Changes made outside of a transaction are delivered right away.
+ * Listeners are called on a background thread, never while the database is locked.
+ *
+ * NB: only transactions started through SmartStore are tracked, changes made in other transactions are delivered right away
+ *
+ * The notifier is closed with its database (see DBHelper.closeInstance): listeners are dropped and the delivery thread is stopped.
+ */
+class SoupChangeNotifier implements SQLiteTransactionListener {
+
+	private static final String TAG = "SoupChangeNotifier";
+
+	private final List<SoupChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	// Soup name to ids of soup entries changed in the current transaction (null when the whole soup changed e.g. cleared)
+	private final Map<String, Set<Long>> pendingChanges = new LinkedHashMap<>();
+
+	// True between the beginning of a tracked transaction and its end
+	private boolean tracking;
+
+	// True once the tracked transaction has committed
+	private boolean committed;
+
+	// Delivery thread (created on first delivery)
+	private ExecutorService executor;
+
+	// True once the database is closed
+	private boolean closed;
+
+	/**
+	 * @param listener
+	 */
+	void addListener(SoupChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 */
+	void removeListener(SoupChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return true if anybody is listening (when nobody is, changes don't need to be recorded)
+	 */
+	boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * Record soup entries changed by a write
+	 * NB: caller is expected to synchronize on the database and to be in the transaction of the write (if any)
+	 * @param db
+	 * @param soupName
+	 * @param soupEntryIds ids of soup entries changed or null if the whole soup changed
+	 */
+	synchronized void recordChange(SQLiteDatabase db, String soupName, long[] soupEntryIds) {
+		if (!hasListeners()) {
+			return;
+		}
+		Map<String, Set<Long>> changes = new LinkedHashMap<>();
+		boolean inTrackedTransaction = tracking && db.inTransaction();
+		addChange(inTrackedTransaction ? pendingChanges : changes, soupName, soupEntryIds);
+		if (!inTrackedTransaction) {
+			deliver(changes);
+		}
+	}
+
+	/**
+	 * Deliver the changes of the transaction that just ended if it was the outermost one and it committed
+	 * NB: to be called right after db.endTransaction()
+	 * @param db
+	 */
+	synchronized void afterEndTransaction(SQLiteDatabase db) {
+		if (!tracking || db.inTransaction()) {
+			return;
+		}
+		tracking = false;
+		if (committed && !pendingChanges.isEmpty()) {
+			deliver(new LinkedHashMap<>(pendingChanges));
+		}
+		pendingChanges.clear();
+	}
+
+	/**
+	 * Drop listeners and pending changes and stop the delivery thread (changes already handed to it are still delivered)
+	 * NB: to be called when the database is closed
+	 */
+	synchronized void close() {
+		closed = true;
+		listeners.clear();
+		pendingChanges.clear();
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	@Override
+	public synchronized void onBegin() {
+		tracking = true;
+		committed = false;
+		pendingChanges.clear();
+	}
+
+	@Override
+	public synchronized void onCommit() {
+		committed = true;
+	}
+
+	@Override
+	public synchronized void onRollback() {
+		committed = false;
+		pendingChanges.clear();
+	}
+
+	private static void addChange(Map<String, Set<Long>> changes, String soupName, long[] soupEntryIds) {
+		if (soupEntryIds == null) {
+			changes.put(soupName, null);
+		} else if (!changes.containsKey(soupName)) {
+			Set<Long> ids = new LinkedHashSet<>();
+			for (long soupEntryId : soupEntryIds) {
+				ids.add(soupEntryId);
+			}
+			changes.put(soupName, ids);
+		} else {
+			Set<Long> ids = changes.get(soupName);
+			if (ids != null) {
+				for (long soupEntryId : soupEntryIds) {
+					ids.add(soupEntryId);
+				}
+			}
+		}
+	}
+
+	private void deliver(final Map<String, Set<Long>> changes) {
+		if (closed) {
+			return;
+		}
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor();
+		}
+		// Snapshot the listeners now, so that changes handed to the delivery thread still reach them after close()
+		final List<SoupChangeListener> targets = new ArrayList<>(listeners);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (Map.Entry<String, Set<Long>> change : changes.entrySet()) {
+					long[] soupEntryIds = toArray(change.getValue());
+					for (SoupChangeListener listener : targets) {
+						try {
+							listener.onSoupChanged(change.getKey(), soupEntryIds);
+						} catch (Exception e) {
+							SmartStoreLogger.e(TAG, "Soup change listener failed for soup: " + change.getKey(), e);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private static long[] toArray(Set<Long> ids) {
+		if (ids == null) {
+			return null;
+		}
+		long[] result = new long[ids.size()];
+		int i = 0;
+		for (Long id : ids) {
+			result[i++] = id;
+		}
+		return result;
+	}
+}
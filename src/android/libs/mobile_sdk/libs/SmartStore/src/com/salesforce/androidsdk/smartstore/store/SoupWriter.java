@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.database.sqlite.SQLiteDoneException;
+import android.text.TextUtils;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.TypeGroup;
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes soup elements to a soup table (and its fts table if any) using compiled statements
+ * Statements are compiled once and values are bound by index, so writing many soup elements
+ * does not require building ContentValues or compiling sql for each of them
+ *
+ * A hash of the content of each soup element (its serialization without _soupLastModifiedDate) is stored with it
+ * Updates that would not change the content of a soup element are skipped (soup, index and fts columns are left untouched)
+ * The hash is only a prefilter: an update is skipped once the stored soup element has been found identical to the new one
+ *
+ * NB: caller is expected to synchronize on the database
+ */
+class SoupWriter {
+
+	private static final String TAG = "SoupWriter";
+
+	private final SQLiteDatabase db;
+	private final String soupTableName;
+	private final String shadowSoupName;         // shadow soup of soup being altered online (writes are applied to it too) or null
+	private final IndexSpec[] columnIndexSpecs;  // index specs with values extracted to a column of the soup table
+	private final IndexSpec[] ftsIndexSpecs;     // index specs with values extracted to a column of the fts table
+	private final SQLiteStatement insertStatement;
+	private final SQLiteStatement updateStatement;
+	private final SQLiteStatement forceUpdateStatement; // to write updates whose content hash collides with the stored one
+	private final SQLiteStatement insertFtsStatement;
+	private final SQLiteStatement updateFtsStatement;
+	private final SQLiteStatement unchangedStatement;     // to tell skipped updates from hash collisions and updates of missing soup elements
+	private SQLiteStatement replaceStatement;    // compiled on first use
+	private SQLiteStatement deleteFtsStatement;  // compiled on first use
+	private SQLiteStatement insertJournalStatement;  // compiled on first use (soups with a change journal only)
+	private SQLiteStatement deleteJournalStatement;  // compiled on first use (soups with a change journal only)
+
+	/**
+	 * @param db
+	 * @param soupTableName
+	 * @param indexSpecs index specs of soup (with column names)
+	 */
+	SoupWriter(SQLiteDatabase db, String soupTableName, IndexSpec[] indexSpecs) {
+		this(db, soupTableName, indexSpecs, null);
+	}
+
+	/**
+	 * @param db
+	 * @param soupTableName
+	 * @param indexSpecs index specs of soup (with column names)
+	 * @param shadowSoupName shadow soup that inserts and updates should also be applied to (or null)
+	 */
+	SoupWriter(SQLiteDatabase db, String soupTableName, IndexSpec[] indexSpecs, String shadowSoupName) {
+		this.db = db;
+		this.soupTableName = soupTableName;
+		this.shadowSoupName = shadowSoupName;
+		this.columnIndexSpecs = filter(indexSpecs, TypeGroup.value_extracted_to_column);
+		this.ftsIndexSpecs = filter(indexSpecs, TypeGroup.value_extracted_to_fts_column);
+
+		List<String> columns = new ArrayList<>();
+		Collections.addAll(columns, SmartStore.ID_COL, SmartStore.SOUP_COL, SmartStore.CREATED_COL, SmartStore.LAST_MODIFIED_COL, SmartStore.CONTENT_HASH_COL);
+		for (IndexSpec indexSpec : columnIndexSpecs) {
+			columns.add(indexSpec.columnName);
+		}
+		this.insertStatement = db.compileStatement(buildInsertSql(soupTableName, columns));
+
+		List<String> updatedColumns = new ArrayList<>();
+		Collections.addAll(updatedColumns, SmartStore.SOUP_COL, SmartStore.LAST_MODIFIED_COL, SmartStore.CONTENT_HASH_COL);
+		for (IndexSpec indexSpec : columnIndexSpecs) {
+			updatedColumns.add(indexSpec.columnName);
+		}
+		// Only updating soup element if its content changed
+		String updateSql = buildUpdateSql(soupTableName, updatedColumns, SmartStore.ID_COL);
+		this.updateStatement = db.compileStatement(updateSql + String.format(" AND %s IS NOT ?", SmartStore.CONTENT_HASH_COL));
+		this.forceUpdateStatement = db.compileStatement(updateSql);
+		// Stored soup element is the new one with its stored last modified date (see withLastModified)
+		this.unchangedStatement = db.compileStatement(String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ? || %s || '}'",
+				SmartStore.LAST_MODIFIED_COL, soupTableName, SmartStore.ID_COL, SmartStore.SOUP_COL, SmartStore.LAST_MODIFIED_COL));
+
+		if (ftsIndexSpecs.length > 0) {
+			String soupTableNameFts = soupTableName + SmartStore.FTS_SUFFIX;
+			List<String> ftsColumns = new ArrayList<>();
+			for (IndexSpec indexSpec : ftsIndexSpecs) {
+				ftsColumns.add(indexSpec.columnName);
+			}
+			List<String> insertedFtsColumns = new ArrayList<>();
+			insertedFtsColumns.add(SmartStore.ROWID_COL);
+			insertedFtsColumns.addAll(ftsColumns);
+			this.insertFtsStatement = db.compileStatement(buildInsertSql(soupTableNameFts, insertedFtsColumns));
+			this.updateFtsStatement = db.compileStatement(buildUpdateSql(soupTableNameFts, ftsColumns, SmartStore.ROWID_COL));
+		} else {
+			this.insertFtsStatement = null;
+			this.updateFtsStatement = null;
+		}
+	}
+
+	/**
+	 * Insert soup element
+	 * @param soupEntryId
+	 * @param soupElt soup element (with _soupEntryId and _soupLastModifiedDate already set)
+	 * @param now
+	 * @return true if successful
+	 */
+	boolean insert(long soupEntryId, JSONObject soupElt, long now) {
+		String content = getContent(soupElt);
+		insertStatement.clearBindings();
+		insertStatement.bindLong(1, soupEntryId);
+		insertStatement.bindString(2, withLastModified(soupElt, content, now));
+		insertStatement.bindLong(3, now);
+		insertStatement.bindLong(4, now);
+		insertStatement.bindLong(5, hash(content));
+		bindIndexedPaths(insertStatement, 6, soupElt, columnIndexSpecs);
+		boolean success = insertStatement.executeInsert() == soupEntryId;
+
+		if (success && insertFtsStatement != null) {
+			insertFtsStatement.clearBindings();
+			insertFtsStatement.bindLong(1, soupEntryId);
+			bindIndexedPaths(insertFtsStatement, 2, soupElt, ftsIndexSpecs);
+			insertFtsStatement.executeInsert();
+		}
+		if (success && shadowSoupName != null) {
+			DBHelper.getInstance(db).getSoupWriter(db, shadowSoupName).insert(soupEntryId, soupElt, now);
+		}
+		return success;
+	}
+
+	/**
+	 * Update soup element
+	 * If its content is unchanged, nothing is written and _soupLastModifiedDate is set back to the stored last modified date
+	 * @param soupEntryId
+	 * @param soupElt soup element (with _soupEntryId and _soupLastModifiedDate already set)
+	 * @param now
+	 * @return true if successful (or skipped)
+	 */
+	boolean update(long soupEntryId, JSONObject soupElt, long now) {
+		String content = getContent(soupElt);
+		long contentHash = hash(content);
+		String soupRaw = withLastModified(soupElt, content, now);
+		int nextIndex = bindUpdate(updateStatement, soupEntryId, soupRaw, soupElt, now, contentHash);
+		updateStatement.bindLong(nextIndex, contentHash);
+		boolean success = updateStatement.executeUpdateDelete() == 1;
+
+		if (!success) {
+			try {
+				unchangedStatement.clearBindings();
+				unchangedStatement.bindLong(1, soupEntryId);
+				unchangedStatement.bindString(2, getLastModifiedPrefix(content));
+				long lastModified = unchangedStatement.simpleQueryForLong();
+				putLastModified(soupElt, lastModified);
+				DBHelper.getInstance(db).incrementSkippedUpdatesCount();
+				return true;
+			} catch (SQLiteDoneException e) {
+				// Same hash but different content, or no soup element with that id
+				bindUpdate(forceUpdateStatement, soupEntryId, soupRaw, soupElt, now, contentHash);
+				success = forceUpdateStatement.executeUpdateDelete() == 1;
+				if (!success) {
+					return false;
+				}
+			}
+		}
+
+		if (success && updateFtsStatement != null) {
+			updateFtsStatement.clearBindings();
+			nextIndex = bindIndexedPaths(updateFtsStatement, 1, soupElt, ftsIndexSpecs);
+			updateFtsStatement.bindLong(nextIndex, soupEntryId);
+			success = updateFtsStatement.executeUpdateDelete() == 1;
+		}
+		if (success && shadowSoupName != null) {
+			// Soup element might not have been copied to the shadow soup yet - this update then changes nothing and the chunk copying it later carries the updated row
+			DBHelper.getInstance(db).getSoupWriter(db, shadowSoupName).update(soupEntryId, soupElt, now);
+		}
+		return success;
+	}
+
+	/**
+	 * Insert or replace soup element keeping its created and last modified dates and its content hash
+	 * Used to copy soup elements to a shadow soup
+	 * @param soupEntryId
+	 * @param soupRaw soup element as stored
+	 * @param soupElt parsed soup element (or null if it could not be parsed - indexed values will be null)
+	 * @param created
+	 * @param lastModified
+	 * @param contentHash content hash as stored (or null if none was stored)
+	 */
+	void replace(long soupEntryId, String soupRaw, JSONObject soupElt, long created, long lastModified, Long contentHash) {
+		if (replaceStatement == null) {
+			List<String> columns = new ArrayList<>();
+			Collections.addAll(columns, SmartStore.ID_COL, SmartStore.SOUP_COL, SmartStore.CREATED_COL, SmartStore.LAST_MODIFIED_COL, SmartStore.CONTENT_HASH_COL);
+			for (IndexSpec indexSpec : columnIndexSpecs) {
+				columns.add(indexSpec.columnName);
+			}
+			replaceStatement = db.compileStatement(buildInsertSql(soupTableName, columns).replaceFirst("INSERT", "INSERT OR REPLACE"));
+		}
+		replaceStatement.clearBindings();
+		replaceStatement.bindLong(1, soupEntryId);
+		replaceStatement.bindString(2, soupRaw);
+		replaceStatement.bindLong(3, created);
+		replaceStatement.bindLong(4, lastModified);
+		if (contentHash == null) {
+			replaceStatement.bindNull(5);
+		} else {
+			replaceStatement.bindLong(5, contentHash);
+		}
+		bindIndexedPaths(replaceStatement, 6, soupElt, columnIndexSpecs);
+		replaceStatement.executeInsert();
+
+		if (insertFtsStatement != null) {
+			if (deleteFtsStatement == null) {
+				deleteFtsStatement = db.compileStatement(String.format("DELETE FROM %s%s WHERE %s = ?", soupTableName, SmartStore.FTS_SUFFIX, SmartStore.ROWID_COL));
+			}
+			deleteFtsStatement.bindLong(1, soupEntryId);
+			deleteFtsStatement.executeUpdateDelete();
+			insertFtsStatement.clearBindings();
+			insertFtsStatement.bindLong(1, soupEntryId);
+			bindIndexedPaths(insertFtsStatement, 2, soupElt, ftsIndexSpecs);
+			insertFtsStatement.executeInsert();
+		}
+	}
+
+	/**
+	 * Add soup element to the change journal of its soup (no-op if it is already in it)
+	 * @param soupName
+	 * @param soupEntryId
+	 * @param now
+	 */
+	void addToChangeJournal(String soupName, long soupEntryId, long now) {
+		if (insertJournalStatement == null) {
+			insertJournalStatement = db.compileStatement(String.format("INSERT OR IGNORE INTO %s (%s, %s, %s) VALUES (?, ?, ?)",
+					SmartStore.CHANGE_JOURNAL_TABLE, SmartStore.SOUP_NAME_COL, SmartStore.SOUP_ENTRY_ID_COL, SmartStore.CREATED_COL));
+		}
+		insertJournalStatement.bindString(1, soupName);
+		insertJournalStatement.bindLong(2, soupEntryId);
+		insertJournalStatement.bindLong(3, now);
+		insertJournalStatement.executeInsert();
+	}
+
+	/**
+	 * Remove soup element from the change journal of its soup
+	 * @param soupName
+	 * @param soupEntryId
+	 */
+	void removeFromChangeJournal(String soupName, long soupEntryId) {
+		if (deleteJournalStatement == null) {
+			deleteJournalStatement = db.compileStatement(String.format("DELETE FROM %s WHERE %s = ? AND %s = ?",
+					SmartStore.CHANGE_JOURNAL_TABLE, SmartStore.SOUP_NAME_COL, SmartStore.SOUP_ENTRY_ID_COL));
+		}
+		deleteJournalStatement.bindString(1, soupName);
+		deleteJournalStatement.bindLong(2, soupEntryId);
+		deleteJournalStatement.executeUpdateDelete();
+	}
+
+	/**
+	 * Release compiled statements
+	 */
+	void close() {
+		insertStatement.close();
+		updateStatement.close();
+		forceUpdateStatement.close();
+		unchangedStatement.close();
+		if (insertFtsStatement != null) {
+			insertFtsStatement.close();
+			updateFtsStatement.close();
+		}
+		if (replaceStatement != null) {
+			replaceStatement.close();
+		}
+		if (deleteFtsStatement != null) {
+			deleteFtsStatement.close();
+		}
+		if (insertJournalStatement != null) {
+			insertJournalStatement.close();
+		}
+		if (deleteJournalStatement != null) {
+			deleteJournalStatement.close();
+		}
+	}
+
+	/**
+	 * Return content of soup element i.e. its serialization without _soupLastModifiedDate (which changes on every write)
+	 * NB: _soupLastModifiedDate is removed from soup element - withLastModified puts it back
+	 */
+	static String getContent(JSONObject soupElt) {
+		soupElt.remove(SmartStore.SOUP_LAST_MODIFIED_DATE);
+		return soupElt.toString();
+	}
+
+	/**
+	 * Put _soupLastModifiedDate back in soup element (as its last field)
+	 * @return serialization of soup element built from its content (without serializing it again)
+	 */
+	static String withLastModified(JSONObject soupElt, String content, long lastModified) {
+		putLastModified(soupElt, lastModified);
+		return getLastModifiedPrefix(content) + lastModified + "}";
+	}
+
+	/**
+	 * @return serialization of soup element built from its content, up to the value of _soupLastModifiedDate (excluded)
+	 */
+	private static String getLastModifiedPrefix(String content) {
+		String lastModifiedKey = JSONObject.quote(SmartStore.SOUP_LAST_MODIFIED_DATE) + ":";
+		return content.length() == 2 // {}
+				? "{" + lastModifiedKey
+				: content.substring(0, content.length() - 1) + "," + lastModifiedKey;
+	}
+
+	/**
+	 * Bind values of an update statement (soup, last modified, content hash, indexed paths and soup entry id)
+	 * @return next bind index
+	 */
+	private int bindUpdate(SQLiteStatement statement, long soupEntryId, String soupRaw, JSONObject soupElt, long now, long contentHash) {
+		statement.clearBindings();
+		statement.bindString(1, soupRaw);
+		statement.bindLong(2, now);
+		statement.bindLong(3, contentHash);
+		int nextIndex = bindIndexedPaths(statement, 4, soupElt, columnIndexSpecs);
+		statement.bindLong(nextIndex, soupEntryId);
+		return nextIndex + 1;
+	}
+
+	private static void putLastModified(JSONObject soupElt, long lastModified) {
+		try {
+			soupElt.put(SmartStore.SOUP_LAST_MODIFIED_DATE, lastModified);
+		} catch (JSONException e) {
+			throw new SmartStoreException("Could not set " + SmartStore.SOUP_LAST_MODIFIED_DATE, e);
+		}
+	}
+
+	/**
+	 * @return 64-bit FNV-1a hash of content
+	 */
+	static long hash(String content) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < content.length(); i++) {
+			hash ^= content.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Bind values of indexed paths starting at bind index firstIndex
+	 * Values that can't be converted to the type of their index spec are bound as null
+	 *
+	 * @return next bind index
+	 */
+	static int bindIndexedPaths(SQLiteStatement statement, int firstIndex, JSONObject soupElt, IndexSpec[] indexSpecs) {
+		int index = firstIndex;
+		for (IndexSpec indexSpec : indexSpecs) {
+			Object value = indexSpec.project(soupElt);
+			statement.bindNull(index); // fall back
+			if (value != null) {
+				try {
+					switch (indexSpec.type) {
+						case integer:
+							statement.bindLong(index, ((Number) value).longValue());
+							break;
+						case string:
+						case full_text:
+							statement.bindString(index, value.toString());
+							break;
+						case floating:
+							statement.bindDouble(index, ((Number) value).doubleValue());
+							break;
+					}
+				} catch (Exception e) {
+					// Ignore (will use the null value)
+					SmartStoreLogger.e(TAG, "Unexpected error", e);
+				}
+			}
+			index++;
+		}
+		return index;
+	}
+
+	static IndexSpec[] filter(IndexSpec[] indexSpecs, TypeGroup typeGroup) {
+		List<IndexSpec> filtered = new ArrayList<>();
+		for (IndexSpec indexSpec : indexSpecs) {
+			if (typeGroup.isMember(indexSpec.type)) {
+				filtered.add(indexSpec);
+			}
+		}
+		return filtered.toArray(new IndexSpec[0]);
+	}
+
+	private static String buildInsertSql(String table, List<String> columns) {
+		return String.format("INSERT INTO %s (%s) VALUES (%s)", table, TextUtils.join(",", columns), TextUtils.join(",", Collections.nCopies(columns.size(), "?")));
+	}
+
+	static String buildUpdateSql(String table, List<String> columns, String idColumn) {
+		List<String> assignments = new ArrayList<>();
+		for (String column : columns) {
+			assignments.add(column + " = ?");
+		}
+		return String.format("UPDATE %s SET %s WHERE %s = ?", table, TextUtils.join(", ", assignments), idColumn);
+	}
+}
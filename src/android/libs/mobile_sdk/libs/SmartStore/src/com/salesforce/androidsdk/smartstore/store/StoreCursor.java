@@ -26,12 +26,19 @@
  */
 package com.salesforce.androidsdk.smartstore.store;
 
+import com.salesforce.androidsdk.smartstore.store.QuerySpec.KeysetPosition;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Store Cursor 
  * We don't actually keep a cursor opened, instead, we wrap the query spec and page index
+ * When the query spec uses keyset pagination, we also remember where the pages we have seen start and end
  */
 public class StoreCursor {
 
@@ -42,7 +49,19 @@ public class StoreCursor {
 	public static final String CURRENT_PAGE_INDEX = "currentPageIndex";
 	public static final String CURRENT_PAGE_ORDERED_ENTRIES = "currentPageOrderedEntries";
 	public static final String CURSOR_ID = "cursorId";
+	public static final String CURRENT_PAGE_COLUMNS = "currentPageColumns";
+
+
+	// Largest buffer kept around between pages - a bigger one is dropped once the page has been serialized
+	private static final int MAX_POOLED_BUFFER_CAPACITY = 4 * 1024 * 1024;
 
+	// Buffer pages are serialized into, one per thread so that its capacity is reused from one page to the next
+	private static final ThreadLocal<StringBuilder> POOLED_BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder();
+		}
+	};
 	
 	private static int LAST_ID = 0;
 	
@@ -51,9 +70,13 @@ public class StoreCursor {
 	private final QuerySpec querySpec;
 	private final int totalPages;
 	private final int totalEntries;
+	private final boolean columnar; // pages are returned in columnar format (see ColumnarResult)
 	
 	// Current page can change - by calling moveToPageIndex
 	private int currentPageIndex;
+
+	// Keyset pagination only: page index to position of the last row of the previous page (null for first page)
+	private final Map<Integer, KeysetPosition> pageIndexToAfterPosition = new HashMap<>();
 	
 	/**
 	 * @param smartStore
@@ -61,13 +84,24 @@ public class StoreCursor {
 	 * @throws JSONException 
 	 */
 	public StoreCursor(SmartStore smartStore, QuerySpec querySpec) {
+		this(smartStore, querySpec, false);
+	}
+
+	/**
+	 * @param smartStore
+	 * @param querySpec
+	 * @param columnar true to return pages in columnar format (under currentPageColumns instead of currentPageOrderedEntries)
+	 */
+	public StoreCursor(SmartStore smartStore, QuerySpec querySpec, boolean columnar) {
 		int countRows = smartStore.countQuery(querySpec);
 		
 		this.cursorId = LAST_ID++;
 		this.querySpec = querySpec;
+		this.columnar = columnar;
 		this.totalEntries = countRows;
 		this.totalPages = (int) Math.ceil( (double) countRows / querySpec.pageSize);
 		this.currentPageIndex = 0;
+		this.pageIndexToAfterPosition.put(0, null);
 	}
 	
 	/**
@@ -81,20 +115,55 @@ public class StoreCursor {
 	/**
 	 * Returns cursor meta data (page index, size etc) and data (entries in page) as a FakeJSONObject
 	 * NB: json data is never deserialized
+	 * NB: columnar cursors always use offset pagination
+	 * NB: the page is assembled in a per-thread buffer that is reused across calls, the only copy made is the returned string
 	 * @param smartStore
 	 */
 	public FakeJSONObject getDataSerialized(SmartStore smartStore) {
-		StringBuilder resultBuilder = new StringBuilder();
+		StringBuilder resultBuilder = POOLED_BUFFER.get();
+		try {
+			resultBuilder.setLength(0);
+			appendDataSerialized(smartStore, resultBuilder);
+			return new FakeJSONObject(resultBuilder.toString());
+		} finally {
+			if (resultBuilder.capacity() > MAX_POOLED_BUFFER_CAPACITY) {
+				POOLED_BUFFER.remove();
+			} else {
+				resultBuilder.setLength(0);
+			}
+		}
+	}
+
+	/**
+	 * Appends cursor meta data (page index, size etc) and data (entries in page) as json to the given builder
+	 * NB: json data is never deserialized
+	 * @param smartStore
+	 * @param resultBuilder
+	 */
+	public void appendDataSerialized(SmartStore smartStore, StringBuilder resultBuilder) {
 		resultBuilder.append("{")
 			.append("\"").append(CURSOR_ID).append("\":").append(cursorId).append(", ")
 			.append("\"").append(CURRENT_PAGE_INDEX).append("\":").append(currentPageIndex).append(", ")
 			.append("\"").append(PAGE_SIZE).append("\":").append(querySpec.pageSize).append(", ")
 			.append("\"").append(TOTAL_ENTRIES).append("\":").append(totalEntries).append(", ")
-			.append("\"").append(TOTAL_PAGES).append("\":").append(totalPages).append(", ")
-			.append("\"").append(CURRENT_PAGE_ORDERED_ENTRIES).append("\":");
-		smartStore.queryAsString(resultBuilder, querySpec, currentPageIndex);
+			.append("\"").append(TOTAL_PAGES).append("\":").append(totalPages).append(", ");
+		if (columnar) {
+			resultBuilder.append("\"").append(CURRENT_PAGE_COLUMNS).append("\":");
+			smartStore.queryColumnar(querySpec, currentPageIndex).appendTo(resultBuilder);
+		} else {
+			resultBuilder.append("\"").append(CURRENT_PAGE_ORDERED_ENTRIES).append("\":");
+			appendCurrentPageSerialized(smartStore, resultBuilder);
+		}
 		resultBuilder.append("}");
-		return new FakeJSONObject(resultBuilder.toString());
+	}
+
+	private void appendCurrentPageSerialized(SmartStore smartStore, StringBuilder resultBuilder) {
+		if (canUseKeysetPagination(smartStore)) {
+			KeysetPosition lastPosition = smartStore.queryAsStringAfter(resultBuilder, querySpec, pageIndexToAfterPosition.get(currentPageIndex));
+			rememberAfterPosition(currentPageIndex + 1, lastPosition);
+		} else {
+			smartStore.queryAsString(resultBuilder, querySpec, currentPageIndex);
+		}
 	}
 
 	/**
@@ -108,9 +177,42 @@ public class StoreCursor {
 		result.put(PAGE_SIZE, querySpec.pageSize);
 		result.put(TOTAL_ENTRIES, totalEntries);
 		result.put(TOTAL_PAGES, totalPages);
-		result.put(CURRENT_PAGE_ORDERED_ENTRIES, smartStore.query(querySpec, currentPageIndex));
+		if (columnar) {
+			result.put(CURRENT_PAGE_COLUMNS, smartStore.queryColumnar(querySpec, currentPageIndex).toJSON());
+		} else if (canUseKeysetPagination(smartStore)) {
+			JSONArray entries = new JSONArray();
+			KeysetPosition lastPosition = smartStore.queryAfter(entries, querySpec, pageIndexToAfterPosition.get(currentPageIndex));
+			rememberAfterPosition(currentPageIndex + 1, lastPosition);
+			result.put(CURRENT_PAGE_ORDERED_ENTRIES, entries);
+		} else {
+			JSONArray entries = smartStore.query(querySpec, currentPageIndex);
+			result.put(CURRENT_PAGE_ORDERED_ENTRIES, entries);
+		}
 		return result;
 	}
+
+	/**
+	 * Returns true if the query spec uses keyset pagination and we know where the current page starts
+	 * i.e. the position of the last row of the previous page - cheap if we already fetched the previous page, otherwise it is looked up
+	 *
+	 * @param smartStore
+	 */
+	private boolean canUseKeysetPagination(SmartStore smartStore) {
+		if (!querySpec.keysetPagination || currentPageIndex < 0) {
+			return false;
+		}
+		if (!pageIndexToAfterPosition.containsKey(currentPageIndex)) {
+			rememberAfterPosition(currentPageIndex, smartStore.getKeysetPosition(querySpec, currentPageIndex * querySpec.pageSize - 1));
+		}
+		return pageIndexToAfterPosition.containsKey(currentPageIndex);
+	}
+
+	private void rememberAfterPosition(int pageIndex, KeysetPosition afterPosition) {
+		// No position means the page before was empty (e.g. rows were deleted) - we can't seek past it
+		if (afterPosition != null) {
+			pageIndexToAfterPosition.put(pageIndex, afterPosition);
+		}
+	}
 }
 
 /**
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous write queue for a SmartStore
+ *
+ * Upserts submitted to the queue are coalesced: all the upserts submitted within maxDelayMs of the first pending one
+ * (up to maxBatchSize soup elements) are run in a single transaction. Each caller gets a future that completes
+ * once that transaction is committed (or that completes exceptionally if its upsert failed).
+ *
+ * If any upsert of a batch fails, the batch is rolled back and its upserts are re-run one transaction each,
+ * so that a bad upsert does not fail the other upserts of the batch.
+ *
+ * NB: futures are completed on the queue thread - dependent actions should not block
+ *
+ * The queue must be closed when its store is closed (see DBHelper.closeInstance): close flushes pending upserts
+ * and stops the queue thread.
+ */
+public class WriteQueue {
+
+	private static final String TAG = "WriteQueue";
+
+	// Defaults
+	public static final long DEFAULT_MAX_DELAY_MS = 5;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+	public static final long CLOSE_TIMEOUT_MS = 10000;
+
+	private final SmartStore store;
+	private final long maxDelayNs;
+	private final int maxBatchSize;
+	private final LinkedBlockingQueue<PendingUpsert> pendingUpserts = new LinkedBlockingQueue<>();
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private boolean closed; // guarded by this
+
+	// Stats
+	private final AtomicLong upsertCount = new AtomicLong();
+	private final AtomicLong commitCount = new AtomicLong();
+
+	/**
+	 * @param store
+	 * @param maxDelayMs how long to wait for more upserts after the first pending one
+	 * @param maxBatchSize maximum number of soup elements written per transaction
+	 */
+	public WriteQueue(SmartStore store, long maxDelayMs, int maxBatchSize) {
+		this.store = store;
+		this.maxDelayNs = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Queue an upsert
+	 * Note: passed soup elements are modified (last modified date and soup entry id fields) when the upsert runs
+	 *
+	 * @param soupName
+	 * @param soupElts
+	 * @param externalIdPath
+	 * @return future that completes with the upserted soup elements (null for the ones that could not be upserted) once committed
+	 *         or that completes exceptionally if the queue is closed
+	 */
+	public synchronized CompletableFuture<List<JSONObject>> upsert(String soupName, List<JSONObject> soupElts, String externalIdPath) {
+		PendingUpsert pendingUpsert = new PendingUpsert(soupName, soupElts, externalIdPath);
+		if (closed) {
+			pendingUpsert.future.completeExceptionally(new SmartStore.SmartStoreException("Write queue is closed"));
+			return pendingUpsert.future;
+		}
+		pendingUpserts.add(pendingUpsert);
+		upsertCount.incrementAndGet();
+		scheduleDrain();
+		return pendingUpsert.future;
+	}
+
+	/**
+	 * Close the queue: upserts already queued are run, later upserts are rejected
+	 * Blocks until the queued upserts are committed (or CLOSE_TIMEOUT_MS elapsed) and the queue thread is stopped
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			executor.shutdown();
+		}
+		try {
+			if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				SmartStoreLogger.w(TAG, "Timed out waiting for pending upserts to be written");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true if the queue was closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return number of upserts queued so far
+	 */
+	public long getUpsertCount() {
+		return upsertCount.get();
+	}
+
+	/**
+	 * @return number of transactions committed so far
+	 */
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+
+	private void scheduleDrain() {
+		if (draining.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				// Closed while the last drain was finishing (we are on the queue thread) - flushing what was queued before close
+				drain();
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			PendingUpsert first;
+			while ((first = pendingUpserts.poll()) != null) {
+				List<PendingUpsert> batch = new ArrayList<>();
+				batch.add(first);
+				int batchSize = first.soupElts.size();
+				long deadline = System.nanoTime() + maxDelayNs;
+				while (batchSize < maxBatchSize) {
+					PendingUpsert next;
+					try {
+						long remaining = deadline - System.nanoTime();
+						next = remaining > 0 ? pendingUpserts.poll(remaining, TimeUnit.NANOSECONDS) : pendingUpserts.poll();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						next = null;
+					}
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					batchSize += next.soupElts.size();
+				}
+				runBatch(batch);
+			}
+		} finally {
+			draining.set(false);
+			// Upserts queued after our last poll
+			if (!pendingUpserts.isEmpty()) {
+				scheduleDrain();
+			}
+		}
+	}
+
+	private void runBatch(List<PendingUpsert> batch) {
+		final SQLiteDatabase db = store.getDatabase();
+		List<List<JSONObject>> results = new ArrayList<>(batch.size());
+		Exception batchException = null;
+		synchronized (db) {
+			try {
+				SmartStore.beginTransaction(db);
+				try {
+					for (PendingUpsert pendingUpsert : batch) {
+						results.add(store.upsertAll(pendingUpsert.soupName, pendingUpsert.soupElts, pendingUpsert.externalIdPath, false));
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					SmartStore.endTransaction(db);
+				}
+				commitCount.incrementAndGet();
+			} catch (Exception e) {
+				batchException = e;
+			}
+		}
+
+		if (batchException == null) {
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).future.complete(results.get(i));
+			}
+		} else if (batch.size() == 1) {
+			batch.get(0).future.completeExceptionally(batchException);
+		} else {
+			SmartStoreLogger.w(TAG, "Batch of " + batch.size() + " upserts failed - running them one by one", batchException);
+			for (PendingUpsert pendingUpsert : batch) {
+				pendingUpsert.restore();
+				try {
+					List<JSONObject> result = store.upsertAll(pendingUpsert.soupName, pendingUpsert.soupElts, pendingUpsert.externalIdPath);
+					commitCount.incrementAndGet();
+					pendingUpsert.future.complete(result);
+				} catch (Exception e) {
+					pendingUpsert.future.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Upsert waiting in the queue
+	 */
+	private static class PendingUpsert {
+		final String soupName;
+		final List<JSONObject> soupElts;
+		final String externalIdPath;
+		final Object[] originalSoupEntryIds;
+		final Object[] originalLastModifiedDates;
+		final CompletableFuture<List<JSONObject>> future = new CompletableFuture<>();
+
+		PendingUpsert(String soupName, List<JSONObject> soupElts, String externalIdPath) {
+			this.soupName = soupName;
+			this.soupElts = soupElts;
+			this.externalIdPath = externalIdPath;
+			this.originalSoupEntryIds = new Object[soupElts.size()];
+			this.originalLastModifiedDates = new Object[soupElts.size()];
+			for (int i = 0; i < soupElts.size(); i++) {
+				originalSoupEntryIds[i] = soupElts.get(i).opt(SmartStore.SOUP_ENTRY_ID);
+				originalLastModifiedDates[i] = soupElts.get(i).opt(SmartStore.SOUP_LAST_MODIFIED_DATE);
+			}
+		}
+
+		/**
+		 * Undo changes made to soup elements by a rolled back upsert
+		 * Otherwise soup entry ids assigned by the rolled back transaction would be treated as existing ones on retry
+		 */
+		void restore() {
+			for (int i = 0; i < soupElts.size(); i++) {
+				JSONObject soupElt = soupElts.get(i);
+				soupElt.remove(SmartStore.SOUP_ENTRY_ID);
+				soupElt.remove(SmartStore.SOUP_LAST_MODIFIED_DATE);
+				try {
+					soupElt.putOpt(SmartStore.SOUP_ENTRY_ID, originalSoupEntryIds[i]);
+					soupElt.putOpt(SmartStore.SOUP_LAST_MODIFIED_DATE, originalLastModifiedDates[i]);
+				} catch (Exception e) {
+					// Can't happen - values came from the soup element
+					SmartStoreLogger.e(TAG, "Unexpected error", e);
+				}
+			}
+		}
+	}
+}
@@ -52,6 +52,7 @@ import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.smartstore.R;
 import com.salesforce.androidsdk.smartstore.app.SmartStoreSDKManager;
 import com.salesforce.androidsdk.smartstore.store.DBOpenHelper;
+import com.salesforce.androidsdk.smartstore.store.QueryProfiler;
 import com.salesforce.androidsdk.smartstore.store.QuerySpec;
 import com.salesforce.androidsdk.smartstore.store.SmartSqlHelper;
 import com.salesforce.androidsdk.smartstore.store.SmartStore;
@@ -312,6 +313,63 @@ public class SmartStoreInspectorActivity extends AppCompatActivity implements Ad
 		runQuery();
 	}
 
+	/**
+	 * Called when "Profile" button is clicked
+	 * Turns query profiling on the first time, then shows statistics collected per query shape
+	 *
+	 * @param v
+	 */
+	public void onProfileClick(View v) {
+		try {
+			JSONObject profile = smartStore.getQueryProfile();
+			if (profile == null) {
+				smartStore.setProfileQueries(true);
+				showAlert(null, getString(R.string.sf__inspector_profiling_on));
+				return;
+			}
+			showResult(getProfileRows(profile));
+		} catch (Exception e) {
+			showAlert(e.getClass().getSimpleName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Helper method to turn query profile into rows for the result grid
+	 * Full scan column is only filled for shapes that had slow queries (for which explain query plan was captured)
+	 *
+	 * @param profile
+	 * @return header row followed by one row per query shape
+	 * @throws JSONException
+	 */
+	private JSONArray getProfileRows(JSONObject profile) throws JSONException {
+		JSONArray slowQueries = profile.getJSONArray(QueryProfiler.SLOW_QUERIES);
+		JSONObject shapeToFullScan = new JSONObject();
+		for (int i = 0; i < slowQueries.length(); i++) {
+			JSONObject slowQuery = slowQueries.getJSONObject(i);
+			String shape = slowQuery.getString(QueryProfiler.SHAPE);
+			shapeToFullScan.put(shape, shapeToFullScan.optBoolean(shape) || slowQuery.getBoolean(QueryProfiler.FULL_SCAN));
+		}
+
+		JSONArray rows = new JSONArray();
+		rows.put(new JSONArray(new String[] {QueryProfiler.SHAPE, QueryProfiler.COUNT, QueryProfiler.AVERAGE_MS, QueryProfiler.MAX_MS,
+				QueryProfiler.ROWS_SCANNED, QueryProfiler.ROWS_RETURNED, QueryProfiler.FULL_SCAN}));
+		JSONArray shapes = profile.getJSONArray(QueryProfiler.SHAPES);
+		for (int i = 0; i < shapes.length(); i++) {
+			JSONObject shapeStats = shapes.getJSONObject(i);
+			String shape = shapeStats.getString(QueryProfiler.SHAPE);
+			JSONArray row = new JSONArray();
+			row.put(shape);
+			row.put(shapeStats.getLong(QueryProfiler.COUNT));
+			row.put(String.format(Locale.US, "%.2f", shapeStats.getDouble(QueryProfiler.AVERAGE_MS)));
+			row.put(String.format(Locale.US, "%.2f", shapeStats.getDouble(QueryProfiler.MAX_MS)));
+			row.put(shapeStats.getLong(QueryProfiler.ROWS_SCANNED));
+			row.put(shapeStats.getLong(QueryProfiler.ROWS_RETURNED));
+			row.put(shapeToFullScan.has(shape) ? String.valueOf(shapeToFullScan.getBoolean(shape)) : "");
+			rows.put(row);
+		}
+		return rows;
+	}
+
 	/**
 	 * Helper method that builds query spec from typed query, runs it and
 	 * updates result grid
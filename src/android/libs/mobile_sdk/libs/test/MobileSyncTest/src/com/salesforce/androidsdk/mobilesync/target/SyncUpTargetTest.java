@@ -34,6 +34,7 @@ import com.salesforce.androidsdk.mobilesync.manager.SyncManagerTestCase;
 import com.salesforce.androidsdk.mobilesync.util.Constants;
 import com.salesforce.androidsdk.mobilesync.util.SyncOptions;
 import com.salesforce.androidsdk.mobilesync.util.SyncState.MergeMode;
+import com.salesforce.androidsdk.smartstore.store.SmartStore;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -740,6 +741,62 @@ public class SyncUpTargetTest extends SyncManagerTestCase {
         trySyncUpWithLocallyCreatedRecords(500, MergeMode.OVERWRITE);
     }
 
+    /**
+     * Test getIdsOfRecordsToSyncUp without a change journal on the soup
+     */
+    @Test
+    public void testGetIdsOfRecordsToSyncUpWithoutChangeJournal() throws Exception {
+        JSONObject[] accounts = createAccountsLocally(new String[] { "journalA", "journalB", "journalC" });
+        SyncUpTarget target = new SyncUpTarget();
+        Set<String> ids = target.getIdsOfRecordsToSyncUp(syncManager, ACCOUNTS_SOUP);
+        Assert.assertEquals("Wrong ids", new HashSet<>(Arrays.asList(soupEntryIdOf(accounts[0]), soupEntryIdOf(accounts[1]), soupEntryIdOf(accounts[2]))), ids);
+        Assert.assertFalse("Sync up should not enable a change journal", smartStore.hasChangeJournal(ACCOUNTS_SOUP));
+    }
+
+    /**
+     * Test getIdsOfRecordsToSyncUp with a change journal on the soup: ids are returned in the order records were first modified
+     */
+    @Test
+    public void testGetIdsOfRecordsToSyncUpWithChangeJournal() throws Exception {
+        JSONObject[] accounts = createAccountsLocally(new String[] { "journalA", "journalB", "journalC" });
+        String idA = soupEntryIdOf(accounts[0]);
+        String idB = soupEntryIdOf(accounts[1]);
+        String idC = soupEntryIdOf(accounts[2]);
+        SyncUpTarget target = new SyncUpTarget();
+
+        // Records already dirty are journaled when the journal is enabled
+        smartStore.enableChangeJournal(ACCOUNTS_SOUP, SyncTarget.LOCAL);
+        Assert.assertEquals("Wrong ids", Arrays.asList(idA, idB, idC), new ArrayList<>(target.getIdsOfRecordsToSyncUp(syncManager, ACCOUNTS_SOUP)));
+
+        // Modified again - keeps its place
+        accounts[0].put(Constants.DESCRIPTION, "Updated description");
+        accounts[0] = smartStore.update(ACCOUNTS_SOUP, accounts[0], accounts[0].getLong(SmartStore.SOUP_ENTRY_ID));
+        // Saved back as clean - leaves the journal
+        accounts[1].put(SyncTarget.LOCAL, false);
+        accounts[1].put(SyncTarget.LOCALLY_CREATED, false);
+        accounts[1] = smartStore.update(ACCOUNTS_SOUP, accounts[1], accounts[1].getLong(SmartStore.SOUP_ENTRY_ID));
+        // Created - goes to the end
+        String idD = soupEntryIdOf(createAccountsLocally(new String[] { "journalD" })[0]);
+        Assert.assertEquals("Wrong ids", Arrays.asList(idA, idC, idD), new ArrayList<>(target.getIdsOfRecordsToSyncUp(syncManager, ACCOUNTS_SOUP)));
+
+        // Modified again after being saved back as clean - goes to the end
+        accounts[1].put(SyncTarget.LOCAL, true);
+        accounts[1].put(SyncTarget.LOCALLY_UPDATED, true);
+        smartStore.update(ACCOUNTS_SOUP, accounts[1], accounts[1].getLong(SmartStore.SOUP_ENTRY_ID));
+        // Deleted - leaves the journal
+        smartStore.delete(ACCOUNTS_SOUP, accounts[2].getLong(SmartStore.SOUP_ENTRY_ID));
+        Assert.assertEquals("Wrong ids", Arrays.asList(idA, idD, idB), new ArrayList<>(target.getIdsOfRecordsToSyncUp(syncManager, ACCOUNTS_SOUP)));
+
+        // Journal tracking another field - not used
+        smartStore.disableChangeJournal(ACCOUNTS_SOUP);
+        smartStore.enableChangeJournal(ACCOUNTS_SOUP, SyncTarget.LOCALLY_UPDATED);
+        Assert.assertEquals("Wrong ids", new HashSet<>(Arrays.asList(idA, idB, idD)), target.getIdsOfRecordsToSyncUp(syncManager, ACCOUNTS_SOUP));
+    }
+
+    private static String soupEntryIdOf(JSONObject record) throws JSONException {
+        return Long.toString(record.getLong(SmartStore.SOUP_ENTRY_ID));
+    }
+
     /**
      * Sync up helper
      * @param numberChanges
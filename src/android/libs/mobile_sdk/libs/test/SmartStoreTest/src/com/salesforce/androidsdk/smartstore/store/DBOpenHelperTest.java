@@ -27,6 +27,7 @@
 package com.salesforce.androidsdk.smartstore.store;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.os.Bundle;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
@@ -36,9 +37,13 @@ import androidx.test.platform.app.InstrumentationRegistry;
 import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.analytics.EventBuilderHelper;
 import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.util.JSONTestHelper;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -46,6 +51,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -299,6 +308,128 @@ public class DBOpenHelperTest {
 				DBOpenHelper.smartStoreExists(targetContext, "dbdne", null, null));
 	}
 
+	/**
+	 * Changing key by export: data (including fts tables and autoincrement counters) is readable with new key only.
+	 */
+    @Test
+	public void testChangeKeyByExport() throws JSONException, IOException {
+		DBOpenHelper helper = DBOpenHelper.getOpenHelper(PASSCODE, targetContext, TEST_DB, null, null);
+		SmartStore store = new SmartStore(helper);
+		store.registerSoup(TEST_SOUP, new IndexSpec[] { new IndexSpec("key", SmartStore.Type.string), new IndexSpec("text", SmartStore.Type.full_text) });
+		JSONObject soupElt1 = store.create(TEST_SOUP, new JSONObject().put("key", "k1").put("text", "hello world"));
+		JSONObject soupElt2 = store.create(TEST_SOUP, new JSONObject().put("key", "k2").put("text", "goodbye world"));
+		store.delete(TEST_SOUP, soupElt2.getLong(SmartStore.SOUP_ENTRY_ID));
+		String dbPath = helper.getWritableDatabase().getPath();
+
+		// Leftover from an export with another key should be discarded
+		FileOutputStream out = new FileOutputStream(dbPath + DBOpenHelper.REKEY_SUFFIX);
+		out.write("not a database".getBytes());
+		out.close();
+
+		final List<Integer> progress = new ArrayList<>();
+		String newPasscode = Encryptor.hash("new_test_key", "hashing-key");
+		helper.changeKeyByExport(newPasscode, (tableName, copiedTables, totalTables) -> {
+			Assert.assertTrue("Wrong progress", copiedTables <= totalTables);
+			progress.add(copiedTables);
+		});
+		Assert.assertFalse("Progress should have been reported", progress.isEmpty());
+		Assert.assertFalse("Export file should have been renamed", new File(dbPath + DBOpenHelper.REKEY_SUFFIX).exists());
+		Assert.assertFalse("Helper should have been evicted", DBOpenHelper.getOpenHelpers().containsValue(helper));
+
+		// Reopening with new key
+		DBOpenHelper newHelper = DBOpenHelper.getOpenHelper(newPasscode, targetContext, TEST_DB, null, null);
+		Assert.assertNotSame("Helper should be new", helper, newHelper);
+		SmartStore newStore = new SmartStore(newHelper);
+		Assert.assertTrue("Soup should exist", newStore.hasSoup(TEST_SOUP));
+		JSONTestHelper.assertSameJSON("Wrong soup element", soupElt1, newStore.retrieve(TEST_SOUP, soupElt1.getLong(SmartStore.SOUP_ENTRY_ID)).getJSONObject(0));
+		JSONArray results = newStore.query(QuerySpec.buildMatchQuerySpec(TEST_SOUP, "text", "world", "key", QuerySpec.Order.ascending, 10), 0);
+		Assert.assertEquals("Wrong number of results", 1, results.length());
+		JSONObject soupElt3 = newStore.create(TEST_SOUP, new JSONObject().put("key", "k3"));
+		Assert.assertTrue("Soup entry ids should not be reused", soupElt3.getLong(SmartStore.SOUP_ENTRY_ID) > soupElt2.getLong(SmartStore.SOUP_ENTRY_ID));
+		newStore.dropAllSoups();
+		newHelper.close();
+		DBOpenHelper.deleteDatabase(targetContext, TEST_DB, null, null);
+	}
+
+	/**
+	 * Changing key by export after an interruption: soup tables whose indexes changed since they were copied are copied again.
+	 */
+    @Test
+	public void testChangeKeyByExportResumedAfterSchemaChange() throws JSONException {
+		DBOpenHelper helper = DBOpenHelper.getOpenHelper(PASSCODE, targetContext, TEST_DB, null, null);
+		SmartStore store = new SmartStore(helper);
+		store.registerSoup(TEST_SOUP, new IndexSpec[] { new IndexSpec("key", SmartStore.Type.string) });
+		store.create(TEST_SOUP, new JSONObject().put("key", "k1"));
+		SQLiteDatabase db = helper.getWritableDatabase();
+		final String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, TEST_SOUP);
+		String newPasscode = Encryptor.hash("new_test_key", "hashing-key");
+
+		// Interrupted once the soup table is copied
+		try {
+			helper.changeKeyByExport(newPasscode, (tableName, copiedTables, totalTables) -> {
+				if (tableName.equals(soupTableName)) {
+					throw new RuntimeException("interrupted");
+				}
+			});
+			Assert.fail("Export should have been interrupted");
+		} catch (RuntimeException e) {
+			Assert.assertEquals("Wrong exception", "interrupted", e.getMessage());
+		}
+
+		// New index on the soup table (rows unchanged) then resumed
+		db.execSQL("CREATE INDEX " + soupTableName + "_test_idx ON " + soupTableName + " (created)");
+		helper.changeKeyByExport(newPasscode, null);
+
+		DBOpenHelper newHelper = DBOpenHelper.getOpenHelper(newPasscode, targetContext, TEST_DB, null, null);
+		SQLiteDatabase newDb = newHelper.getWritableDatabase();
+		Cursor c = newDb.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'index' AND name = ?", new String[]{soupTableName + "_test_idx"});
+		try {
+			c.moveToFirst();
+			Assert.assertEquals("Index should have been copied", 1, c.getInt(0));
+		} finally {
+			c.close();
+		}
+		new SmartStore(newHelper).dropAllSoups();
+		newHelper.close();
+		DBOpenHelper.deleteDatabase(targetContext, TEST_DB, null, null);
+	}
+
+	/**
+	 * Opening an existing database with a raw key derived from the encryption key.
+	 */
+    @Test
+	public void testUseRawKey() throws JSONException {
+		DBOpenHelper helper = DBOpenHelper.getOpenHelper(PASSCODE, targetContext, TEST_DB, null, null);
+		SmartStore store = new SmartStore(helper);
+		store.registerSoup(TEST_SOUP, new IndexSpec[] { new IndexSpec("key", SmartStore.Type.string) });
+		JSONObject soupElt = store.create(TEST_SOUP, new JSONObject().put("key", "k1"));
+		File dbFile = new File(helper.getWritableDatabase().getPath());
+		helper.close();
+		DBOpenHelper.getOpenHelpers().remove(dbFile.getName());
+
+		Assert.assertEquals("Encryption key expected for missing database", PASSCODE, DBOpenHelper.getRawKey(new File(dbFile.getParent(), "dbdne.db"), PASSCODE));
+		String rawKey = DBOpenHelper.getRawKey(dbFile, PASSCODE);
+		Assert.assertTrue("Raw key expected", rawKey.startsWith("x'"));
+		Assert.assertTrue("Raw key should be cached", DBOpenHelper.hasCachedRawKey(dbFile));
+		Assert.assertEquals("Wrong cached raw key", rawKey, DBOpenHelper.getRawKey(dbFile, PASSCODE));
+		Assert.assertNotEquals("Raw key depends on encryption key", rawKey, DBOpenHelper.getRawKey(dbFile, Encryptor.hash("other_key", "hashing-key")));
+
+		DBOpenHelper.setUseRawKey(true);
+		try {
+			DBOpenHelper rawKeyHelper = DBOpenHelper.getOpenHelper(PASSCODE, targetContext, TEST_DB, null, null);
+			Assert.assertNotSame("Helper should be new", helper, rawKeyHelper);
+			SmartStore rawKeyStore = new SmartStore(rawKeyHelper);
+			JSONTestHelper.assertSameJSON("Wrong soup element", soupElt, rawKeyStore.retrieve(TEST_SOUP, soupElt.getLong(SmartStore.SOUP_ENTRY_ID)).getJSONObject(0));
+			rawKeyStore.create(TEST_SOUP, new JSONObject().put("key", "k2"));
+			rawKeyStore.dropAllSoups();
+			rawKeyHelper.close();
+		} finally {
+			DBOpenHelper.setUseRawKey(false);
+			DBOpenHelper.deleteDatabase(targetContext, TEST_DB, null, null);
+		}
+		Assert.assertFalse("Raw key should have been evicted with the database", DBOpenHelper.hasCachedRawKey(dbFile));
+	}
+
 	private boolean databaseExists(Context ctx, String dbName) {
 		final String dbPath = ctx.getApplicationInfo().dataDir + "/databases/"  + dbName;
     	final File file = new File(dbPath);
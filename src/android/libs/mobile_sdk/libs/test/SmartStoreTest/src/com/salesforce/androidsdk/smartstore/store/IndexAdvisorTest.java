@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+
+import com.salesforce.androidsdk.smartstore.store.IndexAdvisor.Recommendation;
+import com.salesforce.androidsdk.smartstore.store.QuerySpec.Order;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for index advisor
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class IndexAdvisorTest extends SmartStoreTestCase {
+
+    private static final String TEST_SOUP = "test_soup";
+    private static final String CITY = "city";
+    private static final String COUNTRY = "country";
+    private static final String[] COUNTRIES = {"France", "United States", "Japan", "Brazil"};
+    private static final int NUMBER_ENTRIES = 100;
+
+    @Override
+    protected String getEncryptionKey() {
+        return "";
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        registerSoup(store, TEST_SOUP, new IndexSpec[] {new IndexSpec(CITY, Type.string)});
+        for (int i = 0; i < NUMBER_ENTRIES; i++) {
+            store.create(TEST_SOUP, new JSONObject().put(CITY, "city" + i).put(COUNTRY, COUNTRIES[i % COUNTRIES.length]));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    /**
+     * Test recommendations for a list of query specs and applying them
+     *
+     * @throws JSONException
+     */
+    @Test
+    public void testAdviseAndApply() throws JSONException {
+        QuerySpec countryQuerySpec = QuerySpec.buildExactQuerySpec(TEST_SOUP, COUNTRY, "France", COUNTRY, Order.ascending, 10);
+        QuerySpec cityQuerySpec = QuerySpec.buildExactQuerySpec(TEST_SOUP, CITY, "city1", CITY, Order.ascending, 10);
+        IndexAdvisor indexAdvisor = new IndexAdvisor(store);
+
+        List<Recommendation> recommendations = indexAdvisor.advise(Arrays.asList(countryQuerySpec, cityQuerySpec, countryQuerySpec, countryQuerySpec));
+        Assert.assertEquals("Wrong number of recommendations", 1, recommendations.size());
+        Recommendation recommendation = recommendations.get(0);
+        Assert.assertEquals("Wrong soup", TEST_SOUP, recommendation.soupName);
+        Assert.assertEquals("Wrong path", COUNTRY, recommendation.indexSpec.path);
+        Assert.assertEquals("Wrong type", Type.json1, recommendation.indexSpec.type);
+        Assert.assertEquals("Wrong query count", 3, recommendation.getQueryCount());
+        Assert.assertEquals("Wrong rows scanned", NUMBER_ENTRIES, recommendation.getRowsScanned());
+        Assert.assertEquals("Wrong estimated rows saved", 3 * (NUMBER_ENTRIES - NUMBER_ENTRIES / COUNTRIES.length), recommendation.getEstimatedRowsSaved());
+        Assert.assertEquals("Wrong queries", Arrays.asList(countryQuerySpec.smartSql), recommendation.getQueries());
+
+        // Nothing is changed until recommendations are applied
+        Assert.assertFalse("Path should not be indexed yet", store.hasIndexForPath(TEST_SOUP, COUNTRY));
+        indexAdvisor.apply(recommendations);
+        Assert.assertTrue("Path should be indexed", store.hasIndexForPath(TEST_SOUP, COUNTRY));
+        checkIndexSpecs(TEST_SOUP, new IndexSpec[] {new IndexSpec(CITY, Type.string), new IndexSpec(COUNTRY, Type.json1)});
+        Assert.assertEquals("Wrong number of results", NUMBER_ENTRIES / COUNTRIES.length, store.query(QuerySpec.buildExactQuerySpec(TEST_SOUP, COUNTRY, "France", COUNTRY, Order.ascending, NUMBER_ENTRIES), 0).length());
+
+        // No more recommendations
+        Assert.assertEquals("Wrong number of recommendations", 0, indexAdvisor.advise(Arrays.asList(countryQuerySpec, cityQuerySpec)).size());
+    }
+
+    /**
+     * Test recommendations for queries recorded by the query profiler
+     *
+     * @throws JSONException
+     */
+    @Test
+    public void testAdviseFromQueryProfile() throws JSONException {
+        IndexAdvisor indexAdvisor = new IndexAdvisor(store);
+        Assert.assertEquals("Wrong number of recommendations", 0, indexAdvisor.adviseFromQueryProfile().size());
+
+        store.setProfileQueries(true);
+        try {
+            QuerySpec querySpec = QuerySpec.buildSmartQuerySpec("SELECT {test_soup:city} FROM {test_soup} WHERE {test_soup:country} = 'Japan'", 10);
+            store.query(querySpec, 0);
+            store.query(querySpec, 1);
+            store.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, CITY, Order.ascending, 10), 0);
+
+            List<Recommendation> recommendations = indexAdvisor.adviseFromQueryProfile();
+            Assert.assertEquals("Wrong number of recommendations", 1, recommendations.size());
+            Assert.assertEquals("Wrong path", COUNTRY, recommendations.get(0).indexSpec.path);
+            Assert.assertEquals("Wrong query count", 2, recommendations.get(0).getQueryCount());
+            Assert.assertEquals("Wrong json", TEST_SOUP, recommendations.get(0).toJSON().getString(IndexAdvisor.SOUP_NAME));
+        } finally {
+            store.setProfileQueries(false);
+        }
+    }
+
+    /**
+     * Test recommendations for a query that only sorts on a path that is not indexed (no where clause)
+     *
+     * @throws JSONException
+     */
+    @Test
+    public void testAdviseOrderByOnly() throws JSONException {
+        QuerySpec orderByQuerySpec = QuerySpec.buildAllQuerySpec(TEST_SOUP, COUNTRY, Order.ascending, 10);
+        Assert.assertFalse("Query should not have a where clause", store.convertSmartSql(orderByQuerySpec.smartSql).toLowerCase().contains(" where "));
+        IndexAdvisor indexAdvisor = new IndexAdvisor(store);
+
+        List<Recommendation> recommendations = indexAdvisor.advise(Arrays.asList(orderByQuerySpec));
+        Assert.assertEquals("Wrong number of recommendations", 1, recommendations.size());
+        Assert.assertEquals("Wrong path", COUNTRY, recommendations.get(0).indexSpec.path);
+        Assert.assertEquals("Wrong queries", Arrays.asList(orderByQuerySpec.smartSql), recommendations.get(0).getQueries());
+
+        // Paths only in the select list are not recommended
+        QuerySpec selectOnlyQuerySpec = QuerySpec.buildSmartQuerySpec("SELECT {test_soup:country} FROM {test_soup}", 10);
+        Assert.assertEquals("Wrong number of recommendations", 0, indexAdvisor.advise(Arrays.asList(selectOnlyQuerySpec)).size());
+    }
+}
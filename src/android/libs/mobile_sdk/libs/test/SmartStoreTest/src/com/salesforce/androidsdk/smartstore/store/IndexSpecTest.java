@@ -29,8 +29,13 @@ package com.salesforce.androidsdk.smartstore.store;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
 
+import com.salesforce.androidsdk.util.JSONTestHelper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -129,4 +134,40 @@ public class IndexSpecTest {
         Assert.assertFalse(keyStringSpecWithCol.hashCode() == new IndexSpec("key", Type.string).hashCode());
         Assert.assertFalse(keyStringSpecWithCol.hashCode() == new IndexSpec("key", Type.string, "COL_2").hashCode());
 	}
+
+	/**
+	 * TEST for project - should return the same values as SmartStore.project
+	 */
+    @Test
+	public void testProject() throws JSONException {
+		JSONObject json = new JSONObject("{\"a\":\"a1\", \"b\":2, \"n\":null, \"c\":[{\"cc\":\"cc1\"}, {\"cc\":2}, {\"cc\":[1,2,3]}, {}, {\"cc\":{\"cc5\":5}}], \"d\":{\"dd\":[{\"ddd\":\"ddd11\"},{\"ddd3\":\"ddd32\"}], \"d2\":{\"e\":5}}}");
+		String[] paths = new String[] {"", "a", "b", "n", "missing", "a.missing", "c", "c.cc", "c.cc.cc5", "d", "d.dd", "d.dd.ddd", "d.dd.ddd3", "d.d2.e", "d.d2.missing"};
+		for (String path : paths) {
+			Object expected = SmartStore.project(json, path);
+			Object actual = new IndexSpec(path, Type.string).project(json);
+			if (expected == null) {
+				Assert.assertNull("Wrong value for path " + path, actual);
+			} else {
+				JSONTestHelper.assertSameJSON("Wrong value for path " + path, expected, actual);
+			}
+		}
+		Assert.assertNull("Should have been null", keyStringSpec.project(null));
+	}
+
+	/**
+	 * TEST that a comma in the path of a non json1 index spec (e.g. read back from the db) is just part of the path
+	 */
+    @Test
+	public void testCommaInNonCompoundPath() throws JSONException {
+		IndexSpec indexSpec = new IndexSpec("a,b", Type.string, "TABLE_1_0");
+		Assert.assertFalse("Should not be compound", indexSpec.isCompound());
+		Assert.assertArrayEquals("Wrong paths", new String[] {"a,b"}, indexSpec.getPaths());
+		Assert.assertTrue("Should be compound", new IndexSpec("a,b", Type.json1).isCompound());
+		try {
+			IndexSpec.fromJSON(new JSONObject("{'paths':['a','b'],'type':'string'}"));
+			Assert.fail("Compound index spec should be json1");
+		} catch (SmartStoreException e) {
+			// expected
+		}
+	}
 }
@@ -640,6 +640,21 @@ public class KeyValueEncryptedFileStoreTest {
         Assert.assertNotEquals("Raw content should have changed", file2rawAfter, file2raw);
     }
 
+    /** Test changing encryption key of a store with many entries (re-encrypted in parallel) */
+    @Test
+    public void testChangeEncryptionKeyManyEntries() {
+        for (int i = 0; i < 100; i++) {
+            keyValueStore.saveValue("key" + i, "value" + i);
+        }
+        String newEncryptionKey = SalesforceKeyGenerator.getEncryptionKey("new");
+        Assert.assertTrue("Changing key should have succeeded", keyValueStore.changeEncryptionKey(newEncryptionKey));
+        Assert.assertEquals("Wrong count", 100, keyValueStore.count());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("Wrong value for key" + i, "value" + i, keyValueStore.getValue("key" + i));
+        }
+        Assert.assertFalse("Tmp directory should be gone", new File(keyValueStore.getStoreDir().getParent(), keyValueStore.getStoreName() + "-tmp").exists());
+    }
+
     /** Test code block with comment and newline */
     @Test
     public void testCodeBlock() {
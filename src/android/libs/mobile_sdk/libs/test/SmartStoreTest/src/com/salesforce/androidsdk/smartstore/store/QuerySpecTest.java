@@ -166,6 +166,35 @@ public class QuerySpecTest {
         Assert.assertEquals("Wrong ids smart sql", "SELECT id FROM (select {employees:salary} from {employees} where {employees:lastName} = 'Haas')", querySpec.idsSmartSql);
     }
 
+    @Test
+    public void testRangeQueryKeysetSmartSql() {
+        QuerySpec querySpec = QuerySpec.buildRangeQuerySpec("employees", "lastName", "A", "M", "salary", QuerySpec.Order.ascending, 10).withKeysetPagination();
+        Assert.assertEquals("Wrong smart sql for first page", "SELECT {employees:_soup}, {employees:salary}, {employees:_soupEntryId} FROM {employees} WHERE {employees:lastName} >= ? AND {employees:lastName} <= ? ORDER BY {employees:salary} ASC, {employees:_soupEntryId} ASC ", querySpec.computeKeysetSmartSql(null));
+        Assert.assertArrayEquals("Wrong args for first page", new String[] {"A", "M"}, querySpec.getKeysetArgs(null));
+        QuerySpec.KeysetPosition after = new QuerySpec.KeysetPosition(120000L, 7);
+        Assert.assertEquals("Wrong smart sql for next page", "SELECT {employees:_soup}, {employees:salary}, {employees:_soupEntryId} FROM {employees} WHERE {employees:lastName} >= ? AND {employees:lastName} <= ? AND (({employees:salary}, {employees:_soupEntryId}) > (CAST(? AS INTEGER), ?)) ORDER BY {employees:salary} ASC, {employees:_soupEntryId} ASC ", querySpec.computeKeysetSmartSql(after));
+        Assert.assertArrayEquals("Wrong args for next page", new String[] {"A", "M", "120000", "7"}, querySpec.getKeysetArgs(after));
+        Assert.assertEquals("Wrong smart sql for offset fallback", "SELECT {employees:_soup} FROM {employees} WHERE {employees:lastName} >= ? AND {employees:lastName} <= ? ORDER BY {employees:salary} ASC, {employees:_soupEntryId} ASC ", querySpec.smartSql);
+    }
+
+    @Test
+    public void testAllQueryKeysetSmartSqlWithNullKey() {
+        QuerySpec querySpec = QuerySpec.buildAllQuerySpec("employees", new String[]{"firstName"}, "lastName", QuerySpec.Order.descending, 10).withKeysetPagination();
+        QuerySpec.KeysetPosition after = new QuerySpec.KeysetPosition(null, 7);
+        Assert.assertEquals("Wrong smart sql for next page", "SELECT {employees:firstName}, {employees:lastName}, {employees:_soupEntryId} FROM {employees} WHERE ({employees:lastName} IS NULL AND {employees:_soupEntryId} < ?) ORDER BY {employees:lastName} DESC, {employees:_soupEntryId} DESC ", querySpec.computeKeysetSmartSql(after));
+        Assert.assertArrayEquals("Wrong args for next page", new String[] {"7"}, querySpec.getKeysetArgs(after));
+    }
+
+    @Test
+    public void testKeysetPaginationRequiresOrderPath() {
+        try {
+            QuerySpec.buildSmartQuerySpec("select {employees:salary} from {employees}", 1).withKeysetPagination();
+            Assert.fail("Exception was expected: keyset pagination is not supported for smart queries");
+        } catch (SmartStore.SmartStoreException e) {
+            Assert.assertTrue("Wrong exception", e.getMessage().contains("Keyset pagination"));
+        }
+    }
+
     @Test
     public void testQualifyMatchKey() {
         Assert.assertEquals("Wrong qualified match query", "abc", QuerySpec.qualifyMatchKey(null, "abc"));
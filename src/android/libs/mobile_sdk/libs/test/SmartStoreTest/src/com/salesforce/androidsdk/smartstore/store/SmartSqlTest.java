@@ -44,6 +44,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.regex.Matcher;
+
 /**
  * Tests for "smart" sql
  */
@@ -534,6 +536,70 @@ public class SmartSqlTest extends SmartStoreTestCase {
 		}
 	}
 
+	/**
+	 * Making sure the single pass conversion produces the same sql as the regexp based conversion it replaced
+	 */
+	@Test
+	public void testConvertSmartSqlSameAsRegexpBasedConversion() {
+		StringBuilder longInQuery = new StringBuilder("select {employees:_soup} from {employees} where {employees:lastName} in (");
+		for (int i = 0; i < 200; i++) {
+			longInQuery.append(i > 0 ? "," : "").append("'{employees:lastName}").append(i).append("'");
+		}
+		longInQuery.append(") and {employees:deptCode} = 'A00'");
+
+		String[] smartSqls = new String[] {
+				"select {employees:firstName}, {employees:lastName} from {employees} order by {employees:lastName}",
+				"select {departments:name}, {employees:firstName} || ' ' || {employees:lastName} from {employees}, {departments} where {departments:deptCode} = {employees:deptCode} order by {departments:name}, {employees:lastName}",
+				"select mgr.{employees:lastName}, e.{employees:lastName} from {employees} as mgr, {employees} as e where mgr.{employees:employeeId} = e.{employees:managerId}",
+				"select mgr.{employees:education},e.{employees:education} from {employees} as mgr, {employees} as e where mgr.{employees:employeeId} = e.{employees:managerId}",
+				"select {employees:_soupEntryId}, {employees:_soupCreatedDate}, {employees:_soupLastModifiedDate}, {employees:_soup} from {employees}",
+				"select mgr.{employees:_soupEntryId}, e.{employees:_soupEntryId} from {employees} as mgr, {employees} as e",
+				"select {employees}.{employees:education} from {employees} order by {employees}.{employees:education}",
+				"select {employees:education}, {employees:address.zipcode} from {employees} where {employees:address.city} = 'San Francisco'",
+				"select {employees:education} from {employees} where {employees:education} like 'Account(where: {Name: {eq: \"Jason\"}})'",
+				"select {employees:education}, '{a:b}', {employees:firstName} from {employees} where {employees:address} = '{\"city\": \"San Francisco\"}' or {employees:lastName} like 'B%'",
+				"select {employees:education} from {employees} where {employees:education} like ' { { { } } '",
+				"select {employees:lastName} from {employees} where {employees:lastName} = 'O''Brien' and {employees:firstName} = '{employees:firstName}'",
+				"select {employees:_soup} from {employees} where {employees:_soupEntryId} in (select rowid from {employees}_fts where {employees}_fts MATCH '{employees:lastName}:Haas')",
+				"select {employees:_soup} from {employees} where {employees:firstName} = 'MATCH ' and {employees:lastName} MATCH  '{employees:lastName}' and {employees:deptCode} = '{employees:deptCode}'",
+				"select {employees:firstName} from {employees} where {employees:lastName} = '{' or {employees:lastName} = '}' or {employees:lastName} = '{}'",
+				longInQuery.toString()
+		};
+
+		for (String smartSql : smartSqls) {
+			Assert.assertEquals("Wrong sql for " + smartSql, convertSmartSqlUsingRegexps(smartSql), store.convertSmartSql(smartSql));
+		}
+	}
+
+	/**
+	 * Testing that converted sql is cached and that the cache is invalidated when the soup is altered
+	 */
+	@Test
+	public void testConvertSmartSqlCache() throws JSONException {
+		SmartSqlHelper helper = SmartSqlHelper.getInstance(store.getDatabase());
+		String smartSql = "select {departments:name} from {departments} order by {departments:building}";
+		long hits = helper.getCacheHitCount();
+		long misses = helper.getCacheMissCount();
+		Assert.assertEquals("select TABLE_2_1 from TABLE_2 order by json_extract(soup, '$.building')", store.convertSmartSql(smartSql));
+		Assert.assertEquals("Wrong miss count", misses + 1, helper.getCacheMissCount());
+		Assert.assertEquals("select TABLE_2_1 from TABLE_2 order by json_extract(soup, '$.building')", store.convertSmartSql(smartSql));
+		Assert.assertEquals("Wrong hit count", hits + 1, helper.getCacheHitCount());
+
+		// Altering other soup should not invalidate cached sql
+		store.alterSoup(EMPLOYEES_SOUP, new IndexSpec[] { new IndexSpec(FIRST_NAME, Type.string) }, false);
+		store.convertSmartSql(smartSql);
+		Assert.assertEquals("Wrong hit count", hits + 2, helper.getCacheHitCount());
+
+		// Altering soup should invalidate cached sql
+		store.alterSoup(DEPARTMENTS_SOUP, new IndexSpec[] {
+				new IndexSpec(DEPT_CODE, Type.string),
+				new IndexSpec(NAME, Type.string),
+				new IndexSpec(BUDGET, Type.integer),
+				new IndexSpec(BUILDING, Type.string)}, false);
+		Assert.assertEquals("select TABLE_2_1 from TABLE_2 order by TABLE_2_3", store.convertSmartSql(smartSql));
+		Assert.assertEquals("Wrong miss count", misses + 2, helper.getCacheMissCount());
+	}
+
 	/**
 	 * Making sure the "cleanup" regexp is a lot faster than the old cleanup regexp
 	 * Testing a real-world query with 25k characters
@@ -549,6 +615,34 @@ public class SmartSqlTest extends SmartStoreTestCase {
 		Assert.assertTrue(timeRegexpInMs(SmartSqlHelper.TABLE_DOT_JSON_EXTRACT_REGEXP) <  25);
 	}
 
+	/**
+	 * Conversion SmartSqlHelper used to do: for every reference, regexps are run on the whole sql before it
+	 * to figure out if the reference is inside a quoted string (that is not the string of a MATCH predicate)
+	 */
+	private String convertSmartSqlUsingRegexps(String smartSql) {
+		String noStringsOrFullStrings = "^([^']|'[^']*')*";
+		String insideQuotedString = noStringsOrFullStrings + "'[^']*";
+		String insideQuotedStringForMatch = noStringsOrFullStrings + "MATCH[ ]+'[^']*";
+		StringBuffer sql = new StringBuffer();
+		Matcher matcher = SmartSqlHelper.SOUP_PATH_PATTERN.matcher(smartSql);
+		while (matcher.find()) {
+			String beforeStr = smartSql.substring(0, matcher.start());
+			if (beforeStr.matches(insideQuotedString) && !beforeStr.matches(insideQuotedStringForMatch)) {
+				continue;
+			}
+			String replacement = store.convertSmartSql(matcher.group());
+			if (beforeStr.endsWith(".")) {
+				String tablePrefix = store.convertSmartSql("{" + matcher.group(1).split(":")[0] + "}") + ".";
+				if (replacement.startsWith(tablePrefix)) {
+					replacement = replacement.substring(tablePrefix.length());
+				}
+			}
+			matcher.appendReplacement(sql, Matcher.quoteReplacement(replacement));
+		}
+		matcher.appendTail(sql);
+		return sql.toString().replaceAll(SmartSqlHelper.TABLE_DOT_JSON_EXTRACT_REGEXP, "json_extract($1.soup");
+	}
+
 	private double timeRegexpInMs(String regexp) {
 		String q = "SELECT {DEFAULT:LdsSoupKey}, {DEFAULT:LdsSoupValue}\nFROM {DEFAULT}\nWHERE {DEFAULT:LdsSoupKey}\nIN (\'UiApi::BatchRepresentation(childRelationships:undefined,fields:undefined,layoutTypes:undefined,modes:undefined,optionalFields:Account.AccountSource,Account.AnnualRevenue,Account.BillingAddress,Account.BillingCity,Account.BillingCountry,Account.BillingGeocodeAccuracy,Account.BillingLatitude,Account.BillingLongitude,Account.BillingPostalCode,Account.BillingState,Account.BillingStreet,Account.ChannelProgramLevelName,Account.ChannelProgramName,Account.CreatedById,Account.CreatedDate,Account.Description,Account.Fax,Account.Id,Account.Industry,Account.IsCustomerPortal,Account.IsDeleted,Account.IsLocked,Account.IsPartner,Account.Jigsaw,Account.JigsawCompanyId,Account.LastActivityDate,Account.LastModifiedById,Account.LastModifiedDate,Account.LastReferencedDate,Account.LastViewedDate,Account.MasterRecordId,Account.MayEdit,Account.Name,Account.NumberOfEmployees,Account.OperatingHoursId,Account.OwnerId,Account.ParentId,Account.Phone,Account.PhotoUrl,Account.ShippingAddress,Account.ShippingCity,Account.ShippingCountry,Account.ShippingGeocodeAccuracy,Account.ShippingLatitude,Account.ShippingLongitude,Account.ShippingPostalCode,Account.ShippingState,Account.ShippingStreet,Account.SicDesc,Account.SystemModstamp,Account.Type,Account.Website,Asset.AccountId,Asset.AssetProvidedById,Asset.AssetServicedById,Asset.ContactId,Asset.CreatedById,Asset.CreatedDate,Asset.Description,Asset.Id,Asset.InstallDate,Asset.IsCompetitorProduct,Asset.IsDeleted,Asset.IsLocked,Asset.LastModifiedById,Asset.LastModifiedDate,Asset.LastReferencedDate,Asset.LastViewedDate,Asset.MayEdit,Asset.Name,Asset.OwnerId,Asset.ParentId,Asset.Price,Asset.Product2Id,Asset.ProductCode,Asset.PurchaseDate,Asset.Quantity,Asset.RootAssetId,Asset.SerialNumber,Asset.Status,Asset.StockKeepingUnit,Asset.SystemModstamp,Asset.UsageEndDate,Location.CloseDate,Location.ConstructionEndDate,Location.ConstructionStartDate,Location.CreatedById,Location.CreatedDate,Location.Description,Location.DrivingDirections,Location.ExternalReference,Location.Id,Location.IsDeleted,Location.IsInventoryLocation,Location.IsLocked,Location.IsMobile,Location.LastModifiedById,Location.LastModifiedDate,Location.LastReferencedDate,Location.LastViewedDate,Location.Latitude,Location.Location,Location.LocationLevel,Location.LocationType,Location.LogoId,Location.Longitude,Location.MayEdit,Location.Name,Location.OpenDate,Location.OwnerId,Location.ParentLocationId,Location.PossessionDate,Location.RemodelEndDate,Location.RemodelStartDate,Location.RootLocationId,Location.SystemModstamp,Location.TimeZone,ServiceAppointment.AccountId,ServiceAppointment.ActualDuration,ServiceAppointment.ActualEndTime,ServiceAppointment.ActualStartTime,ServiceAppointment.Address,ServiceAppointment.AppointmentNumber,ServiceAppointment.ArrivalWindowEndTime,ServiceAppointment.ArrivalWindowStartTime,ServiceAppointment.City,ServiceAppointment.ContactId,ServiceAppointment.Country,ServiceAppointment.CreatedById,ServiceAppointment.CreatedDate,ServiceAppointment.Description,ServiceAppointment.DueDate,ServiceAppointment.Duration,ServiceAppointment.DurationInMinutes,ServiceAppointment.DurationType,ServiceAppointment.EarliestStartTime,ServiceAppointment.FSL__Appointment_Grade__c,ServiceAppointment.FSL__Auto_Schedule__c,ServiceAppointment.FSL__Emergency__c,ServiceAppointment.FSL__GanttColor__c,ServiceAppointment.FSL__GanttLabel__c,ServiceAppointment.FSL__InJeopardyReason__c,ServiceAppointment.FSL__InJeopardy__c,ServiceAppointment.FSL__InternalSLRGeolocation__Latitude__s,ServiceAppointment.FSL__InternalSLRGeolocation__Longitude__s,ServiceAppointment.FSL__InternalSLRGeolocation__c,ServiceAppointment.FSL__IsFillInCandidate__c,ServiceAppointment.FSL__IsMultiDay__c,ServiceAppointment.FSL__MDS_Calculated_length__c,ServiceAppointment.FSL__MDT_Operational_Time__c,ServiceAppointment.FSL__Pinned__c,ServiceAppointment.FSL__Prevent_Geocoding_For_Chatter_Actions__c,ServiceAppointment.FSL__Related_Service__c,ServiceAppointment.FSL__Same_Day__c,ServiceAppointment.FSL__Same_Resource__c,ServiceAppointment.FSL__Schedule_Mode__c,ServiceAppointment.FSL__Schedule_over_lower_priority_appointment__c,ServiceAppointment.FSL__Time_Dependency__c,ServiceAppointment.FSL__UpdatedByOptimization__c,ServiceAppointment.FSL__Virtual_Service_For_Chatter_Action__c,ServiceAppointment.GeocodeAccuracy,ServiceAppointment.Id,ServiceAppointment.Incomplete_Status_Count__c,ServiceAppointment.IsDeleted,ServiceAppointment.IsLocked,ServiceAppointment.LastModifiedById,ServiceAppointment.LastModifiedDate,ServiceAppointment.LastReferencedDate,ServiceAppointment.LastViewedDate,ServiceAppointment.Latitude,ServiceAppointment.Longitude,ServiceAppointment.MayEdit,ServiceAppointment.OwnerId,ServiceAppointment.ParentRecordId,ServiceAppointment.ParentRecordStatusCategory,ServiceAppointment.ParentRecordType,ServiceAppointment.PostalCode,ServiceAppointment.ProductId__c,ServiceAppointment.ResourceAbsenceId__c,ServiceAppointment.SACount__c,ServiceAppointment.SchedEndTime,ServiceAppointment.SchedStartTime,ServiceAppointment.ServiceResourceId__c,ServiceAppointment.ServiceTerritoryId,ServiceAppointment.State,ServiceAppointment.Status,ServiceAppointment.Street,ServiceAppointment.Subject,ServiceAppointment.SystemModstamp,ServiceAppointment.TimeSheetEntryId__c,ServiceAppointment.TimeSheetId__c,WorkOrder.AccountId,WorkOrder.Address,WorkOrder.AssetId,WorkOrder.AssetWarrantyId,WorkOrder.BusinessHoursId,WorkOrder.CaseId,WorkOrder.City,WorkOrder.ContactId,WorkOrder.Country,WorkOrder.CreatedById,WorkOrder.CreatedDate,WorkOrder.Description,WorkOrder.Discount,WorkOrder.DurationInMinutes,WorkOrder.DurationSource,WorkOrder.EndDate,WorkOrder.EntitlementId,WorkOrder.External_Id__c,WorkOrder.FSL__IsFillInCandidate__c,WorkOrder.FSL__Prevent_Geocoding_For_Chatter_Actions__c,WorkOrder.FSL__Scheduling_Priority__c,WorkOrder.FSL__VisitingHours__c,WorkOrder.GeocodeAccuracy,WorkOrder.GrandTotal,WorkOrder.Id,WorkOrder.IsClosed,WorkOrder.IsDeleted,WorkOrder.IsGeneratedFromMaintenancePlan,WorkOrder.IsLocked,WorkOrder.IsStopped,WorkOrder.LastModifiedById,WorkOrder.LastModifiedDate,WorkOrder.LastReferencedDate,WorkOrder.LastViewedDate,WorkOrder.Latitude,WorkOrder.LineItemCount,WorkOrder.LocationId,WorkOrder.Longitude,WorkOrder.MaintenancePlanId,WorkOrder.MaintenanceWorkRuleId,WorkOrder.MayEdit,WorkOrder.MilestoneStatus,WorkOrder.OwnerId,WorkOrder.ParentWorkOrderId,WorkOrder.PostalCode,WorkOrder.Pricebook2Id,WorkOrder.Priority,WorkOrder.ProductRequiredId__c,WorkOrder.ProductServiceCampaignId,WorkOrder.ProductServiceCampaignItemId,WorkOrder.RecordTypeId,WorkOrder.RootWorkOrderId,WorkOrder.ServiceContractId,WorkOrder.ServiceCrewId__c,WorkOrder.ServiceCrewMemberId__c,WorkOrder.ServiceReportLanguage,WorkOrder.ServiceReportTemplateId,WorkOrder.ServiceTerritoryId,WorkOrder.SlaExitDate,WorkOrder.SlaStartDate,WorkOrder.StartDate,WorkOrder.State,WorkOrder.Status,WorkOrder.StopStartDate,WorkOrder.Street,WorkOrder.Subject,WorkOrder.Subtotal,WorkOrder.SuggestedMaintenanceDate,WorkOrder.SystemModstamp,WorkOrder.Tax,WorkOrder.TimeSlotId__c,WorkOrder.TotalPrice,WorkOrder.WorkOrderNumber,WorkOrder.WorkTypeId,WorkOrder.Work_Order_Count__c,pageSize:undefined,updateMru:undefined,recordIds:02ix000000CG4h1AAD,02ix000000CG4kKAAT,02ix000000CG6gKAAT,02ix000000CG4rPAAT,02ix000000CG5uRAAT,02ix000000CG3oNAAT,02ix000000CG5yyAAD,02ix000000CG4PoAAL,02ix000000CG6VRAA1,02ix000000CG4KxAAL,02ix000000CG5FbAAL,02ix000000CG5bPAAT,02ix000000CG4q8AAD,02ix000000CG61vAAD,02ix000000CG5mRAAT,02ix000000CG6BdAAL,02ix000000CG6UpAAL,02ix00000006zCzAAI,02ix000000CG6e1AAD,02ix000000CG5MqAAL,02ix000000CG6ZIAA1,02ix000000CG6OgAAL,02ix000000CG5HQAA1,02ix000000CG4ihAAD,02ix000000CG4zKAAT,02ix000000CG4VaAAL,02ix000000CG56UAAT,02ix000000CG6IvAAL,02ix000000CG6ZJAA1,02ix000000CG6bQAAT,02ix000000CG62UAAT,02ix000000CG5iCAAT,02ix000000CG6NOAA1,02ix000000CG4jrAAD,02ix000000CG4C2AAL,02ix000000CG4t6AAD,02ix000000CG4c2AAD,02ix000000CG6MLAA1,02ix000000CG6IBAA1,02ix000000CG53UAAT,02ix000000CG5FAAA1,02ix000000CG5GvAAL,02ix000000CG5YmAAL,02ix000000CG5vcAAD,02ix000000CG4SFAA1,02ix000000CG5tFAAT,02ix000000CG6GfAAL,02ix000000CG5M3AAL,02ix000000CG5CMAA1,02ix000000CG4LsAAL,131x00000000khiAAA,131x00000000khSAAQ,131x00000000jMnAAI,131x00000000khYAAQ,131x00000000khNAAQ,131x00000000khXAAQ,131x00000000jMzAAI,131x00000000khMAAQ,131x00000000jMYAAY,131x00000000jMtAAI,131x00000000khcAAA,131x00000000jMeAAI,131x00000000khZAAQ,131x00000000khOAAQ,131x00000000jN0AAI,131x00000000khJAAQ,131x00000000kheAAA,131x00000000jMkAAI,131x00000000jMvAAI,131x00000000khIAAQ,131x00000000khdAAA,131x00000000khjAAA,131x00000000jMpAAI,131x00000000khTAAQ,131x00000000khDAAQ,131x00000000khlAAA,131x00000000khKAAQ,131x00000000khfAAA,131x00000000j75AAA,131x00000000khVAAQ,131x00000000khaAAA,131x00000000jMgAAI,131x00000000khkAAA,131x00000000khUAAQ,131x00000000jN2AAI,131x00000000jMlAAI,131x00000000khPAAQ,131x00000000jMmAAI,131x00000000khbAAA,131x00000000khhAAA,131x00000000jMWAAY,131x00000000khRAAQ,131x00000000jMrAAI,131x00000000jMbAAI,131x00000000khgAAA,131x00000000jMsAAI,131x00000000khQAAQ,131x00000000jMhAAI,131x00000000khWAAQ,131x00000000khLAAQ,001x0000004ckZXAAY,001x0000004ckZcAAI,001x0000004cka2AAA,001x0000004ckZnAAI,001x0000004ckZsAAI,001x0000004cka7AAA,001x0000004ckZhAAI,001x0000004ckZxAAI,001x0000004ckZRAAY,001x0000004cka8AAA,001x0000004ckZmAAI,001x0000004ckZbAAI,001x0000004ckZWAAY,001x0000004cka6AAA,001x0000004ckZzAAI,001x0000004ckZTAAY,001x0000004ckZYAAY,001x0000004ckZdAAI,001x0000004ckZoAAI,001x0000004ckZtAAI,001x0000004ckZiAAI,001x0000004ckZNAAY,001x0000004ckaAAAQ,001x0000004ckZyAAI,001x0000004ckZSAAY,001x0000004cka1AAA,001x0000004ckZvAAI,001x0000004ckZPAAY,001x0000004ckZkAAI,001x0000004ckZUAAY,001x0000004ckZeAAI,001x0000004ckZZAAY,001x0000004cka0AAA,001x0000004ckZpAAI,001x0000004cka5AAA,001x0000004ckZuAAI,001x0000004ckZOAAY,001x0000004ckZjAAI,001x0000004ckZrAAI,001x0000004ckZgAAI,001x0000004ckZwAAI,001x0000004ckZlAAI,001x0000004ckZQAAY,001x0000004cka3AAA,001x0000004ckZaAAI,001x0000004ckZVAAY,001x0000004cka4AAA,001x0000004cka9AAA,001x0000004ckZqAAI,001x0000004ckZfAAI,0WOx0000005kEBhGAM,0WOx0000005kEBXGA2,0WOx0000005kEAAGA2,0WOx0000005kEA6GAM,0WOx0000005kEAQGA2,0WOx0000005kEA0GAM,0WOx0000005kEBSGA2,0WOx0000005kEBcGAM,0WOx0000005kEAFGA2,0WOx0000005kEAGGA2,0WOx0000005kEA1GAM,0WOx0000005kEBRGA2,0WOx0000005kEBbGAM,0WOx0000005kEALGA2,0WOx0000005kEBTGA2,0WOx0000005kEBdGAM,0WOx0000005kEAMGA2,0WOx0000005kEARGA2,0WOx0000005kEA7GAM,0WOx0000005kEABGA2,0WOx0000005kE9zGAE,0WOx0000005kECjGAM,0WOx0000005kEASGA2,0WOx0000005kEA8GAM,0WOx0000005kEACGA2,0WOx0000005kE9yGAE,0WOx0000005kEAHGA2,0WOx0000005kEA2GAM,0WOx0000005kEBYGA2,0WOx0000005kEAIGA2,0WOx0000005kEA3GAM,0WOx0000005kEANGA2,0WOx0000005kEBZGA2,0WOx0000005kEAOGA2,0WOx0000005kEBUGA2,0WOx0000005kEA9GAM,0WOx0000005kE9xGAE,0WOx0000005kEADGA2,0WOx0000005kEBeGAM,0WOx0000005kEAEGA2,0WOx0000005kEBgGAM,0WOx0000005kEBWGA2,0WOx0000005kEA4GAM,0WOx0000005kEAJGA2,0WOx0000005kEBVGA2,0WOx0000005kEBfGAM,0WOx0000005kEAKGA2,0WOx0000005kEA5GAM,0WOx0000005kEAPGA2,0WOx0000005kEBaGAM,08px000000JaaADAAZ,08px000000JaaATAAZ,08px000000JaaAuAAJ,08px000000JaaA9AAJ,08px000000JaaAYAAZ,08px000000JaaAdAAJ,08px000000JaaAIAAZ,08px000000JaaAZAAZ,08px000000JaaAeAAJ,08px000000JaaAJAAZ,08px000000JaaAOAAZ,08px000000JaaAoAAJ,08px000000JaaAjAAJ,08px000000JaaAHAAZ,08px000000JaaAcAAJ,08px000000JaaAXAAZ,08px000000JaaA8AAJ,08px000000JaaAMAAZ,08px000000JaaAhAAJ,08px000000JaaAtAAJ,08px000000JaaANAAZ,08px000000JaaAiAAJ,08px000000JaaAsAAJ,08px000000JaaACAAZ,08px000000JaaAnAAJ,08px000000JaaASAAZ,08px000000JaaALAAZ,08px000000JaaAgAAJ,08px000000JaaAAAAZ,08px000000JaaAlAAJ,08px000000JaaAQAAZ,08px000000JaaABAAZ,08px000000JaaAmAAJ,08px000000JaaARAAZ,08px000000JaaAbAAJ,08px000000JaaAGAAZ,08px000000JaaAWAAZ,08px000000JaaArAAJ,08px000000JaaAPAAZ,08px000000JaaAkAAJ,08px000000JaaAqAAJ,08px000000JaaAEAAZ,08px000000JaaAUAAZ,08px000000JaaApAAJ,08px000000JaaAaAAJ,08px000000JaaAFAAZ,08px000000JaaAVAAZ,08px000000JaaAfAAJ,08px000000JaaAvAAJ,08px000000JaaAKAAZ)\',\'UiApi::RecordRepresentation:02ix000000CG4h1AAD\',\'UiApi::RecordRepresentation:02ix000000CG4kKAAT\',\'UiApi::RecordRepresentation:02ix000000CG6gKAAT\',\'UiApi::RecordRepresentation:02ix000000CG4rPAAT\',\'UiApi::RecordRepresentation:02ix000000CG5uRAAT\',\'UiApi::RecordRepresentation:02ix000000CG3oNAAT\',\'UiApi::RecordRepresentation:02ix000000CG5yyAAD\',\'UiApi::RecordRepresentation:02ix000000CG4PoAAL\',\'UiApi::RecordRepresentation:02ix000000CG6VRAA1\',\'UiApi::RecordRepresentation:02ix000000CG4KxAAL\',\'UiApi::RecordRepresentation:02ix000000CG5FbAAL\',\'UiApi::RecordRepresentation:02ix000000CG5bPAAT\',\'UiApi::RecordRepresentation:02ix000000CG4q8AAD\',\'UiApi::RecordRepresentation:02ix000000CG61vAAD\',\'UiApi::RecordRepresentation:02ix000000CG5mRAAT\',\'UiApi::RecordRepresentation:02ix000000CG6BdAAL\',\'UiApi::RecordRepresentation:02ix000000CG6UpAAL\',\'UiApi::RecordRepresentation:02ix00000006zCzAAI\',\'UiApi::RecordRepresentation:02ix000000CG6e1AAD\',\'UiApi::RecordRepresentation:02ix000000CG5MqAAL\',\'UiApi::RecordRepresentation:02ix000000CG6ZIAA1\',\'UiApi::RecordRepresentation:02ix000000CG6OgAAL\',\'UiApi::RecordRepresentation:02ix000000CG5HQAA1\',\'UiApi::RecordRepresentation:02ix000000CG4ihAAD\',\'UiApi::RecordRepresentation:02ix000000CG4zKAAT\',\'UiApi::RecordRepresentation:02ix000000CG4VaAAL\',\'UiApi::RecordRepresentation:02ix000000CG56UAAT\',\'UiApi::RecordRepresentation:02ix000000CG6IvAAL\',\'UiApi::RecordRepresentation:02ix000000CG6ZJAA1\',\'UiApi::RecordRepresentation:02ix000000CG6bQAAT\',\'UiApi::RecordRepresentation:02ix000000CG62UAAT\',\'UiApi::RecordRepresentation:02ix000000CG5iCAAT\',\'UiApi::RecordRepresentation:02ix000000CG6NOAA1\',\'UiApi::RecordRepresentation:02ix000000CG4jrAAD\',\'UiApi::RecordRepresentation:02ix000000CG4C2AAL\',\'UiApi::RecordRepresentation:02ix000000CG4t6AAD\',\'UiApi::RecordRepresentation:02ix000000CG4c2AAD\',\'UiApi::RecordRepresentation:02ix000000CG6MLAA1\',\'UiApi::RecordRepresentation:02ix000000CG6IBAA1\',\'UiApi::RecordRepresentation:02ix000000CG53UAAT\',\'UiApi::RecordRepresentation:02ix000000CG5FAAA1\',\'UiApi::RecordRepresentation:02ix000000CG5GvAAL\',\'UiApi::RecordRepresentation:02ix000000CG5YmAAL\',\'UiApi::RecordRepresentation:02ix000000CG5vcAAD\',\'UiApi::RecordRepresentation:02ix000000CG4SFAA1\',\'UiApi::RecordRepresentation:02ix000000CG5tFAAT\',\'UiApi::RecordRepresentation:02ix000000CG6GfAAL\',\'UiApi::RecordRepresentation:02ix000000CG5M3AAL\',\'UiApi::RecordRepresentation:02ix000000CG5CMAA1\',\'UiApi::RecordRepresentation:02ix000000CG4LsAAL\',\'UiApi::RecordRepresentation:131x00000000khiAAA\',\'UiApi::RecordRepresentation:131x00000000khSAAQ\',\'UiApi::RecordRepresentation:131x00000000jMnAAI\',\'UiApi::RecordRepresentation:131x00000000khYAAQ\',\'UiApi::RecordRepresentation:131x00000000khNAAQ\',\'UiApi::RecordRepresentation:131x00000000khXAAQ\',\'UiApi::RecordRepresentation:131x00000000jMzAAI\',\'UiApi::RecordRepresentation:131x00000000khMAAQ\',\'UiApi::RecordRepresentation:131x00000000jMYAAY\',\'UiApi::RecordRepresentation:131x00000000jMtAAI\',\'UiApi::RecordRepresentation:131x00000000khcAAA\',\'UiApi::RecordRepresentation:131x00000000jMeAAI\',\'UiApi::RecordRepresentation:131x00000000khZAAQ\',\'UiApi::RecordRepresentation:131x00000000khOAAQ\',\'UiApi::RecordRepresentation:131x00000000jN0AAI\',\'UiApi::RecordRepresentation:131x00000000khJAAQ\',\'UiApi::RecordRepresentation:131x00000000kheAAA\',\'UiApi::RecordRepresentation:131x00000000jMkAAI\',\'UiApi::RecordRepresentation:131x00000000jMvAAI\',\'UiApi::RecordRepresentation:131x00000000khIAAQ\',\'UiApi::RecordRepresentation:131x00000000khdAAA\',\'UiApi::RecordRepresentation:131x00000000khjAAA\',\'UiApi::RecordRepresentation:131x00000000jMpAAI\',\'UiApi::RecordRepresentation:131x00000000khTAAQ\',\'UiApi::RecordRepresentation:131x00000000khDAAQ\',\'UiApi::RecordRepresentation:131x00000000khlAAA\',\'UiApi::RecordRepresentation:131x00000000khKAAQ\',\'UiApi::RecordRepresentation:131x00000000khfAAA\',\'UiApi::RecordRepresentation:131x00000000j75AAA\',\'UiApi::RecordRepresentation:131x00000000khVAAQ\',\'UiApi::RecordRepresentation:131x00000000khaAAA\',\'UiApi::RecordRepresentation:131x00000000jMgAAI\',\'UiApi::RecordRepresentation:131x00000000khkAAA\',\'UiApi::RecordRepresentation:131x00000000khUAAQ\',\'UiApi::RecordRepresentation:131x00000000jN2AAI\',\'UiApi::RecordRepresentation:131x00000000jMlAAI\',\'UiApi::RecordRepresentation:131x00000000khPAAQ\',\'UiApi::RecordRepresentation:131x00000000jMmAAI\',\'UiApi::RecordRepresentation:131x00000000khbAAA\',\'UiApi::RecordRepresentation:131x00000000khhAAA\',\'UiApi::RecordRepresentation:131x00000000jMWAAY\',\'UiApi::RecordRepresentation:131x00000000khRAAQ\',\'UiApi::RecordRepresentation:131x00000000jMrAAI\',\'UiApi::RecordRepresentation:131x00000000jMbAAI\',\'UiApi::RecordRepresentation:131x00000000khgAAA\',\'UiApi::RecordRepresentation:131x00000000jMsAAI\',\'UiApi::RecordRepresentation:131x00000000khQAAQ\',\'UiApi::RecordRepresentation:131x00000000jMhAAI\',\'UiApi::RecordRepresentation:131x00000000khWAAQ\',\'UiApi::RecordRepresentation:131x00000000khLAAQ\',\'UiApi::RecordRepresentation:001x0000004ckZXAAY\',\'UiApi::RecordRepresentation:001x0000004ckZcAAI\',\'UiApi::RecordRepresentation:001x0000004cka2AAA\',\'UiApi::RecordRepresentation:001x0000004ckZnAAI\',\'UiApi::RecordRepresentation:001x0000004ckZsAAI\',\'UiApi::RecordRepresentation:001x0000004cka7AAA\',\'UiApi::RecordRepresentation:001x0000004ckZhAAI\',\'UiApi::RecordRepresentation:001x0000004ckZxAAI\',\'UiApi::RecordRepresentation:001x0000004ckZRAAY\',\'UiApi::RecordRepresentation:001x0000004cka8AAA\',\'UiApi::RecordRepresentation:001x0000004ckZmAAI\',\'UiApi::RecordRepresentation:001x0000004ckZbAAI\',\'UiApi::RecordRepresentation:001x0000004ckZWAAY\',\'UiApi::RecordRepresentation:001x0000004cka6AAA\',\'UiApi::RecordRepresentation:001x0000004ckZzAAI\',\'UiApi::RecordRepresentation:001x0000004ckZTAAY\',\'UiApi::RecordRepresentation:001x0000004ckZYAAY\',\'UiApi::RecordRepresentation:001x0000004ckZdAAI\',\'UiApi::RecordRepresentation:001x0000004ckZoAAI\',\'UiApi::RecordRepresentation:001x0000004ckZtAAI\',\'UiApi::RecordRepresentation:001x0000004ckZiAAI\',\'UiApi::RecordRepresentation:001x0000004ckZNAAY\',\'UiApi::RecordRepresentation:001x0000004ckaAAAQ\',\'UiApi::RecordRepresentation:001x0000004ckZyAAI\',\'UiApi::RecordRepresentation:001x0000004ckZSAAY\',\'UiApi::RecordRepresentation:001x0000004cka1AAA\',\'UiApi::RecordRepresentation:001x0000004ckZvAAI\',\'UiApi::RecordRepresentation:001x0000004ckZPAAY\',\'UiApi::RecordRepresentation:001x0000004ckZkAAI\',\'UiApi::RecordRepresentation:001x0000004ckZUAAY\',\'UiApi::RecordRepresentation:001x0000004ckZeAAI\',\'UiApi::RecordRepresentation:001x0000004ckZZAAY\',\'UiApi::RecordRepresentation:001x0000004cka0AAA\',\'UiApi::RecordRepresentation:001x0000004ckZpAAI\',\'UiApi::RecordRepresentation:001x0000004cka5AAA\',\'UiApi::RecordRepresentation:001x0000004ckZuAAI\',\'UiApi::RecordRepresentation:001x0000004ckZOAAY\',\'UiApi::RecordRepresentation:001x0000004ckZjAAI\',\'UiApi::RecordRepresentation:001x0000004ckZrAAI\',\'UiApi::RecordRepresentation:001x0000004ckZgAAI\',\'UiApi::RecordRepresentation:001x0000004ckZwAAI\',\'UiApi::RecordRepresentation:001x0000004ckZlAAI\',\'UiApi::RecordRepresentation:001x0000004ckZQAAY\',\'UiApi::RecordRepresentation:001x0000004cka3AAA\',\'UiApi::RecordRepresentation:001x0000004ckZaAAI\',\'UiApi::RecordRepresentation:001x0000004ckZVAAY\',\'UiApi::RecordRepresentation:001x0000004cka4AAA\',\'UiApi::RecordRepresentation:001x0000004cka9AAA\',\'UiApi::RecordRepresentation:001x0000004ckZqAAI\',\'UiApi::RecordRepresentation:001x0000004ckZfAAI\',\'UiApi::RecordRepresentation:0WOx0000005kEBhGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEBXGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEAAGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA6GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAQGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA0GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEBSGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBcGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAFGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEAGGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA1GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEBRGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBbGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEALGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBTGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBdGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAMGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEARGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA7GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEABGA2\',\'UiApi::RecordRepresentation:0WOx0000005kE9zGAE\',\'UiApi::RecordRepresentation:0WOx0000005kECjGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEASGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA8GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEACGA2\',\'UiApi::RecordRepresentation:0WOx0000005kE9yGAE\',\'UiApi::RecordRepresentation:0WOx0000005kEAHGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA2GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEBYGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEAIGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA3GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEANGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBZGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEAOGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBUGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA9GAM\',\'UiApi::RecordRepresentation:0WOx0000005kE9xGAE\',\'UiApi::RecordRepresentation:0WOx0000005kEADGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBeGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAEGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBgGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEBWGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA4GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAJGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBVGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBfGAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAKGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEA5GAM\',\'UiApi::RecordRepresentation:0WOx0000005kEAPGA2\',\'UiApi::RecordRepresentation:0WOx0000005kEBaGAM\',\'UiApi::RecordRepresentation:08px000000JaaADAAZ\',\'UiApi::RecordRepresentation:08px000000JaaATAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAuAAJ\',\'UiApi::RecordRepresentation:08px000000JaaA9AAJ\',\'UiApi::RecordRepresentation:08px000000JaaAYAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAdAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAIAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAZAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAeAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAJAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAOAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAoAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAjAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAHAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAcAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAXAAZ\',\'UiApi::RecordRepresentation:08px000000JaaA8AAJ\',\'UiApi::RecordRepresentation:08px000000JaaAMAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAhAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAtAAJ\',\'UiApi::RecordRepresentation:08px000000JaaANAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAiAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAsAAJ\',\'UiApi::RecordRepresentation:08px000000JaaACAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAnAAJ\',\'UiApi::RecordRepresentation:08px000000JaaASAAZ\',\'UiApi::RecordRepresentation:08px000000JaaALAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAgAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAAAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAlAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAQAAZ\',\'UiApi::RecordRepresentation:08px000000JaaABAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAmAAJ\',\'UiApi::RecordRepresentation:08px000000JaaARAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAbAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAGAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAWAAZ\',\'UiApi::RecordRepresentation:08px000000JaaArAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAPAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAkAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAqAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAEAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAUAAZ\',\'UiApi::RecordRepresentation:08px000000JaaApAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAaAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAFAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAVAAZ\',\'UiApi::RecordRepresentation:08px000000JaaAfAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAvAAJ\',\'UiApi::RecordRepresentation:08px000000JaaAKAAZ\')";
 		long start = System.nanoTime();
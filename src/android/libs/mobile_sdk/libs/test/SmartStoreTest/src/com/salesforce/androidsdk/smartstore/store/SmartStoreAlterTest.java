@@ -47,6 +47,7 @@ import org.junit.runner.RunWith;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests to compare speed of smartstore full-text-search indices with regular indices
@@ -371,7 +372,7 @@ public class SmartStoreAlterTest extends SmartStoreTestCase {
         String[] countries = new String[] {USA, FRANCE};
 
         // Check columns of soup table
-        List<String> expectedColumnNames = new ArrayList<>(Arrays.asList("id", "soup", "created", "lastModified"));
+        List<String> expectedColumnNames = new ArrayList<>(Arrays.asList("id", "soup", "created", "lastModified", "contentHash"));
         if (cityColType != SmartStore.Type.json1) expectedColumnNames.add(CITY_COL);
         if (countryColType != SmartStore.Type.json1) expectedColumnNames.add(COUNTRY_COL);
         checkColumns(TEST_SOUP_TABLE_NAME, expectedColumnNames);
@@ -625,6 +626,180 @@ public class SmartStoreAlterTest extends SmartStoreTestCase {
         tryAlterSoupInterruptResume(AlterSoupLongOperation.AlterSoupStep.DROP_OLD_TABLE);
     }
 
+    /**
+     * Test online alter soup with writes happening while soup elements are copied to the shadow soup
+     * @throws Exception
+     */
+    @Test
+    public void testAlterSoupOnline() throws Exception {
+        store.registerSoup(TEST_SOUP, new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string)});
+        String oldSoupTableName = getSoupTableName(TEST_SOUP);
+        JSONObject[] soupElts = new JSONObject[4];
+        for (int i = 0; i < soupElts.length; i++) {
+            soupElts[i] = store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe" + i + "', 'address':{'city':'City" + i + "'}}"));
+        }
+
+        // Start online alter and copy first chunk only
+        IndexSpec[] indexSpecsNew = new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string), new IndexSpec("address.city", SmartStore.Type.string)};
+        OnlineAlterSoupLongOperation operation = new OnlineAlterSoupLongOperation(store, TEST_SOUP, indexSpecsNew);
+        operation.setChunkSize(2);
+        Assert.assertTrue("A chunk should have been copied", operation.copyTableChunk());
+        Assert.assertFalse("Shadow soup should not be listed", store.getAllSoupNames().contains(OnlineAlterSoupLongOperation.SHADOW_SOUP_PREFIX + TEST_SOUP));
+
+        // Soup still usable while being altered
+        Assert.assertEquals("Wrong soup table name", oldSoupTableName, getSoupTableName(TEST_SOUP));
+        soupElts[0].put("address", new JSONObject("{'city':'NewCity0'}"));
+        store.update(TEST_SOUP, soupElts[0], idOf(soupElts[0]));       // already copied
+        soupElts[3].put("address", new JSONObject("{'city':'NewCity3'}"));
+        store.update(TEST_SOUP, soupElts[3], idOf(soupElts[3]));       // not copied yet
+        store.delete(TEST_SOUP, idOf(soupElts[1]));                    // already copied
+        JSONObject soupEltCreated = store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe4', 'address':{'city':'City4'}}"));
+        Assert.assertEquals("Wrong number of soup elements", 4, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 10)));
+
+        // Complete online alter
+        operation.run();
+        Assert.assertEquals("Wrong number of long operations found", 0, store.getLongOperations().length);
+        Assert.assertNotEquals("Soup table should have changed", oldSoupTableName, getSoupTableName(TEST_SOUP));
+        Assert.assertFalse("Old soup table should have been dropped", hasTable(oldSoupTableName));
+        Assert.assertTrue("Path should now be indexed", store.hasIndexForPath(TEST_SOUP, "address.city"));
+
+        // Check soup elements using new index
+        JSONArray result = store.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, new String[] {"_soupEntryId", "address.city"}, "address.city", QuerySpec.Order.ascending, 10), 0);
+        JSONTestHelper.assertSameJSONArray("Wrong soup elements", new JSONArray(String.format("[[%d, 'City2'], [%d, 'City4'], [%d, 'NewCity0'], [%d, 'NewCity3']]",
+                idOf(soupElts[2]), idOf(soupEltCreated), idOf(soupElts[0]), idOf(soupElts[3]))), result);
+
+        // New soup elements should not reuse ids
+        Assert.assertTrue("Wrong id for new soup element", idOf(store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe5'}"))) > idOf(soupEltCreated));
+
+        // Through SmartStore
+        store.alterSoupOnline(TEST_SOUP, new IndexSpec[] {new IndexSpec("address.city", SmartStore.Type.string)}).get(10, TimeUnit.SECONDS);
+        Assert.assertFalse("Path should no longer be indexed", store.hasIndexForPath(TEST_SOUP, "lastName"));
+        Assert.assertEquals("Wrong number of soup elements", 5, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 10)));
+    }
+
+    /**
+     * Test dropping a soup while it is being altered online
+     * @throws Exception
+     */
+    @Test
+    public void testDropSoupDuringAlterSoupOnline() throws Exception {
+        store.registerSoup(TEST_SOUP, new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string)});
+        for (int i = 0; i < 4; i++) {
+            store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe" + i + "'}"));
+        }
+        String shadowSoupName = OnlineAlterSoupLongOperation.SHADOW_SOUP_PREFIX + TEST_SOUP;
+        IndexSpec[] indexSpecsNew = new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string), new IndexSpec("address.city", SmartStore.Type.string)};
+        OnlineAlterSoupLongOperation operation = new OnlineAlterSoupLongOperation(store, TEST_SOUP, indexSpecsNew);
+        operation.setChunkSize(2);
+        Assert.assertTrue("A chunk should have been copied", operation.copyTableChunk());
+        String shadowSoupTableName = getSoupTableName(shadowSoupName);
+
+        // Drop takes the shadow soup and the long operation with it
+        store.dropSoup(TEST_SOUP);
+        Assert.assertFalse("Soup should have been dropped", store.hasSoup(TEST_SOUP));
+        Assert.assertFalse("Shadow soup should have been dropped", store.hasSoup(shadowSoupName));
+        Assert.assertFalse("Shadow soup table should have been dropped", hasTable(shadowSoupTableName));
+        Assert.assertEquals("Wrong number of long operations found", 0, store.getLongOperations().length);
+
+        // Operation still running fails
+        try {
+            operation.copyTableChunk();
+            Assert.fail("Operation should have been cancelled");
+        } catch (SmartStore.SmartStoreException e) {
+            // Expected
+        }
+
+        // Soup registered again with the same name is not written to the old shadow soup
+        store.registerSoup(TEST_SOUP, new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string)});
+        store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe'}"));
+        Assert.assertFalse("Shadow soup should not exist", store.hasSoup(shadowSoupName));
+        Assert.assertEquals("Wrong number of soup elements", 1, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 10)));
+    }
+
+    /**
+     * Test alter soup interrupted in the middle of step COPY_TABLE and resumed from the last chunk copied
+     * @throws JSONException
+     */
+    @Test
+    public void testAlterSoupResumeInMiddleOfCopyTable() throws JSONException {
+        SQLiteDatabase db = dbOpenHelper.getWritableDatabase();
+        store.registerSoup(TEST_SOUP, new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string)});
+        String soupTableName = getSoupTableName(TEST_SOUP);
+        long[] ids = new long[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = idOf(store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe" + i + "', 'address':{'city':'City" + i + "'}}")));
+        }
+
+        // Partial alter - copying only first chunk
+        IndexSpec[] indexSpecsNew = new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string), new IndexSpec("address.city", SmartStore.Type.string)};
+        AlterSoupLongOperation operation = new AlterSoupLongOperation(store, TEST_SOUP, indexSpecsNew, true);
+        operation.setChunkSize(2);
+        operation.run(AlterSoupLongOperation.AlterSoupStep.REGISTER_SOUP_USING_TABLE_NAME);
+        Assert.assertTrue("A chunk should have been copied", operation.copyTableChunk());
+
+        // Progress should have been saved
+        LongOperation[] operations = store.getLongOperations();
+        Assert.assertEquals("Wrong number of long operations found", 1, operations.length);
+        Assert.assertEquals("Wrong step", AlterSoupLongOperation.AlterSoupStep.REGISTER_SOUP_USING_TABLE_NAME, ((AlterSoupLongOperation) operations[0]).getLastStepCompleted());
+        Assert.assertEquals("Wrong last copied id", ids[1], ((AlterSoupLongOperation) operations[0]).getLastCopiedId());
+
+        // Simulate restart - should resume copy after last chunk copied
+        db = restart(db);
+        Assert.assertEquals("Wrong number of long operations found", 0, store.getLongOperations().length);
+        Cursor c = null;
+        try {
+            c = DBHelper.getInstance(db).query(db, soupTableName, null, "id ASC", null, null);
+            Assert.assertEquals("Wrong number of soup elements", ids.length, c.getCount());
+            for (int i = 0; i < ids.length; i++) {
+                Assert.assertTrue("Expected a soup element", c.moveToNext());
+                Assert.assertEquals("Wrong id", ids[i], c.getLong(c.getColumnIndex("id")));
+                Assert.assertEquals("Wrong value in index column", "Doe" + i, c.getString(c.getColumnIndex(soupTableName + "_0")));
+                Assert.assertEquals("Wrong value in index column", "City" + i, c.getString(c.getColumnIndex(soupTableName + "_1")));
+            }
+        }
+        finally {
+            safeClose(c);
+        }
+
+        // New soup elements should not reuse ids of copied soup elements
+        Assert.assertTrue("Wrong id for new soup element", idOf(store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe5'}"))) > ids[ids.length - 1]);
+    }
+
+    /**
+     * Test that alter soup (offline and online) keeps content hashes i.e. unchanged updates are still skipped afterwards
+     * @throws Exception
+     */
+    @Test
+    public void testAlterSoupKeepsContentHashes() throws Exception {
+        store.registerSoup(TEST_SOUP, new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string)});
+        JSONObject soupElt = store.create(TEST_SOUP, new JSONObject("{'lastName':'Doe', 'address':{'city':'City'}}"));
+        long contentHash = getContentHash(idOf(soupElt));
+
+        store.alterSoup(TEST_SOUP, new IndexSpec[] {new IndexSpec("lastName", SmartStore.Type.string), new IndexSpec("address.city", SmartStore.Type.string)}, true);
+        Assert.assertEquals("Wrong content hash after alter", contentHash, getContentHash(idOf(soupElt)));
+
+        store.alterSoupOnline(TEST_SOUP, new IndexSpec[] {new IndexSpec("address.city", SmartStore.Type.string)}).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("Wrong content hash after online alter", contentHash, getContentHash(idOf(soupElt)));
+
+        long skippedUpdatesCount = store.getSkippedUpdatesCount();
+        store.update(TEST_SOUP, new JSONObject(soupElt.toString()), idOf(soupElt));
+        Assert.assertEquals("Update should have been skipped", skippedUpdatesCount + 1, store.getSkippedUpdatesCount());
+    }
+
+    private long getContentHash(long soupEntryId) {
+        SQLiteDatabase db = dbOpenHelper.getWritableDatabase();
+        Cursor c = null;
+        try {
+            c = DBHelper.getInstance(db).query(db, getSoupTableName(TEST_SOUP), new String[] {"contentHash"}, null, null, "id = ?", soupEntryId + "");
+            Assert.assertTrue("Expected a soup element", c.moveToFirst());
+            Assert.assertFalse("Content hash should not be null", c.isNull(0));
+            return c.getLong(0);
+        }
+        finally {
+            safeClose(c);
+        }
+    }
+
     /**
      * Helper for testAlterSoupInterruptResume
      * @throws JSONException
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2026-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Load tests measuring read throughput of smartstore as the number of reader threads grows
+ * (with and without a writer running long transactions at the same time)
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class SmartStoreConcurrencyLoadTest extends SmartStoreLoadTestCase {
+
+    private static final int READS_PER_READER = 200;
+    private static final int PAGE_SIZE = 100;
+    private static final int WRITES_PER_WRITER_TRANSACTION = 500;
+
+    @Parameterized.Parameter(0) public String testName;
+    @Parameterized.Parameter(1) public int numberReaders;
+    @Parameterized.Parameter(2) public boolean withWriter;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][]{
+                {"1Reader", 1, false},
+                {"2Readers", 2, false},
+                {"4Readers", 4, false},
+                {"8Readers", 8, false},
+                {"1ReaderWithWriter", 1, true},
+                {"2ReadersWithWriter", 2, true},
+                {"4ReadersWithWriter", 4, true},
+                {"8ReadersWithWriter", 8, true}
+        });
+    }
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        pool = Executors.newFixedThreadPool(numberReaders + 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void test() throws Exception {
+        setupSoup(TEST_SOUP, 1, Type.string);
+        upsertEntries(NUMBER_ENTRIES / NUMBER_ENTRIES_PER_BATCH, NUMBER_ENTRIES_PER_BATCH, 10, 20);
+
+        final AtomicBoolean readersDone = new AtomicBoolean(false);
+        final CountDownLatch writerLatch = new CountDownLatch(withWriter ? 1 : 0);
+        if (withWriter) {
+            pool.execute(() -> {
+                try {
+                    int transactionNumber = 0;
+                    while (!readersDone.get()) {
+                        writeOneTransaction(transactionNumber++);
+                    }
+                } catch (JSONException e) {
+                    Assert.fail("Unexpected error: " + e);
+                }
+                writerLatch.countDown();
+            });
+        }
+
+        final CountDownLatch readersLatch = new CountDownLatch(numberReaders);
+        final QuerySpec querySpec = QuerySpec.buildLikeQuerySpec(TEST_SOUP, "k_0", "v_%", "k_0", QuerySpec.Order.ascending, PAGE_SIZE);
+        long start = System.nanoTime();
+        for (int i = 0; i < numberReaders; i++) {
+            pool.execute(() -> {
+                try {
+                    for (int j = 0; j < READS_PER_READER; j++) {
+                        JSONArray results = store.query(querySpec, j % (NUMBER_ENTRIES / PAGE_SIZE));
+                        Assert.assertEquals(PAGE_SIZE, results.length());
+                    }
+                } catch (JSONException e) {
+                    Assert.fail("Unexpected error: " + e);
+                }
+                readersLatch.countDown();
+            });
+        }
+        readersLatch.await();
+        double durationMs = (double) (System.nanoTime() - start) / NS_IN_MS;
+        readersDone.set(true);
+        writerLatch.await();
+
+        int totalReads = numberReaders * READS_PER_READER;
+        Log.i(getTag(), String.format("%d reads of %d entries by %d readers %s: %.3f ms total --> %.1f reads/s",
+                totalReads, PAGE_SIZE, numberReaders, withWriter ? "with writer" : "without writer",
+                durationMs, totalReads * 1000 / durationMs));
+    }
+
+    private void writeOneTransaction(int transactionNumber) throws JSONException {
+        synchronized (store.getDatabase()) {
+            store.beginTransaction();
+            try {
+                for (int i = 0; i < WRITES_PER_WRITER_TRANSACTION; i++) {
+                    JSONObject entry = new JSONObject();
+                    entry.put("k_0", "w_" + transactionNumber + "_" + i);
+                    store.create(TEST_SOUP, entry, false);
+                }
+                store.setTransactionSuccessful();
+            } finally {
+                store.endTransaction();
+            }
+        }
+    }
+}
@@ -148,6 +148,40 @@ public class SmartStoreConcurrencyTest extends SmartStoreTestCase {
     }
 
 
+    @Test
+    public void testReaderNotBlockedByWriteTransaction() throws Exception {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch readDone = new CountDownLatch(1);
+        CountDownLatch writeDone = new CountDownLatch(1);
+        pool.execute(() -> {
+            synchronized (store.getDatabase()) {
+                store.beginTransaction();
+                try {
+                    writeOne("writer-" + padNumber(0), "seq-" + padNumber(0));
+                    writeStarted.countDown();
+                    // Holding the write transaction open until the reader is done
+                    readDone.await();
+                    store.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Assert.fail("Unexpected error: " + e);
+                } finally {
+                    store.endTransaction();
+                }
+            }
+            writeDone.countDown();
+        });
+        writeStarted.await();
+
+        // Reader should not wait for the writer and should not see its uncommitted changes
+        checkRowsExact(0, 0);
+        Assert.assertEquals(0, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 1)));
+        readDone.countDown();
+
+        writeDone.await();
+        checkRowsExact(1, 1);
+    }
+
+
     //
     // Helper functions
     //
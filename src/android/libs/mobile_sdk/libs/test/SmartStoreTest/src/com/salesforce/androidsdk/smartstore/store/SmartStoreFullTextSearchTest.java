@@ -735,6 +735,6 @@ public class SmartStoreFullTextSearchTest extends SmartStoreTestCase {
      * @return expected columns in soup table
      */
     protected String[] getExpectedColumns() {
-        return new String[]{"id", "soup", "created", "lastModified", FIRST_NAME_COL, LAST_NAME_COL, EMPLOYEE_ID_COL};
+        return new String[]{"id", "soup", "created", "lastModified", "contentHash", FIRST_NAME_COL, LAST_NAME_COL, EMPLOYEE_ID_COL};
     }
 }
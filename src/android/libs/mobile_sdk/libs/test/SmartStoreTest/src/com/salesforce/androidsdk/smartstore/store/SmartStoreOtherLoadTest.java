@@ -26,17 +26,32 @@
  */
 package com.salesforce.androidsdk.smartstore.store;
 
+import android.content.ContentValues;
 import android.util.Log;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.LargeTest;
 
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.TypeGroup;
 
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * More load tests for smartstore
  */
@@ -54,6 +69,238 @@ public class SmartStoreOtherLoadTest extends SmartStoreLoadTestCase {
         tryAlterSoup(Type.json1);
     }
 
+    @Test
+    public void testConvertLongSmartSql() {
+        Log.i(getTag(), "In testConvertLongSmartSql");
+        setupSoup(TEST_SOUP, 1, Type.string);
+        SmartSqlHelper smartSqlHelper = SmartSqlHelper.getInstance(store.getDatabase());
+        for (int numberValues : new int[] {10, 100, 1000, 5000}) {
+            StringBuilder smartSql = new StringBuilder("SELECT {test_soup:_soup} FROM {test_soup} WHERE ");
+            for (int i=0; i<numberValues; i++) {
+                smartSql.append(i > 0 ? " OR " : "").append("{test_soup:k_0} = '").append(pad("v_" + i + "_", 20)).append("'");
+            }
+            List<Long> times = new ArrayList<>();
+            for (int i=0; i<10; i++) {
+                smartSqlHelper.clearMemoryCache(); // timing the conversion not the cache
+                long start = System.nanoTime();
+                store.convertSmartSql(smartSql.toString());
+                times.add(System.nanoTime() - start);
+            }
+            Log.i(getTag(), String.format("Converting smart sql with %d references (%d characters): average time --> %.3f ms",
+                    numberValues + 2, smartSql.length(), average(times) / NS_IN_MS));
+        }
+    }
+
+    @Test
+    public void testOffsetVsKeysetPagination() throws JSONException {
+        Log.i(getTag(), "In testOffsetVsKeysetPagination");
+        setupSoup(TEST_SOUP, 1, Type.string);
+        upsertEntries(100, NUMBER_ENTRIES_PER_BATCH * 2, 2, 20);
+        QuerySpec querySpec = QuerySpec.buildAllQuerySpec(TEST_SOUP, "k_0", QuerySpec.Order.ascending, 100);
+        pageThrough("offset pagination", querySpec);
+        pageThrough("keyset pagination", querySpec.withKeysetPagination());
+    }
+
+    @Test
+    public void testEagerVsLazyParsing() throws JSONException {
+        Log.i(getTag(), "In testEagerVsLazyParsing");
+        setupSoup(TEST_SOUP, 1, Type.string);
+        upsertEntries(NUMBER_ENTRIES / NUMBER_ENTRIES_PER_BATCH, NUMBER_ENTRIES_PER_BATCH, 100, 20);
+        QuerySpec querySpec = QuerySpec.buildAllQuerySpec(TEST_SOUP, "k_0", QuerySpec.Order.ascending, NUMBER_ENTRIES_PER_BATCH);
+        queryAndReadOneField("eager parsing", querySpec, false);
+        queryAndReadOneField("lazy parsing", querySpec, true);
+    }
+
+    private void queryAndReadOneField(String msg, QuerySpec querySpec, boolean lazyParsing) throws JSONException {
+        List<Long> times = new ArrayList<>();
+        int numberPages = NUMBER_ENTRIES / querySpec.pageSize;
+        for (int pageIndex=0; pageIndex<numberPages; pageIndex++) {
+            long start = System.nanoTime();
+            JSONArray results = lazyParsing ? store.queryLazy(querySpec, pageIndex) : store.query(querySpec, pageIndex);
+            // Only reading one field of the first row
+            results.getJSONObject(0).getString("k_0");
+            times.add(System.nanoTime() - start);
+        }
+        Log.i(getTag(), String.format("Querying %d pages of %d entries with 100 fields with %s: average time per page --> %.3f ms",
+                numberPages, querySpec.pageSize, msg, average(times) / NS_IN_MS));
+    }
+
+    @Test
+    public void testQueryAsStringLargePages() throws JSONException {
+        Log.i(getTag(), "In testQueryAsStringLargePages");
+        setupSoup(TEST_SOUP, 1, Type.string);
+        upsertEntries(100, NUMBER_ENTRIES_PER_BATCH, 10, 20); // 10k entries
+        int pageSize = 100 * NUMBER_ENTRIES_PER_BATCH;
+        QuerySpec exactQuerySpec = QuerySpec.buildAllQuerySpec(TEST_SOUP, "k_0", QuerySpec.Order.ascending, pageSize);
+        QuerySpec smartQuerySpec = QuerySpec.buildSmartQuerySpec("SELECT {test_soup:k_0}, {test_soup:_soup} FROM {test_soup}", pageSize);
+        serializeLargePages("all query", exactQuerySpec);
+        serializeLargePages("smart query", smartQuerySpec);
+    }
+
+    private void serializeLargePages(String msg, QuerySpec querySpec) throws JSONException {
+        Runtime runtime = Runtime.getRuntime();
+        StoreCursor cursor = new StoreCursor(store, querySpec);
+        List<Long> times = new ArrayList<>();
+        List<Long> memoryDeltas = new ArrayList<>();
+        int length = 0;
+        for (int i=0; i<10; i++) {
+            runtime.gc();
+            long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+            long start = System.nanoTime();
+            length = cursor.getDataSerialized(store).toString().length();
+            times.add(System.nanoTime() - start);
+            memoryDeltas.add(runtime.totalMemory() - runtime.freeMemory() - memoryBefore);
+        }
+        Log.i(getTag(), String.format("Serializing page of %d entries (%d characters) with %s: average time --> %.3f ms, average heap growth --> %.1f KB",
+                querySpec.pageSize, length, msg, average(times) / NS_IN_MS, average(memoryDeltas) / 1024));
+    }
+
+    @Test
+    public void testExportImportSoup() throws JSONException, IOException {
+        Log.i(getTag(), "In testExportImportSoup");
+        setupSoup(TEST_SOUP, 1, Type.string);
+        upsertEntries(100, NUMBER_ENTRIES_PER_BATCH, 10, 20); // 10k entries
+        File file = File.createTempFile("export", ".ndjson");
+        try {
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+            long start = System.nanoTime();
+            int exported;
+            try (OutputStream out = new FileOutputStream(file)) {
+                exported = store.exportSoup(TEST_SOUP, out, null);
+            }
+            long duration = System.nanoTime() - start;
+            Log.i(getTag(), String.format("Exporting %d entries (%d bytes): time --> %.3f ms, heap growth --> %.1f KB",
+                    exported, file.length(), duration / NS_IN_MS, (runtime.totalMemory() - runtime.freeMemory() - memoryBefore) / 1024.0));
+
+            store.clearSoup(TEST_SOUP);
+            runtime.gc();
+            memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+            start = System.nanoTime();
+            int imported;
+            try (InputStream in = new FileInputStream(file)) {
+                imported = store.importSoup(TEST_SOUP, in, "k_0", null);
+            }
+            duration = System.nanoTime() - start;
+            Log.i(getTag(), String.format("Importing %d entries in batches of %d: time --> %.3f ms, heap growth --> %.1f KB",
+                    imported, SmartStore.IMPORT_EXPORT_BATCH_SIZE, duration / NS_IN_MS, (runtime.totalMemory() - runtime.freeMemory() - memoryBefore) / 1024.0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInsertWithContentValuesVsSoupWriter() throws JSONException {
+        tryInsertWithContentValuesVsSoupWriter(Type.string);
+        tryInsertWithContentValuesVsSoupWriter(Type.full_text);
+    }
+
+    private void tryInsertWithContentValuesVsSoupWriter(Type indexType) throws JSONException {
+        Log.i(getTag(), "In testInsertWithContentValuesVsSoupWriter");
+        setupSoup(TEST_SOUP, 5, indexType);
+        insertEntries("content values", indexType, true);
+        insertEntries("soup writer", indexType, false);
+        store.dropSoup(TEST_SOUP);
+    }
+
+    private void insertEntries(String msg, Type indexType, boolean useContentValues) throws JSONException {
+        SQLiteDatabase db = store.getDatabase();
+        DBHelper dbHelper = DBHelper.getInstance(db);
+        String soupTableName = dbHelper.getSoupTableName(db, TEST_SOUP);
+        IndexSpec[] indexSpecs = dbHelper.getIndexSpecs(db, TEST_SOUP);
+        int numberBatches = NUMBER_ENTRIES / NUMBER_ENTRIES_PER_BATCH;
+        List<Long> times = new ArrayList<>();
+        for (int batchNumber=0; batchNumber<numberBatches; batchNumber++) {
+            long start = System.nanoTime();
+            store.beginTransaction();
+            for (int entryNumber=0; entryNumber<NUMBER_ENTRIES_PER_BATCH; entryNumber++) {
+                JSONObject entry = new JSONObject();
+                for (int fieldNumber=0; fieldNumber<10; fieldNumber++) {
+                    entry.put("k_" + fieldNumber, pad("v_" + batchNumber + "_" + entryNumber + "_" + fieldNumber + "_", 20));
+                }
+                if (useContentValues) {
+                    insertWithContentValues(db, soupTableName, indexSpecs, entry);
+                } else {
+                    store.create(TEST_SOUP, entry, false);
+                }
+            }
+            store.setTransactionSuccessful();
+            store.endTransaction();
+            times.add(System.nanoTime() - start);
+        }
+        Log.i(getTag(), String.format("Inserting %d entries with 5 %s indexes with %s: average time per batch of %d --> %.3f ms",
+                NUMBER_ENTRIES, indexType, msg, NUMBER_ENTRIES_PER_BATCH, average(times) / NS_IN_MS));
+    }
+
+    // Insert the way SmartStore.create used to: one ContentValues per row, InsertHelper for soup table, db.insert for fts table
+    private void insertWithContentValues(SQLiteDatabase db, String soupTableName, IndexSpec[] indexSpecs, JSONObject soupElt) throws JSONException {
+        long now = System.currentTimeMillis();
+        long soupEntryId = DBHelper.getInstance(db).getNextId(db, soupTableName);
+        soupElt.put(SmartStore.SOUP_ENTRY_ID, soupEntryId);
+        soupElt.put(SmartStore.SOUP_LAST_MODIFIED_DATE, now);
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(SmartStore.ID_COL, soupEntryId);
+        contentValues.put(SmartStore.CREATED_COL, now);
+        contentValues.put(SmartStore.LAST_MODIFIED_COL, now);
+        contentValues.put(SmartStore.SOUP_COL, soupElt.toString());
+        ContentValues contentValuesFts = new ContentValues();
+        contentValuesFts.put(SmartStore.ROWID_COL, soupEntryId);
+        for (IndexSpec indexSpec : indexSpecs) {
+            Object value = SmartStore.project(soupElt, indexSpec.path);
+            if (TypeGroup.value_extracted_to_column.isMember(indexSpec.type)) {
+                putIndexedValue(contentValues, indexSpec, value);
+            }
+            if (TypeGroup.value_extracted_to_fts_column.isMember(indexSpec.type)) {
+                putIndexedValue(contentValuesFts, indexSpec, value);
+            }
+        }
+        DBHelper.getInstance(db).insert(db, soupTableName, contentValues);
+        if (IndexSpec.hasFTS(indexSpecs)) {
+            db.insert(soupTableName + SmartStore.FTS_SUFFIX, null, contentValuesFts);
+        }
+    }
+
+    // Bind indexed value with its type, the way SmartStore.projectIndexedPath used to
+    private void putIndexedValue(ContentValues contentValues, IndexSpec indexSpec, Object value) {
+        contentValues.put(indexSpec.columnName, (String) null); // fall back
+        if (value != null) {
+            try {
+                switch (indexSpec.type) {
+                    case integer:
+                        contentValues.put(indexSpec.columnName, ((Number) value).longValue());
+                        break;
+                    case string:
+                    case full_text:
+                        contentValues.put(indexSpec.columnName, value.toString());
+                        break;
+                    case floating:
+                        contentValues.put(indexSpec.columnName, ((Number) value).doubleValue());
+                        break;
+                }
+            } catch (ClassCastException e) {
+                // Ignore (will use the null value)
+            }
+        }
+    }
+
+    private void pageThrough(String msg, QuerySpec querySpec) throws JSONException {
+        StoreCursor cursor = new StoreCursor(store, querySpec);
+        int totalPages = cursor.getDataDeserialized(store).getInt(StoreCursor.TOTAL_PAGES);
+        List<Long> firstPagesTimes = new ArrayList<>();
+        List<Long> lastPagesTimes = new ArrayList<>();
+        for (int pageIndex=0; pageIndex<totalPages; pageIndex++) {
+            long start = System.nanoTime();
+            cursor.moveToPageIndex(pageIndex);
+            cursor.getDataSerialized(store);
+            long duration = System.nanoTime() - start;
+            if (pageIndex < 10) firstPagesTimes.add(duration);
+            if (pageIndex >= totalPages - 10) lastPagesTimes.add(duration);
+        }
+        Log.i(getTag(), String.format("Paging through %d pages of %d entries with %s: average time for first 10 pages --> %.3f ms, for last 10 pages --> %.3f ms",
+                totalPages, querySpec.pageSize, msg, average(firstPagesTimes) / NS_IN_MS, average(lastPagesTimes) / NS_IN_MS));
+    }
+
     private void tryAlterSoup(Type indexType) throws JSONException {
         Log.i(getTag(), "In testAlterSoup");
         Log.i(getTag(), String.format("Initial database size: %d bytes", store.getDatabaseSize()));
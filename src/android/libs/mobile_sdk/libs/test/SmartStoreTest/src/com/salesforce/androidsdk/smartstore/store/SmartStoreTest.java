@@ -33,6 +33,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.MediumTest;
 
 import com.salesforce.androidsdk.smartstore.store.QuerySpec.Order;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
 import com.salesforce.androidsdk.util.JSONTestHelper;
 
@@ -47,9 +48,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main test suite for SmartStore
@@ -583,6 +594,32 @@ public class SmartStoreTest extends SmartStoreTestCase {
 		}
 	}
 
+	/**
+	 * Testing upsertAll: mix of new and existing external ids, including a duplicate within the batch
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testUpsertAllWithExternalId() throws JSONException {
+		JSONObject soupElt1Upserted = store.upsert(TEST_SOUP, new JSONObject("{'key':'ka1', 'value':'va1'}"), "key");
+		JSONObject soupElt2Upserted = store.upsert(TEST_SOUP, new JSONObject("{'key':'ka2', 'value':'va2'}"), "key");
+		List<JSONObject> results = store.upsertAll(TEST_SOUP, Arrays.asList(
+				new JSONObject("{'key':'ka2', 'value':'va2u'}"),
+				new JSONObject("{'key':'ka3', 'value':'va3'}"),
+				new JSONObject("{'key':'ka3', 'value':'va3u'}")), "key");
+		Assert.assertEquals("Wrong number of results", 3, results.size());
+		Assert.assertEquals("Existing entry should have been updated", idOf(soupElt2Upserted), idOf(results.get(0)));
+		Assert.assertEquals("Duplicate in batch should have updated the entry created in the same batch", idOf(results.get(1)), idOf(results.get(2)));
+		Assert.assertEquals("Wrong number of entries in soup", 3, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 10)));
+		JSONTestHelper.assertSameJSON("Retrieve mismatch", soupElt1Upserted, store.retrieve(TEST_SOUP, idOf(soupElt1Upserted)).getJSONObject(0));
+		JSONTestHelper.assertSameJSON("Retrieve mismatch", results.get(0), store.retrieve(TEST_SOUP, idOf(soupElt2Upserted)).getJSONObject(0));
+		JSONTestHelper.assertSameJSON("Retrieve mismatch", results.get(2), store.retrieve(TEST_SOUP, idOf(results.get(2))).getJSONObject(0));
+		Map<String, Long> ids = store.lookupSoupEntryIds(TEST_SOUP, "key", Arrays.asList("ka1", "ka2", "ka3", "ka4"));
+		Assert.assertEquals("Wrong number of ids found", 3, ids.size());
+		Assert.assertEquals("Wrong id for ka1", idOf(soupElt1Upserted), (long) ids.get("ka1"));
+		Assert.assertEquals("Wrong id for ka3", idOf(results.get(2)), (long) ids.get("ka3"));
+	}
+
 	/**
 	 * Testing retrieve: create multiple soup elements and retrieves them back
 	 *
@@ -755,6 +792,730 @@ public class SmartStoreTest extends SmartStoreTestCase {
 		tryAllQuery(Type.json1);
 	}
 
+	/**
+	 * Test queryStream with a soup query, a query with select paths and a smart query
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testQueryStream() throws JSONException {
+		JSONObject soupElt1Created = store.create(TEST_SOUP, new JSONObject("{'key':'ka1', 'value':'va1'}"));
+		JSONObject soupElt2Created = store.create(TEST_SOUP, new JSONObject("{'key':'ka2', 'value':'va2'}"));
+		JSONObject soupElt3Created = store.create(TEST_SOUP, new JSONObject("{'key':'ka3', 'value':'va3'}"));
+
+		// Soup query - page size should be ignored
+		final JSONArray soupRows = new JSONArray();
+		int rowCount = store.queryStream(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", Order.ascending, 1), row -> {
+			soupRows.put(row);
+			return true;
+		});
+		Assert.assertEquals("Wrong row count", 3, rowCount);
+		JSONTestHelper.assertSameJSONArray("Wrong rows", new JSONArray(Arrays.asList(soupElt1Created, soupElt2Created, soupElt3Created)), soupRows);
+
+		// Query with select paths
+		final JSONArray selectRows = new JSONArray();
+		store.queryStream(QuerySpec.buildAllQuerySpec(TEST_SOUP, new String[]{"key"}, "key", Order.descending, 1), row -> {
+			selectRows.put(row);
+			return true;
+		});
+		JSONTestHelper.assertSameJSONArray("Wrong rows", new JSONArray("[['ka3'], ['ka2'], ['ka1']]"), selectRows);
+
+		// Smart query - stopping after two rows
+		final JSONArray smartRows = new JSONArray();
+		rowCount = store.queryStream(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:key} FROM {test_soup} ORDER BY {test_soup:key}", 1), row -> {
+			smartRows.put(row);
+			return smartRows.length() < 2;
+		});
+		Assert.assertEquals("Wrong row count", 2, rowCount);
+		JSONTestHelper.assertSameJSONArray("Wrong rows", new JSONArray("[['ka1'], ['ka2']]"), smartRows);
+	}
+
+	/**
+	 * Test upserts through write queue: upserts should be coalesced, and a failing upsert should not fail the others
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteQueue() throws Exception {
+		WriteQueue writeQueue = new WriteQueue(store, 200, WriteQueue.DEFAULT_MAX_BATCH_SIZE);
+		List<CompletableFuture<List<JSONObject>>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(writeQueue.upsert(TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k" + i + "', 'value':'v" + i + "'}")), SmartStore.SOUP_ENTRY_ID));
+		}
+		for (int i = 0; i < 10; i++) {
+			List<JSONObject> upserted = futures.get(i).get(10, TimeUnit.SECONDS);
+			Assert.assertEquals("Wrong number of soup elements upserted", 1, upserted.size());
+			Assert.assertEquals("Wrong soup element upserted", "k" + i, upserted.get(0).getString("key"));
+			Assert.assertTrue("Soup entry id should have been set", upserted.get(0).has(SmartStore.SOUP_ENTRY_ID));
+		}
+		Assert.assertEquals("Wrong number of upserts", 10, writeQueue.getUpsertCount());
+		Assert.assertTrue("Upserts should have been coalesced", writeQueue.getCommitCount() < 10);
+		Assert.assertEquals("Wrong number of soup elements", 10, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 1)));
+
+		// Failing upsert in the middle of a batch
+		CompletableFuture<List<JSONObject>> goodFuture1 = writeQueue.upsert(TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k10'}")), SmartStore.SOUP_ENTRY_ID);
+		CompletableFuture<List<JSONObject>> badFuture = writeQueue.upsert(THIRD_TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k11'}")), SmartStore.SOUP_ENTRY_ID);
+		CompletableFuture<List<JSONObject>> goodFuture2 = writeQueue.upsert(TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k12'}")), SmartStore.SOUP_ENTRY_ID);
+		Assert.assertEquals("Wrong soup element upserted", "k10", goodFuture1.get(10, TimeUnit.SECONDS).get(0).getString("key"));
+		Assert.assertEquals("Wrong soup element upserted", "k12", goodFuture2.get(10, TimeUnit.SECONDS).get(0).getString("key"));
+		try {
+			badFuture.get(10, TimeUnit.SECONDS);
+			Assert.fail("Upsert to missing soup should have failed");
+		} catch (ExecutionException e) {
+			Assert.assertTrue("Wrong exception", e.getCause() instanceof SmartStoreException);
+		}
+		Assert.assertEquals("Wrong number of soup elements", 12, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 1)));
+
+		// Closing writes pending upserts and rejects later ones
+		CompletableFuture<List<JSONObject>> pendingFuture = writeQueue.upsert(TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k13'}")), SmartStore.SOUP_ENTRY_ID);
+		writeQueue.close();
+		Assert.assertTrue("Write queue should be closed", writeQueue.isClosed());
+		Assert.assertTrue("Pending upsert should have been written", pendingFuture.isDone() && !pendingFuture.isCompletedExceptionally());
+		Assert.assertEquals("Wrong number of soup elements", 13, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 1)));
+		try {
+			writeQueue.upsert(TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k14'}")), SmartStore.SOUP_ENTRY_ID).get(10, TimeUnit.SECONDS);
+			Assert.fail("Upsert to closed write queue should have failed");
+		} catch (ExecutionException e) {
+			Assert.assertTrue("Wrong exception", e.getCause() instanceof SmartStoreException);
+		}
+	}
+
+	/**
+	 * Test that the write queue is shared by the stores of a database and closed with the database
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteQueueClosedWithDatabase() throws Exception {
+		final LinkedBlockingQueue<Object[]> changes = new LinkedBlockingQueue<>();
+		store.registerSoupChangeListener((soupName, soupEntryIds) -> changes.add(new Object[] {soupName, soupEntryIds}));
+		final SQLiteDatabase db = dbOpenHelper.getWritableDatabase();
+		WriteQueue writeQueue = store.getWriteQueue();
+		Assert.assertSame("Write queue should be shared", writeQueue, new SmartStore(dbOpenHelper).getWriteQueue());
+		CompletableFuture<List<JSONObject>> pendingFuture = writeQueue.upsert(TEST_SOUP, Collections.singletonList(new JSONObject("{'key':'k1'}")), SmartStore.SOUP_ENTRY_ID);
+		dbOpenHelper.close();
+		Assert.assertTrue("Write queue should be closed", writeQueue.isClosed());
+		Assert.assertTrue("Pending upsert should have been written", pendingFuture.isDone() && !pendingFuture.isCompletedExceptionally());
+		Assert.assertFalse("No DBHelper should be left for the closed database", DBHelper.hasInstance(db));
+		Object[] change = changes.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull("Flushed upsert should have been delivered to the listener", change);
+		Assert.assertEquals("Wrong soup name", TEST_SOUP, change[0]);
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(pendingFuture.get().get(0))}, (long[]) change[1]);
+		Assert.assertNotSame("Write queue should be new", writeQueue, store.getWriteQueue());
+	}
+
+	/**
+	 * Test queryStringColumn and queryLongColumn
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testQueryColumn() throws JSONException {
+		JSONObject soupElt1Created = store.create(TEST_SOUP, new JSONObject("{'key':'ka1', 'value':'va1'}"));
+		JSONObject soupElt2Created = store.create(TEST_SOUP, new JSONObject("{'value':'va2'}"));
+		JSONObject soupElt3Created = store.create(TEST_SOUP, new JSONObject("{'key':'ka3', 'value':'va3'}"));
+
+		// Null values are skipped and page size is ignored
+		String[] keys = store.queryStringColumn(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:key} FROM {test_soup} ORDER BY {test_soup:key}", 1));
+		Assert.assertArrayEquals("Wrong keys", new String[]{"ka1", "ka3"}, keys);
+
+		long[] ids = store.queryLongColumn(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:_soupEntryId} FROM {test_soup} ORDER BY {test_soup:_soupEntryId} DESC", 1));
+		Assert.assertArrayEquals("Wrong ids", new long[]{idOf(soupElt3Created), idOf(soupElt2Created), idOf(soupElt1Created)}, ids);
+
+		// No rows
+		Assert.assertEquals("Wrong number of ids", 0, store.queryLongColumn(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:_soupEntryId} FROM {test_soup} WHERE {test_soup:key} = 'missing'", 1)).length);
+
+		// More rows than the initial capacity of the arrays values are read into
+		long[] expectedIds = new long[40];
+		expectedIds[0] = idOf(soupElt1Created);
+		expectedIds[1] = idOf(soupElt2Created);
+		expectedIds[2] = idOf(soupElt3Created);
+		for (int i = 3; i < expectedIds.length; i++) {
+			expectedIds[i] = idOf(store.create(TEST_SOUP, new JSONObject().put("key", "kb" + i)));
+		}
+		Assert.assertArrayEquals("Wrong ids", expectedIds, store.queryLongColumn(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:_soupEntryId} FROM {test_soup} ORDER BY {test_soup:_soupEntryId}", 1)));
+		Assert.assertEquals("Wrong number of keys", expectedIds.length - 1, store.queryStringColumn(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:key} FROM {test_soup}", 1)).length);
+	}
+
+	/**
+	 * Test compound index spec mixing a path extracted to a column and a path that is not indexed on its own
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testCompoundIndex() throws JSONException {
+		IndexSpec compoundIndexSpec = new IndexSpec(new String[] {"ownerId", "lastModified"}, Type.json1);
+		Assert.assertTrue("Should be compound", compoundIndexSpec.isCompound());
+		Assert.assertArrayEquals("Wrong paths", new String[] {"ownerId", "lastModified"}, compoundIndexSpec.getPaths());
+		try {
+			new IndexSpec(new String[] {"ownerId", "lastModified"}, Type.string);
+			Assert.fail("Compound index spec should be json1");
+		} catch (SmartStoreException e) {
+			// expected
+		}
+
+		registerSoup(store, FOURTH_TEST_SOUP, new IndexSpec[] {new IndexSpec("ownerId", Type.string), compoundIndexSpec});
+		String soupTableName = getSoupTableName(FOURTH_TEST_SOUP);
+
+		// Round trip
+		IndexSpec[] indexSpecs = store.getSoupIndexSpecs(FOURTH_TEST_SOUP);
+		Assert.assertEquals("Wrong index spec", compoundIndexSpec, new IndexSpec(indexSpecs[1].path, indexSpecs[1].type));
+		Assert.assertTrue("Should be compound", indexSpecs[1].isCompound());
+		Assert.assertEquals("Wrong column name", soupTableName + "_0, json_extract(soup, '$.lastModified')", indexSpecs[1].columnName);
+		Assert.assertEquals("Wrong index spec from json", compoundIndexSpec, IndexSpec.fromJSON(new JSONObject("{'paths':['ownerId','lastModified'],'type':'json1'}")));
+
+		JSONObject[] soupElts = new JSONObject[6];
+		for (int i = 0; i < soupElts.length; i++) {
+			soupElts[i] = store.create(FOURTH_TEST_SOUP, new JSONObject().put("ownerId", "o" + (i % 2)).put("lastModified", 100 - i));
+		}
+
+		// Exact query ordered by second path: index used for filtering and ordering
+		QuerySpec querySpec = QuerySpec.buildExactQuerySpec(FOURTH_TEST_SOUP, "ownerId", "o0", "lastModified", QuerySpec.Order.ascending, 10);
+		JSONTestHelper.assertSameJSONArray("Wrong results", new JSONArray(Arrays.asList(soupElts[4], soupElts[2], soupElts[0])), store.query(querySpec, 0));
+		checkExplainQueryPlan(FOURTH_TEST_SOUP, 1, false, "SEARCH");
+		Assert.assertEquals("Should not need to sort", 1, store.getLastExplainQueryPlan().getJSONArray(DBHelper.EXPLAIN_ROWS).length());
+
+		// Smart query filtering on both paths
+		QuerySpec smartQuerySpec = QuerySpec.buildSmartQuerySpec("SELECT {fourth_test_soup:lastModified} FROM {fourth_test_soup} WHERE {fourth_test_soup:ownerId} = 'o1' AND {fourth_test_soup:lastModified} > 95 ORDER BY {fourth_test_soup:lastModified} DESC", 10);
+		runQueryCheckResultsAndExplainPlan(FOURTH_TEST_SOUP, smartQuerySpec, 0, false, null, new JSONArray("[99]"), new JSONArray("[97]"));
+		checkExplainQueryPlan(FOURTH_TEST_SOUP, 1, false, "SEARCH");
+
+		// Compound index kept by alter soup
+		store.alterSoup(FOURTH_TEST_SOUP, new IndexSpec[] {new IndexSpec("ownerId", Type.string), new IndexSpec("name", Type.string), compoundIndexSpec}, true);
+		Assert.assertEquals("Wrong column name", soupTableName + "_0, json_extract(soup, '$.lastModified')", store.getSoupIndexSpecs(FOURTH_TEST_SOUP)[2].columnName);
+		store.query(querySpec, 0);
+		checkExplainQueryPlan(FOURTH_TEST_SOUP, 2, false, "SEARCH");
+	}
+
+	/**
+	 * Test index spec with a predicate (partial index)
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testPartialIndex() throws JSONException {
+		IndexSpec partialIndexSpec = new IndexSpec("__local__", Type.string).withPredicate("= 'true'");
+		registerSoup(store, FOURTH_TEST_SOUP, new IndexSpec[] {new IndexSpec("name", Type.string), partialIndexSpec});
+		String soupTableName = getSoupTableName(FOURTH_TEST_SOUP);
+		checkDatabaseIndexes(soupTableName, Arrays.asList(new String[]{
+				"CREATE INDEX " + soupTableName + "_0_idx on " + soupTableName + " ( " + soupTableName + "_0 )",
+				"CREATE INDEX " + soupTableName + "_1_idx on " + soupTableName + " ( " + soupTableName + "_1 ) WHERE " + soupTableName + "_1 = 'true'",
+				"CREATE INDEX " + soupTableName + "_created_idx on " + soupTableName + " ( created )",
+				"CREATE INDEX " + soupTableName + "_lastModified_idx on " + soupTableName + " ( lastModified )"
+		}));
+
+		// Round trip (from cache and from db)
+		Assert.assertEquals("Wrong predicate", "= 'true'", store.getSoupIndexSpecs(FOURTH_TEST_SOUP)[1].predicate);
+		dbHelper.clearMemoryCache();
+		Assert.assertEquals("Wrong predicate", "= 'true'", store.getSoupIndexSpecs(FOURTH_TEST_SOUP)[1].predicate);
+		Assert.assertNull("Wrong predicate", store.getSoupIndexSpecs(FOURTH_TEST_SOUP)[0].predicate);
+		Assert.assertEquals("Wrong index spec from json", partialIndexSpec, IndexSpec.fromJSON(partialIndexSpec.toJSON()));
+
+		JSONObject dirtyElt = null;
+		for (int i = 0; i < 10; i++) {
+			JSONObject soupElt = store.create(FOURTH_TEST_SOUP, new JSONObject().put("name", "name" + i).put("__local__", i == 7));
+			if (i == 7) {
+				dirtyElt = soupElt;
+			}
+		}
+
+		// Query with the predicate uses the partial index
+		QuerySpec querySpec = QuerySpec.buildSmartQuerySpec("SELECT {fourth_test_soup:_soupEntryId} FROM {fourth_test_soup} WHERE {fourth_test_soup:__local__} = 'true'", 10);
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(dirtyElt)}, store.queryLongColumn(querySpec));
+		checkExplainQueryPlan(FOURTH_TEST_SOUP, 1, true, "SEARCH");
+
+		// Partial index kept by alter soup
+		store.alterSoup(FOURTH_TEST_SOUP, new IndexSpec[] {partialIndexSpec, new IndexSpec("name", Type.string)}, true);
+		Assert.assertEquals("Wrong predicate", "= 'true'", store.getSoupIndexSpecs(FOURTH_TEST_SOUP)[0].predicate);
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(dirtyElt)}, store.queryLongColumn(querySpec));
+		checkExplainQueryPlan(FOURTH_TEST_SOUP, 0, true, "SEARCH");
+	}
+
+	/**
+	 * Test change journal: locally modified soup entries in the order they were modified
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testChangeJournal() throws JSONException {
+		// Soup entry locally modified before the journal is enabled
+		JSONObject elt0 = store.create(TEST_SOUP, new JSONObject().put("key", "k0").put("__local__", true));
+		JSONObject elt1 = store.create(TEST_SOUP, new JSONObject().put("key", "k1").put("__local__", false));
+		Assert.assertFalse("No change journal expected", store.hasChangeJournal(TEST_SOUP));
+		store.enableChangeJournal(TEST_SOUP, "__local__");
+		Assert.assertTrue("Change journal expected", store.hasChangeJournal(TEST_SOUP));
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(elt0)}, store.getChangeJournalSoupEntryIds(TEST_SOUP));
+
+		// Create, update and upsert
+		JSONObject elt2 = store.create(TEST_SOUP, new JSONObject().put("key", "k2").put("__local__", "true"));
+		store.update(TEST_SOUP, elt1.put("__local__", true), idOf(elt1));
+		JSONObject elt3 = store.upsert(TEST_SOUP, new JSONObject().put("key", "k3").put("__local__", true));
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(elt0), idOf(elt2), idOf(elt1), idOf(elt3)}, store.getChangeJournalSoupEntryIds(TEST_SOUP));
+
+		// Modifying again does not change order, saving back as clean or deleting removes from journal
+		store.update(TEST_SOUP, elt0.put("value", "v0"), idOf(elt0));
+		store.update(TEST_SOUP, elt2.put("__local__", false), idOf(elt2));
+		store.delete(TEST_SOUP, idOf(elt3));
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(elt0), idOf(elt1)}, store.getChangeJournalSoupEntryIds(TEST_SOUP));
+
+		// Marking changes done
+		store.markChangesDone(TEST_SOUP, idOf(elt0));
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(elt1)}, store.getChangeJournalSoupEntryIds(TEST_SOUP));
+
+		// Journal read back from db
+		dbHelper.clearMemoryCache();
+		Assert.assertArrayEquals("Wrong ids", new long[] {idOf(elt1)}, store.getChangeJournalSoupEntryIds(TEST_SOUP));
+
+		// Delete by query and clear soup
+		store.deleteByQuery(TEST_SOUP, QuerySpec.buildExactQuerySpec(TEST_SOUP, "key", "k1", "key", Order.ascending, 10));
+		Assert.assertEquals("Journal should be empty", 0, store.getChangeJournalSoupEntryIds(TEST_SOUP).length);
+		store.create(TEST_SOUP, new JSONObject().put("key", "k4").put("__local__", true));
+		store.clearSoup(TEST_SOUP);
+		Assert.assertEquals("Journal should be empty", 0, store.getChangeJournalSoupEntryIds(TEST_SOUP).length);
+
+		// Disabling
+		store.disableChangeJournal(TEST_SOUP);
+		Assert.assertFalse("No change journal expected", store.hasChangeJournal(TEST_SOUP));
+	}
+
+	/**
+	 * Test that updates leaving the content of a soup element unchanged are skipped
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testSkipUnchangedUpdates() throws JSONException {
+		JSONObject soupElt = store.create(TEST_SOUP, new JSONObject().put("key", "ka").put("value", "va"));
+		long lastModified = soupElt.getLong(SmartStore.SOUP_LAST_MODIFIED_DATE);
+		long skippedUpdatesCount = store.getSkippedUpdatesCount();
+		SystemClock.sleep(10); // to get a different last modified date
+
+		// Same content (e.g. record re-synced from server without _soupLastModifiedDate)
+		JSONObject soupEltUnchanged = store.upsert(TEST_SOUP, new JSONObject().put("key", "ka").put("value", "va"), "key");
+		Assert.assertEquals("Update should have been skipped", skippedUpdatesCount + 1, store.getSkippedUpdatesCount());
+		Assert.assertEquals("Wrong last modified date", lastModified, soupEltUnchanged.getLong(SmartStore.SOUP_LAST_MODIFIED_DATE));
+		JSONTestHelper.assertSameJSON("Retrieve mismatch", soupEltUnchanged, store.retrieve(TEST_SOUP, idOf(soupElt)).getJSONObject(0));
+
+		// Different content
+		JSONObject soupEltChanged = store.update(TEST_SOUP, soupEltUnchanged.put("value", "vb"), idOf(soupElt));
+		Assert.assertEquals("Update should not have been skipped", skippedUpdatesCount + 1, store.getSkippedUpdatesCount());
+		Assert.assertTrue("Wrong last modified date", soupEltChanged.getLong(SmartStore.SOUP_LAST_MODIFIED_DATE) > lastModified);
+		JSONTestHelper.assertSameJSON("Retrieve mismatch", soupEltChanged, store.retrieve(TEST_SOUP, idOf(soupElt)).getJSONObject(0));
+		Assert.assertEquals("Wrong index value", 1, store.query(QuerySpec.buildExactQuerySpec(TEST_SOUP, "key", "ka", "key", Order.ascending, 10), 0).length());
+
+		// Different content with same content hash (simulating a hash collision) should not be skipped
+		JSONObject soupEltColliding = new JSONObject(soupEltChanged.toString()).put("value", "vc");
+		long collidingHash = SoupWriter.hash(SoupWriter.getContent(new JSONObject(soupEltColliding.toString())));
+		final SQLiteDatabase db = dbOpenHelper.getWritableDatabase();
+		db.execSQL("UPDATE " + getSoupTableName(TEST_SOUP) + " SET contentHash = ? WHERE id = ?", new Object[] {collidingHash, idOf(soupElt)});
+		store.update(TEST_SOUP, soupEltColliding, idOf(soupElt));
+		Assert.assertEquals("Update should not have been skipped", skippedUpdatesCount + 1, store.getSkippedUpdatesCount());
+		Assert.assertEquals("Update should have been written", "vc", store.retrieve(TEST_SOUP, idOf(soupElt)).getJSONObject(0).getString("value"));
+
+		// Update of missing soup element still fails
+		Assert.assertNull("Update should have failed", store.update(TEST_SOUP, new JSONObject().put("key", "kc"), 1000));
+		Assert.assertEquals("Wrong skipped count", skippedUpdatesCount + 1, store.getSkippedUpdatesCount());
+	}
+
+	/**
+	 * Test lazy parsing: soup elements returned by queryLazy / retrieveLazy are only parsed on first access
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testLazyParsing() throws JSONException {
+		JSONObject soupElt1 = store.create(TEST_SOUP, new JSONObject().put("key", "ka1").put("value", "va1"));
+		JSONObject soupElt2 = store.create(TEST_SOUP, new JSONObject().put("key", "ka2").put("value", "va2"));
+
+		// Exact query
+		JSONArray results = store.queryLazy(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", Order.ascending, 10), 0);
+		LazyJSONObject result1 = (LazyJSONObject) results.getJSONObject(0);
+		LazyJSONObject result2 = (LazyJSONObject) results.getJSONObject(1);
+		Assert.assertFalse("Should not be parsed yet", result1.isParsed());
+		Assert.assertEquals("Wrong value", "va1", result1.getString("value"));
+		Assert.assertTrue("Should be parsed", result1.isParsed());
+		Assert.assertFalse("Should not be parsed yet", result2.isParsed());
+		JSONTestHelper.assertSameJSON("Wrong serialization", soupElt2, new JSONObject(result2.toString()));
+		Assert.assertFalse("Should not be parsed yet", result2.isParsed());
+
+		// Serializing result array parses soup elements it contains
+		JSONTestHelper.assertSameJSONArray("Wrong serialization", new JSONArray().put(soupElt1).put(soupElt2), new JSONArray(results.toString()));
+		Assert.assertTrue("Should be parsed", result2.isParsed());
+
+		// Smart query
+		JSONArray smartResults = store.queryLazy(QuerySpec.buildSmartQuerySpec("SELECT {test_soup:_soup} FROM {test_soup} ORDER BY {test_soup:key}", 10), 0);
+		Assert.assertFalse("Should not be parsed yet", ((LazyJSONObject) smartResults.getJSONArray(0).getJSONObject(0)).isParsed());
+		JSONTestHelper.assertSameJSONArray("Wrong serialization", new JSONArray().put(new JSONArray().put(soupElt1)).put(new JSONArray().put(soupElt2)), new JSONArray(smartResults.toString()));
+
+		// Retrieve
+		JSONObject retrieved = store.retrieveLazy(TEST_SOUP, idOf(soupElt1)).getJSONObject(0);
+		Assert.assertFalse("Should not be parsed yet", ((LazyJSONObject) retrieved).isParsed());
+		JSONTestHelper.assertSameJSON("Retrieve mismatch", soupElt1, retrieved);
+
+		// Laziness is per call - other calls on the same store are not affected
+		Assert.assertFalse("Should not be lazy", store.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", Order.ascending, 10), 0).getJSONObject(0) instanceof LazyJSONObject);
+		Assert.assertFalse("Should not be lazy", store.retrieve(TEST_SOUP, idOf(soupElt1)).getJSONObject(0) instanceof LazyJSONObject);
+	}
+
+	/**
+	 * Test nesting lazy results in a plain JSONObject and serializing it
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testLazyParsingNested() throws JSONException {
+		JSONObject soupElt1 = store.create(TEST_SOUP, new JSONObject().put("key", "ka1").put("value", "va1"));
+		JSONObject soupElt2 = store.create(TEST_SOUP, new JSONObject().put("key", "ka2").put("value", "va2"));
+		JSONArray expected = new JSONArray().put(soupElt1).put(soupElt2);
+		QuerySpec querySpec = QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", Order.ascending, 10);
+
+		// Lazy results parsed before nesting
+		JSONArray lazyResults = store.queryLazy(querySpec, 0);
+		LazyJSONObject.parseAll(lazyResults);
+		JSONObject wrapper = new JSONObject().put("entries", lazyResults).put("first", lazyResults.getJSONObject(0));
+		JSONObject serialized = new JSONObject(wrapper.toString());
+		JSONTestHelper.assertSameJSONArray("Wrong serialization", expected, serialized.getJSONArray("entries"));
+		JSONTestHelper.assertSameJSON("Wrong serialization", soupElt1, serialized.getJSONObject("first"));
+
+		// Regular results nested after lazy ones were returned for the same store
+		JSONObject plainWrapper = new JSONObject().put("entries", store.query(querySpec, 0));
+		JSONTestHelper.assertSameJSONArray("Wrong serialization", expected, new JSONObject(plainWrapper.toString()).getJSONArray("entries"));
+	}
+
+	/**
+	 * Test queryColumnar: one typed array per selected column
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testQueryColumnar() throws JSONException {
+		JSONObject soupElt1 = store.create(TEST_SOUP, new JSONObject().put("key", "ka1").put("count", 1).put("ratio", 0.5));
+		JSONObject soupElt2 = store.create(TEST_SOUP, new JSONObject().put("key", "ka2").put("ratio", 2));
+		store.create(TEST_SOUP, new JSONObject().put("key", "ka3").put("count", 3).put("ratio", 1.5));
+
+		// Smart query - second page
+		ColumnarResult result = store.queryColumnar(QuerySpec.buildSmartQuerySpec(
+				"SELECT {test_soup:key}, {test_soup:count}, {test_soup:ratio}, {test_soup:_soup} FROM {test_soup} ORDER BY {test_soup:key}", 2), 0);
+		Assert.assertEquals("Wrong row count", 2, result.rowCount);
+		Assert.assertEquals("Wrong column count", 4, result.getColumnCount());
+		Assert.assertEquals("Wrong type", ColumnarResult.ColumnType.string, result.getColumnType(0));
+		Assert.assertEquals("Wrong type", ColumnarResult.ColumnType.integer, result.getColumnType(1));
+		Assert.assertEquals("Wrong type", ColumnarResult.ColumnType.floating, result.getColumnType(2));
+		Assert.assertEquals("Wrong type", ColumnarResult.ColumnType.json, result.getColumnType(3));
+		Assert.assertArrayEquals("Wrong values", new String[] {"ka1", "ka2"}, result.getStrings(0));
+		Assert.assertArrayEquals("Wrong values", new long[] {1, 0}, result.getLongs(1));
+		Assert.assertFalse("Should not be null", result.isNull(1, 0));
+		Assert.assertTrue("Should be null", result.isNull(1, 1));
+		Assert.assertArrayEquals("Wrong values", new double[] {0.5, 2}, result.getDoubles(2), 0);
+		JSONTestHelper.assertSameJSON("Wrong soup element", soupElt2, new JSONObject(result.getStrings(3)[1]));
+		try {
+			result.getLongs(0);
+			Assert.fail("Exception expected");
+		} catch (SmartStoreException e) {
+			// expected
+		}
+
+		// Serialized result
+		JSONObject json = result.toJSON();
+		JSONTestHelper.assertSameJSONArray("Wrong types", new JSONArray("['string', 'integer', 'floating', 'json']"), json.getJSONArray(ColumnarResult.TYPES));
+		JSONArray values = json.getJSONArray(ColumnarResult.VALUES);
+		JSONTestHelper.assertSameJSONArray("Wrong values", new JSONArray("[1, null]"), values.getJSONArray(1));
+		JSONTestHelper.assertSameJSON("Wrong soup element", soupElt1, values.getJSONArray(3).getJSONObject(0));
+
+		// Query with select paths - columns are named after the paths
+		result = store.queryColumnar(QuerySpec.buildAllQuerySpec(TEST_SOUP, new String[]{"key", "count"}, "key", Order.descending, 10), 0);
+		Assert.assertArrayEquals("Wrong column names", new String[] {"key", "count"}, result.columnNames);
+		Assert.assertArrayEquals("Wrong values", new String[] {"ka3", "ka2", "ka1"}, result.getStrings(0));
+
+		// Through a store cursor
+		StoreCursor cursor = new StoreCursor(store, QuerySpec.buildAllQuerySpec(TEST_SOUP, new String[]{"key"}, "key", Order.ascending, 2), true);
+		cursor.moveToPageIndex(1);
+		JSONObject page = new JSONObject(cursor.getDataSerialized(store).toString());
+		Assert.assertFalse("Unexpected entries", page.has(StoreCursor.CURRENT_PAGE_ORDERED_ENTRIES));
+		JSONTestHelper.assertSameJSONArray("Wrong values", new JSONArray("[['ka3']]"), page.getJSONObject(StoreCursor.CURRENT_PAGE_COLUMNS).getJSONArray(ColumnarResult.VALUES));
+		JSONTestHelper.assertSameJSON("Wrong page", page, cursor.getDataDeserialized(store));
+	}
+
+	/**
+	 * Test warmUp: table names and index specs of all soups end up in the caches
+	 */
+	@Test
+	public void testWarmUp() throws JSONException {
+		registerSoup(store, THIRD_TEST_SOUP, new IndexSpec[]{new IndexSpec("key", Type.string), new IndexSpec("value", Type.full_text)});
+		dbHelper.clearMemoryCache();
+		Assert.assertNull("Cache should be empty", dbHelper.getCachedTableName(TEST_SOUP));
+		Assert.assertEquals("Wrong number of soups", store.getAllSoupNames().size(), store.warmUp());
+		final SQLiteDatabase db = dbOpenHelper.getWritableDatabase();
+		for (String soupName : new String[] {TEST_SOUP, THIRD_TEST_SOUP}) {
+			Assert.assertEquals("Wrong table name", dbHelper.getSoupTableNameFromDb(db, soupName), dbHelper.getCachedTableName(soupName));
+			Assert.assertNotNull("Index specs should be cached", dbHelper.getCachedIndexSpecs(soupName));
+			JSONTestHelper.assertSameJSONArray("Wrong index specs", IndexSpec.toJSON(dbHelper.getIndexSpecsFromDb(db, soupName)), IndexSpec.toJSON(dbHelper.getCachedIndexSpecs(soupName)));
+		}
+		Assert.assertTrue("Should have fts", dbHelper.getCachedHasFTS(THIRD_TEST_SOUP));
+		store.dropSoup(THIRD_TEST_SOUP);
+	}
+
+	/**
+	 * Test soup change listener: changes are delivered once per transaction, after commit
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSoupChangeListener() throws Exception {
+		final LinkedBlockingQueue<Object[]> changes = new LinkedBlockingQueue<>();
+		SmartStore.SoupChangeListener listener = (soupName, soupEntryIds) -> changes.add(new Object[] {soupName, soupEntryIds});
+		store.registerSoupChangeListener(listener);
+		final SQLiteDatabase db = dbOpenHelper.getWritableDatabase();
+
+		// Creates in a transaction - delivered together after commit
+		long[] ids = new long[3];
+		synchronized (db) {
+			store.beginTransaction();
+			try {
+				for (int i = 0; i < ids.length; i++) {
+					ids[i] = store.create(TEST_SOUP, new JSONObject().put("key", "ka" + i), false).getLong(SmartStore.SOUP_ENTRY_ID);
+				}
+				Assert.assertTrue("Nothing should be delivered before commit", changes.isEmpty());
+				store.setTransactionSuccessful();
+			} finally {
+				store.endTransaction();
+			}
+		}
+		Object[] change = changes.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull("Change should have been delivered", change);
+		Assert.assertEquals("Wrong soup name", TEST_SOUP, change[0]);
+		Assert.assertArrayEquals("Wrong ids", ids, (long[]) change[1]);
+
+		// Rolled back create - not delivered
+		synchronized (db) {
+			store.beginTransaction();
+			try {
+				store.create(TEST_SOUP, new JSONObject().put("key", "kb"), false);
+			} finally {
+				store.endTransaction();
+			}
+		}
+
+		// Update with unchanged content - not delivered
+		store.update(TEST_SOUP, store.retrieve(TEST_SOUP, ids[0]).getJSONObject(0), ids[0]);
+
+		// Delete - delivered
+		store.delete(TEST_SOUP, ids[1]);
+		change = changes.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull("Change should have been delivered", change);
+		Assert.assertArrayEquals("Wrong ids", new long[] {ids[1]}, (long[]) change[1]);
+
+		// Clear - delivered without ids
+		store.clearSoup(TEST_SOUP);
+		change = changes.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull("Change should have been delivered", change);
+		Assert.assertNull("No ids expected", change[1]);
+
+		// Unregistered - not delivered
+		store.unregisterSoupChangeListener(listener);
+		store.create(TEST_SOUP, new JSONObject().put("key", "kc"));
+		Assert.assertNull("No change expected", changes.poll(500, TimeUnit.MILLISECONDS));
+
+		// Database closed - listeners dropped
+		store.registerSoupChangeListener(listener);
+		dbOpenHelper.close();
+		store.create(TEST_SOUP, new JSONObject().put("key", "kd"));
+		Assert.assertNull("No change expected", changes.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Test exportSoup / importSoup
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testExportImportSoup() throws JSONException {
+		int numberEntries = SmartStore.IMPORT_EXPORT_BATCH_SIZE + 10;
+		List<JSONObject> soupElts = new ArrayList<>();
+		for (int i=0; i<numberEntries; i++) {
+			soupElts.add(new JSONObject().put("key", "k" + i).put("value", "line\nbreak " + i));
+		}
+		store.upsertAll(TEST_SOUP, soupElts, "key");
+
+		// Export
+		final List<Integer> progress = new ArrayList<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Assert.assertEquals("Wrong number exported", numberEntries, store.exportSoup(TEST_SOUP, out, (soupName, processed) -> progress.add(processed)));
+		Assert.assertEquals("Wrong progress", Arrays.asList(SmartStore.IMPORT_EXPORT_BATCH_SIZE, numberEntries), progress);
+		String ndjson = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		String[] lines = ndjson.split("\n");
+		Assert.assertEquals("Wrong number of lines", numberEntries, lines.length);
+		JSONTestHelper.assertSameJSON("Wrong soup element", store.retrieve(TEST_SOUP, soupElts.get(0).getLong(SmartStore.SOUP_ENTRY_ID)).getJSONObject(0), new JSONObject(lines[0]));
+
+		// Import into another soup (blank lines ignored)
+		registerSoup(store, THIRD_TEST_SOUP, new IndexSpec[]{new IndexSpec("key", Type.string), new IndexSpec("value", Type.string)});
+		progress.clear();
+		InputStream in = new ByteArrayInputStream(("\n" + ndjson + "\n").getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals("Wrong number imported", numberEntries, store.importSoup(THIRD_TEST_SOUP, in, "key", (soupName, processed) -> progress.add(processed)));
+		Assert.assertEquals("Wrong progress", Arrays.asList(SmartStore.IMPORT_EXPORT_BATCH_SIZE, numberEntries), progress);
+		Assert.assertEquals("Wrong count", numberEntries, store.countQuery(QuerySpec.buildAllQuerySpec(THIRD_TEST_SOUP, "key", Order.ascending, 10)));
+		JSONArray results = store.query(QuerySpec.buildExactQuerySpec(THIRD_TEST_SOUP, "key", "k5", "key", Order.ascending, 10), 0);
+		Assert.assertEquals("Wrong number of results", 1, results.length());
+		Assert.assertEquals("Wrong value", "line\nbreak 5", results.getJSONObject(0).getString("value"));
+
+		// Importing again updates existing soup elements
+		in = new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals("Wrong number imported", numberEntries, store.importSoup(THIRD_TEST_SOUP, in, "key", null));
+		Assert.assertEquals("Wrong count", numberEntries, store.countQuery(QuerySpec.buildAllQuerySpec(THIRD_TEST_SOUP, "key", Order.ascending, 10)));
+
+		// Malformed line
+		try {
+			store.importSoup(THIRD_TEST_SOUP, new ByteArrayInputStream("{\"key\":\"x\"}\nnot json\n".getBytes(StandardCharsets.UTF_8)), "key", null);
+			Assert.fail("Exception expected");
+		} catch (SmartStoreException e) {
+			Assert.assertTrue("Wrong message", e.getMessage().contains("line 2"));
+		}
+		store.dropSoup(THIRD_TEST_SOUP);
+	}
+
+	/**
+	 * Test that string values are properly escaped when query results are serialized
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testQueryAsStringEscaping() throws JSONException {
+		String[] keys = new String[] {"plain", "quote\" back\\slash /slash", "tab\t new\nline\r\f\b", "control\u0001\u001f", "unicode é中"};
+		JSONObject[] soupElts = new JSONObject[keys.length];
+		for (int i=0; i<keys.length; i++) {
+			soupElts[i] = store.create(TEST_SOUP, new JSONObject().put("key", keys[i]));
+		}
+
+		// Smart query returning strings and soup elements
+		StringBuilder sb = new StringBuilder();
+		store.queryAsString(sb, QuerySpec.buildSmartQuerySpec("SELECT {test_soup:key}, {test_soup:_soup} FROM {test_soup} ORDER BY {test_soup:_soupEntryId}", keys.length), 0);
+		JSONArray rows = new JSONArray(sb.toString());
+		Assert.assertEquals("Wrong number of rows", keys.length, rows.length());
+		for (int i=0; i<keys.length; i++) {
+			Assert.assertEquals("Wrong value", keys[i], rows.getJSONArray(i).getString(0));
+			JSONTestHelper.assertSameJSON("Wrong soup element", soupElts[i], rows.getJSONArray(i).getJSONObject(1));
+		}
+
+		// Through a store cursor (pooled buffer reused from one call to the next)
+		StoreCursor cursor = new StoreCursor(store, QuerySpec.buildAllQuerySpec(TEST_SOUP, new String[]{"key"}, "key", Order.ascending, 2));
+		for (int pageIndex=0; pageIndex<3; pageIndex++) {
+			cursor.moveToPageIndex(pageIndex);
+			JSONObject page = new JSONObject(cursor.getDataSerialized(store).toString());
+			JSONTestHelper.assertSameJSON("Wrong page", cursor.getDataDeserialized(store), page);
+		}
+	}
+
+	/**
+	 * Test query profiler: statistics per query shape and explain query plan of slow queries
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testQueryProfiler() throws JSONException {
+		Assert.assertNull("Profiling should be off by default", store.getQueryProfile());
+		for (int i = 0; i < 5; i++) {
+			store.create(TEST_SOUP, new JSONObject().put("key", "k" + (i % 2)).put("value", "v" + i));
+		}
+
+		store.setProfileQueries(true);
+		try {
+			// Every query is slow
+			store.getQueryProfiler().setSlowQueryThresholdMs(0);
+
+			// Query on indexed path - second page
+			QuerySpec exactQuerySpec = QuerySpec.buildExactQuerySpec(TEST_SOUP, "key", "k0", "key", Order.ascending, 2);
+			Assert.assertEquals("Wrong number of results", 1, store.query(exactQuerySpec, 1).length());
+			Assert.assertEquals("Wrong number of results", 1, store.query(exactQuerySpec, 1).length());
+
+			// Query on path that is not indexed
+			QuerySpec smartQuerySpec = QuerySpec.buildSmartQuerySpec("SELECT {test_soup:key} FROM {test_soup} WHERE json_extract({test_soup:_soup}, '$.value') = 'v1'", 10);
+			Assert.assertEquals("Wrong number of results", 1, store.query(smartQuerySpec, 0).length());
+
+			JSONObject profile = store.getQueryProfile();
+			JSONArray shapes = profile.getJSONArray(QueryProfiler.SHAPES);
+			Assert.assertEquals("Wrong number of shapes", 2, shapes.length());
+			JSONObject exactStats = null;
+			for (int i = 0; i < shapes.length(); i++) {
+				if (shapes.getJSONObject(i).getString(QueryProfiler.SHAPE).equals(exactQuerySpec.smartSql)) {
+					exactStats = shapes.getJSONObject(i);
+				}
+			}
+			Assert.assertNotNull("Shape of exact query missing", exactStats);
+			Assert.assertEquals("Wrong count", 2, exactStats.getLong(QueryProfiler.COUNT));
+			Assert.assertEquals("Wrong rows scanned", 6, exactStats.getLong(QueryProfiler.ROWS_SCANNED));
+			Assert.assertEquals("Wrong rows returned", 2, exactStats.getLong(QueryProfiler.ROWS_RETURNED));
+			JSONArray histogram = exactStats.getJSONArray(QueryProfiler.HISTOGRAM);
+			long histogramTotal = 0;
+			for (int i = 0; i < histogram.length(); i++) {
+				histogramTotal += histogram.getLong(i);
+			}
+			Assert.assertEquals("Wrong histogram total", 2, histogramTotal);
+
+			// Explain query plan should show the full scan
+			JSONArray slowQueries = profile.getJSONArray(QueryProfiler.SLOW_QUERIES);
+			Assert.assertEquals("Wrong number of slow queries", 3, slowQueries.length());
+			for (int i = 0; i < slowQueries.length(); i++) {
+				JSONObject slowQuery = slowQueries.getJSONObject(i);
+				Assert.assertTrue("Explain query plan missing", slowQuery.getJSONObject(QueryProfiler.EXPLAIN_QUERY_PLAN).has(DBHelper.EXPLAIN_ROWS));
+				boolean isSmartQuery = slowQuery.getString(QueryProfiler.SHAPE).equals(smartQuerySpec.smartSql);
+				Assert.assertEquals("Wrong full scan flag", isSmartQuery, slowQuery.getBoolean(QueryProfiler.FULL_SCAN));
+			}
+
+			// Reset
+			store.getQueryProfiler().reset();
+			Assert.assertEquals("Wrong number of shapes", 0, store.getQueryProfile().getJSONArray(QueryProfiler.SHAPES).length());
+		} finally {
+			store.setProfileQueries(false);
+		}
+		Assert.assertNull("Profiling should be off", store.getQueryProfile());
+	}
+
+	/**
+	 * Test paging through a store cursor using keyset pagination, with duplicate and null order keys
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testStoreCursorWithKeysetPagination() throws JSONException {
+		tryStoreCursorWithKeysetPagination(Order.ascending);
+		tryStoreCursorWithKeysetPagination(Order.descending);
+	}
+
+	private void tryStoreCursorWithKeysetPagination(Order order) throws JSONException {
+		store.clearSoup(TEST_SOUP);
+		for (String key : new String[] {"kc", null, "ka", "kb", "ka", null, "kc", "kb", "ka"}) {
+			JSONObject soupElt = new JSONObject().put("value", "v");
+			if (key != null) {
+				soupElt.put("key", key);
+			}
+			store.create(TEST_SOUP, soupElt);
+		}
+		JSONArray expected = store.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", order, 100).withKeysetPagination(), 0);
+		Assert.assertEquals("Wrong number of entries", 9, expected.length());
+
+		// Moving forward one page at a time
+		QuerySpec querySpec = QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", order, 2).withKeysetPagination();
+		StoreCursor cursor = new StoreCursor(store, querySpec);
+		JSONArray actual = new JSONArray();
+		for (int pageIndex = 0; pageIndex < 5; pageIndex++) {
+			cursor.moveToPageIndex(pageIndex);
+			JSONArray entries = cursor.getDataDeserialized(store).getJSONArray(StoreCursor.CURRENT_PAGE_ORDERED_ENTRIES);
+			for (int i = 0; i < entries.length(); i++) {
+				actual.put(entries.get(i));
+			}
+		}
+		JSONTestHelper.assertSameJSONArray("Wrong entries when moving forward", expected, actual);
+
+		// Jumping to a page not seen yet then going back
+		cursor = new StoreCursor(store, querySpec);
+		cursor.moveToPageIndex(3);
+		JSONArray page3 = cursor.getDataDeserialized(store).getJSONArray(StoreCursor.CURRENT_PAGE_ORDERED_ENTRIES);
+		JSONTestHelper.assertSameJSONArray("Wrong entries for page 3", new JSONArray().put(expected.get(6)).put(expected.get(7)), page3);
+		cursor.moveToPageIndex(1);
+		JSONArray page1 = new JSONObject(cursor.getDataSerialized(store).toString()).getJSONArray(StoreCursor.CURRENT_PAGE_ORDERED_ENTRIES);
+		JSONTestHelper.assertSameJSONArray("Wrong entries for page 1", new JSONArray().put(expected.get(2)).put(expected.get(3)), page1);
+	}
+
 	/**
 	 * Test query when looking for all elements
 	 *
@@ -1402,7 +2163,7 @@ public class SmartStoreTest extends SmartStoreTestCase {
 
 		// Check columns of soup table
 		String soupTableName = getSoupTableName(OTHER_TEST_SOUP);
-		checkColumns(soupTableName, Arrays.asList(new String[]{"id", "soup", "created", "lastModified", soupTableName + "_2"}));
+		checkColumns(soupTableName, Arrays.asList(new String[]{"id", "soup", "created", "lastModified", "contentHash", soupTableName + "_2"}));
 
 		// Check soup indexes
 		final IndexSpec[] indexSpecs = store.getSoupIndexSpecs(OTHER_TEST_SOUP);
@@ -86,6 +86,9 @@ var QuerySpec = function (path) {
 
     //selectPaths - null means return soup elements
     this.selectPaths = null;
+
+    //true to get each page as one array per selected column (in cursor.currentPageColumns) instead of one entry per row : optional (android only)
+    this.columnar = false;
 };
 
 /**
@@ -104,6 +107,8 @@ var StoreCursor = function () {
     this.currentPageIndex = 0;
     //the list of current page entries, ordered as requested in the querySpec
     this.currentPageOrderedEntries = null;
+    //the current page as {columns, types, rowCount, values} with one array of values per column (when querySpec.columnar is true)
+    this.currentPageColumns = null;
 };
 
 // ====== Logging support ======
@@ -428,6 +433,28 @@ var closeCursor = function (storeConfig, cursor, successCB, errorCB) {
         );
 };
 
+// ====== Soup change notifications ======
+// changeCB is called with {soupName:..., entryIds:[...]} once per soup changed, after the transaction that changed it commits
+// entryIds is null when the whole soup changed (cleared or removed)
+// Only one listener per store: registering again replaces the previous one
+var registerSoupChangeListener = function (storeConfig, changeCB, errorCB) {
+    if (checkFirstArg(arguments)) return;
+    storeConsole.debug("SmartStore.registerSoupChangeListener:isGlobalStore=" + storeConfig.isGlobalStore + ",storeName=" + storeConfig.storeName);
+    exec(SALESFORCE_MOBILE_SDK_VERSION, changeCB, errorCB, SERVICE,
+         "pgRegisterSoupChangeListener",
+         [{"isGlobalStore": storeConfig.isGlobalStore, "storeName": storeConfig.storeName}]
+        );
+};
+
+var unregisterSoupChangeListener = function (storeConfig, successCB, errorCB) {
+    if (checkFirstArg(arguments)) return;
+    storeConsole.debug("SmartStore.unregisterSoupChangeListener:isGlobalStore=" + storeConfig.isGlobalStore + ",storeName=" + storeConfig.storeName);
+    exec(SALESFORCE_MOBILE_SDK_VERSION, successCB, errorCB, SERVICE,
+         "pgUnregisterSoupChangeListener",
+         [{"isGlobalStore": storeConfig.isGlobalStore, "storeName": storeConfig.storeName}]
+        );
+};
+
 /**
  * Part of the module that is public
  */
@@ -450,6 +477,7 @@ module.exports = {
     querySoup: querySoup,
     reIndexSoup: reIndexSoup,
     registerSoup: registerSoup,
+    registerSoupChangeListener: registerSoupChangeListener,
     removeFromSoup: removeFromSoup,
     removeSoup: removeSoup,
     retrieveSoupEntries: retrieveSoupEntries,
@@ -457,6 +485,7 @@ module.exports = {
     setLogLevel: setLogLevel,
     showInspector: showInspector,
     soupExists: soupExists,
+    unregisterSoupChangeListener: unregisterSoupChangeListener,
     upsertSoupEntries: upsertSoupEntries,
     upsertSoupEntriesWithExternalId: upsertSoupEntriesWithExternalId,
     getAllStores: getAllStores,